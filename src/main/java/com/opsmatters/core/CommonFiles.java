@@ -250,4 +250,41 @@ public class CommonFiles
         String lowerFilename = filename.toLowerCase();
         return lowerFilename.endsWith("."+CommonFiles.CSV_EXT);
     }
+
+    /**
+     * Returns <CODE>true</CODE> if the given filename is a gzip, bzip2 or xz compressed file.
+     * @param filename The filename to be checked
+     * @return <CODE>true</CODE> if the given filename is a gzip, bzip2 or xz compressed file
+     */
+    public static boolean isCompressedFile(String filename)
+    {
+        String lowerFilename = filename.toLowerCase();
+        return lowerFilename.endsWith("."+CommonFiles.GZIP_EXT)
+           || lowerFilename.endsWith("."+CommonFiles.BZIP2_EXT)
+           || lowerFilename.endsWith("."+CommonFiles.XZ_EXT);
+    }
+
+    /**
+     * Returns the given filename without the extension of any compression, eg. "data.csv.gz" returns "data.csv".
+     * @param filename The filename to be checked
+     * @return The filename without the extension of any compression
+     */
+    public static String getUncompressedFilename(String filename)
+    {
+        if(isCompressedFile(filename))
+            return filename.substring(0, filename.lastIndexOf('.'));
+        return filename;
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if the given filename is a zip or tar archive, including a compressed tar archive.
+     * @param filename The filename to be checked
+     * @return <CODE>true</CODE> if the given filename is a zip or tar archive
+     */
+    public static boolean isArchiveFile(String filename)
+    {
+        String lowerFilename = getUncompressedFilename(filename).toLowerCase();
+        return lowerFilename.endsWith("."+CommonFiles.ZIP_EXT)
+           || lowerFilename.endsWith("."+CommonFiles.TAR_EXT);
+    }
 }
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2018 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.core.documents;
+
+/**
+ * Represents the interface to process the input files in an archive as they are parsed.
+ * <P>
+ * The entries of an archive may be parsed in parallel, so the methods can be called concurrently
+ * for different entries, but are called on the same thread for any one entry.
+ * 
+ * @author Gerald Curley (opsmatters)
+ */
+public interface ArchiveEntryHandler
+{
+    /**
+     * Called before an entry is parsed, with the reader named after the entry.
+     * <P>
+     * The reader can be configured for the entry, eg. to set the worksheet for an XLS or XLSX file.
+     * @param reader The reader used to parse the entry
+     * @return The handler to be passed the headers and rows of the entry, or <CODE>null</CODE> to skip the entry
+     */
+    public RowHandler start(InputFileReader reader);
+
+    /**
+     * Called after an entry has been parsed, or if it could not be parsed.
+     * @param reader The reader used to parse the entry
+     * @param rows The number of data rows in the entry, or -1 if the entry could not be parsed
+     * @param error The error that stopped the entry being parsed, or <CODE>null</CODE> if it was parsed
+     */
+    public void completed(InputFileReader reader, int rows, Exception error);
+}
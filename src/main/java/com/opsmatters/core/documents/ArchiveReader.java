@@ -0,0 +1,763 @@
+/*
+ * Copyright 2018 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.core.documents;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.FilterInputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.EOFException;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.logging.Logger;
+import com.opsmatters.core.CommonFiles;
+import com.opsmatters.core.util.DaemonThreadFactory;
+
+/**
+ * Reads the CSV, XLS and XLSX input files in a zip or tar archive, without extracting them to disk.
+ * <P>
+ * Each supported entry is parsed by its own {@link InputFileReader}, with the entries parsed in parallel.
+ * When the archive is a file, the entries are read directly from the file by each thread.
+ * When the archive is a stream (or a compressed tar file), the entries have to be read from the stream in order,
+ * so each entry is copied before it is handed to a thread, with only a limited number of entries held at a time.
+ * Small entries are copied into memory and larger entries are copied to a temporary file,
+ * so the memory used does not depend on the size of the entries.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class ArchiveReader
+{
+    private static final Logger logger = Logger.getLogger(ArchiveReader.class.getName());
+
+    private static final int TAR_BLOCK_SIZE = 512;
+
+    /**
+     * The default maximum size of an entry copied into memory.
+     */
+    public static final int DEFAULT_MAX_BUFFERED_SIZE = 8*1024*1024;
+
+    private String name;
+    private File file;
+    private InputStream stream;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private int maxBufferedSize = DEFAULT_MAX_BUFFERED_SIZE;
+
+    /**
+     * Constructor that takes a file.
+     * @param file The archive file
+     */
+    public ArchiveReader(File file)
+    {
+        this.name = file.getName();
+        this.file = file;
+    }
+
+    /**
+     * Constructor that takes a name and a stream.
+     * @param name The name of the archive, used to give its format
+     * @param stream The stream with the archive
+     */
+    public ArchiveReader(String name, InputStream stream)
+    {
+        this.name = name;
+        this.stream = stream;
+    }
+
+    /**
+     * Returns the name of the archive.
+     * @return The name of the archive
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Sets the number of entries parsed in parallel.
+     * @param parallelism The number of entries parsed in parallel
+     */
+    public void setParallelism(int parallelism)
+    {
+        if(parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Returns the number of entries parsed in parallel.
+     * @return The number of entries parsed in parallel
+     */
+    public int getParallelism()
+    {
+        return parallelism;
+    }
+
+    /**
+     * Sets the maximum size of an entry copied into memory when the archive is read as a stream.
+     * <P>
+     * Larger entries are copied to a temporary file that is deleted once the entry has been parsed.
+     * @param maxBufferedSize The maximum size of an entry copied into memory
+     */
+    public void setMaxBufferedSize(int maxBufferedSize)
+    {
+        if(maxBufferedSize < 0)
+            throw new IllegalArgumentException("max buffered size cannot be negative");
+        this.maxBufferedSize = maxBufferedSize;
+    }
+
+    /**
+     * Returns the maximum size of an entry copied into memory when the archive is read as a stream.
+     * @return The maximum size of an entry copied into memory
+     */
+    public int getMaxBufferedSize()
+    {
+        return maxBufferedSize;
+    }
+
+    /**
+     * Parses each CSV, XLS and XLSX entry in the archive, passing the rows to the handler for the entry.
+     * <P>
+     * An error parsing an entry is passed to {@link ArchiveEntryHandler#completed(InputFileReader, int, Exception)}
+     * and does not stop the other entries being parsed.
+     * @param handler The handler for the entries
+     * @return The number of entries parsed
+     * @throws IOException if the archive cannot be read
+     */
+    public int read(ArchiveEntryHandler handler) throws IOException
+    {
+        if(handler == null)
+            throw new IllegalArgumentException("null handler");
+        if(!CommonFiles.isArchiveFile(name))
+            throw new IllegalArgumentException("Unsupported archive: "+name);
+
+        boolean zip = CommonFiles.getUncompressedFilename(name).toLowerCase().endsWith("."+CommonFiles.ZIP_EXT);
+        boolean compressed = CommonFiles.isCompressedFile(name);
+
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, new DaemonThreadFactory("ArchiveReader-"+name));
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        List<File> spilled = new ArrayList<File>();
+        try
+        {
+            if(file != null && !compressed)
+            {
+                if(zip)
+                    readZipFile(handler, executor, futures);
+                else
+                    readTarFile(handler, executor, futures);
+            }
+            else
+            {
+                InputStream is = stream != null ? stream : new FileInputStream(file);
+                try
+                {
+                    is = Decompressor.getInputStream(name, is);
+                    Semaphore permits = new Semaphore(parallelism);
+                    if(zip)
+                        readZipStream(is, handler, executor, futures, permits, spilled);
+                    else
+                        readTarStream(is, handler, executor, futures, permits, spilled);
+                }
+                finally
+                {
+                    if(stream == null || is != stream)
+                        is.close();
+                }
+            }
+
+            // Wait for all the entries to be parsed
+            for(Future<?> future : futures)
+                future.get();
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted reading archive: "+name);
+        }
+        catch(ExecutionException e)
+        {
+            throw new IllegalStateException(e.getCause());
+        }
+        finally
+        {
+            executor.shutdownNow();
+
+            // Remove the copies of any entries that were not parsed
+            for(File spill : spilled)
+                spill.delete();
+        }
+
+        logger.fine("ArchiveReader.read: archive="+name+" entries="+futures.size());
+        return futures.size();
+    }
+
+    /**
+     * Submits a task for each supported entry in a zip file, with each task reading its entry from the file.
+     */
+    private void readZipFile(ArchiveEntryHandler handler, ExecutorService executor, List<Future<?>> futures)
+        throws IOException, InterruptedException, ExecutionException
+    {
+        final ZipFile zip = new ZipFile(file);
+        try
+        {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while(entries.hasMoreElements())
+            {
+                final ZipEntry entry = entries.nextElement();
+                if(!entry.isDirectory() && isSupported(entry.getName()))
+                {
+                    futures.add(executor.submit(new EntryTask(entry.getName(), handler, null)
+                    {
+                        @Override
+                        InputStream open() throws IOException
+                        {
+                            return zip.getInputStream(entry);
+                        }
+                    }));
+                }
+            }
+
+            // The tasks must finish before the file is closed
+            for(Future<?> future : futures)
+                future.get();
+        }
+        finally
+        {
+            zip.close();
+        }
+    }
+
+    /**
+     * Submits a task for each supported entry in a tar file, with each task reading its entry from the file.
+     */
+    private void readTarFile(ArchiveEntryHandler handler, ExecutorService executor, List<Future<?>> futures)
+        throws IOException
+    {
+        InputStream is = new FileInputStream(file);
+        try
+        {
+            TarEntry entry;
+            long offset = 0L;
+            while((entry = getNextTarEntry(is)) != null)
+            {
+                offset += entry.headerSize;
+                if(isSupported(entry.name))
+                {
+                    final long start = offset;
+                    final long size = entry.size;
+                    futures.add(executor.submit(new EntryTask(entry.name, handler, null)
+                    {
+                        @Override
+                        InputStream open() throws IOException
+                        {
+                            InputStream ret = new FileInputStream(file);
+                            skipFully(ret, start);
+                            return new EntryInputStream(ret, size, true);
+                        }
+                    }));
+                }
+
+                long padded = getPaddedSize(entry.size);
+                skipFully(is, padded);
+                offset += padded;
+            }
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+
+    /**
+     * Copies each supported entry from a zip stream and submits a task to parse it.
+     */
+    private void readZipStream(InputStream is, ArchiveEntryHandler handler, ExecutorService executor,
+        List<Future<?>> futures, Semaphore permits, List<File> spilled) throws IOException, InterruptedException
+    {
+        ZipInputStream zis = new ZipInputStream(is);
+        ZipEntry entry;
+        while((entry = zis.getNextEntry()) != null)
+        {
+            if(!entry.isDirectory() && isSupported(entry.getName()))
+                submit(entry.getName(), new EntryInputStream(zis, -1L, false), handler, executor, futures, permits, spilled);
+        }
+    }
+
+    /**
+     * Copies each supported entry from a tar stream and submits a task to parse it.
+     */
+    private void readTarStream(InputStream is, ArchiveEntryHandler handler, ExecutorService executor,
+        List<Future<?>> futures, Semaphore permits, List<File> spilled) throws IOException, InterruptedException
+    {
+        TarEntry entry;
+        while((entry = getNextTarEntry(is)) != null)
+        {
+            if(isSupported(entry.name))
+            {
+                submit(entry.name, new EntryInputStream(is, entry.size, false), handler, executor, futures, permits, spilled);
+                skipFully(is, getPaddedSize(entry.size)-entry.size);
+            }
+            else
+            {
+                skipFully(is, getPaddedSize(entry.size));
+            }
+        }
+    }
+
+    /**
+     * Copies the contents of an entry and submits a task to parse it.
+     * <P>
+     * Waits first for a permit, so that only a limited number of entries are held at a time.
+     * The entry is copied into memory, unless it is larger than the maximum buffered size,
+     * in which case it is copied to a temporary file.
+     */
+    private void submit(String entryName, InputStream is, ArchiveEntryHandler handler, ExecutorService executor,
+        List<Future<?>> futures, final Semaphore permits, List<File> spilled) throws IOException, InterruptedException
+    {
+        permits.acquire();
+        EntryTask task = null;
+        try
+        {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            if(copy(is, buffer, maxBufferedSize))
+            {
+                final byte[] contents = buffer.toByteArray();
+                task = new EntryTask(entryName, handler, permits)
+                {
+                    @Override
+                    InputStream open() throws IOException
+                    {
+                        return new ByteArrayInputStream(contents);
+                    }
+                };
+            }
+            else
+            {
+                final File spill = File.createTempFile("archive-", ".tmp");
+                spilled.add(spill);
+                OutputStream os = new BufferedOutputStream(new FileOutputStream(spill));
+                try
+                {
+                    buffer.writeTo(os);
+                    buffer = null;
+                    copy(is, os, -1L);
+                }
+                finally
+                {
+                    os.close();
+                }
+
+                task = new EntryTask(entryName, handler, permits)
+                {
+                    @Override
+                    InputStream open() throws IOException
+                    {
+                        return new FileInputStream(spill);
+                    }
+
+                    @Override
+                    void closed()
+                    {
+                        spill.delete();
+                    }
+                };
+            }
+        }
+        catch(IOException e)
+        {
+            permits.release();
+            throw e;
+        }
+
+        futures.add(executor.submit(task));
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if the given entry is an input file that can be parsed.
+     */
+    private static boolean isSupported(String entryName)
+    {
+        String filename = CommonFiles.getUncompressedFilename(entryName);
+        return CommonFiles.isCsvFile(filename) || CommonFiles.isExcelFile(filename);
+    }
+
+    /**
+     * Reads the next file entry from a tar stream, skipping any directories, links or extended headers.
+     * <P>
+     * Long names in GNU and pax extended headers are used for the following entry.
+     * @return The next file entry, or <CODE>null</CODE> at the end of the archive
+     */
+    private static TarEntry getNextTarEntry(InputStream is) throws IOException
+    {
+        byte[] header = new byte[TAR_BLOCK_SIZE];
+        String longName = null;
+        long headerSize = 0L;
+        while(true)
+        {
+            if(!readBlock(is, header) || isZeroBlock(header))
+                return null;
+            headerSize += TAR_BLOCK_SIZE;
+
+            long size = getTarSize(header);
+            char type = (char)header[156];
+            if(type == 'L' || type == 'x') // GNU long name or pax extended header
+            {
+                byte[] data = new byte[(int)size];
+                readFully(is, data);
+                skipFully(is, getPaddedSize(size)-size);
+                headerSize += getPaddedSize(size);
+                String value = type == 'L' ? getString(data, 0, data.length) : getPaxPath(data);
+                if(value != null)
+                    longName = value;
+            }
+            else if(type == '0' || type == '\0' || type == '7') // regular file
+            {
+                TarEntry ret = new TarEntry();
+                ret.name = longName;
+                if(ret.name == null)
+                {
+                    ret.name = getString(header, 0, 100);
+                    String prefix = getString(header, 345, 155);
+                    if(prefix.length() > 0 && header[257] == 'u') // ustar
+                        ret.name = prefix+"/"+ret.name;
+                }
+                ret.size = size;
+                ret.headerSize = headerSize;
+                return ret;
+            }
+            else
+            {
+                skipFully(is, getPaddedSize(size));
+                headerSize += getPaddedSize(size);
+                longName = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the size of the tar entry, in either octal or base-256.
+     */
+    private static long getTarSize(byte[] header)
+    {
+        long ret = 0L;
+        if((header[124] & 0x80) != 0) // base-256 for large sizes
+        {
+            for(int i = 125; i < 136; i++)
+                ret = (ret << 8) | (header[i] & 0xFF);
+        }
+        else
+        {
+            for(int i = 124; i < 136; i++)
+            {
+                byte b = header[i];
+                if(b >= '0' && b <= '7')
+                    ret = (ret << 3) | (b-'0');
+                else if(b == 0 || (b == ' ' && ret > 0))
+                    break;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the path from a pax extended header, or <CODE>null</CODE> if there is no path.
+     */
+    private static String getPaxPath(byte[] data) throws IOException
+    {
+        // Each record has the format "<length> <key>=<value>\n", where the length is in bytes
+        int pos = 0;
+        while(pos < data.length)
+        {
+            int space = pos;
+            while(space < data.length && data[space] != ' ')
+                ++space;
+            if(space >= data.length)
+                break;
+
+            int len = Integer.parseInt(new String(data, pos, space-pos, "US-ASCII"));
+            if(len <= 0)
+                break;
+
+            String record = new String(data, space+1, Math.min(pos+len, data.length)-space-1, "UTF-8");
+            if(record.endsWith("\n"))
+                record = record.substring(0, record.length()-1);
+            if(record.startsWith("path="))
+                return record.substring(5);
+            pos += len;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the null-terminated string at the given offset.
+     */
+    private static String getString(byte[] b, int offset, int length) throws IOException
+    {
+        int end = offset;
+        while(end < offset+length && b[end] != 0)
+            ++end;
+        return new String(b, offset, end-offset, "UTF-8");
+    }
+
+    /**
+     * Returns the size of the given data padded to a whole number of tar blocks.
+     */
+    private static long getPaddedSize(long size)
+    {
+        return ((size+TAR_BLOCK_SIZE-1)/TAR_BLOCK_SIZE)*TAR_BLOCK_SIZE;
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if the given block contains only zeros.
+     */
+    private static boolean isZeroBlock(byte[] block)
+    {
+        for(byte b : block)
+        {
+            if(b != 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads a whole block, returning <CODE>false</CODE> at the end of the stream.
+     */
+    private static boolean readBlock(InputStream is, byte[] block) throws IOException
+    {
+        int len = 0;
+        int n;
+        while(len < block.length && (n = is.read(block, len, block.length-len)) > 0)
+            len += n;
+        if(len > 0 && len < block.length)
+            throw new EOFException("truncated tar header");
+        return len == block.length;
+    }
+
+    /**
+     * Reads the given buffer from the stream.
+     */
+    private static void readFully(InputStream is, byte[] b) throws IOException
+    {
+        int len = 0;
+        while(len < b.length)
+        {
+            int n = is.read(b, len, b.length-len);
+            if(n < 0)
+                throw new EOFException("truncated archive entry");
+            len += n;
+        }
+    }
+
+    /**
+     * Copies the rest of the given stream, stopping once more than the given number of bytes have been copied.
+     * @return <CODE>true</CODE> if the whole stream was copied
+     */
+    private static boolean copy(InputStream is, OutputStream os, long limit) throws IOException
+    {
+        byte[] buffer = new byte[8192];
+        long total = 0L;
+        int n;
+        while((n = is.read(buffer)) > 0)
+        {
+            os.write(buffer, 0, n);
+            total += n;
+            if(limit >= 0L && total > limit)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Skips the given number of bytes in the stream.
+     */
+    private static void skipFully(InputStream is, long n) throws IOException
+    {
+        while(n > 0)
+        {
+            long skipped = is.skip(n);
+            if(skipped <= 0)
+            {
+                if(is.read() < 0)
+                    throw new EOFException("truncated archive");
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+    }
+
+    /**
+     * Represents a file entry in a tar archive.
+     */
+    private static class TarEntry
+    {
+        String name;
+        long size;
+        long headerSize;
+    }
+
+    /**
+     * Stream that reads a single entry from an archive stream.
+     * <P>
+     * Reads no more than the size of the entry, and only closes the archive stream if it owns it.
+     */
+    private static class EntryInputStream extends FilterInputStream
+    {
+        private long remaining;
+        private boolean owner;
+
+        /**
+         * Constructor that takes the archive stream and the size of the entry.
+         */
+        EntryInputStream(InputStream in, long size, boolean owner)
+        {
+            super(in);
+            this.remaining = size;
+            this.owner = owner;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            if(remaining == 0L)
+                return -1;
+            int ret = in.read();
+            if(ret >= 0 && remaining > 0L)
+                --remaining;
+            return ret;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            if(remaining == 0L)
+                return -1;
+            if(remaining > 0L)
+                len = (int)Math.min(len, remaining);
+            int ret = in.read(b, off, len);
+            if(ret > 0 && remaining > 0L)
+                remaining -= ret;
+            return ret;
+        }
+
+        @Override
+        public long skip(long n) throws IOException
+        {
+            if(remaining >= 0L)
+                n = Math.min(n, remaining);
+            long ret = in.skip(n);
+            if(remaining > 0L)
+                remaining -= ret;
+            return ret;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            if(owner)
+                in.close();
+        }
+    }
+
+    /**
+     * Task that parses a single entry of the archive.
+     */
+    private abstract static class EntryTask implements Runnable
+    {
+        private String entryName;
+        private ArchiveEntryHandler handler;
+        private Semaphore permits;
+
+        /**
+         * Constructor that takes the name of the entry, the handler and the permit to release when done.
+         */
+        EntryTask(String entryName, ArchiveEntryHandler handler, Semaphore permits)
+        {
+            this.entryName = entryName;
+            this.handler = handler;
+            this.permits = permits;
+        }
+
+        /**
+         * Returns the stream with the contents of the entry.
+         */
+        abstract InputStream open() throws IOException;
+
+        /**
+         * Called once the entry has been parsed, to release the contents of the entry.
+         */
+        void closed()
+        {
+        }
+
+        /**
+         * Parses the entry, passing the rows to the handler.
+         */
+        @Override
+        public void run()
+        {
+            InputFileReader reader = new InputFileReader(entryName);
+            try
+            {
+                RowHandler rows = handler.start(reader);
+                if(rows != null)
+                {
+                    int count = -1;
+                    Exception error = null;
+                    InputStream is = open();
+                    try
+                    {
+                        count = reader.parse(is, rows);
+                    }
+                    catch(Exception e)
+                    {
+                        error = e;
+                    }
+                    finally
+                    {
+                        is.close();
+                    }
+                    handler.completed(reader, count, error);
+                }
+            }
+            catch(IOException e)
+            {
+                handler.completed(reader, -1, e);
+            }
+            finally
+            {
+                closed();
+                if(permits != null)
+                    permits.release();
+            }
+        }
+    }
+}
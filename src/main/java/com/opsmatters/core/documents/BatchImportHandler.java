@@ -0,0 +1,44 @@
+/*
+ * Copyright 2018 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opsmatters.core.documents;
+
+/**
+ * Represents the interface to process the input files of a batch import as they are parsed.
+ * <P>
+ * The files are parsed concurrently, so the methods can be called concurrently
+ * for different files, but are called on the same thread for any one file.
+ * 
+ * @author Gerald Curley (opsmatters)
+ */
+public interface BatchImportHandler
+{
+    /**
+     * Called before a file is parsed, with the reader for the file.
+     * @param reader The reader used to parse the file
+     * @param progress The progress of the file
+     * @return The handler to be passed the headers and rows of the file, or <CODE>null</CODE> to skip the file
+     */
+    public RowHandler start(InputFileReader reader, ImportProgress progress);
+
+    /**
+     * Called after a file has been parsed, or if it could not be parsed.
+     * @param reader The reader used to parse the file
+     * @param progress The final progress of the file, including any error that stopped it being parsed
+     */
+    public void completed(InputFileReader reader, ImportProgress progress);
+}
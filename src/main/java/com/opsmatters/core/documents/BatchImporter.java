@@ -0,0 +1,314 @@
+/*
+ * Copyright 2018 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opsmatters.core.documents;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.FilterInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import com.opsmatters.core.CommonFiles;
+import com.opsmatters.core.util.DaemonThreadFactory;
+
+/**
+ * Imports a batch of CSV, XLS and XLSX input files, parsing the files concurrently.
+ * <P>
+ * Each file is parsed by its own {@link InputFileReader} on one of a fixed number of workers,
+ * so a large file only ever holds up a single worker while the other files continue to be parsed.
+ * The rows of each file are passed to the handler returned for the file by the {@link BatchImportHandler},
+ * and the progress of each file is kept up to date as it is parsed.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class BatchImporter
+{
+    private static final Logger logger = Logger.getLogger(BatchImporter.class.getName());
+
+    private int workers = Runtime.getRuntime().availableProcessors();
+    private List<InputFileReader> readers = new ArrayList<InputFileReader>();
+    private List<ImportProgress> progress = new ArrayList<ImportProgress>();
+
+    /**
+     * Adds the given file to the batch.
+     * @param file The input file
+     * @return The progress of the file
+     */
+    public ImportProgress add(File file)
+    {
+        return add(InputFileReader.builder().name(file.getName()).withFile(file).build());
+    }
+
+    /**
+     * Adds the given stream to the batch.
+     * @param name The name of the input file, used to give its format
+     * @param stream The stream with the input file
+     * @return The progress of the file
+     */
+    public ImportProgress add(String name, InputStream stream)
+    {
+        return add(InputFileReader.builder().name(name).withInputStream(stream).build());
+    }
+
+    /**
+     * Adds the given reader to the batch.
+     * <P>
+     * The reader should already be configured for the file, eg. with the worksheet for an XLS or XLSX file.
+     * @param reader The reader for the input file
+     * @return The progress of the file
+     */
+    public synchronized ImportProgress add(InputFileReader reader)
+    {
+        if(reader == null)
+            throw new IllegalArgumentException("null reader");
+        if(reader.getFile() == null && reader.getInputStream() == null)
+            throw new IllegalArgumentException("reader has no file or input stream: "+reader.getName());
+
+        File file = reader.getFile();
+        ImportProgress ret = new ImportProgress(reader.getName(),
+            reader.getInputStream() == null ? file.length() : -1L);
+        readers.add(reader);
+        progress.add(ret);
+        return ret;
+    }
+
+    /**
+     * Sets the number of files parsed concurrently.
+     * @param workers The number of files parsed concurrently
+     */
+    public void setWorkers(int workers)
+    {
+        if(workers < 1)
+            throw new IllegalArgumentException("workers must be at least 1");
+        this.workers = workers;
+    }
+
+    /**
+     * Returns the number of files parsed concurrently.
+     * @return The number of files parsed concurrently
+     */
+    public int getWorkers()
+    {
+        return workers;
+    }
+
+    /**
+     * Returns the progress of the files in the batch, in the order they were added.
+     * @return The progress of the files in the batch
+     */
+    public synchronized List<ImportProgress> getProgress()
+    {
+        return Collections.unmodifiableList(new ArrayList<ImportProgress>(progress));
+    }
+
+    /**
+     * Parses each file in the batch, passing the rows to the handler for the file.
+     * <P>
+     * The files are started in the order they were added.
+     * An error parsing a file is recorded in its progress and does not stop the other files being parsed.
+     * Returns once all the files have been parsed.
+     * @param handler The handler for the files
+     * @return The number of files parsed without an error
+     * @throws IOException if the import was interrupted
+     */
+    public int run(BatchImportHandler handler) throws IOException
+    {
+        if(handler == null)
+            throw new IllegalArgumentException("null handler");
+
+        List<InputFileReader> batch = null;
+        List<ImportProgress> batchProgress = null;
+        synchronized(this)
+        {
+            batch = new ArrayList<InputFileReader>(readers);
+            batchProgress = new ArrayList<ImportProgress>(progress);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(workers, batch.size())),
+            new DaemonThreadFactory("BatchImporter"));
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        try
+        {
+            for(int i = 0; i < batch.size(); i++)
+                futures.add(executor.submit(new ImportTask(batch.get(i), batchProgress.get(i), handler)));
+
+            for(Future<?> future : futures)
+                future.get();
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted importing files");
+        }
+        catch(ExecutionException e)
+        {
+            throw new IllegalStateException(e.getCause());
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+
+        int ret = 0;
+        for(ImportProgress p : batchProgress)
+        {
+            if(p.isCompleted() && p.getError() == null)
+                ++ret;
+        }
+
+        logger.fine("BatchImporter.run: files="+batch.size()+" imported="+ret);
+        return ret;
+    }
+
+    /**
+     * Task that parses a single file, updating its progress.
+     */
+    private static class ImportTask implements Runnable
+    {
+        private InputFileReader reader;
+        private ImportProgress progress;
+        private BatchImportHandler handler;
+
+        /**
+         * Constructor that takes the reader, progress and handler for the file.
+         */
+        ImportTask(InputFileReader reader, ImportProgress progress, BatchImportHandler handler)
+        {
+            this.reader = reader;
+            this.progress = progress;
+            this.handler = handler;
+        }
+
+        /**
+         * Parses the file, passing the rows to the handler.
+         */
+        @Override
+        public void run()
+        {
+            Exception error = null;
+            try
+            {
+                final RowHandler rows = handler.start(reader, progress);
+                if(rows == null)
+                    return;
+
+                progress.started();
+                RowHandler counter = new RowHandler()
+                {
+                    @Override
+                    public void headers(String[] headers)
+                    {
+                        rows.headers(headers);
+                    }
+
+                    @Override
+                    public void row(int index, String[] row)
+                    {
+                        rows.row(index, row);
+                        progress.addRow();
+                    }
+                };
+
+                // A spreadsheet file is read in place, so its bytes are only counted at the end
+                String filename = CommonFiles.getUncompressedFilename(reader.getName());
+                if(reader.getInputStream() == null && CommonFiles.isExcelFile(filename))
+                {
+                    reader.parse(counter);
+                    progress.addBytes(progress.getSize());
+                }
+                else
+                {
+                    InputStream is = reader.getInputStream();
+                    is = new CountingInputStream(is != null ? is : new FileInputStream(reader.getFile()), progress);
+                    try
+                    {
+                        reader.parse(is, counter);
+                    }
+                    finally
+                    {
+                        is.close();
+                    }
+                }
+            }
+            catch(Exception e)
+            {
+                error = e;
+                logger.warning("Unable to import file "+reader.getName()+": "+e);
+            }
+
+            progress.completed(error);
+            handler.completed(reader, progress);
+        }
+    }
+
+    /**
+     * Stream that adds the bytes read to the progress of a file.
+     */
+    private static class CountingInputStream extends FilterInputStream
+    {
+        private ImportProgress progress;
+
+        /**
+         * Constructor that takes a stream and the progress of the file.
+         */
+        CountingInputStream(InputStream in, ImportProgress progress)
+        {
+            super(in);
+            this.progress = progress;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            int ret = super.read();
+            if(ret != -1)
+                progress.addBytes(1L);
+            return ret;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            int ret = super.read(b, off, len);
+            if(ret > 0)
+                progress.addBytes(ret);
+            return ret;
+        }
+
+        @Override
+        public long skip(long n) throws IOException
+        {
+            long ret = super.skip(n);
+            progress.addBytes(ret);
+            return ret;
+        }
+
+        @Override
+        public boolean markSupported()
+        {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2018 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.core.documents;
+
+import java.io.InputStream;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.EOFException;
+
+/**
+ * Reads the records of the workbook stream in an Excel XLS file one at a time.
+ * <P>
+ * The data of each record is read into a buffer that is reused for the next record.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+class BiffReader
+{
+    static final int BOF = 0x0809;
+    static final int EOF = 0x000A;
+    static final int BOUNDSHEET = 0x0085;
+    static final int DIMENSIONS = 0x0200;
+    static final int SST = 0x00FC;
+    static final int CONTINUE = 0x003C;
+    static final int FORMAT = 0x041E;
+    static final int XF = 0x00E0;
+    static final int DATEMODE = 0x0022;
+    static final int LABELSST = 0x00FD;
+    static final int LABEL = 0x0204;
+    static final int NUMBER = 0x0203;
+    static final int RK = 0x027E;
+    static final int MULRK = 0x00BD;
+    static final int FORMULA = 0x0006;
+    static final int STRING = 0x0207;
+    static final int BOOLERR = 0x0205;
+
+    static final int BIFF8 = 0x0600;
+
+    private static final int MAX_RECORD = 8224;
+
+    /**
+     * Constructor that takes the workbook stream.
+     * @param stream The workbook stream
+     */
+    BiffReader(InputStream stream)
+    {
+        this.stream = new BufferedInputStream(stream);
+    }
+
+    /**
+     * Reads the next record.
+     * @return The type of the record, or -1 at the end of the stream
+     * @throws IOException if the stream cannot be read
+     */
+    int next() throws IOException
+    {
+        int b = stream.read();
+        if(b < 0)
+            return -1;
+        readFully(header, 1, 3);
+        header[0] = (byte)b;
+
+        sid = CompoundFile.getShort(header, 0);
+        length = CompoundFile.getShort(header, 2);
+        if(length > MAX_RECORD)
+            throw new IOException("Invalid record length: sid="+sid+" length="+length);
+        readFully(data, 0, length);
+        position += 4+length;
+        return sid;
+    }
+
+    /**
+     * Skips to the given offset in the stream.
+     * <P>
+     * The offset must not be before the end of the current record.
+     * @param offset The offset in the stream
+     * @throws IOException if the stream cannot be read
+     */
+    void seek(long offset) throws IOException
+    {
+        if(offset < position)
+            throw new IllegalArgumentException("cannot seek backwards to offset: "+offset);
+        while(position < offset)
+        {
+            long n = stream.skip(offset-position);
+            if(n <= 0)
+                throw new EOFException("offset: "+offset);
+            position += n;
+        }
+    }
+
+    /**
+     * Returns the offset in the stream after the end of the current record.
+     * @return The offset in the stream after the end of the current record
+     */
+    long getPosition()
+    {
+        return position;
+    }
+
+    /**
+     * Returns the type of the current record.
+     * @return The type of the current record
+     */
+    int getSid()
+    {
+        return sid;
+    }
+
+    /**
+     * Returns the length of the data in the current record.
+     * @return The length of the data in the current record
+     */
+    int getLength()
+    {
+        return length;
+    }
+
+    /**
+     * Returns the data of the current record.
+     * <P>
+     * The buffer is reused for the next record.
+     * @return The data of the current record
+     */
+    byte[] getData()
+    {
+        return data;
+    }
+
+    /**
+     * Returns the unsigned short at the given offset in the current record.
+     * @param offset The offset in the current record
+     * @return The unsigned short at the given offset
+     */
+    int getShort(int offset)
+    {
+        return CompoundFile.getShort(data, offset);
+    }
+
+    /**
+     * Returns the int at the given offset in the current record.
+     * @param offset The offset in the current record
+     * @return The int at the given offset
+     */
+    int getInt(int offset)
+    {
+        return CompoundFile.getInt(data, offset);
+    }
+
+    /**
+     * Returns the double at the given offset in the current record.
+     * @param offset The offset in the current record
+     * @return The double at the given offset
+     */
+    double getDouble(int offset)
+    {
+        return Double.longBitsToDouble(CompoundFile.getLong(data, offset));
+    }
+
+    /**
+     * Returns the number encoded in the given RK value.
+     * <P>
+     * An RK value is either an integer or the top 30 bits of a double, optionally multiplied by 100.
+     * @param rk The RK value
+     * @return The number encoded in the RK value
+     */
+    static double getRk(int rk)
+    {
+        double ret = 0.0d;
+        if((rk & 0x02) != 0)
+            ret = rk >> 2;
+        else
+            ret = Double.longBitsToDouble((long)(rk & 0xFFFFFFFC) << 32);
+        if((rk & 0x01) != 0)
+            ret /= 100.0d;
+        return ret;
+    }
+
+    /**
+     * Closes the stream.
+     * @throws IOException if the stream cannot be closed
+     */
+    void close() throws IOException
+    {
+        stream.close();
+    }
+
+    /**
+     * Reads the given number of bytes into the buffer.
+     */
+    private void readFully(byte[] b, int off, int len) throws IOException
+    {
+        while(len > 0)
+        {
+            int n = stream.read(b, off, len);
+            if(n < 0)
+                throw new EOFException("truncated record: sid="+sid);
+            off += n;
+            len -= n;
+        }
+    }
+
+    private InputStream stream;
+    private long position = 0L;
+    private byte[] header = new byte[4];
+    private byte[] data = new byte[MAX_RECORD];
+    private int sid = -1;
+    private int length = 0;
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2018 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opsmatters.core.documents;
+
+/**
+ * Converts between the column letters of an Excel cell reference and the column index.
+ * <P>
+ * The letters of all the columns in a worksheet are created once, so encoding a column is a table lookup,
+ * and decoding a reference reads the letters in place without creating any objects.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+class CellReference
+{
+    /**
+     * The maximum number of columns in a worksheet (A to XFD).
+     */
+    static final int MAX_COLUMNS = 16384;
+
+    private static final String[] NAMES = new String[MAX_COLUMNS];
+    private static final int[] LETTERS = new int[128];
+
+    static
+    {
+        for(int i = 0; i < 26; i++)
+        {
+            LETTERS['A'+i] = i+1;
+            LETTERS['a'+i] = i+1;
+        }
+
+        char[] chars = new char[3];
+        for(int i = 0; i < MAX_COLUMNS; i++)
+        {
+            int pos = chars.length;
+            for(int n = i+1; n > 0; n = (n-1)/26)
+                chars[--pos] = (char)('A'+(n-1)%26);
+            NAMES[i] = new String(chars, pos, chars.length-pos);
+        }
+    }
+
+    /**
+     * Private constructor as the class only has static methods.
+     */
+    private CellReference()
+    {
+    }
+
+    /**
+     * Returns the column letters for the given column index (eg. 0=A, 1=B, 26=AA).
+     * @param i The index of the column
+     * @return The column letters for the column
+     */
+    static String getColumnName(int i)
+    {
+        if(i < 0 || i >= MAX_COLUMNS)
+            throw new IllegalArgumentException("column index out of range: "+i);
+        return NAMES[i];
+    }
+
+    /**
+     * Returns the column index from the letters at the start of the given cell reference (eg. A1=0, B1=1, AA1=26).
+     * @param ref The cell reference
+     * @return The index of the column, or -1 if the reference does not start with a column
+     */
+    static int getColumnIndex(String ref)
+    {
+        if(ref == null)
+            return -1;
+
+        int ret = 0;
+        int len = ref.length();
+        for(int i = 0; i < len; i++)
+        {
+            char c = ref.charAt(i);
+            int letter = c < LETTERS.length ? LETTERS[c] : 0;
+            if(letter == 0)
+                break;
+            ret = ret*26+letter;
+        }
+        return ret-1;
+    }
+}
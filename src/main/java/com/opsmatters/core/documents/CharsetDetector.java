@@ -0,0 +1,221 @@
+/*
+ * Copyright 2018 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.core.documents;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.FileInputStream;
+import java.io.BufferedInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Detects the charset of a text file from its byte order mark or a sample of its contents.
+ * <P>
+ * A file without a byte order mark is taken to be UTF-8 if the sample is valid UTF-8 (which includes plain ASCII),
+ * or UTF-16 if the sample has the zero bytes of UTF-16 text, otherwise the platform default charset is used.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class CharsetDetector
+{
+    /**
+     * The number of bytes sampled to detect the charset.
+     */
+    public static final int SAMPLE_SIZE = 8192;
+
+    private static final byte[] SPECIAL_CHARS = "\",;|\t\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Private constructor as the class only has static methods.
+     */
+    private CharsetDetector()
+    {
+    }
+
+    /**
+     * Returns the charset of the given stream, skipping over any byte order mark.
+     * <P>
+     * The stream must support mark and reset, and is left positioned at the first character after any byte order mark.
+     * @param stream The stream with the text
+     * @return The charset of the stream
+     * @throws IOException if the stream cannot be read
+     */
+    public static Charset detect(InputStream stream) throws IOException
+    {
+        if(!stream.markSupported())
+            throw new IllegalArgumentException("stream does not support mark");
+
+        byte[] sample = new byte[SAMPLE_SIZE];
+        stream.mark(SAMPLE_SIZE);
+        int len = 0;
+        int n;
+        while(len < sample.length && (n = stream.read(sample, len, sample.length-len)) > 0)
+            len += n;
+        stream.reset();
+
+        // Check for a byte order mark
+        Charset ret = null;
+        int bom = 0;
+        if(len >= 3 && (sample[0] & 0xFF) == 0xEF && (sample[1] & 0xFF) == 0xBB && (sample[2] & 0xFF) == 0xBF)
+        {
+            ret = StandardCharsets.UTF_8;
+            bom = 3;
+        }
+        else if(len >= 2 && (sample[0] & 0xFF) == 0xFF && (sample[1] & 0xFF) == 0xFE)
+        {
+            ret = StandardCharsets.UTF_16LE;
+            bom = 2;
+        }
+        else if(len >= 2 && (sample[0] & 0xFF) == 0xFE && (sample[1] & 0xFF) == 0xFF)
+        {
+            ret = StandardCharsets.UTF_16BE;
+            bom = 2;
+        }
+        else
+        {
+            ret = detect(sample, len);
+        }
+
+        while(bom > 0)
+            bom -= stream.skip(bom);
+
+        return ret;
+    }
+
+    /**
+     * Returns the charset of the given file.
+     * @param file The file with the text
+     * @return The charset of the file
+     * @throws IOException if the file cannot be read
+     */
+    public static Charset detect(File file) throws IOException
+    {
+        InputStream stream = new BufferedInputStream(new FileInputStream(file), SAMPLE_SIZE);
+        try
+        {
+            return detect(stream);
+        }
+        finally
+        {
+            stream.close();
+        }
+    }
+
+    /**
+     * Returns a reader for the given stream.
+     * <P>
+     * If a charset is not given, it is detected from the stream and any byte order mark is skipped.
+     * UTF-8 (including ASCII) and ISO-8859-1 are decoded directly from the bytes,
+     * and all other charsets are decoded using an {@link InputStreamReader}.
+     * @param stream The stream with the text
+     * @param charset The charset of the stream, or <CODE>null</CODE> if it should be detected
+     * @return The reader for the stream
+     * @throws IOException if the stream cannot be read
+     */
+    public static Reader getReader(InputStream stream, Charset charset) throws IOException
+    {
+        if(charset == null)
+        {
+            if(!stream.markSupported())
+                stream = new BufferedInputStream(stream, SAMPLE_SIZE);
+            charset = detect(stream);
+        }
+
+        Reader ret = null;
+        if(charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII))
+            ret = new Utf8Reader(stream, false);
+        else if(charset.equals(StandardCharsets.ISO_8859_1))
+            ret = new Utf8Reader(stream, true);
+        else
+            ret = new InputStreamReader(stream, charset);
+        return ret;
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if the given charset encodes quotes, delimiters and line breaks as single ASCII bytes.
+     * @param charset The charset to check
+     * @return <CODE>true</CODE> if the given charset encodes quotes, delimiters and line breaks as single ASCII bytes
+     */
+    public static boolean isAsciiCompatible(Charset charset)
+    {
+        return charset.canEncode() && Arrays.equals(new String(SPECIAL_CHARS, StandardCharsets.US_ASCII)
+            .getBytes(charset), SPECIAL_CHARS);
+    }
+
+    /**
+     * Returns the charset of the given sample without a byte order mark.
+     */
+    private static Charset detect(byte[] sample, int len)
+    {
+        // Look for the zero bytes of ASCII characters in UTF-16
+        int evenZeros = 0;
+        int oddZeros = 0;
+        for(int i = 0; i+1 < len; i += 2)
+        {
+            if(sample[i] == 0)
+                ++evenZeros;
+            if(sample[i+1] == 0)
+                ++oddZeros;
+        }
+
+        int pairs = len/2;
+        if(pairs > 0 && oddZeros > pairs/3 && evenZeros*4 < oddZeros)
+            return StandardCharsets.UTF_16LE;
+        if(pairs > 0 && evenZeros > pairs/3 && oddZeros*4 < evenZeros)
+            return StandardCharsets.UTF_16BE;
+
+        return isUtf8(sample, len) ? StandardCharsets.UTF_8 : Charset.defaultCharset();
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if the given sample is valid UTF-8.
+     * <P>
+     * A multi-byte sequence cut off by the end of the sample is allowed.
+     */
+    private static boolean isUtf8(byte[] sample, int len)
+    {
+        int i = 0;
+        while(i < len)
+        {
+            int b = sample[i] & 0xFF;
+            int n = 0;
+            if(b < 0x80)
+                n = 0;
+            else if(b >= 0xC2 && b <= 0xDF)
+                n = 1;
+            else if(b >= 0xE0 && b <= 0xEF)
+                n = 2;
+            else if(b >= 0xF0 && b <= 0xF4)
+                n = 3;
+            else
+                return false;
+
+            ++i;
+            for(int j = 0; j < n && i < len; j++, i++)
+            {
+                if((sample[i] & 0xC0) != 0x80)
+                    return false;
+            }
+        }
+        return true;
+    }
+}
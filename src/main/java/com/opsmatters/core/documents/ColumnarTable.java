@@ -0,0 +1,695 @@
+/*
+ * Copyright 2018 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.core.documents;
+
+import java.util.Map;
+import java.util.HashMap;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.io.IOException;
+import java.text.ParseException;
+import com.opsmatters.core.util.FormatUtilities;
+
+/**
+ * Represents the rows of an input file held by column.
+ * <P>
+ * Columns with a numeric, boolean or date type in their {@link FileColumn} definition are held in primitive arrays,
+ * while all other columns are held as dictionary-encoded strings.
+ * Empty values are held as nulls, as are invalid values, which are recorded as errors rather than stopping the parse.
+ * <P>
+ * The table is populated by passing it as the handler to {@link InputFileReader#parse(RowHandler)},
+ * or directly from a CSV file using {@link #load(MappedCsvReader)}.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class ColumnarTable implements RowHandler
+{
+    private static final int INITIAL_ROWS = 1024;
+
+    private FileColumn[] definitions;
+    private String[] headers;
+    private Column[] columns;
+    private int numRows = 0;
+    private List<RowError> errors = new ArrayList<RowError>();
+
+    /**
+     * Default constructor.
+     * <P>
+     * All the columns are held as strings.
+     */
+    public ColumnarTable()
+    {
+        this(null);
+    }
+
+    /**
+     * Constructor that takes the column definitions.
+     * <P>
+     * The definitions are matched to the headers of the input file by name.
+     * @param definitions The column definitions used to give the type of each column
+     */
+    public ColumnarTable(FileColumn[] definitions)
+    {
+        this.definitions = definitions;
+    }
+
+    /**
+     * Creates the columns for the given headers.
+     * @param headers The column headers in the input file
+     */
+    @Override
+    public void headers(String[] headers)
+    {
+        this.headers = headers;
+        this.columns = new Column[headers.length];
+        this.numRows = 0;
+        this.errors.clear();
+        for(int i = 0; i < headers.length; i++)
+            columns[i] = createColumn(headers[i], getDefinition(headers[i]));
+    }
+
+    /**
+     * Adds the given row to the columns.
+     * @param index The index of the row
+     * @param row The row of data
+     */
+    @Override
+    public void row(int index, String[] row)
+    {
+        if(columns == null)
+            throw new IllegalStateException("headers not set");
+
+        for(int i = 0; i < columns.length; i++)
+        {
+            String value = i < row.length ? row[i] : null;
+            try
+            {
+                columns[i].add(value != null && value.length() > 0 ? value : null);
+            }
+            catch(IllegalArgumentException e)
+            {
+                errors.add(new RowError(index, headers[i], value, e.getMessage()));
+                columns[i].add(null);
+            }
+        }
+        ++numRows;
+    }
+
+    /**
+     * Loads the table directly from the records of the given CSV reader.
+     * <P>
+     * The first record that is not blank gives the column headers, and blank records are ignored.
+     * Numeric and boolean values are parsed straight from the bytes of the file into the columns,
+     * without creating a string for each value.
+     * The values and errors are the same as when the table is passed to {@link InputFileReader#parse(RowHandler)},
+     * provided the reader is set up with the same trim and quote options.
+     * @param csv The reader for the CSV file
+     * @return The number of rows in the table
+     * @throws IOException if the file cannot be read
+     * @throws IllegalStateException if a row is missing columns and looks to be incomplete
+     */
+    public int load(MappedCsvReader csv) throws IOException
+    {
+        columns = null;
+        while(csv.next())
+        {
+            if(isBlank(csv))
+                continue;
+
+            // The first record gives the column headers
+            if(columns == null)
+            {
+                String[] fields = csv.getFields();
+                for(int i = 0; i < fields.length; i++)
+                {
+                    fields[i] = fields[i].trim();
+                    if(i == 0 && fields[i].startsWith("\uFEFF"))
+                        fields[i] = fields[i].substring(1).trim();
+                }
+                headers(fields);
+                continue;
+            }
+
+            // Check that the row column count matches the header column count
+            if(csv.getFieldCount() < columns.length && !InputFileReader.isCompleteLine(csv.getFields()))
+                throw new IllegalStateException("Row "+(numRows+1)+" has more columns than the header row");
+
+            for(int i = 0; i < columns.length; i++)
+            {
+                if(i >= csv.getFieldCount())
+                {
+                    columns[i].add(null);
+                    continue;
+                }
+
+                try
+                {
+                    columns[i].add(csv, i);
+                }
+                catch(IllegalArgumentException e)
+                {
+                    errors.add(new RowError(numRows, headers[i], csv.getValue(i), e.getMessage()));
+                    columns[i].add(null);
+                }
+            }
+            ++numRows;
+        }
+
+        if(columns == null)
+            throw new IllegalStateException("input file does not contain any data");
+        return numRows;
+    }
+
+    /**
+     * Returns the invalid values found in the rows.
+     * <P>
+     * Each invalid value is held as a null in its column.
+     * @return The invalid values found in the rows
+     */
+    public List<RowError> getErrors()
+    {
+        return errors;
+    }
+
+    /**
+     * Returns the number of rows in the table.
+     * @return The number of rows in the table
+     */
+    public int numRows()
+    {
+        return numRows;
+    }
+
+    /**
+     * Returns the number of columns in the table.
+     * @return The number of columns in the table
+     */
+    public int numColumns()
+    {
+        return columns != null ? columns.length : -1;
+    }
+
+    /**
+     * Returns the column headers of the table.
+     * @return The column headers of the table
+     */
+    public String[] getHeaders()
+    {
+        return headers;
+    }
+
+    /**
+     * Returns the column at the given index.
+     * @param col The index of the column
+     * @return The column at the given index
+     */
+    public Column getColumn(int col)
+    {
+        return columns[col];
+    }
+
+    /**
+     * Returns the column with the given header.
+     * @param name The header of the column
+     * @return The column with the given header, or <CODE>null</CODE> if the column was not found
+     */
+    public Column getColumn(String name)
+    {
+        for(int i = 0; headers != null && i < headers.length; i++)
+        {
+            if(headers[i].equals(name))
+                return columns[i];
+        }
+        return null;
+    }
+
+    /**
+     * Returns the value in the table at the given co-ordinates as a string.
+     * @param row The row in the table
+     * @param col The column in the table
+     * @return The value at the given co-ordinates, or <CODE>null</CODE> if the value is empty
+     */
+    public String getValue(int row, int col)
+    {
+        return columns[col].getString(row);
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if all the fields in the current record are blank.
+     */
+    private static boolean isBlank(MappedCsvReader csv)
+    {
+        for(int i = 0; i < csv.getFieldCount(); i++)
+        {
+            if(!csv.isBlank(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the column definition with the given name.
+     */
+    private FileColumn getDefinition(String name)
+    {
+        for(int i = 0; definitions != null && i < definitions.length; i++)
+        {
+            if(definitions[i] != null && definitions[i].getName().equals(name))
+                return definitions[i];
+        }
+        return null;
+    }
+
+    /**
+     * Returns a new column for the given header and column definition.
+     */
+    private static Column createColumn(String name, FileColumn definition)
+    {
+        Column ret = null;
+        short type = FileColumn.NO_TYPE;
+        if(definition != null)
+            type = definition.getInputType() != FileColumn.NO_TYPE ? definition.getInputType() : definition.getType();
+
+        if(type == FileColumn.INTEGER_TYPE || type == FileColumn.NUMBER_TYPE)
+            ret = new LongColumn(name, type, null);
+        else if(type == FileColumn.DECIMAL_TYPE || type == FileColumn.SECONDS_TYPE)
+            ret = new DoubleColumn(name, type);
+        else if(type == FileColumn.BOOLEAN_TYPE)
+            ret = new BooleanColumn(name);
+        else if(type == FileColumn.DATETIME_TYPE && definition.getInputFormat().length() > 0)
+            ret = new LongColumn(name, type, definition.getInputFormat());
+        else
+            ret = new StringColumn(name);
+        return ret;
+    }
+
+    /**
+     * Represents a single column of the table.
+     */
+    public static abstract class Column
+    {
+        private String name;
+        private short type;
+        protected BitSet nulls = new BitSet();
+        protected int size = 0;
+
+        /**
+         * Constructor that takes a name and a type.
+         */
+        Column(String name, short type)
+        {
+            this.name = name;
+            this.type = type;
+        }
+
+        /**
+         * Returns the name of the column.
+         * @return The name of the column
+         */
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * Returns the type of the column.
+         * @return The type of the column, as defined in {@link FileColumn}
+         */
+        public short getType()
+        {
+            return type;
+        }
+
+        /**
+         * Returns the number of values in the column.
+         * @return The number of values in the column
+         */
+        public int size()
+        {
+            return size;
+        }
+
+        /**
+         * Returns <CODE>true</CODE> if the value at the given row is null.
+         * @param row The row in the column
+         * @return <CODE>true</CODE> if the value at the given row is null
+         */
+        public boolean isNull(int row)
+        {
+            checkRow(row);
+            return nulls.get(row);
+        }
+
+        /**
+         * Returns the value at the given row as a string.
+         * @param row The row in the column
+         * @return The value at the given row, or <CODE>null</CODE> if the value is null
+         */
+        public abstract String getString(int row);
+
+        /**
+         * Adds the given value to the column.
+         * @param value The value to add, or <CODE>null</CODE> if the value is empty
+         */
+        abstract void add(String value);
+
+        /**
+         * Adds the field at the given index in the current record of the CSV reader to the column.
+         * @param csv The reader for the CSV file
+         * @param field The index of the field
+         */
+        void add(MappedCsvReader csv, int field)
+        {
+            String value = csv.getValue(field);
+            add(value.length() > 0 ? value : null);
+        }
+
+        /**
+         * Throws an exception if the given row is out of range.
+         */
+        protected void checkRow(int row)
+        {
+            if(row < 0 || row >= size)
+                throw new IndexOutOfBoundsException("row "+row+" of "+size);
+        }
+    }
+
+    /**
+     * Represents a column of integer or date values.
+     * <P>
+     * Dates are held as milliseconds.
+     */
+    public static class LongColumn extends Column
+    {
+        private String format;
+        private long[] values = new long[INITIAL_ROWS];
+
+        /**
+         * Constructor that takes a name, a type and a date format.
+         */
+        LongColumn(String name, short type, String format)
+        {
+            super(name, type);
+            this.format = format;
+        }
+
+        /**
+         * Returns the value at the given row.
+         * @param row The row in the column
+         * @return The value at the given row, or 0 if the value is null
+         */
+        public long getLong(int row)
+        {
+            checkRow(row);
+            return values[row];
+        }
+
+        /**
+         * Returns the values in the column.
+         * <P>
+         * The array may be longer than the number of values in the column.
+         * @return The values in the column
+         */
+        public long[] getValues()
+        {
+            return values;
+        }
+
+        @Override
+        public String getString(int row)
+        {
+            return isNull(row) ? null : Long.toString(values[row]);
+        }
+
+        @Override
+        void add(String value)
+        {
+            if(size == values.length)
+                values = Arrays.copyOf(values, size*2);
+            if(value == null)
+                nulls.set(size);
+            else if(format != null)
+                values[size] = getDateTime(value);
+            else
+                values[size] = Long.parseLong(value.trim());
+            ++size;
+        }
+
+        @Override
+        void add(MappedCsvReader csv, int field)
+        {
+            if(format != null || csv.isEmpty(field))
+            {
+                super.add(csv, field);
+                return;
+            }
+
+            if(size == values.length)
+                values = Arrays.copyOf(values, size*2);
+            values[size] = csv.getLong(field);
+            ++size;
+        }
+
+        /**
+         * Returns the given date parsed using the format of the column.
+         */
+        private long getDateTime(String value)
+        {
+            try
+            {
+                return FormatUtilities.getDateTime(value, format, false, true);
+            }
+            catch(RuntimeException e)
+            {
+                if(e.getCause() instanceof ParseException)
+                    throw new IllegalArgumentException("Invalid date for format '"+format+"': "+value);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Represents a column of decimal values.
+     */
+    public static class DoubleColumn extends Column
+    {
+        private double[] values = new double[INITIAL_ROWS];
+
+        /**
+         * Constructor that takes a name and a type.
+         */
+        DoubleColumn(String name, short type)
+        {
+            super(name, type);
+        }
+
+        /**
+         * Returns the value at the given row.
+         * @param row The row in the column
+         * @return The value at the given row, or 0 if the value is null
+         */
+        public double getDouble(int row)
+        {
+            checkRow(row);
+            return values[row];
+        }
+
+        /**
+         * Returns the values in the column.
+         * <P>
+         * The array may be longer than the number of values in the column.
+         * @return The values in the column
+         */
+        public double[] getValues()
+        {
+            return values;
+        }
+
+        @Override
+        public String getString(int row)
+        {
+            return isNull(row) ? null : Double.toString(values[row]);
+        }
+
+        @Override
+        void add(String value)
+        {
+            if(size == values.length)
+                values = Arrays.copyOf(values, size*2);
+            if(value == null)
+                nulls.set(size);
+            else
+                values[size] = Double.parseDouble(value.trim());
+            ++size;
+        }
+
+        @Override
+        void add(MappedCsvReader csv, int field)
+        {
+            if(csv.isEmpty(field))
+            {
+                add(null);
+                return;
+            }
+
+            if(size == values.length)
+                values = Arrays.copyOf(values, size*2);
+            values[size] = csv.getDouble(field);
+            ++size;
+        }
+    }
+
+    /**
+     * Represents a column of boolean values.
+     */
+    public static class BooleanColumn extends Column
+    {
+        private BitSet values = new BitSet();
+
+        /**
+         * Constructor that takes a name.
+         */
+        BooleanColumn(String name)
+        {
+            super(name, FileColumn.BOOLEAN_TYPE);
+        }
+
+        /**
+         * Returns the value at the given row.
+         * @param row The row in the column
+         * @return The value at the given row, or <CODE>false</CODE> if the value is null
+         */
+        public boolean getBoolean(int row)
+        {
+            checkRow(row);
+            return values.get(row);
+        }
+
+        @Override
+        public String getString(int row)
+        {
+            return isNull(row) ? null : Boolean.toString(values.get(row));
+        }
+
+        @Override
+        void add(String value)
+        {
+            if(value == null)
+                nulls.set(size);
+            else if(parseBoolean(value))
+                values.set(size);
+            ++size;
+        }
+
+        @Override
+        void add(MappedCsvReader csv, int field)
+        {
+            if(csv.isEmpty(field))
+                nulls.set(size);
+            else if(csv.getBoolean(field))
+                values.set(size);
+            ++size;
+        }
+    }
+
+    /**
+     * Returns the given value as a boolean, ignoring case and whitespace.
+     */
+    private static boolean parseBoolean(String value)
+    {
+        value = value.trim();
+        if(value.equalsIgnoreCase("true"))
+            return true;
+        else if(value.equalsIgnoreCase("false"))
+            return false;
+        throw new IllegalArgumentException("Invalid boolean: "+value);
+    }
+
+    /**
+     * Represents a column of dictionary-encoded string values.
+     * <P>
+     * Each distinct value is held once, with the rows holding the index of the value in the dictionary.
+     */
+    public static class StringColumn extends Column
+    {
+        private int[] codes = new int[INITIAL_ROWS];
+        private List<String> dictionary = new ArrayList<String>();
+        private Map<String,Integer> lookup = new HashMap<String,Integer>();
+
+        /**
+         * Constructor that takes a name.
+         */
+        StringColumn(String name)
+        {
+            super(name, FileColumn.STRING_TYPE);
+        }
+
+        /**
+         * Returns the index of the value at the given row in the dictionary.
+         * @param row The row in the column
+         * @return The index of the value in the dictionary, or -1 if the value is null
+         */
+        public int getCode(int row)
+        {
+            checkRow(row);
+            return codes[row];
+        }
+
+        /**
+         * Returns the distinct values in the column.
+         * @return The distinct values in the column
+         */
+        public List<String> getDictionary()
+        {
+            return dictionary;
+        }
+
+        @Override
+        public String getString(int row)
+        {
+            checkRow(row);
+            int code = codes[row];
+            return code >= 0 ? dictionary.get(code) : null;
+        }
+
+        @Override
+        void add(String value)
+        {
+            if(size == codes.length)
+                codes = Arrays.copyOf(codes, size*2);
+            if(value == null)
+            {
+                nulls.set(size);
+                codes[size] = -1;
+            }
+            else
+            {
+                Integer code = lookup.get(value);
+                if(code == null)
+                {
+                    code = dictionary.size();
+                    dictionary.add(value);
+                    lookup.put(value, code);
+                }
+                codes[size] = code;
+            }
+            ++size;
+        }
+    }
+}
@@ -0,0 +1,387 @@
+/*
+ * Copyright 2018 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.core.documents;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.ByteArrayInputStream;
+import java.io.RandomAccessFile;
+import java.io.IOException;
+import java.util.List;
+import java.util.ArrayList;
+
+/**
+ * Reads the streams of an OLE2 compound file, such as an Excel XLS file.
+ * <P>
+ * Only the header and directory are read when the file is opened.
+ * The sectors of a stream are read as the stream is consumed,
+ * with the allocation table read one sector at a time as the chain of sectors is followed.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+class CompoundFile
+{
+    private static final long SIGNATURE = 0xE11AB1A1E011CFD0L;
+    private static final int END_OF_CHAIN = -2;
+    private static final int DIRECTORY_ENTRY_SIZE = 128;
+    private static final int STREAM_ENTRY = 2;
+    private static final int HEADER_DIFAT_ENTRIES = 109;
+    private static final int MAX_READ = 65536;
+
+    /**
+     * Constructor that takes a file.
+     * @param file The compound file
+     * @throws IOException if the file cannot be opened or is not a compound file
+     */
+    CompoundFile(File file) throws IOException
+    {
+        this.file = file;
+        raf = new RandomAccessFile(file, "r");
+        try
+        {
+            readHeader();
+            readDirectory();
+        }
+        catch(IOException e)
+        {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the stream with the given name.
+     * @param name The name of the stream
+     * @return The stream with the given name, or <CODE>null</CODE> if the stream was not found
+     * @throws IOException if the stream cannot be read
+     */
+    InputStream getStream(String name) throws IOException
+    {
+        for(Entry entry : entries)
+        {
+            if(entry.type == STREAM_ENTRY && entry.name.equalsIgnoreCase(name))
+            {
+                // Small streams are held in the mini stream, so are read all at once
+                if(entry.size < miniStreamCutoff)
+                    return new ByteArrayInputStream(readMiniStream(entry.start, (int)entry.size));
+                return new SectorInputStream(entry.start, entry.size);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Closes the file.
+     */
+    void close()
+    {
+        try
+        {
+            if(raf != null)
+                raf.close();
+        }
+        catch(IOException e)
+        {
+        }
+        raf = null;
+    }
+
+    /**
+     * Reads the sector sizes and the location of the allocation table from the header.
+     */
+    private void readHeader() throws IOException
+    {
+        byte[] header = new byte[512];
+        raf.seek(0L);
+        if(raf.read(header) != header.length || getLong(header, 0) != SIGNATURE)
+            throw new IOException("Not an OLE2 compound file: "+file);
+
+        sectorSize = 1 << getShort(header, 0x1E);
+        miniSectorSize = 1 << getShort(header, 0x20);
+        int numFatSectors = getInt(header, 0x2C);
+        directoryStart = getInt(header, 0x30);
+        miniStreamCutoff = getInt(header, 0x38);
+        miniFatStart = getInt(header, 0x3C);
+        int difatSector = getInt(header, 0x44);
+
+        // Collect the locations of the sectors of the allocation table
+        fatSectors = new int[numFatSectors];
+        int count = 0;
+        for(int i = 0; i < HEADER_DIFAT_ENTRIES && count < numFatSectors; i++)
+            fatSectors[count++] = getInt(header, 0x4C+(i*4));
+
+        byte[] sector = new byte[sectorSize];
+        int perSector = (sectorSize/4)-1;
+        while(count < numFatSectors && difatSector >= 0)
+        {
+            readSector(difatSector, sector, 0);
+            for(int i = 0; i < perSector && count < numFatSectors; i++)
+                fatSectors[count++] = getInt(sector, i*4);
+            difatSector = getInt(sector, perSector*4);
+        }
+    }
+
+    /**
+     * Reads the entries in the directory.
+     */
+    private void readDirectory() throws IOException
+    {
+        byte[] sector = new byte[sectorSize];
+        for(int s = directoryStart; s >= 0; s = getNextSector(s))
+        {
+            readSector(s, sector, 0);
+            for(int offset = 0; offset < sectorSize; offset += DIRECTORY_ENTRY_SIZE)
+            {
+                int length = getShort(sector, offset+0x40);
+                Entry entry = new Entry();
+                entry.name = length > 2 ? new String(sector, offset, length-2, "UTF-16LE") : "";
+                entry.type = sector[offset+0x42];
+                entry.start = getInt(sector, offset+0x74);
+                entry.size = getInt(sector, offset+0x78) & 0xFFFFFFFFL;
+                entries.add(entry);
+            }
+        }
+
+        if(entries.isEmpty())
+            throw new IOException("Directory not found: "+file);
+    }
+
+    /**
+     * Returns the contents of a stream held in the mini stream.
+     */
+    private byte[] readMiniStream(int start, int size) throws IOException
+    {
+        // The mini stream is held in the sectors of the root entry
+        List<Integer> rootSectors = new ArrayList<Integer>();
+        for(int s = entries.get(0).start; s >= 0; s = getNextSector(s))
+            rootSectors.add(s);
+
+        byte[] ret = new byte[size];
+        int pos = 0;
+        for(int s = start; s >= 0 && pos < size; s = getNextMiniSector(s))
+        {
+            long offset = (long)s*miniSectorSize;
+            int sector = rootSectors.get((int)(offset/sectorSize));
+            raf.seek(getOffset(sector)+(offset%sectorSize));
+            int len = Math.min(miniSectorSize, size-pos);
+            raf.readFully(ret, pos, len);
+            pos += len;
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the sector that follows the given sector in its chain.
+     */
+    private int getNextSector(int sector) throws IOException
+    {
+        int perSector = sectorSize/4;
+        int index = sector/perSector;
+        if(index >= fatSectors.length)
+            throw new IOException("Invalid sector: "+sector);
+
+        // Chains are mostly contiguous, so keep the last sector of the allocation table read
+        if(fat == null || fatIndex != index)
+        {
+            if(fat == null)
+                fat = new byte[sectorSize];
+            readSector(fatSectors[index], fat, 0);
+            fatIndex = index;
+        }
+        return getInt(fat, (sector%perSector)*4);
+    }
+
+    /**
+     * Returns the mini sector that follows the given mini sector in its chain.
+     */
+    private int getNextMiniSector(int sector) throws IOException
+    {
+        int perSector = sectorSize/4;
+        int index = sector/perSector;
+        int s = miniFatStart;
+        for(int i = 0; i < index && s >= 0; i++)
+            s = getNextSector(s);
+        if(s < 0)
+            throw new IOException("Invalid mini sector: "+sector);
+
+        byte[] b = new byte[4];
+        raf.seek(getOffset(s)+((sector%perSector)*4));
+        raf.readFully(b);
+        return getInt(b, 0);
+    }
+
+    /**
+     * Reads the given sector into the buffer.
+     */
+    private void readSector(int sector, byte[] buffer, int offset) throws IOException
+    {
+        raf.seek(getOffset(sector));
+        raf.readFully(buffer, offset, sectorSize);
+    }
+
+    /**
+     * Returns the offset in the file of the given sector.
+     */
+    private long getOffset(int sector)
+    {
+        return ((long)sector+1L)*sectorSize;
+    }
+
+    /**
+     * Returns the little-endian short at the given offset.
+     */
+    static int getShort(byte[] b, int offset)
+    {
+        return (b[offset] & 0xFF) | ((b[offset+1] & 0xFF) << 8);
+    }
+
+    /**
+     * Returns the little-endian int at the given offset.
+     */
+    static int getInt(byte[] b, int offset)
+    {
+        return getShort(b, offset) | (getShort(b, offset+2) << 16);
+    }
+
+    /**
+     * Returns the little-endian long at the given offset.
+     */
+    static long getLong(byte[] b, int offset)
+    {
+        return (getInt(b, offset) & 0xFFFFFFFFL) | ((long)getInt(b, offset+4) << 32);
+    }
+
+    /**
+     * Represents an entry in the directory.
+     */
+    private static class Entry
+    {
+        String name;
+        int type;
+        int start;
+        long size;
+    }
+
+    /**
+     * Stream that reads the sectors of a stream as they are needed.
+     * <P>
+     * Runs of contiguous sectors are read together, and skipped sectors are never read.
+     */
+    private class SectorInputStream extends InputStream
+    {
+        private int sector;
+        private long remaining;
+        private byte[] buffer = new byte[0];
+        private int pos = 0;
+        private int limit = 0;
+
+        /**
+         * Constructor that takes the first sector and size of the stream.
+         */
+        SectorInputStream(int start, long size)
+        {
+            this.sector = start;
+            this.remaining = size;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            if(pos == limit && !fill())
+                return -1;
+            return buffer[pos++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            if(len == 0)
+                return 0;
+            if(pos == limit && !fill())
+                return -1;
+            int n = Math.min(len, limit-pos);
+            System.arraycopy(buffer, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException
+        {
+            long ret = Math.min(n, limit-pos);
+            pos += (int)ret;
+
+            // Follow the chain past any whole sectors without reading them
+            while(ret+sectorSize <= n && remaining >= sectorSize && sector >= 0)
+            {
+                sector = getNextSector(sector);
+                remaining -= sectorSize;
+                ret += sectorSize;
+            }
+
+            if(ret < n && fill())
+            {
+                int len = (int)Math.min(n-ret, limit-pos);
+                pos += len;
+                ret += len;
+            }
+
+            return ret;
+        }
+
+        /**
+         * Reads the next run of contiguous sectors into the buffer.
+         */
+        private boolean fill() throws IOException
+        {
+            if(remaining <= 0 || sector < 0)
+                return false;
+
+            int first = sector;
+            int count = 1;
+            sector = getNextSector(sector);
+            while(sector == first+count && (long)(count+1)*sectorSize <= MAX_READ
+                && (long)count*sectorSize < remaining)
+            {
+                ++count;
+                sector = getNextSector(sector);
+            }
+
+            int len = (int)Math.min((long)count*sectorSize, remaining);
+            if(buffer.length < len)
+                buffer = new byte[Math.max(len, sectorSize)];
+            raf.seek(getOffset(first));
+            raf.readFully(buffer, 0, len);
+            remaining -= len;
+            pos = 0;
+            limit = len;
+            return true;
+        }
+    }
+
+    private File file;
+    private RandomAccessFile raf;
+    private int sectorSize;
+    private int miniSectorSize;
+    private int miniStreamCutoff;
+    private int directoryStart;
+    private int miniFatStart;
+    private int[] fatSectors;
+    private byte[] fat;
+    private int fatIndex = -1;
+    private List<Entry> entries = new ArrayList<Entry>();
+}
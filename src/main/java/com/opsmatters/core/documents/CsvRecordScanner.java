@@ -0,0 +1,124 @@
+/*
+ * Copyright 2018 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opsmatters.core.documents;
+
+/**
+ * Finds the ends of the records in the bytes of a CSV file using the same quoting rules as {@link CsvTokenizer}.
+ * <P>
+ * A quote only opens a quoted field at the start of a field, and a quote anywhere else is part of the value.
+ * Inside a quoted field, quotes are escaped by doubling them or with a backslash,
+ * and a line break does not end the record.
+ * <P>
+ * The scan must start at the start of a record, and the charset of the file must encode
+ * quotes, delimiters and line breaks as single bytes (eg. UTF-8 or ISO-8859-1).
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+class CsvRecordScanner
+{
+    private static final int FIELD_START = 0;
+    private static final int UNQUOTED = 1;
+    private static final int QUOTED = 2;
+    private static final int QUOTED_ESCAPE = 3;
+    private static final int QUOTED_QUOTE = 4;
+
+    private static final byte[] BOM = {(byte)0xEF, (byte)0xBB, (byte)0xBF};
+
+    private byte separator;
+    private int state = FIELD_START;
+    private int bom = 0;
+
+    /**
+     * Constructor that takes the character that separates the fields.
+     * @param separator The character that separates the fields
+     */
+    CsvRecordScanner(char separator)
+    {
+        if(separator > 0x7f)
+            throw new IllegalArgumentException("separator must be an ASCII character");
+        this.separator = (byte)separator;
+    }
+
+    /**
+     * Moves the scan on past the given byte.
+     * @param b The next byte in the file
+     * @return <CODE>true</CODE> if the byte is the line feed at the end of a record
+     */
+    boolean next(byte b)
+    {
+        switch(state)
+        {
+            case QUOTED:
+                if(b == '"')
+                    state = QUOTED_QUOTE;
+                else if(b == '\\')
+                    state = QUOTED_ESCAPE;
+                return false;
+            case QUOTED_ESCAPE:
+                // Only a quote or backslash is escaped, but no other character can end the field
+                state = QUOTED;
+                return false;
+            case QUOTED_QUOTE:
+                if(b == '"') // a doubled quote
+                {
+                    state = QUOTED;
+                    return false;
+                }
+                break; // the previous quote closed the field
+            case FIELD_START:
+                if(b == '"')
+                {
+                    state = QUOTED;
+                    return false;
+                }
+                else if(bom >= 0 && bom < BOM.length && b == BOM[bom])
+                {
+                    ++bom; // a byte order mark before the first field
+                    return false;
+                }
+                break;
+            default:
+                break;
+        }
+
+        bom = -1;
+        if(b == separator || b == '\r')
+        {
+            state = FIELD_START;
+        }
+        else if(b == '\n')
+        {
+            state = FIELD_START;
+            return true;
+        }
+        else
+        {
+            state = UNQUOTED;
+        }
+        return false;
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if the scan is inside a quoted field.
+     * @return <CODE>true</CODE> if the scan is inside a quoted field
+     */
+    boolean isQuoted()
+    {
+        return state == QUOTED || state == QUOTED_ESCAPE;
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright 2018 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opsmatters.core.documents;
+
+import java.io.Reader;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Splits the characters of a CSV file into records of fields.
+ * <P>
+ * The characters are read into a buffer that is reused for the whole file,
+ * and each unquoted field is created directly from the characters in the buffer,
+ * so the only objects created for a record are the strings for its fields and the array that holds them.
+ * A field is only copied to a separate buffer when it crosses the end of the read buffer or contains escaped quotes.
+ * <P>
+ * A field that starts with a quote may contain delimiters and line breaks,
+ * with quotes inside the field escaped by doubling them or with a backslash.
+ * Any text after the closing quote is kept along with the closing quote, so <CODE>"x"y</CODE> gives <CODE>x"y</CODE>,
+ * and a file that ends inside a quoted field is an error.
+ * <P>
+ * Unlike the opencsv parser, a quote in the middle of an unquoted field is part of the value
+ * rather than starting a quoted section, and a backslash is only an escape inside a quoted field
+ * when it is followed by a quote or another backslash; any other backslash is kept.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class CsvTokenizer
+{
+    private static final int BUFFER_SIZE = 65536;
+    private static final int INITIAL_FIELDS = 16;
+    private static final char QUOTE = '"';
+    private static final char ESCAPE = '\\';
+    private static final String UNTERMINATED = "Unterminated quoted field at end of file";
+
+    private Reader reader;
+    private char separator;
+    private boolean trim = false;
+    private char[] buffer = new char[BUFFER_SIZE];
+    private int pos = 0;
+    private int limit = 0;
+    private char[] field = new char[256];
+    private int length = 0;
+    private String[] fields = new String[INITIAL_FIELDS];
+    private int count = 0;
+
+    /**
+     * Constructor that takes a reader and a delimiter.
+     * @param reader The reader with the contents of the file
+     * @param separator The character that separates the fields
+     */
+    public CsvTokenizer(Reader reader, char separator)
+    {
+        this.reader = reader;
+        this.separator = separator;
+    }
+
+    /**
+     * Set to <CODE>true</CODE> if the fields should be trimmed for leading and trailing whitespace.
+     * @param trim <CODE>true</CODE> if the fields should be trimmed for leading and trailing whitespace
+     */
+    public void setTrim(boolean trim)
+    {
+        this.trim = trim;
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if the fields should be trimmed for leading and trailing whitespace.
+     * @return <CODE>true</CODE> if the fields should be trimmed for leading and trailing whitespace
+     */
+    public boolean getTrim()
+    {
+        return trim;
+    }
+
+    /**
+     * Reads the next record from the file.
+     * <P>
+     * An empty line gives a record with a single empty field.
+     * @return The fields of the next record, or <CODE>null</CODE> at the end of the file
+     * @throws IOException if the file cannot be read or ends inside a quoted field
+     */
+    public String[] readNext() throws IOException
+    {
+        count = 0;
+        if(pos >= limit && !fill())
+            return null;
+
+        while(readField())
+        {
+        }
+
+        return Arrays.copyOf(fields, count);
+    }
+
+    /**
+     * Closes the reader.
+     * @throws IOException if the reader cannot be closed
+     */
+    public void close() throws IOException
+    {
+        reader.close();
+    }
+
+    /**
+     * Reads the next field of the current record.
+     * @return <CODE>true</CODE> if there are more fields in the record
+     */
+    private boolean readField() throws IOException
+    {
+        length = 0;
+        if(pos >= limit && !fill())
+        {
+            addField(buffer, 0, 0);
+            return false;
+        }
+
+        int start = pos;
+
+        // Copy a quoted field up to the closing quote, removing the escapes
+        if(buffer[pos] == QUOTE)
+        {
+            start = ++pos;
+            while(true)
+            {
+                if(pos >= limit)
+                {
+                    append(start, pos);
+                    if(!fill())
+                        throw new IOException(UNTERMINATED);
+                    start = pos;
+                    continue;
+                }
+
+                char c = buffer[pos];
+                if(c == QUOTE || c == ESCAPE)
+                {
+                    append(start, pos);
+                    ++pos;
+                    if(pos >= limit && !fill())
+                    {
+                        if(c == ESCAPE)
+                            throw new IOException(UNTERMINATED);
+                        return endField(0, 0, false);
+                    }
+
+                    char next = buffer[pos];
+                    if(next == QUOTE || (c == ESCAPE && next == ESCAPE))
+                    {
+                        start = pos++; // keep the escaped character
+                        continue;
+                    }
+                    else if(c == ESCAPE)
+                    {
+                        append(ESCAPE);
+                        start = pos;
+                        continue;
+                    }
+
+                    // The closing quote, which is kept if there is more text in the field
+                    if(next != separator && next != '\n' && next != '\r')
+                        append(QUOTE);
+                    break;
+                }
+                ++pos;
+            }
+
+            start = pos;
+        }
+
+        // Find the end of the field, keeping any text after the closing quote of a quoted field
+        while(true)
+        {
+            while(pos < limit)
+            {
+                char c = buffer[pos];
+                if(c == separator || c == '\n' || c == '\r')
+                    break;
+                ++pos;
+            }
+
+            if(pos < limit)
+                break;
+
+            append(start, pos);
+            if(!fill())
+                return endField(0, 0, false);
+            start = pos;
+        }
+
+        char c = buffer[pos];
+        boolean more = endField(start, pos++, c == separator);
+        if(c == '\r') // also skip the line feed of a CRLF
+        {
+            if(pos < limit || fill())
+            {
+                if(buffer[pos] == '\n')
+                    ++pos;
+            }
+        }
+        return more;
+    }
+
+    /**
+     * Adds the field ending with the given characters in the read buffer to the record.
+     * @return The given value of whether there are more fields in the record
+     */
+    private boolean endField(int start, int end, boolean more)
+    {
+        if(length == 0)
+        {
+            addField(buffer, start, end);
+        }
+        else
+        {
+            append(start, end);
+            addField(field, 0, length);
+        }
+        return more;
+    }
+
+    /**
+     * Adds a field created from the given characters to the record, trimming it if required.
+     */
+    private void addField(char[] chars, int start, int end)
+    {
+        if(trim)
+        {
+            while(start < end && chars[start] <= ' ')
+                ++start;
+            while(end > start && chars[end-1] <= ' ')
+                --end;
+        }
+
+        if(count == fields.length)
+            fields = Arrays.copyOf(fields, count*2);
+        fields[count++] = start == end ? "" : new String(chars, start, end-start);
+    }
+
+    /**
+     * Appends the given characters in the read buffer to the field buffer.
+     */
+    private void append(int start, int end)
+    {
+        int len = end-start;
+        if(len <= 0)
+            return;
+        if(length+len > field.length)
+            field = Arrays.copyOf(field, Math.max(field.length*2, length+len));
+        System.arraycopy(buffer, start, field, length, len);
+        length += len;
+    }
+
+    /**
+     * Appends the given character to the field buffer.
+     */
+    private void append(char c)
+    {
+        if(length == field.length)
+            field = Arrays.copyOf(field, field.length*2);
+        field[length++] = c;
+    }
+
+    /**
+     * Reads the next characters into the read buffer, replacing its contents.
+     * @return <CODE>false</CODE> at the end of the file
+     */
+    private boolean fill() throws IOException
+    {
+        pos = 0;
+        limit = 0;
+        int n = reader.read(buffer, 0, buffer.length);
+        if(n <= 0)
+            return false;
+        limit = n;
+        return true;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2018 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.core.documents;
+
+import java.io.InputStream;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.lang.reflect.InvocationTargetException;
+import java.util.zip.GZIPInputStream;
+import com.opsmatters.core.CommonFiles;
+
+/**
+ * Opens a decompressing stream for a gzip, bzip2 or xz compressed file.
+ * <P>
+ * gzip is decompressed using the JDK. bzip2 and xz are decompressed using Apache Commons Compress,
+ * which must be added to the classpath by the application as it is not a dependency of this project.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class Decompressor
+{
+    private static final String FACTORY_CLASS = "org.apache.commons.compress.compressors.CompressorStreamFactory";
+    private static final int BUFFER_SIZE = 65536;
+
+    /**
+     * Private constructor as the class only has static methods.
+     */
+    private Decompressor()
+    {
+    }
+
+    /**
+     * Returns a stream that decompresses the given stream, based on the extension of the given filename.
+     * <P>
+     * The decompression is run on its own thread, reading ahead of the consumer of the returned stream.
+     * @param filename The filename of the compressed file
+     * @param stream The stream with the compressed file
+     * @return The stream with the decompressed contents, or the given stream if the file is not compressed
+     * @throws IOException if the stream cannot be read
+     */
+    public static InputStream getInputStream(String filename, InputStream stream) throws IOException
+    {
+        if(!CommonFiles.isCompressedFile(filename))
+            return stream;
+
+        InputStream ret = null;
+        String lowerFilename = filename.toLowerCase();
+        if(lowerFilename.endsWith("."+CommonFiles.GZIP_EXT))
+            ret = new GZIPInputStream(stream, BUFFER_SIZE);
+        else if(lowerFilename.endsWith("."+CommonFiles.BZIP2_EXT))
+            ret = getCompressorInputStream("bzip2", stream);
+        else
+            ret = getCompressorInputStream("xz", stream);
+
+        return new ReadAheadInputStream(ret, "Decompressor-"+filename);
+    }
+
+    /**
+     * Returns a stream from Apache Commons Compress for the given compression format.
+     */
+    private static InputStream getCompressorInputStream(String format, InputStream stream) throws IOException
+    {
+        try
+        {
+            Class<?> factoryClass = Class.forName(FACTORY_CLASS);
+            Method method = factoryClass.getMethod("createCompressorInputStream", String.class, InputStream.class);
+            return (InputStream)method.invoke(factoryClass.getConstructor().newInstance(), format,
+                new BufferedInputStream(stream, BUFFER_SIZE));
+        }
+        catch(ClassNotFoundException e)
+        {
+            throw new IllegalStateException("Apache Commons Compress is needed on the classpath to read "
+                +format+" files");
+        }
+        catch(InvocationTargetException e)
+        {
+            throw new IOException("Unable to read "+format+" stream", e.getCause());
+        }
+        catch(ReflectiveOperationException e)
+        {
+            throw new IllegalStateException("Unable to create "+format+" stream", e);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2018 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opsmatters.core.documents;
+
+/**
+ * Represents the progress of a single input file in a batch import.
+ * <P>
+ * The progress is updated by the thread parsing the file,
+ * and can be read from any thread while the import is running.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class ImportProgress
+{
+    private String name;
+    private long size;
+    private volatile long bytesRead = 0L;
+    private volatile int rows = 0;
+    private volatile long startTime = 0L;
+    private volatile long endTime = 0L;
+    private volatile Exception error;
+
+    /**
+     * Constructor that takes the name and size of the file.
+     * @param name The name of the file
+     * @param size The size of the file in bytes, or -1 if it is not known
+     */
+    ImportProgress(String name, long size)
+    {
+        this.name = name;
+        this.size = size;
+    }
+
+    /**
+     * Returns the name of the file.
+     * @return The name of the file
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Returns the size of the file in bytes.
+     * @return The size of the file in bytes, or -1 if it is not known
+     */
+    public long getSize()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the number of bytes of the file read so far.
+     * @return The number of bytes of the file read so far
+     */
+    public long getBytesRead()
+    {
+        return bytesRead;
+    }
+
+    /**
+     * Returns the number of data rows read so far.
+     * @return The number of data rows read so far
+     */
+    public int getRows()
+    {
+        return rows;
+    }
+
+    /**
+     * Returns the time in milliseconds spent reading the file so far.
+     * @return The time in milliseconds spent reading the file so far, or 0 if the file has not been started
+     */
+    public long getElapsedTime()
+    {
+        long start = startTime;
+        if(start == 0L)
+            return 0L;
+        long end = endTime;
+        return (end != 0L ? end : System.currentTimeMillis())-start;
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if the file has started to be read.
+     * @return <CODE>true</CODE> if the file has started to be read
+     */
+    public boolean isStarted()
+    {
+        return startTime != 0L;
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if the file has been read, or could not be read.
+     * @return <CODE>true</CODE> if the file has been read, or could not be read
+     */
+    public boolean isCompleted()
+    {
+        return endTime != 0L;
+    }
+
+    /**
+     * Returns the error that stopped the file being read.
+     * @return The error that stopped the file being read, or <CODE>null</CODE> if there was no error
+     */
+    public Exception getError()
+    {
+        return error;
+    }
+
+    /**
+     * Records that the file has started to be read.
+     */
+    void started()
+    {
+        startTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Adds the given number of bytes to the bytes read.
+     */
+    void addBytes(long n)
+    {
+        bytesRead += n; // only updated by the thread reading the file
+    }
+
+    /**
+     * Adds a row to the rows read.
+     */
+    void addRow()
+    {
+        ++rows; // only updated by the thread reading the file
+    }
+
+    /**
+     * Records that the file has been read, or could not be read because of the given error.
+     */
+    void completed(Exception error)
+    {
+        this.error = error;
+        if(startTime == 0L)
+            startTime = System.currentTimeMillis();
+        endTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns a string representation of the object.
+     */
+    @Override
+    public String toString()
+    {
+        return "ImportProgress [name="+name
+            +", size="+size
+            +", bytesRead="+bytesRead
+            +", rows="+rows
+            +", elapsed="+getElapsedTime()
+            +", error="+error
+            +"]";
+    }
+}
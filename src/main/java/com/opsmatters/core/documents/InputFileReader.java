@@ -16,17 +16,23 @@
 
 package com.opsmatters.core.documents;
 
+import java.io.File;
 import java.io.InputStream;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.RandomAccessFile;
 import java.io.Reader;
-import java.io.InputStreamReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.TimeZone;
 import java.util.NoSuchElementException;
 import java.util.logging.Logger;
 import java.text.SimpleDateFormat;
-import com.opencsv.CSVReader;
 import com.opsmatters.core.CommonFiles;
 import com.opsmatters.core.util.Formats;
 
@@ -45,6 +51,12 @@ public class InputFileReader
     private boolean trim = true;
     private boolean removeQuotes = false;
     private InputStream stream;
+    private File file;
+    private int parallelism = 1;
+    private int maxRows = -1;
+    private boolean streamXls = false;
+    private Charset charset;
+    private TailCheckpoint checkpoint;
     private String[] headers;
     private List<String[]> rows = new ArrayList<String[]>();
 
@@ -172,6 +184,128 @@ public class InputFileReader
         return stream;
     }
 
+    /**
+     * Sets the input file.
+     * <P>
+     * Also sets the name of the input file if it has not been set.
+     * @param file The input file
+     */
+    public void setFile(File file)
+    {
+        this.file = file;
+        if(file != null && (name == null || name.length() == 0))
+            name = file.getName();
+    }
+
+    /**
+     * Returns the input file.
+     * @return The input file
+     */
+    public File getFile()
+    {
+        return file;
+    }
+
+    /**
+     * Sets the number of threads used to parse the input file (CSV only).
+     * <P>
+     * A value greater than 1 parses the file in chunks in parallel, but only if the input file has been set.
+     * @param parallelism The number of threads used to parse the input file
+     */
+    public void setParallelism(int parallelism)
+    {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Returns the number of threads used to parse the input file (CSV only).
+     * @return The number of threads used to parse the input file
+     */
+    public int getParallelism()
+    {
+        return parallelism;
+    }
+
+    /**
+     * Sets the maximum number of data rows to be read from the input file.
+     * <P>
+     * Reading stops as soon as the limit is reached, so only the start of the file is read,
+     * which is useful for previews and validation.
+     * @param maxRows The maximum number of data rows to be read, or -1 to read all the rows
+     */
+    public void setMaxRows(int maxRows)
+    {
+        this.maxRows = maxRows;
+    }
+
+    /**
+     * Returns the maximum number of data rows to be read from the input file.
+     * @return The maximum number of data rows to be read, or -1 if all the rows are read
+     */
+    public int getMaxRows()
+    {
+        return maxRows;
+    }
+
+    /**
+     * Set to <CODE>true</CODE> if the rows of an XLS file should be streamed rather than loading the whole workbook (XLS only).
+     * <P>
+     * The streamed rows use less memory, but numbers are given without their cell formatting,
+     * eg. "0.45" rather than "45%".
+     * @param streamXls <CODE>true</CODE> if the rows of an XLS file should be streamed
+     */
+    public void setStreamXls(boolean streamXls)
+    {
+        this.streamXls = streamXls;
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if the rows of an XLS file should be streamed rather than loading the whole workbook (XLS only).
+     * @return <CODE>true</CODE> if the rows of an XLS file should be streamed
+     */
+    public boolean getStreamXls()
+    {
+        return streamXls;
+    }
+
+    /**
+     * Sets the charset of the input file (CSV only).
+     * <P>
+     * If the charset is not set, it is detected from the byte order mark or the start of the file.
+     * @param charset The charset of the input file, or <CODE>null</CODE> if it should be detected
+     */
+    public void setCharset(Charset charset)
+    {
+        this.charset = charset;
+    }
+
+    /**
+     * Returns the charset of the input file (CSV only).
+     * @return The charset of the input file, or <CODE>null</CODE> if it should be detected
+     */
+    public Charset getCharset()
+    {
+        return charset;
+    }
+
+    /**
+     * Sets the checkpoint to resume reading a growing CSV file from in {@link #tail(RowHandler)}.
+     * @param checkpoint The checkpoint to resume from, or <CODE>null</CODE> to read from the start of the file
+     */
+    public void setCheckpoint(TailCheckpoint checkpoint)
+    {
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * Returns the checkpoint reached by the last call to {@link #tail(RowHandler)}.
+     * @return The checkpoint reached by the last read, or <CODE>null</CODE> if the file has not been read
+     */
+    public TailCheckpoint getCheckpoint()
+    {
+        return checkpoint;
+    }
+
     /**
      * Returns the number of rows in the input file.
      * @return The number of rows in the input file
@@ -246,9 +380,9 @@ public class InputFileReader
      */
     public List<String[]> parse() throws IOException
     {
-        if(stream == null)
-            throw new IllegalArgumentException("input stream null");
-        return parse(stream);
+        rows.clear();
+        parse(new RowCollector());
+        return rows;
     }
 
     /**
@@ -259,28 +393,431 @@ public class InputFileReader
      */
     public List<String[]> parse(InputStream stream) throws IOException
     {
-        int columnCount = -1;
-        List<String[]> lines = new ArrayList<String[]>();
         rows.clear();
+        parse(stream, new RowCollector());
+        return rows;
+    }
+
+    /**
+     * Parses the input file one row at a time, passing each row to the given handler.
+     * <P>
+     * The rows are not held in memory, so {@link #getRows()} is not populated.
+     * @param handler The handler to be passed the headers and rows
+     * @return The number of data rows in the input file
+     * @throws IOException if there is a problem reading the input file or it does not exist
+     */
+    public int parse(RowHandler handler) throws IOException
+    {
+        if(file != null && parallelism > 1 && maxRows < 0 && CommonFiles.isCsvFile(name))
+        {
+            // The chunks can only be split on line breaks in a charset that encodes them as single bytes
+            Charset cs = charset != null ? charset : CharsetDetector.detect(file);
+            if(CharsetDetector.isAsciiCompatible(cs))
+                return parseParallel(handler, cs);
+        }
+
+        // Read an XLS or XLSX file in place rather than copying it from a stream
+        if(stream == null && file != null && (isXlsxFile() || (isXlsFile() && streamXls)) && !CommonFiles.isCompressedFile(name))
+            return parse(null, file, handler);
+
+        if(stream == null && file != null)
+        {
+            InputStream is = new FileInputStream(file);
+            try
+            {
+                return parse(is, handler);
+            }
+            finally
+            {
+                is.close();
+            }
+        }
+
+        if(stream == null)
+            throw new IllegalArgumentException("input stream null");
+        return parse(stream, handler);
+    }
+
+    /**
+     * Reads the records added to a growing CSV file since the last read into an array in memory.
+     * @return The new rows of data from the input file
+     * @throws IOException if there is a problem reading the input file or it does not exist
+     * @see #tail(RowHandler)
+     */
+    public List<String[]> tail() throws IOException
+    {
+        rows.clear();
+        tail(new RowCollector());
+        return rows;
+    }
 
-        // Excel spreadsheet
-        if(CommonFiles.isExcelFile(name))
+    /**
+     * Reads the records added to a growing CSV file since the last read, passing each new row to the given handler.
+     * <P>
+     * Reading resumes from the checkpoint, or the start of the file if there is no checkpoint,
+     * and stops after the last complete record, leaving any record still being written for the next read.
+     * The checkpoint is then moved on to the end of the records read.
+     * The headers are passed to the handler on every read, and the rows are numbered on from the previous read.
+     * If the file is now shorter than the checkpoint, it is taken to have been replaced and is read from the start.
+     * @param handler The handler to be passed the headers and new rows
+     * @return The number of new data rows read
+     * @throws IOException if there is a problem reading the input file or it does not exist
+     */
+    public int tail(RowHandler handler) throws IOException
+    {
+        if(handler == null)
+            throw new IllegalArgumentException("null handler");
+        if(file == null)
+            throw new IllegalArgumentException("input file null");
+        if(!CommonFiles.isCsvFile(name) || CommonFiles.isCompressedFile(name))
+            throw new IllegalArgumentException("Only uncompressed CSV files can be tailed: "+name);
+
+        // The records can only be found in a charset that encodes quotes and line breaks as single bytes
+        Charset cs = charset != null ? charset : CharsetDetector.detect(file);
+        if(!CharsetDetector.isAsciiCompatible(cs))
+            throw new IllegalArgumentException("Charset cannot be tailed: "+cs);
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try
+        {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            TailCheckpoint start = checkpoint;
+            if(start != null && start.getOffset() > size)
+            {
+                logger.info("File is shorter than the checkpoint, reading from the start: "+file);
+                start = null;
+            }
+
+            long offset = start != null ? start.getOffset() : 0L;
+            long end = getCompleteRecords(channel, offset, size, delimiter.separator().charAt(0));
+
+            int count = 0;
+            headers = null;
+            if(start != null && start.getHeaders() != null)
+            {
+                headers = start.getHeaders();
+                handler.headers(headers);
+                count = start.getRows()+1;
+            }
+
+            int previous = count;
+            if(end > offset)
+            {
+                channel.position(offset);
+                InputStream is = new RangeInputStream(Channels.newInputStream(channel), end-offset);
+
+                // Detect the charset again at the start of the file to skip any byte order mark
+                Reader reader = CharsetDetector.getReader(is, offset == 0L && charset == null ? null : cs);
+                CsvTokenizer csv = new CsvTokenizer(reader, delimiter.separator().charAt(0));
+                csv.setTrim(trim);
+                int columnCount = headers != null ? headers.length : -1;
+                String[] line;
+                while((line = csv.readNext()) != null)
+                {
+                    if(columnCount == -1)
+                        columnCount = line.length;
+                    if(parseLine(line, columnCount, count, handler))
+                        ++count;
+                }
+            }
+
+            int ret = headers != null ? count-Math.max(previous, 1) : 0;
+            if(headers != null)
+                checkpoint = new TailCheckpoint(end, headers, count-1);
+            else
+                checkpoint = new TailCheckpoint(0L, null, 0);
+
+            logger.fine("InputFileReader.tail: file="+file+" offset="+offset+" end="+end+" rows="+ret);
+            return ret;
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    /**
+     * Returns the offset after the last complete record between the given offset and the end of the file.
+     * <P>
+     * The given offset must be the start of a record, and the records are found using the same quoting rules
+     * as the tokenizer, so a line break inside a quoted field does not end the record.
+     */
+    private static long getCompleteRecords(FileChannel channel, long offset, long size, char separator)
+        throws IOException
+    {
+        long ret = offset;
+        ByteBuffer buffer = ByteBuffer.allocate(65536);
+        long position = offset;
+        CsvRecordScanner scanner = new CsvRecordScanner(separator);
+        while(position < size && channel.read(buffer, position) > 0)
+        {
+            buffer.flip();
+            while(buffer.hasRemaining() && position < size)
+            {
+                ++position;
+                if(scanner.next(buffer.get()))
+                    ret = position;
+            }
+            buffer.clear();
+        }
+        return ret;
+    }
+
+    /**
+     * Parses the input file into a table held by column.
+     * <P>
+     * Columns with a numeric, boolean or date type in the given definitions are held in primitive arrays,
+     * and all other columns as dictionary-encoded strings.
+     * Invalid values are recorded in {@link ColumnarTable#getErrors()} rather than stopping the parse.
+     * For a CSV file, the numeric and boolean values are parsed straight from the bytes in the file.
+     * @param columns The column definitions used to give the type of each column, or <CODE>null</CODE>
+     * @return The table with the data from the input file
+     * @throws IOException if there is a problem reading the input file or it does not exist
+     */
+    public ColumnarTable parseColumnar(FileColumn[] columns) throws IOException
+    {
+        ColumnarTable ret = new ColumnarTable(columns);
+
+        // Parse the values in a CSV file straight from the bytes in the file
+        if(stream == null && file != null && maxRows < 0 && CommonFiles.isCsvFile(name))
+        {
+            Charset cs = charset != null ? charset : CharsetDetector.detect(file);
+            if(CharsetDetector.isAsciiCompatible(cs))
+            {
+                MappedCsvReader csv = new MappedCsvReader(file);
+                try
+                {
+                    csv.setDelimiter(delimiter);
+                    csv.setCharset(cs);
+                    csv.setTrim(trim);
+                    csv.setRemoveQuotes(removeQuotes);
+                    ret.load(csv);
+                }
+                finally
+                {
+                    csv.close();
+                }
+                headers = ret.getHeaders();
+                return ret;
+            }
+        }
+
+        parse(ret);
+        return ret;
+    }
+
+    /**
+     * Parses the input CSV file in chunks in parallel, passing each row to the given handler in order.
+     * @param handler The handler to be passed the headers and rows
+     * @param charset The charset of the input file
+     * @return The number of data rows in the input file
+     * @throws IOException if there is a problem reading the input file or it does not exist
+     */
+    private int parseParallel(final RowHandler handler, Charset charset) throws IOException
+    {
+        if(handler == null)
+            throw new IllegalArgumentException("null handler");
+
+        headers = null;
+        ParallelCsvParser parser = new ParallelCsvParser(file);
+        parser.setDelimiter(delimiter);
+        parser.setCharset(charset);
+        parser.setParallelism(parallelism);
+
+        final int[] counts = new int[2]; // columns, rows
+        counts[0] = -1;
+        int lineCount = parser.parse(new RowHandler()
+        {
+            @Override
+            public void headers(String[] headers)
+            {
+            }
+
+            @Override
+            public void row(int index, String[] line)
+            {
+                if(counts[0] == -1)
+                {
+                    counts[0] = line.length;
+                    if(counts[0] == 0)
+                        throw new IllegalStateException("input file does not contain any data");
+                }
+                if(parseLine(line, counts[0], counts[1], handler))
+                    ++counts[1];
+            }
+        });
+
+        logger.fine("InputFileReader.parseParallel: lines="+lineCount+" columns="+counts[0]);
+
+        // Error if the file is empty
+        if(lineCount <= 0)
+            throw new IllegalStateException("input file does not contain any data");
+
+        return counts[1] > 0 ? counts[1]-1 : 0;
+    }
+
+    /**
+     * Parses the input file one row at a time, passing each row to the given handler.
+     * <P>
+     * The rows are not held in memory, so {@link #getRows()} is not populated.
+     * @param stream The input stream with the file contents
+     * @param handler The handler to be passed the headers and rows
+     * @return The number of data rows in the input file
+     * @throws IOException if there is a problem reading the input file or it does not exist
+     */
+    public int parse(InputStream stream, RowHandler handler) throws IOException
+    {
+        return parse(stream, null, handler);
+    }
+
+    /**
+     * Parses the input file one row at a time from the given stream or file, passing each row to the given handler.
+     * <P>
+     * The file is only used if the stream is <CODE>null</CODE>.
+     */
+    private int parse(InputStream stream, File file, RowHandler handler) throws IOException
+    {
+        if(handler == null)
+            throw new IllegalArgumentException("null handler");
+
+        // Decompress a compressed file on its own thread
+        InputStream decompressed = null;
+        if(stream != null && CommonFiles.isCompressedFile(name))
+        {
+            decompressed = Decompressor.getInputStream(name, stream);
+            stream = decompressed;
+        }
+
+        try
+        {
+            return parse(stream, file, handler, getFilename());
+        }
+        finally
+        {
+            if(decompressed != null)
+                decompressed.close();
+        }
+    }
+
+    /**
+     * Parses the input file with the given filename one row at a time, passing each row to the given handler.
+     * <P>
+     * The filename gives the format of the input file.
+     */
+    private int parse(InputStream stream, File file, RowHandler handler, String filename) throws IOException
+    {
+        int columnCount = -1;
+        int lineCount = 0;
+        int count = 0;
+        headers = null;
+
+        // Excel XLSX spreadsheet, streamed directly from the zip file
+        if(isXlsxFile())
+        {
+            if(worksheet != null && worksheet.length() > 0)
+            {
+                SimpleDateFormat df = new SimpleDateFormat(Formats.DATETIME_FORMAT);
+                df.setTimeZone(TimeZone.getTimeZone("GMT"));
+
+                XlsxStreamReader workbook = stream != null ? new XlsxStreamReader(stream) : new XlsxStreamReader(file);
+                try
+                {
+                    XlsxStreamReader.SheetReader sheet = workbook.getSheet(worksheet);
+                    if(sheet == null)
+                        throw new IllegalStateException("Worksheet '"+worksheet+"' not found");
+
+                    String[] values;
+                    while((values = sheet.nextRow(df)) != null)
+                    {
+                        if(columnCount == -1)
+                        {
+                            columnCount = sheet.getColumns();
+                            if(columnCount == 0)
+                                throw new IllegalStateException("input file does not contain any data");
+                        }
+                        ++lineCount;
+                        if(parseLine(values, columnCount, count, handler))
+                            ++count;
+                        if(isLimitReached(count))
+                            break;
+                    }
+                    sheet.close();
+                }
+                finally
+                {
+                    workbook.close();
+                }
+            }
+            else
+            {
+                throw new IllegalArgumentException("Worksheet not specified");
+            }
+        }
+        else if(CommonFiles.isExcelFile(filename) && streamXls) // Excel XLS spreadsheet, streamed directly from the compound file
         {
             if(worksheet != null && worksheet.length() > 0)
             {
                 SimpleDateFormat df = new SimpleDateFormat(Formats.DATETIME_FORMAT);
                 df.setTimeZone(TimeZone.getTimeZone("GMT"));
 
-                Workbook workbook = Workbook.getWorkbook(name, stream);
+                XlsStreamReader workbook = stream != null ? new XlsStreamReader(stream) : new XlsStreamReader(file);
+                try
+                {
+                    XlsStreamReader.SheetReader sheet = workbook.getSheet(worksheet);
+                    if(sheet == null)
+                        throw new IllegalStateException("Worksheet '"+worksheet+"' not found");
+
+                    String[] values;
+                    while((values = sheet.nextRow(df)) != null)
+                    {
+                        if(columnCount == -1)
+                        {
+                            columnCount = sheet.getColumns();
+                            if(columnCount == 0)
+                                throw new IllegalStateException("input file does not contain any data");
+                        }
+                        ++lineCount;
+                        if(parseLine(values, columnCount, count, handler))
+                            ++count;
+                        if(isLimitReached(count))
+                            break;
+                    }
+                    sheet.close();
+                }
+                finally
+                {
+                    workbook.close();
+                }
+            }
+            else
+            {
+                throw new IllegalArgumentException("Worksheet not specified");
+            }
+        }
+        else if(CommonFiles.isExcelFile(filename)) // Excel XLS spreadsheet
+        {
+            if(worksheet != null && worksheet.length() > 0)
+            {
+                SimpleDateFormat df = new SimpleDateFormat(Formats.DATETIME_FORMAT);
+                df.setTimeZone(TimeZone.getTimeZone("GMT"));
+
+                Workbook workbook = Workbook.getWorkbook(filename, stream);
                 Worksheet sheet = workbook.getSheet(worksheet);
                 if(sheet != null)
                 {
                     columnCount = sheet.getColumns();
-                    for(int i = 0; i < sheet.getRows(); i++)
+                    if(columnCount == 0)
+                        throw new IllegalStateException("input file does not contain any data");
+                    for(int i = 0; i < sheet.getRows() && !isLimitReached(count); i++)
                     {
                         String[] values = sheet.getRow(i, df);
                         if(values != null)
-                            lines.add(values);
+                        {
+                            ++lineCount;
+                            if(parseLine(values, columnCount, count, handler))
+                                ++count;
+                        }
                     }
                 }
                 else
@@ -295,102 +832,180 @@ public class InputFileReader
                 throw new IllegalArgumentException("Worksheet not specified");
             }
         }
-        else if(CommonFiles.isCsvFile(name))
+        else if(CommonFiles.isCsvFile(filename))
         {
-            Reader reader = new InputStreamReader(stream);
-            CSVReader csv = new CSVReader(reader, delimiter.separator().charAt(0));
+            Reader reader = CharsetDetector.getReader(stream, charset);
+            CsvTokenizer csv = new CsvTokenizer(reader, delimiter.separator().charAt(0));
+            csv.setTrim(trim);
             String [] line;
             while ((line = csv.readNext()) != null) 
             {
                 if(columnCount == -1)
+                {
                     columnCount = line.length;
-                lines.add(line);
+                    if(columnCount == 0)
+                        throw new IllegalStateException("input file does not contain any data");
+                }
+                ++lineCount;
+                if(parseLine(line, columnCount, count, handler))
+                    ++count;
+                if(isLimitReached(count))
+                    break;
             }
             reader.close();
         }
 
-        int lineCount = lines.size();
-
         logger.fine("InputFileReader.parse: lines="+lineCount+" columns="+columnCount);
 
         // Error if the file is empty
-        if(lineCount <= 0 || columnCount == 0)
+        if(lineCount <= 0)
             throw new IllegalStateException("input file does not contain any data");
 
-        // Parse the file headers and rows
-        int count = 0;
-        for(String[] line : lines)
-        {
-            // Ignore the line if there is no data
-            if(isBlankRow(line))
-                continue;
+        return count > 0 ? count-1 : 0;
+    }
 
-            String[] row = new String[columnCount];  // the row of data
+    /**
+     * Parses the given line and passes it to the handler as either the headers or a row.
+     * <P>
+     * The first line gives the column headers and the subsequent lines give the actual data.
+     * @param line The line from the input file
+     * @param columnCount The number of columns in the input file
+     * @param count The number of lines already passed to the handler
+     * @param handler The handler to be passed the headers and rows
+     * @return <CODE>false</CODE> if the line was ignored because there is no data
+     */
+    private boolean parseLine(String[] line, int columnCount, int count, RowHandler handler)
+    {
+        // Ignore the line if there is no data
+        if(isBlankRow(line))
+            return false;
+
+        String[] row = new String[columnCount];  // the row of data
 
-            for(int column = 0; column < columnCount; column++)
+        for(int column = 0; column < columnCount; column++)
+        {
+
+            // Check that the row column count matches the header column count
+            if(column >= line.length)
             {
+                if(line.length > 0 && isCompleteLine(line))
+                    break;
+                else
+                    throw new IllegalStateException("Row "+count+" has more columns than the header row");
+            }
 
-                // Check that the row column count matches the header column count
-                if(column >= line.length)
+            // The first row gives the column headers
+            if(count == 0)
+            {
+                try
                 {
-                    if(line.length > 0 && isCompleteLine(line))
-                        break;
-                    else
-                        throw new IllegalStateException("Row "+count+" has more columns than the header row");
-                }
+                    row[column] = line[column].trim();
 
-                // The first row gives the column headers
-                if(count == 0)
+                    // Remove any byte order mark left at the start of the file
+                    if(column == 0 && row[column].startsWith("\uFEFF"))
+                        row[column] = row[column].substring(1).trim();
+                }
+                catch(NoSuchElementException e)
                 {
-                    try
-                    {
-                        row[column] = line[column].trim();
-                    }
-                    catch(NoSuchElementException e)
-                    {
-                        row[column] = "";
-                    }
+                    row[column] = "";
                 }
-                else // The subsequent rows give the actual data
+            }
+            else // The subsequent rows give the actual data
+            {
+                try
                 {
-                    try
-                    {
-                        String token = line[column];
+                    String token = line[column];
 
-                        // Remove quotes
-                        if(removeQuotes && token.startsWith("\""))
-                        {
-                            token = token.substring(1);
-                            if(token.endsWith("\""))
-                                token = token.substring(0,token.length()-1);
+                    // Remove quotes
+                    if(removeQuotes && token.startsWith("\""))
+                        token = removeQuotes(token);
 
-                            // Replace all other double quotes with a single quote
-                            token = token.replaceAll("\"\"", "\"");
-                        }
+                    // Trim the value (if required)
+                    if(trim)
+                        token = token.trim();
 
-                        // Trim the value (if required)
-                        if(trim)
-                            token.trim();
-
-                        // Put the processed token in the array
-                        row[column] = token;
-                        logger.fine("InputFileReader.parse: row["+count+","+headers[column]+"]="+token);
-                    }
-                    catch(NoSuchElementException e)
-                    {
-                        row[column] = "";
-                    }
+                    // Put the processed token in the array
+                    row[column] = token;
+                    logger.fine("InputFileReader.parse: row["+count+","+headers[column]+"]="+token);
+                }
+                catch(NoSuchElementException e)
+                {
+                    row[column] = "";
                 }
             }
+        }
 
-            if(count == 0)
-                headers = row;
-            else
-                rows.add(row);
-            ++count;
+        if(count == 0)
+        {
+            headers = row;
+            handler.headers(row);
+        }
+        else
+        {
+            handler.row(count-1, row);
         }
 
-        return rows;
+        return true;
+    }
+
+    /**
+     * Returns the given token without its enclosing quotes, with any other double quotes replaced by a single quote.
+     * <P>
+     * The token is copied in a single pass, and only if it contains double quotes.
+     */
+    static String removeQuotes(String token)
+    {
+        int end = token.length();
+        if(end > 1 && token.charAt(end-1) == '"')
+            --end;
+
+        int quote = token.indexOf('"', 1);
+        if(quote < 0 || quote >= end)
+            return token.substring(1, end);
+
+        StringBuilder sb = new StringBuilder(end-1);
+        for(int i = 1; i < end; i++)
+        {
+            char c = token.charAt(i);
+            sb.append(c);
+            if(c == '"' && i+1 < end && token.charAt(i+1) == '"')
+                ++i;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if the input file is an Excel XLSX spreadsheet.
+     */
+    private boolean isXlsxFile()
+    {
+        String filename = getFilename();
+        return CommonFiles.isExcelFile(filename) && filename.toLowerCase().endsWith("."+CommonFiles.XLSX_EXT);
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if the input file is an Excel XLS spreadsheet.
+     */
+    private boolean isXlsFile()
+    {
+        return getFilename().toLowerCase().endsWith("."+CommonFiles.XLS_EXT);
+    }
+
+    /**
+     * Returns the name of the input file without the extension of any compression.
+     */
+    private String getFilename()
+    {
+        return CommonFiles.getUncompressedFilename(name);
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if the maximum number of data rows has been read.
+     * @param count The number of lines passed to the handler, including the headers
+     */
+    private boolean isLimitReached(int count)
+    {
+        return maxRows >= 0 && count > maxRows;
     }
 
     /**
@@ -398,7 +1013,7 @@ public class InputFileReader
      * <P>
      * Returns <CODE>false</CODE> if end of the last item in the given array of strings has a line break in the middle.
      */
-    private boolean isCompleteLine(String[] line)
+    static boolean isCompleteLine(String[] line)
     {
         // If the last string starts with a quote, but doesnt't end with one
         //   then it must be a linefeed in the middle of a data field
@@ -423,6 +1038,82 @@ public class InputFileReader
         return ret;
     }
 
+    /**
+     * Stream that stops after the given number of bytes, so that records appended after the end are not read.
+     */
+    private static class RangeInputStream extends FilterInputStream
+    {
+        private long remaining;
+
+        /**
+         * Constructor that takes a stream and the number of bytes to read.
+         */
+        RangeInputStream(InputStream in, long length)
+        {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            if(remaining <= 0L)
+                return -1;
+            int ret = super.read();
+            if(ret != -1)
+                --remaining;
+            return ret;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            if(remaining <= 0L)
+                return -1;
+            int ret = super.read(b, off, (int)Math.min(len, remaining));
+            if(ret > 0)
+                remaining -= ret;
+            return ret;
+        }
+
+        @Override
+        public long skip(long n) throws IOException
+        {
+            long ret = super.skip(Math.min(n, remaining));
+            remaining -= ret;
+            return ret;
+        }
+
+        @Override
+        public int available() throws IOException
+        {
+            return (int)Math.min(super.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported()
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Handler that collects the rows of the input file in memory.
+     */
+    private class RowCollector implements RowHandler
+    {
+        @Override
+        public void headers(String[] headers)
+        {
+        }
+
+        @Override
+        public void row(int index, String[] row)
+        {
+            rows.add(row);
+        }
+    }
+
     /**
      * Returns a builder for the reader.
      * @return The builder instance.
@@ -494,6 +1185,72 @@ public class InputFileReader
             return this;
         }
 
+        /**
+         * Sets the input file.
+         * @param file The input file
+         * @return This object
+         */
+        public Builder withFile(File file)
+        {
+            reader.setFile(file);
+            return this;
+        }
+
+        /**
+         * Sets the number of threads used to parse the input file (CSV only).
+         * @param parallelism The number of threads used to parse the input file
+         * @return This object
+         */
+        public Builder parallelism(int parallelism)
+        {
+            reader.setParallelism(parallelism);
+            return this;
+        }
+
+        /**
+         * Sets the charset of the input file (CSV only).
+         * @param charset The charset of the input file, or <CODE>null</CODE> if it should be detected
+         * @return This object
+         */
+        public Builder charset(Charset charset)
+        {
+            reader.setCharset(charset);
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of data rows to be read from the input file.
+         * @param maxRows The maximum number of data rows to be read, or -1 to read all the rows
+         * @return This object
+         */
+        public Builder maxRows(int maxRows)
+        {
+            reader.setMaxRows(maxRows);
+            return this;
+        }
+
+        /**
+         * Set to <CODE>true</CODE> if the rows of an XLS file should be streamed rather than loading the whole workbook (XLS only).
+         * @param streamXls <CODE>true</CODE> if the rows of an XLS file should be streamed
+         * @return This object
+         */
+        public Builder streamXls(boolean streamXls)
+        {
+            reader.setStreamXls(streamXls);
+            return this;
+        }
+
+        /**
+         * Sets the checkpoint to resume reading a growing CSV file from.
+         * @param checkpoint The checkpoint to resume from, or <CODE>null</CODE> to read from the start of the file
+         * @return This object
+         */
+        public Builder checkpoint(TailCheckpoint checkpoint)
+        {
+            reader.setCheckpoint(checkpoint);
+            return this;
+        }
+
         /**
          * Returns the configured reader instance
          * @return The reader instance
@@ -0,0 +1,591 @@
+/*
+ * Copyright 2018 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.core.documents;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Reads the records of a CSV file through a memory-mapped buffer.
+ * <P>
+ * The records are tokenized directly on the bytes in the file, recording only the offsets of each field.
+ * A field is only decoded into a string when it is accessed, so fields that are never read cost nothing.
+ * <P>
+ * The fields are split using the same quoting rules as {@link CsvTokenizer}, so quoted fields may contain delimiters
+ * and line breaks, with quotes escaped by doubling them or with a backslash.
+ * The fields can also be trimmed and have a further level of quotes removed, as for {@link InputFileReader}.
+ * The charset of the file must encode quotes, delimiters and line breaks as single bytes (eg. UTF-8 or ISO-8859-1).
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class MappedCsvReader
+{
+    /**
+     * The size of the window of the file that is mapped at any one time.
+     */
+    public static final int WINDOW_SIZE = 64*1024*1024;
+
+    private static final int INITIAL_FIELDS = 16;
+    private static final String UNTERMINATED = "Unterminated quoted field at end of file in record at offset: ";
+
+    // Powers of ten that are exact as doubles
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private File file;
+    private byte separator = ',';
+    private Charset charset = Charset.defaultCharset();
+    private boolean trim = false;
+    private boolean removeQuotes = false;
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private long size;
+    private MappedByteBuffer buffer;
+    private long windowStart = 0L;
+    private long position = 0L;
+    private int count = 0;
+    private int[] starts = new int[INITIAL_FIELDS];
+    private int[] ends = new int[INITIAL_FIELDS];
+    private boolean[] quoted = new boolean[INITIAL_FIELDS];
+    private byte[] bytes = new byte[256];
+
+    /**
+     * Constructor that takes a file.
+     * @param file The CSV file to read
+     * @throws IOException if the file cannot be opened
+     */
+    public MappedCsvReader(File file) throws IOException
+    {
+        this.file = file;
+        raf = new RandomAccessFile(file, "r");
+        channel = raf.getChannel();
+        size = channel.size();
+    }
+
+    /**
+     * Sets the delimiter used in the file.
+     * @param delimiter The delimiter used in the file
+     */
+    public void setDelimiter(FileDelimiter delimiter)
+    {
+        this.separator = (byte)delimiter.separator().charAt(0);
+    }
+
+    /**
+     * Sets the charset used to decode the fields.
+     * @param charset The charset used to decode the fields
+     */
+    public void setCharset(Charset charset)
+    {
+        this.charset = charset;
+    }
+
+    /**
+     * Set to <CODE>true</CODE> if the fields should be trimmed for leading and trailing whitespace.
+     * @param trim <CODE>true</CODE> if the fields should be trimmed for leading and trailing whitespace
+     */
+    public void setTrim(boolean trim)
+    {
+        this.trim = trim;
+    }
+
+    /**
+     * Set to <CODE>true</CODE> if a further level of quotes should be removed from the values of the fields.
+     * @param removeQuotes <CODE>true</CODE> if quotes should be removed from the values of the fields
+     * @see #getValue(int)
+     */
+    public void setRemoveQuotes(boolean removeQuotes)
+    {
+        this.removeQuotes = removeQuotes;
+    }
+
+    /**
+     * Advances to the next record in the file.
+     * @return <CODE>true</CODE> if there was another record, or <CODE>false</CODE> at the end of the file
+     * @throws IOException if the file cannot be read or ends inside a quoted field
+     */
+    public boolean next() throws IOException
+    {
+        count = 0;
+        if(position >= size)
+            return false;
+
+        if(buffer == null || position >= windowStart+buffer.limit())
+            map(position);
+
+        int end = tokenize((int)(position-windowStart));
+        if(end < 0) // The record crosses the end of the window
+        {
+            map(position);
+            end = tokenize(0);
+            if(end < 0)
+                throw new IllegalStateException("record larger than "+WINDOW_SIZE+" bytes at offset: "+position);
+        }
+
+        position = windowStart+end;
+        return true;
+    }
+
+    /**
+     * Returns the number of fields in the current record.
+     * @return The number of fields in the current record
+     */
+    public int getFieldCount()
+    {
+        return count;
+    }
+
+    /**
+     * Returns the field at the given index in the current record.
+     * <P>
+     * The field is decoded from the file each time it is accessed, and is trimmed if required.
+     * @param i The index of the field
+     * @return The field at the given index in the current record
+     */
+    public String getField(int i)
+    {
+        if(i < 0 || i >= count)
+            throw new IndexOutOfBoundsException("field "+i+" of "+count);
+
+        int len = ends[i]-starts[i];
+        if(bytes.length < len)
+            bytes = new byte[Math.max(len, bytes.length*2)];
+
+        ByteBuffer b = buffer.duplicate();
+        b.position(starts[i]);
+        b.get(bytes, 0, len);
+
+        // Remove the escapes in a quoted field, keeping the closing quote if there is text after it
+        if(quoted[i])
+        {
+            int n = 0;
+            boolean closed = false;
+            for(int j = 0; j < len; j++, n++)
+            {
+                byte c = bytes[j];
+                if(!closed && (c == '"' || c == '\\') && j+1 < len
+                    && (bytes[j+1] == '"' || (c == '\\' && bytes[j+1] == '\\')))
+                {
+                    ++j;
+                }
+                else if(!closed && c == '"')
+                {
+                    closed = true;
+                }
+                bytes[n] = bytes[j];
+            }
+            len = n;
+        }
+
+        String ret = new String(bytes, 0, len, charset);
+        return trim ? ret.trim() : ret;
+    }
+
+    /**
+     * Returns the value of the field at the given index in the current record.
+     * <P>
+     * The value is the field with a further level of quotes removed if required,
+     * as for {@link InputFileReader#setRemoveQuotes(boolean)}.
+     * @param i The index of the field
+     * @return The value of the field at the given index in the current record
+     */
+    public String getValue(int i)
+    {
+        String ret = getField(i);
+        if(removeQuotes && ret.startsWith("\""))
+        {
+            ret = InputFileReader.removeQuotes(ret);
+            if(trim)
+                ret = ret.trim();
+        }
+        return ret;
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if the value of the field at the given index in the current record is empty.
+     * <P>
+     * A field that is only whitespace is also empty if the fields are trimmed.
+     * @param i The index of the field
+     * @return <CODE>true</CODE> if the value of the field is empty
+     */
+    public boolean isEmpty(int i)
+    {
+        if(i < 0 || i >= count)
+            throw new IndexOutOfBoundsException("field "+i+" of "+count);
+
+        int p = trim ? trimStart(i) : starts[i];
+        int end = trim ? trimEnd(i, p) : ends[i];
+        if(p == end)
+            return true;
+
+        // Only a field with quotes can have an empty value when it is not empty in the file
+        if(!quoted[i] && !(removeQuotes && buffer.get(p) == '"'))
+            return false;
+        return getValue(i).length() == 0;
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if the field at the given index in the current record is empty or only whitespace.
+     * @param i The index of the field
+     * @return <CODE>true</CODE> if the field is empty or only whitespace
+     */
+    public boolean isBlank(int i)
+    {
+        if(i < 0 || i >= count)
+            throw new IndexOutOfBoundsException("field "+i+" of "+count);
+        for(int p = starts[i]; p < ends[i]; p++)
+        {
+            if(!isWhitespace(buffer.get(p)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the field at the given index in the current record as an integer.
+     * <P>
+     * The digits are parsed directly from the file, without decoding the field into a string;
+     * any other value is parsed from {@link #getValue(int)}.
+     * Leading and trailing whitespace is ignored.
+     * @param i The index of the field
+     * @return The field as an integer
+     * @throws NumberFormatException if the field is not a valid integer
+     */
+    public long getLong(int i)
+    {
+        if(i < 0 || i >= count)
+            throw new IndexOutOfBoundsException("field "+i+" of "+count);
+
+        int p = trimStart(i);
+        int end = trimEnd(i, p);
+        boolean negative = false;
+        if(p < end && (buffer.get(p) == '-' || buffer.get(p) == '+'))
+            negative = buffer.get(p++) == '-';
+        if(p == end)
+            return Long.parseLong(getValue(i).trim());
+
+        long ret = 0L;
+        for(; p < end; p++)
+        {
+            int digit = buffer.get(p)-'0';
+            if(digit < 0 || digit > 9) // quotes, escapes or an invalid number
+                return Long.parseLong(getValue(i).trim());
+            if(ret > (Long.MAX_VALUE-digit)/10L) // overflow, so leave the range checks to the JDK
+                return Long.parseLong(getValue(i).trim());
+            ret = (ret*10L)+digit;
+        }
+        return negative ? -ret : ret;
+    }
+
+    /**
+     * Returns the field at the given index in the current record as a decimal.
+     * <P>
+     * Plain decimals with up to 15 significant digits are parsed directly from the file,
+     * where the result is exact; other values such as exponents are parsed from {@link #getValue(int)}
+     * using {@link Double#parseDouble(String)}.
+     * Leading and trailing whitespace is ignored.
+     * @param i The index of the field
+     * @return The field as a decimal
+     * @throws NumberFormatException if the field is not a valid decimal
+     */
+    public double getDouble(int i)
+    {
+        if(i < 0 || i >= count)
+            throw new IndexOutOfBoundsException("field "+i+" of "+count);
+
+        int p = trimStart(i);
+        int end = trimEnd(i, p);
+        boolean negative = false;
+        if(p < end && (buffer.get(p) == '-' || buffer.get(p) == '+'))
+            negative = buffer.get(p++) == '-';
+
+        long mantissa = 0L;
+        int digits = 0; // significant digits
+        int decimals = -1;
+        boolean found = false;
+        boolean simple = p < end;
+        for(; p < end && simple; p++)
+        {
+            byte b = buffer.get(p);
+            if(b >= '0' && b <= '9')
+            {
+                mantissa = (mantissa*10L)+(b-'0');
+                found = true;
+                if(mantissa > 0L)
+                    ++digits;
+                if(decimals >= 0)
+                    ++decimals;
+            }
+            else if(b == '.' && decimals < 0)
+            {
+                decimals = 0;
+            }
+            else
+            {
+                simple = false;
+            }
+        }
+
+        if(!simple || !found || digits > 15 || decimals >= POWERS_OF_TEN.length)
+            return Double.parseDouble(getValue(i).trim());
+
+        double ret = decimals > 0 ? mantissa/POWERS_OF_TEN[decimals] : mantissa;
+        return negative ? -ret : ret;
+    }
+
+    /**
+     * Returns the field at the given index in the current record as a boolean.
+     * <P>
+     * The field is compared directly in the file, ignoring case and whitespace;
+     * any other value is compared using {@link #getValue(int)}.
+     * @param i The index of the field
+     * @return <CODE>true</CODE> if the field is "true", or <CODE>false</CODE> if the field is "false"
+     * @throws IllegalArgumentException if the field is not a valid boolean
+     */
+    public boolean getBoolean(int i)
+    {
+        if(i < 0 || i >= count)
+            throw new IndexOutOfBoundsException("field "+i+" of "+count);
+
+        int p = trimStart(i);
+        int end = trimEnd(i, p);
+        if(equalsIgnoreCase(p, end, "true"))
+            return true;
+        else if(equalsIgnoreCase(p, end, "false"))
+            return false;
+
+        String value = getValue(i).trim();
+        if(value.equalsIgnoreCase("true"))
+            return true;
+        else if(value.equalsIgnoreCase("false"))
+            return false;
+        throw new IllegalArgumentException("Invalid boolean: "+value);
+    }
+
+    /**
+     * Returns all the fields in the current record.
+     * @return The fields in the current record
+     */
+    public String[] getFields()
+    {
+        String[] ret = new String[count];
+        for(int i = 0; i < count; i++)
+            ret[i] = getField(i);
+        return ret;
+    }
+
+    /**
+     * Closes the file.
+     * @throws IOException if the file cannot be closed
+     */
+    public void close() throws IOException
+    {
+        buffer = null;
+        if(channel != null)
+            channel.close();
+        if(raf != null)
+            raf.close();
+        channel = null;
+        raf = null;
+    }
+
+    /**
+     * Maps the window of the file starting at the given offset.
+     */
+    private void map(long offset) throws IOException
+    {
+        windowStart = offset;
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(WINDOW_SIZE, size-offset));
+    }
+
+    /**
+     * Records the offsets of the fields in the record starting at the given position in the window.
+     * @return The position after the end of the record, or -1 if the record crosses the end of the window
+     */
+    private int tokenize(int p) throws IOException
+    {
+        count = 0;
+        int limit = buffer.limit();
+        boolean last = windowStart+limit >= size; // the window includes the end of the file
+        int fieldStart = p;
+        while(true)
+        {
+            if(p >= limit)
+            {
+                if(!last)
+                    return -1;
+                addField(fieldStart, p, false);
+                return p;
+            }
+
+            byte b = buffer.get(p);
+            if(b == '"' && p == fieldStart) // Quoted field
+            {
+                int start = ++p;
+                while(true)
+                {
+                    if(p >= limit)
+                    {
+                        if(!last)
+                            return -1;
+                        throw new IOException(UNTERMINATED+position);
+                    }
+
+                    b = buffer.get(p);
+                    if(b == '"' || b == '\\')
+                    {
+                        if(p+1 >= limit)
+                        {
+                            if(!last)
+                                return -1;
+                            if(b == '\\')
+                                throw new IOException(UNTERMINATED+position);
+                            break;
+                        }
+
+                        byte next = buffer.get(p+1);
+                        if(next == '"' || (b == '\\' && next == '\\')) // an escaped character
+                        {
+                            p += 2;
+                            continue;
+                        }
+                        else if(b == '"') // the closing quote
+                        {
+                            break;
+                        }
+                    }
+                    ++p;
+                }
+
+                // Find the end of the field, keeping any text after the closing quote
+                int end = p++;
+                while(p < limit && (b = buffer.get(p)) != separator && b != '\n' && b != '\r')
+                    ++p;
+                if(p >= limit && !last)
+                    return -1;
+                addField(start, p > end+1 ? p : end, true);
+                if(p >= limit)
+                    return p;
+                if(b == separator)
+                {
+                    fieldStart = ++p;
+                    continue;
+                }
+                return endOfLine(p, limit, last);
+            }
+            else if(b == separator)
+            {
+                addField(fieldStart, p, false);
+                fieldStart = ++p;
+            }
+            else if(b == '\n' || b == '\r')
+            {
+                addField(fieldStart, p, false);
+                return endOfLine(p, limit, last);
+            }
+            else
+            {
+                ++p;
+            }
+        }
+    }
+
+    /**
+     * Returns the position after the line break at the given position in the window.
+     */
+    private int endOfLine(int p, int limit, boolean last)
+    {
+        if(buffer.get(p) == '\r')
+        {
+            if(p+1 >= limit)
+                return last ? p+1 : -1;
+            if(buffer.get(p+1) == '\n')
+                return p+2;
+        }
+        return p+1;
+    }
+
+    /**
+     * Returns the position of the first character in the field that is not whitespace.
+     */
+    private int trimStart(int i)
+    {
+        int p = starts[i];
+        while(p < ends[i] && isWhitespace(buffer.get(p)))
+            ++p;
+        return p;
+    }
+
+    /**
+     * Returns the position after the last character in the field that is not whitespace.
+     */
+    private int trimEnd(int i, int start)
+    {
+        int p = ends[i];
+        while(p > start && isWhitespace(buffer.get(p-1)))
+            --p;
+        return p;
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if the bytes between the given positions are the given ASCII string, ignoring case.
+     */
+    private boolean equalsIgnoreCase(int start, int end, String str)
+    {
+        if(end-start != str.length())
+            return false;
+        for(int p = start; p < end; p++)
+        {
+            if((buffer.get(p) | 0x20) != str.charAt(p-start))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if the given byte is whitespace.
+     */
+    private static boolean isWhitespace(byte b)
+    {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+
+    /**
+     * Adds the offsets of a field to the current record.
+     */
+    private void addField(int start, int end, boolean isQuoted)
+    {
+        if(count == starts.length)
+        {
+            starts = Arrays.copyOf(starts, count*2);
+            ends = Arrays.copyOf(ends, count*2);
+            quoted = Arrays.copyOf(quoted, count*2);
+        }
+        starts[count] = start;
+        ends[count] = end;
+        quoted[count] = isQuoted;
+        ++count;
+    }
+}
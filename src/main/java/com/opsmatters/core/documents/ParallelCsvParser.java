@@ -0,0 +1,325 @@
+/*
+ * Copyright 2018 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.core.documents;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.logging.Logger;
+
+/**
+ * Parses a CSV file in parallel by splitting it into chunks that each end on a record boundary.
+ * <P>
+ * The boundaries are found with a single scan of the bytes in the file that follows the quoting rules of {@link CsvTokenizer},
+ * so that a line break inside a quoted field never splits a record.
+ * Each chunk is then decoded and parsed on a fork-join pool, reading it directly from the file.
+ * The size of the chunks is limited, so that the memory used is bounded however large the file is.
+ * <P>
+ * The charset of the file must encode quotes and line breaks as single bytes (eg. UTF-8 or ISO-8859-1).
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class ParallelCsvParser
+{
+    private static final Logger logger = Logger.getLogger(ParallelCsvParser.class.getName());
+
+    /**
+     * The minimum size of a chunk in bytes.
+     */
+    public static final int MIN_CHUNK_SIZE = 1024*1024;
+
+    /**
+     * The maximum size of a chunk in bytes, unless a single record is larger.
+     */
+    public static final int MAX_CHUNK_SIZE = 16*1024*1024;
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private File file;
+    private FileDelimiter delimiter = FileDelimiter.COMMA;
+    private Charset charset = Charset.defaultCharset();
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Constructor that takes a file.
+     * @param file The CSV file to parse
+     */
+    public ParallelCsvParser(File file)
+    {
+        this.file = file;
+    }
+
+    /**
+     * Sets the delimiter used in the file.
+     * @param delimiter The delimiter used in the file
+     */
+    public void setDelimiter(FileDelimiter delimiter)
+    {
+        this.delimiter = delimiter;
+    }
+
+    /**
+     * Sets the charset used to decode the file.
+     * @param charset The charset used to decode the file
+     */
+    public void setCharset(Charset charset)
+    {
+        this.charset = charset;
+    }
+
+    /**
+     * Sets the number of threads used to parse the file.
+     * @param parallelism The number of threads used to parse the file
+     */
+    public void setParallelism(int parallelism)
+    {
+        if(parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Parses the file, passing the lines to the given handler in the order they appear in the file.
+     * <P>
+     * Each line is passed to {@link RowHandler#row(int, String[])}, including the header line.
+     * Only the lines of the chunks being parsed are held in memory at any one time.
+     * @param handler The handler to be passed the lines
+     * @return The number of lines in the file
+     * @throws IOException if the file cannot be read
+     */
+    public int parse(RowHandler handler) throws IOException
+    {
+        long[] boundaries = getBoundaries();
+        logger.fine("ParallelCsvParser.parse: file="+file+" chunks="+(boundaries.length-1));
+
+        int count = 0;
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try
+        {
+            // Keep a limited number of chunks in flight so that memory is bounded
+            List<ChunkTask> tasks = new ArrayList<ChunkTask>();
+            int next = 0;
+            for(int i = 0; i < boundaries.length-1; i++)
+            {
+                while(next < boundaries.length-1 && next < i+parallelism*2)
+                {
+                    ChunkTask task = new ChunkTask(boundaries[next], boundaries[next+1]);
+                    pool.execute(task);
+                    tasks.add(task);
+                    ++next;
+                }
+
+                List<String[]> lines = tasks.get(i).join();
+                tasks.set(i, null);
+                for(String[] line : lines)
+                    handler.row(count++, line);
+            }
+        }
+        catch(RuntimeException e)
+        {
+            // Rethrow the original exception if a chunk could not be read
+            for(Throwable t = e.getCause(); t != null; t = t.getCause())
+            {
+                if(t instanceof IOException)
+                    throw (IOException)t;
+            }
+            throw e;
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns the offsets of the chunks in the file, each chunk ending on a record boundary.
+     * <P>
+     * The records are found using the same quoting rules as the tokenizer used to parse the chunks.
+     */
+    long[] getBoundaries() throws IOException
+    {
+        long size = file.length();
+        long chunkSize = Math.min(MAX_CHUNK_SIZE, Math.max(MIN_CHUNK_SIZE, size/(parallelism*4)+1));
+
+        List<Long> list = new ArrayList<Long>();
+        list.add(0L);
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try
+        {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            long position = 0L;
+            long target = chunkSize;
+            CsvRecordScanner scanner = new CsvRecordScanner(delimiter.separator().charAt(0));
+            while(target < size && channel.read(buffer, position) > 0)
+            {
+                buffer.flip();
+                while(buffer.hasRemaining())
+                {
+                    ++position;
+                    if(scanner.next(buffer.get()) && position >= target)
+                    {
+                        list.add(position);
+                        target = position+chunkSize;
+                    }
+                }
+                buffer.clear();
+            }
+        }
+        finally
+        {
+            raf.close();
+        }
+
+        if(list.get(list.size()-1) < size)
+            list.add(size);
+
+        long[] ret = new long[list.size()];
+        for(int i = 0; i < ret.length; i++)
+            ret[i] = list.get(i);
+        return ret;
+    }
+
+    /**
+     * Task that parses the lines in a single chunk of the file.
+     */
+    private class ChunkTask extends RecursiveTask<List<String[]>>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private long start;
+        private long end;
+
+        /**
+         * Constructor that takes the start and end offsets of the chunk.
+         */
+        ChunkTask(long start, long end)
+        {
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Returns the lines parsed from the chunk.
+         */
+        @Override
+        protected List<String[]> compute()
+        {
+            List<String[]> ret = new ArrayList<String[]>();
+            try
+            {
+                RandomAccessFile raf = new RandomAccessFile(file, "r");
+                try
+                {
+                    // Decode the chunk as it is read, replacing malformed input as new String() would
+                    ChunkChannel chunk = new ChunkChannel(raf.getChannel(), start, end);
+                    CsvTokenizer csv = new CsvTokenizer(Channels.newReader(chunk, charset.newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE), BUFFER_SIZE),
+                        delimiter.separator().charAt(0));
+                    String[] line;
+                    while((line = csv.readNext()) != null)
+                        ret.add(line);
+                }
+                finally
+                {
+                    raf.close();
+                }
+            }
+            catch(IOException e)
+            {
+                throw new IllegalStateException(e);
+            }
+            return ret;
+        }
+    }
+
+    /**
+     * Channel that reads the bytes of a single chunk of the file.
+     */
+    private static class ChunkChannel implements ReadableByteChannel
+    {
+        private FileChannel channel;
+        private long position;
+        private long end;
+
+        /**
+         * Constructor that takes the file channel and the start and end offsets of the chunk.
+         */
+        ChunkChannel(FileChannel channel, long start, long end)
+        {
+            this.channel = channel;
+            this.position = start;
+            this.end = end;
+        }
+
+        /**
+         * Reads bytes from the chunk into the given buffer.
+         */
+        @Override
+        public int read(ByteBuffer dst) throws IOException
+        {
+            if(position >= end)
+                return -1;
+
+            int limit = dst.limit();
+            if(dst.remaining() > end-position)
+                dst.limit(dst.position()+(int)(end-position));
+            try
+            {
+                int ret = channel.read(dst, position);
+                if(ret > 0)
+                    position += ret;
+                return ret;
+            }
+            finally
+            {
+                dst.limit(limit);
+            }
+        }
+
+        /**
+         * Returns <CODE>true</CODE> if the file channel is open.
+         */
+        @Override
+        public boolean isOpen()
+        {
+            return channel.isOpen();
+        }
+
+        /**
+         * The file channel is closed by the task that reads the chunk.
+         */
+        @Override
+        public void close()
+        {
+        }
+    }
+}
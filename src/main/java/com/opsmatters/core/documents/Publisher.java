@@ -0,0 +1,33 @@
+/*
+ * Copyright 2018 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.core.documents;
+
+/**
+ * Represents a source of items that are sent to a subscriber as it requests them.
+ * <P>
+ * Follows the same contract as <CODE>org.reactivestreams.Publisher</CODE>, so can be adapted to it directly.
+ * 
+ * @author Gerald Curley (opsmatters)
+ */
+public interface Publisher<T>
+{
+    /**
+     * Starts sending items to the given subscriber as it requests them.
+     * @param subscriber The subscriber to be sent the items
+     */
+    public void subscribe(Subscriber<? super T> subscriber);
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2018 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.core.documents;
+
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Stream that reads another stream ahead on its own thread.
+ * <P>
+ * Used to run an expensive stream such as a decompressor in parallel with the code consuming the stream.
+ * The chunks read ahead are held in a bounded queue, so the reading thread waits when the consumer falls behind,
+ * and the chunk buffers are recycled once they have been consumed.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class ReadAheadInputStream extends InputStream
+{
+    /**
+     * The size of each chunk read ahead.
+     */
+    public static final int CHUNK_SIZE = 65536;
+
+    /**
+     * The default number of chunks held in the queue.
+     */
+    public static final int DEFAULT_CHUNKS = 4;
+
+    private static final Chunk END = new Chunk(0);
+
+    /**
+     * Constructor that takes a stream.
+     * @param source The stream to be read ahead
+     * @param name The name of the thread used to read the stream
+     */
+    public ReadAheadInputStream(InputStream source, String name)
+    {
+        this(source, name, DEFAULT_CHUNKS);
+    }
+
+    /**
+     * Constructor that takes a stream and the number of chunks to read ahead.
+     * @param source The stream to be read ahead
+     * @param name The name of the thread used to read the stream
+     * @param chunks The maximum number of chunks held in the queue
+     */
+    public ReadAheadInputStream(InputStream source, String name, int chunks)
+    {
+        if(chunks < 1)
+            throw new IllegalArgumentException("chunks must be at least 1");
+
+        this.source = source;
+        this.full = new ArrayBlockingQueue<Chunk>(chunks);
+        this.empty = new ArrayBlockingQueue<Chunk>(chunks+1);
+
+        reader = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                readAhead();
+            }
+        }, name);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        if(!next())
+            return -1;
+        return current.data[pos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        if(len == 0)
+            return 0;
+        if(!next())
+            return -1;
+        int n = Math.min(len, current.length-pos);
+        System.arraycopy(current.data, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException
+    {
+        return current != null && current != END ? current.length-pos : 0;
+    }
+
+    /**
+     * Stops the reading thread and closes the underlying stream.
+     * @throws IOException if the underlying stream cannot be closed
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if(closed)
+            return;
+        closed = true;
+        reader.interrupt();
+        source.close();
+    }
+
+    /**
+     * Moves to the next chunk once the current chunk has been consumed.
+     * @return <CODE>false</CODE> at the end of the stream
+     */
+    private boolean next() throws IOException
+    {
+        if(closed)
+            throw new IOException("stream closed");
+        if(current == END)
+            return false;
+        if(current != null && pos < current.length)
+            return true;
+
+        // Return the consumed chunk to be reused
+        if(current != null)
+            empty.offer(current);
+
+        try
+        {
+            current = full.take();
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting for data");
+        }
+        pos = 0;
+
+        if(current == END)
+        {
+            if(error != null)
+                throw error;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads the underlying stream into chunks until the end of the stream, an error or the stream is closed.
+     */
+    private void readAhead()
+    {
+        boolean interrupted = false;
+        try
+        {
+            while(!closed)
+            {
+                Chunk chunk = empty.poll();
+                if(chunk == null)
+                    chunk = new Chunk(CHUNK_SIZE);
+
+                // Fill the chunk as far as possible to keep the hand-offs few
+                chunk.length = 0;
+                int n = 0;
+                while(chunk.length < chunk.data.length
+                    && (n = source.read(chunk.data, chunk.length, chunk.data.length-chunk.length)) > 0)
+                {
+                    chunk.length += n;
+                }
+
+                if(chunk.length > 0)
+                    full.put(chunk);
+                if(n < 0)
+                    break;
+            }
+        }
+        catch(IOException e)
+        {
+            if(!closed)
+                error = e;
+        }
+        catch(RuntimeException e)
+        {
+            if(!closed)
+                error = new IOException(e);
+        }
+        catch(InterruptedException e)
+        {
+            interrupted = true; // stopped by close()
+        }
+
+        try
+        {
+            if(!interrupted && !closed)
+                full.put(END);
+        }
+        catch(InterruptedException e)
+        {
+            // Stopped by close()
+        }
+    }
+
+    /**
+     * Represents a chunk of data read ahead.
+     */
+    private static class Chunk
+    {
+        byte[] data;
+        int length = 0;
+
+        /**
+         * Constructor that takes a size.
+         */
+        Chunk(int size)
+        {
+            data = new byte[size];
+        }
+    }
+
+    private InputStream source;
+    private Thread reader;
+    private BlockingQueue<Chunk> full;
+    private BlockingQueue<Chunk> empty;
+    private Chunk current;
+    private int pos = 0;
+    private volatile boolean closed = false;
+    private volatile IOException error;
+}
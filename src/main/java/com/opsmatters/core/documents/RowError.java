@@ -0,0 +1,94 @@
+/*
+ * Copyright 2018 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.core.documents;
+
+/**
+ * Represents an invalid value found in a row of an input file.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class RowError
+{
+    private int row;
+    private String column;
+    private String value;
+    private String message;
+
+    /**
+     * Constructor that takes the location of the error and a message.
+     * @param row The index of the row with the error
+     * @param column The name of the column with the error
+     * @param value The invalid value
+     * @param message The message describing the error
+     */
+    public RowError(int row, String column, String value, String message)
+    {
+        this.row = row;
+        this.column = column;
+        this.value = value;
+        this.message = message;
+    }
+
+    /**
+     * Returns the index of the row with the error.
+     * @return The index of the row with the error
+     */
+    public int getRow()
+    {
+        return row;
+    }
+
+    /**
+     * Returns the name of the column with the error.
+     * @return The name of the column with the error
+     */
+    public String getColumn()
+    {
+        return column;
+    }
+
+    /**
+     * Returns the invalid value.
+     * @return The invalid value
+     */
+    public String getValue()
+    {
+        return value;
+    }
+
+    /**
+     * Returns the message describing the error.
+     * @return The message describing the error
+     */
+    public String getMessage()
+    {
+        return message;
+    }
+
+    /**
+     * Returns a string representation of the object.
+     */
+    @Override
+    public String toString()
+    {
+        return "RowError [row="+row
+            +", column="+column
+            +", value="+value
+            +", message="+message
+            +"]";
+    }
+}
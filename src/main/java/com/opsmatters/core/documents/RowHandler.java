@@ -0,0 +1,40 @@
+/*
+ * Copyright 2018 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.core.documents;
+
+/**
+ * Represents the interface to process the rows of an input file one at a time as it is parsed.
+ * 
+ * @author Gerald Curley (opsmatters)
+ */
+public interface RowHandler
+{
+    /**
+     * Called with the column headers before any of the rows.
+     * <P>
+     * The handler can reject the input file by throwing an exception if the headers are not valid.
+     * @param headers The column headers in the input file
+     */
+    public void headers(String[] headers);
+
+    /**
+     * Called for each row of data in the input file.
+     * @param index The index of the row, starting from 0 for the first row after the headers
+     * @param row The row of data
+     */
+    public void row(int index, String[] row);
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2018 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.core.documents;
+
+import java.util.concurrent.Executor;
+import java.util.logging.Logger;
+
+/**
+ * Publishes the rows of an input file to a subscriber as it requests them.
+ * <P>
+ * The file is parsed by an {@link InputFileReader} on a separate thread,
+ * which waits whenever the subscriber has no outstanding demand,
+ * so the rows never need to be held in memory and reading keeps pace with the subscriber.
+ * <P>
+ * Only the data rows are published; the column headers are available from {@link InputFileReader#getHeaders()}
+ * once the first row has been received. Only a single subscriber is allowed.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class RowPublisher implements Publisher<String[]>
+{
+    private static final Logger logger = Logger.getLogger(RowPublisher.class.getName());
+
+    private InputFileReader reader;
+    private Executor executor;
+    private boolean subscribed = false;
+
+    /**
+     * Constructor that takes a reader.
+     * <P>
+     * The reader is run on a new daemon thread.
+     * @param reader The reader for the input file
+     */
+    public RowPublisher(InputFileReader reader)
+    {
+        this(reader, null);
+    }
+
+    /**
+     * Constructor that takes a reader and an executor.
+     * @param reader The reader for the input file
+     * @param executor The executor used to run the reader, or <CODE>null</CODE> to use a new daemon thread
+     */
+    public RowPublisher(InputFileReader reader, Executor executor)
+    {
+        if(reader == null)
+            throw new IllegalArgumentException("null reader");
+        this.reader = reader;
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the reader for the input file.
+     * @return The reader for the input file
+     */
+    public InputFileReader getReader()
+    {
+        return reader;
+    }
+
+    /**
+     * Starts parsing the input file, sending the rows to the given subscriber as it requests them.
+     * @param subscriber The subscriber to be sent the rows
+     */
+    @Override
+    public void subscribe(Subscriber<? super String[]> subscriber)
+    {
+        if(subscriber == null)
+            throw new NullPointerException("null subscriber");
+
+        boolean rejected = false;
+        synchronized(this)
+        {
+            rejected = subscribed;
+            subscribed = true;
+        }
+
+        if(rejected)
+        {
+            subscriber.onSubscribe(new RowSubscription(null));
+            subscriber.onError(new IllegalStateException("publisher only allows a single subscriber"));
+            return;
+        }
+
+        RowSubscription subscription = new RowSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        if(executor != null)
+        {
+            executor.execute(subscription);
+        }
+        else
+        {
+            Thread thread = new Thread(subscription, "RowPublisher-"+reader.getName());
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Exception used to stop the reader when the subscription is cancelled.
+     */
+    private static class CancelledException extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * The subscription that runs the reader and passes on the rows as they are requested.
+     */
+    private class RowSubscription implements Subscription, RowHandler, Runnable
+    {
+        private Subscriber<? super String[]> subscriber;
+        private long demand = 0L;
+        private boolean cancelled = false;
+        private Throwable error;
+
+        /**
+         * Constructor that takes a subscriber.
+         */
+        RowSubscription(Subscriber<? super String[]> subscriber)
+        {
+            this.subscriber = subscriber;
+            this.cancelled = subscriber == null;
+        }
+
+        /**
+         * Adds the given number of rows to the demand of the subscriber.
+         * @param n The number of rows requested
+         */
+        @Override
+        public synchronized void request(long n)
+        {
+            if(cancelled)
+                return;
+
+            if(n <= 0L)
+            {
+                error = new IllegalArgumentException("request must be greater than 0: "+n);
+                cancelled = true;
+            }
+            else
+            {
+                demand += n;
+                if(demand < 0L) // overflow
+                    demand = Long.MAX_VALUE;
+            }
+            notifyAll();
+        }
+
+        /**
+         * Stops the reader.
+         */
+        @Override
+        public synchronized void cancel()
+        {
+            cancelled = true;
+            notifyAll();
+        }
+
+        /**
+         * Parses the input file, then completes the subscriber.
+         */
+        @Override
+        public void run()
+        {
+            Throwable t = null;
+            try
+            {
+                reader.parse(this);
+            }
+            catch(CancelledException e)
+            {
+                // Stopped by the subscriber
+            }
+            catch(Exception e)
+            {
+                t = e;
+            }
+
+            Throwable failure = null;
+            synchronized(this)
+            {
+                if(error != null)
+                    failure = error;
+                else if(!cancelled)
+                    failure = t;
+                else
+                    return;
+                cancelled = true;
+            }
+
+            if(failure != null)
+            {
+                logger.fine("RowPublisher.run: failed: "+failure);
+                subscriber.onError(failure);
+            }
+            else
+            {
+                subscriber.onComplete();
+            }
+        }
+
+        @Override
+        public void headers(String[] headers)
+        {
+        }
+
+        /**
+         * Waits until the subscriber has requested a row, then sends it the given row.
+         * @param index The index of the row
+         * @param row The row of data
+         */
+        @Override
+        public void row(int index, String[] row)
+        {
+            synchronized(this)
+            {
+                try
+                {
+                    while(demand == 0L && !cancelled)
+                        wait();
+                }
+                catch(InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    cancelled = true;
+                }
+
+                if(cancelled)
+                    throw new CancelledException();
+                if(demand != Long.MAX_VALUE)
+                    --demand;
+            }
+
+            subscriber.onNext(row);
+        }
+    }
+}
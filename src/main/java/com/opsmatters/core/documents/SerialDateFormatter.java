@@ -0,0 +1,66 @@
+/*
+ * Copyright 2018 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opsmatters.core.documents;
+
+import java.util.Date;
+import java.text.SimpleDateFormat;
+import java.text.FieldPosition;
+
+/**
+ * Formats the serial dates of an Excel worksheet, reusing the same date and buffer for each value.
+ * <P>
+ * The last value formatted is cached, as the same date often appears in consecutive rows.
+ * Not thread-safe, so each reader has its own formatter.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+class SerialDateFormatter
+{
+    /**
+     * Returns the given serial date formatted using the given date format.
+     * <P>
+     * Values of 1.0 or less are taken to be times, which are stored as a fraction of a day.
+     * @param d The serial date, as the number of days since 1/1/1900
+     * @param df The date format to use
+     * @return The formatted date
+     */
+    String format(double d, SimpleDateFormat df)
+    {
+        // Convert excel date (based on 1/1/1900)
+        //   to java date (based on 1/1/1970)
+        // Ignore times, which are stored as fraction of a day
+        if(d > 1.0d)
+            d -= 25569d;
+
+        long dt = (long)(d*86400000d)+1L; // Add 1ms to allow for rounding errors
+        if(value == null || dt != date.getTime() || df != format)
+        {
+            date.setTime(dt);
+            buffer.setLength(0);
+            value = df.format(date, buffer, position).toString();
+            format = df;
+        }
+        return value;
+    }
+
+    private Date date = new Date();
+    private StringBuffer buffer = new StringBuffer();
+    private FieldPosition position = new FieldPosition(0);
+    private SimpleDateFormat format;
+    private String value;
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2018 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.core.documents;
+
+/**
+ * Represents the interface to receive the items sent by a {@link Publisher}.
+ * <P>
+ * Follows the same contract as <CODE>org.reactivestreams.Subscriber</CODE>, so can be adapted to it directly.
+ * 
+ * @author Gerald Curley (opsmatters)
+ */
+public interface Subscriber<T>
+{
+    /**
+     * Called once before any other method, with the subscription used to request items.
+     * @param subscription The subscription used to request items or cancel the subscription
+     */
+    public void onSubscribe(Subscription subscription);
+
+    /**
+     * Called for each item, but only after it has been requested.
+     * @param item The next item
+     */
+    public void onNext(T item);
+
+    /**
+     * Called if the publisher failed, after which no other methods are called.
+     * @param t The error that caused the failure
+     */
+    public void onError(Throwable t);
+
+    /**
+     * Called when all the items have been sent, after which no other methods are called.
+     */
+    public void onComplete();
+}
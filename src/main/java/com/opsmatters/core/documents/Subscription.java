@@ -0,0 +1,40 @@
+/*
+ * Copyright 2018 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.core.documents;
+
+/**
+ * Represents the link between a {@link Publisher} and a {@link Subscriber}.
+ * <P>
+ * Follows the same contract as <CODE>org.reactivestreams.Subscription</CODE>, so can be adapted to it directly.
+ * 
+ * @author Gerald Curley (opsmatters)
+ */
+public interface Subscription
+{
+    /**
+     * Requests the given number of items to be sent to the subscriber.
+     * <P>
+     * No items are sent until they are requested, so the publisher waits while the subscriber has no demand.
+     * @param n The number of items requested, which must be greater than 0
+     */
+    public void request(long n);
+
+    /**
+     * Stops the publisher sending items to the subscriber.
+     */
+    public void cancel();
+}
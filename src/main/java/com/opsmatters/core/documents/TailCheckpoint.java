@@ -0,0 +1,92 @@
+/*
+ * Copyright 2018 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opsmatters.core.documents;
+
+import java.util.Arrays;
+
+/**
+ * Represents the position reached in a growing CSV file, so that the next read can resume from it.
+ * <P>
+ * The checkpoint holds the offset in bytes after the last complete record read,
+ * the column headers from the first line of the file, and the number of data rows read so far.
+ * The values can be stored by the caller and used to create a new checkpoint later.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class TailCheckpoint
+{
+    private long offset;
+    private String[] headers;
+    private int rows;
+
+    /**
+     * Constructor that takes the offset, headers and number of rows.
+     * @param offset The offset in bytes after the last complete record read
+     * @param headers The column headers of the file
+     * @param rows The number of data rows read so far
+     */
+    public TailCheckpoint(long offset, String[] headers, int rows)
+    {
+        if(offset < 0L)
+            throw new IllegalArgumentException("offset cannot be negative: "+offset);
+        if(offset > 0L && headers == null)
+            throw new IllegalArgumentException("null headers");
+        this.offset = offset;
+        this.headers = headers;
+        this.rows = rows;
+    }
+
+    /**
+     * Returns the offset in bytes after the last complete record read.
+     * @return The offset in bytes after the last complete record read
+     */
+    public long getOffset()
+    {
+        return offset;
+    }
+
+    /**
+     * Returns the column headers of the file.
+     * @return The column headers of the file, or <CODE>null</CODE> if the header line has not been read
+     */
+    public String[] getHeaders()
+    {
+        return headers;
+    }
+
+    /**
+     * Returns the number of data rows read so far.
+     * @return The number of data rows read so far
+     */
+    public int getRows()
+    {
+        return rows;
+    }
+
+    /**
+     * Returns a string representation of the object.
+     */
+    @Override
+    public String toString()
+    {
+        return "TailCheckpoint [offset="+offset
+            +", headers="+Arrays.toString(headers)
+            +", rows="+rows
+            +"]";
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2018 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.core.documents;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.IOException;
+
+/**
+ * Reader that decodes UTF-8 or ISO-8859-1 directly from the bytes of a stream.
+ * <P>
+ * ASCII bytes are copied straight to characters, with only multi-byte UTF-8 sequences decoded separately.
+ * Invalid UTF-8 sequences are replaced with U+FFFD, including overlong encodings, 
+ * surrogates and code points above U+10FFFF, so that they cannot add quotes or delimiters to the text.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+class Utf8Reader extends Reader
+{
+    private static final int BUFFER_SIZE = 65536;
+    private static final char REPLACEMENT = '\uFFFD';
+
+    // The smallest code point that can be encoded by a sequence of each length
+    private static final int[] MIN_CODE_POINTS = {0, 0, 0x80, 0x800, 0x10000};
+
+    /**
+     * Constructor that takes a stream.
+     * @param stream The stream to decode
+     * @param latin1 <CODE>true</CODE> if the stream is ISO-8859-1 rather than UTF-8
+     */
+    Utf8Reader(InputStream stream, boolean latin1)
+    {
+        this.stream = stream;
+        this.latin1 = latin1;
+    }
+
+    /**
+     * Reads characters into a portion of an array.
+     */
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException
+    {
+        if(len == 0)
+            return 0;
+
+        int n = 0;
+        if(pending != 0)
+        {
+            cbuf[off+n++] = pending;
+            pending = 0;
+        }
+
+        while(n < len)
+        {
+            if(pos >= limit)
+            {
+                if(n > 0 || !fill())
+                    break;
+            }
+
+            // Copy ASCII bytes straight through
+            int end = Math.min(limit, pos+(len-n));
+            while(pos < end && buffer[pos] >= 0)
+                cbuf[off+n++] = (char)buffer[pos++];
+            if(pos >= end)
+                continue;
+
+            int b = buffer[pos] & 0xFF;
+            if(latin1)
+            {
+                cbuf[off+n++] = (char)b;
+                ++pos;
+                continue;
+            }
+
+            int size = b >= 0xF8 ? 1 : b >= 0xF0 ? 4 : b >= 0xE0 ? 3 : b >= 0xC0 ? 2 : 1;
+            if(size == 1) // unexpected continuation or invalid byte
+            {
+                cbuf[off+n++] = REPLACEMENT;
+                ++pos;
+                continue;
+            }
+
+            // Wait for the rest of a sequence split across reads
+            if(limit-pos < size)
+            {
+                if(n > 0)
+                    break;
+                if(!fill())
+                {
+                    cbuf[off+n++] = REPLACEMENT;
+                    pos = limit;
+                    break;
+                }
+                continue;
+            }
+
+            int cp = b & (0xFF >> (size+1));
+            int i = 1;
+            for(; i < size; i++)
+            {
+                int c = buffer[pos+i];
+                if((c & 0xC0) != 0x80)
+                    break;
+                cp = (cp << 6) | (c & 0x3F);
+            }
+
+            if(i < size) // invalid sequence
+            {
+                cbuf[off+n++] = REPLACEMENT;
+                pos += i;
+            }
+            else if(cp < MIN_CODE_POINTS[size] || (cp >= 0xD800 && cp <= 0xDFFF) || cp > 0x10FFFF)
+            {
+                // Overlong encoding, surrogate or out of range
+                cbuf[off+n++] = REPLACEMENT;
+                pos += size;
+            }
+            else if(cp >= 0x10000)
+            {
+                cbuf[off+n++] = Character.highSurrogate(cp);
+                char low = Character.lowSurrogate(cp);
+                if(n < len)
+                    cbuf[off+n++] = low;
+                else
+                    pending = low;
+                pos += size;
+            }
+            else
+            {
+                cbuf[off+n++] = (char)cp;
+                pos += size;
+            }
+        }
+
+        return n > 0 ? n : -1;
+    }
+
+    /**
+     * Closes the stream.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        stream.close();
+    }
+
+    /**
+     * Moves any unread bytes to the start of the buffer and reads more bytes from the stream.
+     * @return <CODE>false</CODE> at the end of the stream
+     */
+    private boolean fill() throws IOException
+    {
+        int remaining = limit-pos;
+        System.arraycopy(buffer, pos, buffer, 0, remaining);
+        pos = 0;
+        limit = remaining;
+        int len = stream.read(buffer, limit, buffer.length-limit);
+        if(len <= 0)
+            return false;
+        limit += len;
+        return true;
+    }
+
+    private InputStream stream;
+    private boolean latin1;
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    private int pos = 0;
+    private int limit = 0;
+    private char pending = 0;
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2018 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.core.documents;
+
+/**
+ * Represents the name and dimensions of a worksheet, read without loading the worksheet.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class WorksheetInfo
+{
+    private String name;
+    private int rows = -1;
+    private int columns = -1;
+
+    /**
+     * Constructor that takes a name.
+     * @param name The name of the worksheet
+     */
+    public WorksheetInfo(String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     * Constructor that takes a name and dimensions.
+     * @param name The name of the worksheet
+     * @param rows The number of rows in the worksheet
+     * @param columns The number of columns in the worksheet
+     */
+    public WorksheetInfo(String name, int rows, int columns)
+    {
+        this.name = name;
+        this.rows = rows;
+        this.columns = columns;
+    }
+
+    /**
+     * Returns the name of the worksheet.
+     * @return The name of the worksheet
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Returns the number of rows in the worksheet, as recorded in the file.
+     * @return The number of rows in the worksheet, or -1 if the dimensions were not read
+     */
+    public int getRows()
+    {
+        return rows;
+    }
+
+    /**
+     * Returns the number of columns in the worksheet, as recorded in the file.
+     * @return The number of columns in the worksheet, or -1 if the dimensions were not read
+     */
+    public int getColumns()
+    {
+        return columns;
+    }
+
+    /**
+     * Sets the dimensions of the worksheet.
+     * @param rows The number of rows in the worksheet
+     * @param columns The number of columns in the worksheet
+     */
+    void setDimensions(int rows, int columns)
+    {
+        this.rows = rows;
+        this.columns = columns;
+    }
+
+    /**
+     * Returns a string representation of the object.
+     */
+    @Override
+    public String toString()
+    {
+        return "WorksheetInfo [name="+name
+            +", rows="+rows
+            +", columns="+columns
+            +"]";
+    }
+}
@@ -0,0 +1,752 @@
+/*
+ * Copyright 2018 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opsmatters.core.documents;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Arrays;
+import java.io.File;
+import java.io.InputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.text.SimpleDateFormat;
+import java.util.logging.Logger;
+
+/**
+ * Reads the rows of an Excel XLS worksheet one at a time.
+ * <P>
+ * The BIFF records of the worksheet are read directly from the compound file,
+ * rather than loading the whole workbook into cell objects,
+ * so only the shared strings and cell formats are held in memory.
+ * <P>
+ * Numbers are given without their cell formatting, as for {@link XlsxStreamReader},
+ * and cells with a date or time format are given using the date format passed in.
+ * {@link InputFileReader} only uses this reader for XLS files when streaming has been enabled,
+ * as its default is to give the formatted cell contents.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class XlsStreamReader
+{
+    private static final Logger logger = Logger.getLogger(XlsStreamReader.class.getName());
+
+    // The offset in days between the 1900 and 1904 date systems
+    private static final int DAYS_1904 = 1462;
+
+    /**
+     * Constructor that takes a file.
+     * @param file The XLS file
+     * @throws IOException if the file cannot be opened or is not an XLS file
+     */
+    public XlsStreamReader(File file) throws IOException
+    {
+        this.file = file;
+        init();
+    }
+
+    /**
+     * Constructor that takes an input stream.
+     * <P>
+     * The stream is copied to a temporary file as the sectors of the compound file need to be read in a different order.
+     * @param stream The input stream with the XLS file
+     * @throws IOException if the stream cannot be read or is not an XLS file
+     */
+    public XlsStreamReader(InputStream stream) throws IOException
+    {
+        file = File.createTempFile("xls-", ".tmp");
+        file.deleteOnExit();
+        temporary = true;
+
+        FileOutputStream os = new FileOutputStream(file);
+        try
+        {
+            byte[] buffer = new byte[8192];
+            int len;
+            while((len = stream.read(buffer)) != -1)
+                os.write(buffer, 0, len);
+        }
+        finally
+        {
+            os.close();
+        }
+
+        init();
+    }
+
+    /**
+     * Reads the sheets, shared strings and cell formats from the workbook globals at the start of the workbook stream.
+     */
+    private void init() throws IOException
+    {
+        try
+        {
+            cf = new CompoundFile(file);
+            BiffReader reader = new BiffReader(getWorkbookStream());
+            try
+            {
+                readGlobals(reader);
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        catch(IOException e)
+        {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the names of the sheets in the workbook.
+     * @return The names of the sheets in the workbook
+     */
+    public String[] getSheetNames()
+    {
+        return sheetNames.toArray(new String[sheetNames.size()]);
+    }
+
+    /**
+     * Returns the shared string with the given index.
+     * @param i The index of the shared string
+     * @return The shared string with the given index
+     */
+    public String getSharedString(int i)
+    {
+        return i >= 0 && i < sharedStrings.length ? sharedStrings[i] : null;
+    }
+
+    /**
+     * Returns the reader for the worksheet with the given name.
+     * @param name The name of the worksheet
+     * @return The reader for the worksheet, or <CODE>null</CODE> if the worksheet was not found
+     * @throws IOException if the worksheet cannot be opened
+     */
+    public SheetReader getSheet(String name) throws IOException
+    {
+        SheetReader ret = null;
+        int i = sheetNames.indexOf(name);
+        if(i != -1)
+        {
+            BiffReader reader = new BiffReader(getWorkbookStream());
+            reader.seek(sheetOffsets.get(i));
+            ret = new SheetReader(reader);
+        }
+        return ret;
+    }
+
+    /**
+     * Closes the file, deleting it if it was a temporary copy of a stream.
+     */
+    public void close()
+    {
+        if(cf != null)
+            cf.close();
+        cf = null;
+
+        if(temporary)
+            file.delete();
+    }
+
+    /**
+     * Returns the workbook stream from the compound file.
+     */
+    private InputStream getWorkbookStream() throws IOException
+    {
+        InputStream ret = cf.getStream("Workbook");
+        if(ret == null)
+            ret = cf.getStream("Book"); // BIFF5/7
+        if(ret == null)
+            throw new IOException("Workbook stream not found: "+file);
+        return ret;
+    }
+
+    /**
+     * Reads the records of the workbook globals up to the first EOF record.
+     */
+    private void readGlobals(BiffReader reader) throws IOException
+    {
+        Map<Long,String> formatCodes = new HashMap<Long,String>();
+        List<Integer> formatIds = new ArrayList<Integer>();
+        List<byte[]> sst = null;
+
+        int sid;
+        while((sid = reader.next()) >= 0 && sid != BiffReader.EOF)
+        {
+            // Collect the SST record and its CONTINUE records to be parsed together
+            if(sst != null && sid != BiffReader.CONTINUE)
+            {
+                readSharedStrings(sst);
+                sst = null;
+            }
+
+            byte[] data = reader.getData();
+            if(sid == BiffReader.BOF)
+            {
+                version = reader.getShort(0);
+            }
+            else if(sid == BiffReader.BOUNDSHEET)
+            {
+                // Only include worksheets
+                if(data[5] != 0)
+                    continue;
+                sheetNames.add(getShortString(data, 6));
+                sheetOffsets.add(reader.getInt(0) & 0xFFFFFFFFL);
+            }
+            else if(sid == BiffReader.SST)
+            {
+                sst = new ArrayList<byte[]>();
+                sst.add(Arrays.copyOf(data, reader.getLength()));
+            }
+            else if(sid == BiffReader.CONTINUE && sst != null)
+            {
+                sst.add(Arrays.copyOf(data, reader.getLength()));
+            }
+            else if(sid == BiffReader.FORMAT)
+            {
+                String code = null;
+                if(version == BiffReader.BIFF8)
+                    code = getString(data, 4, reader.getShort(2));
+                else
+                    code = getShortString(data, 2);
+                formatCodes.put((long)reader.getShort(0), code);
+            }
+            else if(sid == BiffReader.XF)
+            {
+                formatIds.add(reader.getShort(2));
+            }
+            else if(sid == BiffReader.DATEMODE)
+            {
+                date1904 = reader.getShort(0) == 1;
+            }
+        }
+
+        if(sst != null)
+            readSharedStrings(sst);
+
+        // Custom formats are dates if they include any date or time codes, as they were for jxl
+        dateStyles = new boolean[formatIds.size()];
+        for(int i = 0; i < dateStyles.length; i++)
+        {
+            long id = formatIds.get(i);
+            String code = formatCodes.get(id);
+            dateStyles[i] = XlsxStreamReader.isBuiltInDateTime(id)
+                || (code != null && isDateFormat(code));
+        }
+
+        logger.fine("XlsStreamReader.readGlobals: file="+file+" sheets="+sheetNames.size()
+            +" strings="+sharedStrings.length);
+    }
+
+    /**
+     * Reads the shared strings from the given SST record and the CONTINUE records that follow it.
+     * <P>
+     * A string split across records starts again in the next record with the option flags,
+     * as the characters may be stored compressed in one record and uncompressed in the next.
+     */
+    private void readSharedStrings(List<byte[]> records)
+    {
+        RecordData data = new RecordData(records);
+        data.skip(4); // total number of strings
+        int count = data.getInt();
+        if(count < 0)
+            count = 0;
+
+        List<String> strings = new ArrayList<String>(Math.min(count, 65536));
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i < count && data.hasRemaining(); i++)
+        {
+            int cch = data.getShort();
+            int flags = data.getByte();
+            int runs = (flags & 0x08) != 0 ? data.getShort() : 0;
+            int ext = (flags & 0x04) != 0 ? data.getInt() : 0;
+
+            sb.setLength(0);
+            boolean wide = (flags & 0x01) != 0;
+            while(sb.length() < cch)
+            {
+                if(data.isEndOfRecord())
+                {
+                    if(!data.nextRecord())
+                        break;
+                    wide = (data.getByte() & 0x01) != 0;
+                }
+                data.getChars(sb, cch, wide);
+            }
+            strings.add(sb.toString());
+
+            data.skip(runs*4+ext);
+        }
+
+        sharedStrings = strings.toArray(new String[strings.size()]);
+    }
+
+    /**
+     * Returns the string with an 8-bit length at the given offset in a record.
+     */
+    private String getShortString(byte[] data, int offset) throws UnsupportedEncodingException
+    {
+        int len = data[offset] & 0xFF;
+        if(version != BiffReader.BIFF8)
+            return new String(data, offset+1, len, "Cp1252");
+        return getString(data, offset+1, len);
+    }
+
+    /**
+     * Returns the BIFF8 string with the given number of characters, starting with the option flags at the given offset.
+     */
+    private static String getString(byte[] data, int offset, int len) throws UnsupportedEncodingException
+    {
+        if((data[offset] & 0x01) != 0)
+            return new String(data, offset+1, Math.min(len*2, data.length-offset-1), "UTF-16LE");
+        return new String(data, offset+1, Math.min(len, data.length-offset-1), "ISO-8859-1");
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if the cell format with the given index is a date or time.
+     */
+    private boolean isDateStyle(int xf)
+    {
+        return xf >= 0 && xf < dateStyles.length && dateStyles[xf];
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if the given custom format code includes day, month, year, hour or second codes.
+     * <P>
+     * Only the first section of the format is checked, ignoring quoted text, escaped characters
+     * and bracketed colours or locales.
+     * @param formatCode The custom format code
+     * @return <CODE>true</CODE> if the format code includes date or time codes
+     */
+    static boolean isDateFormat(String formatCode)
+    {
+        boolean quoted = false;
+        for(int i = 0; i < formatCode.length(); i++)
+        {
+            char c = formatCode.charAt(i);
+            if(c == '"')
+            {
+                quoted = !quoted;
+            }
+            else if(quoted)
+            {
+                continue;
+            }
+            else if(c == '\\' || c == '_' || c == '*') // the next character is literal or padding
+            {
+                ++i;
+            }
+            else if(c == '[')
+            {
+                // Elapsed times like [h] are dates, anything else like [Red] or [$-409] is skipped
+                int end = formatCode.indexOf(']', i);
+                if(end == -1)
+                    break;
+                String code = formatCode.substring(i+1, end).toLowerCase();
+                if(code.length() > 0 && "hms".indexOf(code.charAt(0)) != -1
+                    && code.replace(code.charAt(0), ' ').trim().length() == 0)
+                {
+                    return true;
+                }
+                i = end;
+            }
+            else if(c == ';')
+            {
+                break;
+            }
+            else if("dmyhsDMYHS".indexOf(c) != -1)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the display value of a number.
+     */
+    private String getNumber(double d, int xf, SimpleDateFormat df)
+    {
+        if(isDateStyle(xf))
+        {
+            if(date1904)
+                d += DAYS_1904;
+            return dates.format(d, df);
+        }
+
+        if(d == Math.rint(d) && Math.abs(d) < 1.0e15d)
+            return Long.toString((long)d);
+        return BigDecimal.valueOf(d).stripTrailingZeros().toPlainString();
+    }
+
+    /**
+     * Returns the display value of an error code.
+     */
+    private static String getError(int code)
+    {
+        switch(code)
+        {
+            case 0x00: return "#NULL!";
+            case 0x07: return "#DIV/0!";
+            case 0x0F: return "#VALUE!";
+            case 0x17: return "#REF!";
+            case 0x1D: return "#NAME?";
+            case 0x24: return "#NUM!";
+            case 0x2A: return "#N/A";
+            default: return "#ERROR!";
+        }
+    }
+
+    /**
+     * Reads the values of a record that continues in the CONTINUE records that follow it.
+     */
+    private static class RecordData
+    {
+        private List<byte[]> records;
+        private int index = 0;
+        private byte[] data;
+        private int pos = 0;
+
+        /**
+         * Constructor that takes the data of the records.
+         */
+        RecordData(List<byte[]> records)
+        {
+            this.records = records;
+            this.data = records.get(0);
+        }
+
+        /**
+         * Returns <CODE>true</CODE> if the position is at the end of the current record.
+         */
+        boolean isEndOfRecord()
+        {
+            return pos >= data.length;
+        }
+
+        /**
+         * Returns <CODE>true</CODE> if there is any data left in the records.
+         */
+        boolean hasRemaining()
+        {
+            while(pos >= data.length && index < records.size()-1)
+                nextRecord();
+            return pos < data.length;
+        }
+
+        /**
+         * Moves to the start of the next record.
+         * @return <CODE>false</CODE> if there are no more records
+         */
+        boolean nextRecord()
+        {
+            if(index >= records.size()-1)
+                return false;
+            data = records.get(++index);
+            pos = 0;
+            return true;
+        }
+
+        /**
+         * Returns the next unsigned byte, moving to the next record if required.
+         */
+        int getByte()
+        {
+            if(!hasRemaining())
+                return 0;
+            return data[pos++] & 0xFF;
+        }
+
+        /**
+         * Returns the next unsigned short.
+         */
+        int getShort()
+        {
+            return getByte() | (getByte() << 8);
+        }
+
+        /**
+         * Returns the next int.
+         */
+        int getInt()
+        {
+            return getShort() | (getShort() << 16);
+        }
+
+        /**
+         * Skips the given number of bytes, moving to the following records if required.
+         */
+        void skip(int n)
+        {
+            while(n > 0 && hasRemaining())
+            {
+                int len = Math.min(n, data.length-pos);
+                pos += len;
+                n -= len;
+            }
+        }
+
+        /**
+         * Appends the characters up to the given length or the end of the current record to the given string.
+         */
+        void getChars(StringBuilder sb, int cch, boolean wide)
+        {
+            if(wide)
+            {
+                while(sb.length() < cch && pos+1 < data.length)
+                {
+                    sb.append((char)((data[pos] & 0xFF) | ((data[pos+1] & 0xFF) << 8)));
+                    pos += 2;
+                }
+                if(sb.length() < cch && pos < data.length) // odd byte left at the end of the record
+                    ++pos;
+            }
+            else
+            {
+                while(sb.length() < cch && pos < data.length)
+                    sb.append((char)(data[pos++] & 0xFF));
+            }
+        }
+    }
+
+    /**
+     * Reads the rows of a single worksheet.
+     * <P>
+     * The cells of a worksheet are stored in row order, so a row is complete once a cell in a later row is read.
+     */
+    public class SheetReader
+    {
+        private BiffReader reader;
+        private int numColumns = -1;
+        private String[] cells = new String[16];
+        private int row = -1;
+        private int stringColumn = -1;
+        private int depth = 0;
+        private boolean finished = false;
+
+        /**
+         * Constructor that takes the reader positioned at the start of the worksheet.
+         */
+        private SheetReader(BiffReader reader)
+        {
+            this.reader = reader;
+        }
+
+        /**
+         * Returns the number of columns in the worksheet, taken from its dimensions or else the first row.
+         * @return The number of columns in the worksheet, or -1 if no rows have been read
+         */
+        public int getColumns()
+        {
+            return numColumns;
+        }
+
+        /**
+         * Returns the array of columns for the next row in the worksheet.
+         * <P>
+         * Rows without any values are skipped.
+         * @param df The date format to use for date columns
+         * @return The array of columns for the next row, or <CODE>null</CODE> if there are no more rows
+         * @throws IOException if the worksheet cannot be read
+         */
+        public String[] nextRow(SimpleDateFormat df) throws IOException
+        {
+            String[] ret = null;
+            while(ret == null && !finished)
+            {
+                // Skip over the substreams of any embedded charts
+                int sid = reader.next();
+                if(sid == BiffReader.BOF)
+                    ++depth;
+                else if(sid == BiffReader.EOF)
+                    --depth;
+                if(sid < 0 || depth <= 0)
+                {
+                    finished = true;
+                    ret = getRow();
+                    break;
+                }
+                if(depth > 1)
+                    continue;
+
+                byte[] data = reader.getData();
+                int len = reader.getLength();
+                if(sid == BiffReader.DIMENSIONS)
+                {
+                    int columns = version == BiffReader.BIFF8 ? reader.getShort(10) : reader.getShort(6);
+                    if(columns > 0 && numColumns == -1)
+                        numColumns = columns;
+                }
+                else if(sid == BiffReader.LABELSST)
+                {
+                    ret = setCell(reader.getShort(0), reader.getShort(2),
+                        getSharedString(reader.getInt(6)));
+                }
+                else if(sid == BiffReader.NUMBER)
+                {
+                    ret = setCell(reader.getShort(0), reader.getShort(2),
+                        getNumber(reader.getDouble(6), reader.getShort(4), df));
+                }
+                else if(sid == BiffReader.RK)
+                {
+                    ret = setCell(reader.getShort(0), reader.getShort(2),
+                        getNumber(BiffReader.getRk(reader.getInt(6)), reader.getShort(4), df));
+                }
+                else if(sid == BiffReader.MULRK)
+                {
+                    int r = reader.getShort(0);
+                    int first = reader.getShort(2);
+                    for(int i = 0; 4+i*6+6 <= len-2; i++)
+                    {
+                        String[] completed = setCell(r, first+i, getNumber(BiffReader.getRk(reader.getInt(4+i*6+2)),
+                            reader.getShort(4+i*6), df));
+                        if(completed != null)
+                            ret = completed;
+                    }
+                }
+                else if(sid == BiffReader.LABEL)
+                {
+                    String value = null;
+                    if(version == BiffReader.BIFF8)
+                        value = getString(data, 8, reader.getShort(6));
+                    else
+                        value = new String(data, 8, Math.min(reader.getShort(6), len-8), "Cp1252");
+                    ret = setCell(reader.getShort(0), reader.getShort(2), value);
+                }
+                else if(sid == BiffReader.BOOLERR)
+                {
+                    int value = data[6] & 0xFF;
+                    ret = setCell(reader.getShort(0), reader.getShort(2),
+                        data[7] != 0 ? getError(value) : value != 0 ? "TRUE" : "FALSE");
+                }
+                else if(sid == BiffReader.FORMULA)
+                {
+                    int r = reader.getShort(0);
+                    int c = reader.getShort(2);
+                    if(reader.getShort(12) != 0xFFFF) // the result is a number
+                    {
+                        ret = setCell(r, c, getNumber(reader.getDouble(6), reader.getShort(4), df));
+                    }
+                    else
+                    {
+                        int type = data[6];
+                        if(type == 0) // the string is in the STRING record that follows
+                            stringColumn = c;
+                        String value = "";
+                        if(type == 1)
+                            value = data[8] != 0 ? "TRUE" : "FALSE";
+                        else if(type == 2)
+                            value = getError(data[8] & 0xFF);
+                        ret = setCell(r, c, value);
+                    }
+                }
+                else if(sid == BiffReader.STRING && stringColumn != -1)
+                {
+                    String value = null;
+                    if(version == BiffReader.BIFF8)
+                        value = getString(data, 2, reader.getShort(0));
+                    else
+                        value = new String(data, 2, Math.min(reader.getShort(0), len-2), "Cp1252");
+                    if(stringColumn < cells.length)
+                        cells[stringColumn] = value;
+                    stringColumn = -1;
+                }
+            }
+            return ret;
+        }
+
+        /**
+         * Sets the value of a cell, first completing the current row if the cell is in a later row.
+         * @return The completed row, or <CODE>null</CODE> if the cell is in the current row
+         */
+        private String[] setCell(int r, int c, String value)
+        {
+            String[] ret = null;
+            if(r != row)
+            {
+                ret = getRow();
+                Arrays.fill(cells, null);
+                row = r;
+            }
+
+            if(c >= cells.length)
+                cells = Arrays.copyOf(cells, Math.max(c+1, cells.length*2));
+            cells[c] = value;
+            return ret;
+        }
+
+        /**
+         * Returns the values of the current row, or <CODE>null</CODE> if there is no current row.
+         */
+        private String[] getRow()
+        {
+            if(row == -1)
+                return null;
+            row = -1;
+
+            // The first row gives the number of columns if the worksheet has no dimensions
+            if(numColumns == -1)
+            {
+                for(int i = 0; i < cells.length; i++)
+                {
+                    if(cells[i] != null)
+                        numColumns = i+1;
+                }
+            }
+
+            String[] ret = new String[numColumns];
+            for(int i = 0; i < ret.length; i++)
+            {
+                String value = i < cells.length ? cells[i] : null;
+                ret[i] = value != null ? value : "";
+            }
+            return ret;
+        }
+
+        /**
+         * Closes the worksheet.
+         */
+        public void close()
+        {
+            try
+            {
+                reader.close();
+            }
+            catch(IOException e)
+            {
+                logger.warning("Unable to close worksheet: "+e.getMessage());
+            }
+        }
+    }
+
+    private File file;
+    private boolean temporary = false;
+    private CompoundFile cf;
+    private int version = BiffReader.BIFF8;
+    private boolean date1904 = false;
+    private List<String> sheetNames = new ArrayList<String>();
+    private List<Long> sheetOffsets = new ArrayList<Long>();
+    private String[] sharedStrings = new String[0];
+    private boolean[] dateStyles = new boolean[0];
+    private SerialDateFormatter dates = new SerialDateFormatter();
+}
@@ -17,8 +17,12 @@
 package com.opsmatters.core.documents;
 
 import java.util.Date;
+import java.util.List;
+import java.util.ArrayList;
 import java.io.File;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import jxl.*;
@@ -119,6 +123,8 @@ public class XlsWorksheet extends Worksheet
 
     /**
      * Returns the sheets from the given Excel XLS file.
+     * <P>
+     * Only the sheet records at the start of the workbook stream are read, not the cells.
      * @param file The file with the name of the XLS file
      * @return The sheet names from the XLS file
      * @throws IOException if the file cannot be opened
@@ -127,14 +133,17 @@ public class XlsWorksheet extends Worksheet
     public static String[] getXlsWorksheets(File file) 
         throws IOException, jxl.read.biff.BiffException
     {
-        Workbook workbook = Workbook.getWorkbook(file);
-        String[] sheets = workbook.getSheetNames();
-        workbook.close();
+        WorksheetInfo[] info = getXlsWorksheetInfo(file, false);
+        String[] sheets = new String[info.length];
+        for(int i = 0; i < info.length; i++)
+            sheets[i] = info[i].getName();
         return sheets;
     }
 
     /**
      * Returns the sheets from the given Excel XLS file.
+     * <P>
+     * The stream is copied to a temporary file as the sheet records need to be read from the compound file.
      * @param stream The input stream with the XLS file
      * @return The sheet names from the XLS file
      * @throws IOException if the file cannot be opened
@@ -143,10 +152,111 @@ public class XlsWorksheet extends Worksheet
     public static String[] getXlsWorksheets(InputStream stream) 
         throws IOException, jxl.read.biff.BiffException
     {
-        XlsWorkbook workbook = XlsWorkbook.getWorkbook(stream);
-        String[] sheets = workbook.getSheetNames();
-        workbook.close();
-        return sheets;
+        File file = File.createTempFile("xls-", ".tmp");
+        file.deleteOnExit();
+        try
+        {
+            OutputStream os = new FileOutputStream(file);
+            try
+            {
+                byte[] buffer = new byte[8192];
+                int len;
+                while((len = stream.read(buffer)) != -1)
+                    os.write(buffer, 0, len);
+            }
+            finally
+            {
+                os.close();
+            }
+            return getXlsWorksheets(file);
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    /**
+     * Returns the names and optionally the dimensions of the sheets from the given Excel XLS file.
+     * <P>
+     * The names are read from the BOUNDSHEET records of the workbook stream,
+     * and the dimensions from the DIMENSIONS record at the start of each sheet, skipping the cells.
+     * The dimensions are -1 if they are not recorded in the file.
+     * @param file The file with the name of the XLS file
+     * @param dimensions <CODE>true</CODE> if the dimensions of each sheet should be read
+     * @return The sheet names and dimensions from the XLS file
+     * @throws IOException if the file cannot be opened or is not an XLS file
+     */
+    public static WorksheetInfo[] getXlsWorksheetInfo(File file, boolean dimensions) 
+        throws IOException
+    {
+        List<WorksheetInfo> sheets = new ArrayList<WorksheetInfo>();
+        List<Long> offsets = new ArrayList<Long>();
+        CompoundFile cf = new CompoundFile(file);
+        try
+        {
+            InputStream stream = cf.getStream("Workbook");
+            if(stream == null)
+                stream = cf.getStream("Book"); // BIFF5/7
+            if(stream == null)
+                throw new IOException("Workbook stream not found: "+file);
+
+            BiffReader reader = new BiffReader(stream);
+            int version = BiffReader.BIFF8;
+            int sid;
+            while((sid = reader.next()) >= 0 && sid != BiffReader.EOF)
+            {
+                if(sid == BiffReader.BOF)
+                {
+                    version = reader.getShort(0);
+                }
+                else if(sid == BiffReader.BOUNDSHEET)
+                {
+                    // Only include worksheets and chart sheets
+                    byte[] data = reader.getData();
+                    int type = data[5];
+                    if(type != 0 && type != 2)
+                        continue;
+
+                    int len = data[6] & 0xFF;
+                    String name = null;
+                    if(version != BiffReader.BIFF8)
+                        name = new String(data, 7, len, "Cp1252");
+                    else if((data[7] & 0x01) != 0)
+                        name = new String(data, 8, len*2, "UTF-16LE");
+                    else
+                        name = new String(data, 8, len, "ISO-8859-1");
+                    sheets.add(new WorksheetInfo(name));
+                    offsets.add(reader.getInt(0) & 0xFFFFFFFFL);
+                }
+            }
+
+            // Skip to the start of each sheet to read its DIMENSIONS record
+            for(int i = 0; dimensions && i < sheets.size(); i++)
+            {
+                if(offsets.get(i) < reader.getPosition())
+                    continue;
+
+                reader.seek(offsets.get(i));
+                while((sid = reader.next()) >= 0 && sid != BiffReader.EOF)
+                {
+                    if(sid == BiffReader.DIMENSIONS)
+                    {
+                        if(version == BiffReader.BIFF8)
+                            sheets.get(i).setDimensions(reader.getInt(4), reader.getShort(10));
+                        else
+                            sheets.get(i).setDimensions(reader.getShort(2), reader.getShort(6));
+                        break;
+                    }
+                }
+            }
+        }
+        finally
+        {
+            cf.close();
+        }
+
+        return sheets.toArray(new WorksheetInfo[sheets.size()]);
     }
 
     private Sheet sheet;
@@ -0,0 +1,705 @@
+/*
+ * Copyright 2018 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.core.documents;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
+import java.io.File;
+import java.io.InputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.logging.Logger;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Reads the rows of an Excel XLSX worksheet one at a time.
+ * <P>
+ * The worksheet XML is pulled directly from the zip file using StAX,
+ * rather than unmarshalling the whole package into JAXB objects,
+ * so only the shared strings and styles are held in memory.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class XlsxStreamReader
+{
+    private static final Logger logger = Logger.getLogger(XlsxStreamReader.class.getName());
+
+    private static final String RELATIONSHIPS_URI = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+    private static final String SHARED_STRINGS_TYPE = "/sharedStrings";
+    private static final String STYLES_TYPE = "/styles";
+
+    private static final XMLInputFactory factory = XMLInputFactory.newInstance();
+
+    static
+    {
+        // Disable external entities
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    }
+
+    /**
+     * Constructor that takes a file.
+     * @param file The XLSX file
+     * @throws IOException if the file cannot be opened
+     */
+    public XlsxStreamReader(File file) throws IOException
+    {
+        this.file = file;
+        init();
+    }
+
+    /**
+     * Constructor that takes an input stream.
+     * <P>
+     * The stream is copied to a temporary file as the zip entries need to be read in a different order.
+     * @param stream The input stream with the XLSX file
+     * @throws IOException if the stream cannot be read
+     */
+    public XlsxStreamReader(InputStream stream) throws IOException
+    {
+        file = File.createTempFile("xlsx-", ".tmp");
+        file.deleteOnExit();
+        temporary = true;
+
+        FileOutputStream os = new FileOutputStream(file);
+        try
+        {
+            byte[] buffer = new byte[8192];
+            int len;
+            while((len = stream.read(buffer)) != -1)
+                os.write(buffer, 0, len);
+        }
+        finally
+        {
+            os.close();
+        }
+
+        init();
+    }
+
+    /**
+     * Reads the sheet names from the file.
+     * <P>
+     * The shared strings and styles are only read when a worksheet is opened.
+     */
+    private void init() throws IOException
+    {
+        zip = new ZipFile(file);
+        try
+        {
+            readRelationships();
+            readWorkbook();
+        }
+        catch(XMLStreamException e)
+        {
+            close();
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Returns the list of worksheet names.
+     * @return The list of worksheet names
+     */
+    public String[] getSheetNames()
+    {
+        return sheetNames.toArray(new String[sheetNames.size()]);
+    }
+
+    /**
+     * Returns the string at the given index in sharedStrings.xml.
+     * @param i The index of the string
+     * @return The string at the given index in sharedStrings.xml
+     */
+    public String getSharedString(int i)
+    {
+        return sharedStrings[i];
+    }
+
+    /**
+     * Returns the dimensions of the worksheet with the given name.
+     * <P>
+     * Only the start of the worksheet is read to find the dimension element,
+     * which gives the range of the cells used in the worksheet.
+     * @param name The name of the worksheet
+     * @return The number of rows and columns in the worksheet,
+     *         or <CODE>null</CODE> if the worksheet or its dimensions were not found
+     * @throws IOException if the worksheet cannot be read
+     */
+    public int[] getDimensions(String name) throws IOException
+    {
+        int[] ret = null;
+        String part = sheetParts.get(name);
+        if(part == null)
+            return ret;
+
+        try
+        {
+            XMLStreamReader reader = getReader(part);
+            if(reader == null)
+                return ret;
+
+            while(reader.hasNext())
+            {
+                if(reader.next() == XMLStreamConstants.START_ELEMENT)
+                {
+                    String element = reader.getLocalName();
+                    if(element.equals("dimension"))
+                    {
+                        String ref = reader.getAttributeValue(null, "ref");
+                        if(ref != null)
+                        {
+                            // Use the bottom-right cell of the range
+                            ref = ref.substring(ref.indexOf(':')+1);
+                            int col = CellReference.getColumnIndex(ref);
+                            int row = Integer.parseInt(ref.substring(ref.length()-getRowLength(ref)));
+                            ret = new int[] {row, col+1};
+                        }
+                        break;
+                    }
+                    else if(element.equals("sheetData"))
+                    {
+                        break;
+                    }
+                }
+            }
+            reader.close();
+        }
+        catch(XMLStreamException e)
+        {
+            throw new IOException(e);
+        }
+        catch(NumberFormatException e)
+        {
+            logger.warning("Invalid dimension for worksheet '"+name+"': "+e.getMessage());
+        }
+
+        return ret;
+    }
+
+    /**
+     * Returns the worksheet names from the given XLSX stream.
+     * <P>
+     * The zip entries are read in order until xl/workbook.xml is found, without copying the stream to a file.
+     * @param stream The input stream with the XLSX file
+     * @return The worksheet names from the XLSX stream
+     * @throws IOException if the stream cannot be read or does not contain a workbook
+     */
+    public static String[] getSheetNames(InputStream stream) throws IOException
+    {
+        List<String> ret = null;
+        ZipInputStream zis = new ZipInputStream(stream);
+        try
+        {
+            ZipEntry entry;
+            while(ret == null && (entry = zis.getNextEntry()) != null)
+            {
+                if(entry.getName().equals("xl/workbook.xml"))
+                {
+                    ret = new ArrayList<String>();
+                    XMLStreamReader reader = factory.createXMLStreamReader(zis);
+                    while(reader.hasNext())
+                    {
+                        if(reader.next() == XMLStreamConstants.START_ELEMENT
+                            && reader.getLocalName().equals("sheet"))
+                        {
+                            ret.add(reader.getAttributeValue(null, "name"));
+                        }
+                    }
+                    reader.close();
+                }
+            }
+        }
+        catch(XMLStreamException e)
+        {
+            throw new IOException(e);
+        }
+
+        if(ret == null)
+            throw new IOException("Workbook not found in stream");
+        return ret.toArray(new String[ret.size()]);
+    }
+
+    /**
+     * Returns the reader for the worksheet with the given name.
+     * @param name The name of the worksheet
+     * @return The reader for the worksheet, or <CODE>null</CODE> if the worksheet was not found
+     * @throws IOException if the worksheet cannot be opened
+     */
+    public SheetReader getSheet(String name) throws IOException
+    {
+        SheetReader ret = null;
+        String part = sheetParts.get(name);
+        if(part != null)
+        {
+            ZipEntry entry = zip.getEntry(part);
+            if(entry == null)
+                throw new IOException("Worksheet part not found: "+part);
+
+            // Read the shared strings and styles the first time a worksheet is opened
+            if(!loaded)
+            {
+                try
+                {
+                    readSharedStrings();
+                    readStyles();
+                }
+                catch(XMLStreamException e)
+                {
+                    throw new IOException(e);
+                }
+                loaded = true;
+            }
+
+            ret = new SheetReader(zip.getInputStream(entry));
+        }
+        return ret;
+    }
+
+    /**
+     * Closes the file, deleting it if it was a temporary copy of a stream.
+     */
+    public void close()
+    {
+        try
+        {
+            if(zip != null)
+                zip.close();
+        }
+        catch(IOException e)
+        {
+            logger.warning("Unable to close file: "+file);
+        }
+        zip = null;
+
+        if(temporary)
+            file.delete();
+    }
+
+    /**
+     * Returns the name of the zip entry for the given relationship target in the workbook.
+     */
+    private static String getPartName(String target)
+    {
+        return target.startsWith("/") ? target.substring(1) : "xl/"+target;
+    }
+
+    /**
+     * Returns a StAX reader for the given entry in the zip file.
+     */
+    private XMLStreamReader getReader(String part) throws IOException, XMLStreamException
+    {
+        ZipEntry entry = zip.getEntry(part);
+        return entry != null ? factory.createXMLStreamReader(zip.getInputStream(entry)) : null;
+    }
+
+    /**
+     * Reads the location of each worksheet, shared strings and styles part from the workbook relationships.
+     */
+    private void readRelationships() throws IOException, XMLStreamException
+    {
+        XMLStreamReader reader = getReader("xl/_rels/workbook.xml.rels");
+        if(reader == null)
+            throw new IOException("Workbook relationships not found: "+file);
+
+        while(reader.hasNext())
+        {
+            if(reader.next() == XMLStreamConstants.START_ELEMENT
+                && reader.getLocalName().equals("Relationship"))
+            {
+                String type = reader.getAttributeValue(null, "Type");
+                String part = getPartName(reader.getAttributeValue(null, "Target"));
+                relationships.put(reader.getAttributeValue(null, "Id"), part);
+                if(type != null && type.endsWith(SHARED_STRINGS_TYPE))
+                    sharedStringsPart = part;
+                else if(type != null && type.endsWith(STYLES_TYPE))
+                    stylesPart = part;
+            }
+        }
+        reader.close();
+    }
+
+    /**
+     * Reads the names of the worksheets from the workbook.
+     */
+    private void readWorkbook() throws IOException, XMLStreamException
+    {
+        XMLStreamReader reader = getReader("xl/workbook.xml");
+        if(reader == null)
+            throw new IOException("Workbook not found: "+file);
+
+        while(reader.hasNext())
+        {
+            if(reader.next() == XMLStreamConstants.START_ELEMENT
+                && reader.getLocalName().equals("sheet"))
+            {
+                String name = reader.getAttributeValue(null, "name");
+                sheetNames.add(name);
+                String part = relationships.get(reader.getAttributeValue(RELATIONSHIPS_URI, "id"));
+                if(part != null)
+                    sheetParts.put(name, part);
+            }
+        }
+        reader.close();
+    }
+
+    /**
+     * Reads the strings from the shared strings part.
+     * <P>
+     * Strings with multiple formats or fonts are concatenated from their runs, ignoring any phonetic runs.
+     */
+    private void readSharedStrings() throws IOException, XMLStreamException
+    {
+        XMLStreamReader reader = sharedStringsPart != null ? getReader(sharedStringsPart) : null;
+        if(reader == null)
+            return;
+
+        List<String> list = new ArrayList<String>();
+        StringBuilder sb = null;
+        boolean phonetic = false;
+        while(reader.hasNext())
+        {
+            int event = reader.next();
+            if(event == XMLStreamConstants.START_ELEMENT)
+            {
+                String name = reader.getLocalName();
+                if(name.equals("si"))
+                    sb = new StringBuilder();
+                else if(name.equals("rPh"))
+                    phonetic = true;
+                else if(name.equals("t") && sb != null && !phonetic)
+                    sb.append(reader.getElementText());
+            }
+            else if(event == XMLStreamConstants.END_ELEMENT)
+            {
+                String name = reader.getLocalName();
+                if(name.equals("si"))
+                    list.add(sb.toString());
+                else if(name.equals("rPh"))
+                    phonetic = false;
+            }
+        }
+        reader.close();
+
+        // Resolve the strings into a flat table for the cell lookups
+        sharedStrings = list.toArray(new String[list.size()]);
+    }
+
+    /**
+     * Reads the number formats of the cell styles from the styles part.
+     */
+    private void readStyles() throws IOException, XMLStreamException
+    {
+        XMLStreamReader reader = stylesPart != null ? getReader(stylesPart) : null;
+        if(reader == null)
+            return;
+
+        Map<Long,String> formatCodes = new HashMap<Long,String>();
+        List<Long> formatIds = new ArrayList<Long>();
+        boolean cellXfs = false;
+        while(reader.hasNext())
+        {
+            int event = reader.next();
+            if(event == XMLStreamConstants.START_ELEMENT)
+            {
+                String name = reader.getLocalName();
+                if(name.equals("numFmt"))
+                {
+                    formatCodes.put(Long.parseLong(reader.getAttributeValue(null, "numFmtId")),
+                        reader.getAttributeValue(null, "formatCode"));
+                }
+                else if(name.equals("cellXfs"))
+                {
+                    cellXfs = true;
+                }
+                else if(name.equals("xf") && cellXfs)
+                {
+                    String id = reader.getAttributeValue(null, "numFmtId");
+                    formatIds.add(id != null ? Long.parseLong(id) : 0L);
+                }
+            }
+            else if(event == XMLStreamConstants.END_ELEMENT
+                && reader.getLocalName().equals("cellXfs"))
+            {
+                cellXfs = false;
+            }
+        }
+        reader.close();
+
+        dateStyles = new boolean[formatIds.size()];
+        for(int i = 0; i < dateStyles.length; i++)
+            dateStyles[i] = isDateTime(formatIds.get(i), formatCodes);
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if the given number format is a date or time in an XLSX workbook.
+     * <P>
+     * The built-in formats 14-22, 30 and 45-47 are dates or times,
+     * as are custom formats that include "h:mm", which is the check that has always been made for XLSX worksheets.
+     * @param numFmtId The ID of the number format
+     * @param formatCodes The custom format codes by ID
+     * @return <CODE>true</CODE> if the given number format is a date or time
+     */
+    static boolean isDateTime(long numFmtId, Map<Long,String> formatCodes)
+    {
+        boolean ret = false;
+        if(numFmtId < 164)
+        {
+            ret = isBuiltInDateTime(numFmtId);
+        }
+        else
+        {
+            String formatCode = formatCodes.get(numFmtId);
+            if(formatCode != null)
+                ret = formatCode.indexOf("h:mm") != -1;
+        }
+        return ret;
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if the given built-in number format is a date or time.
+     * @param numFmtId The ID of the number format
+     * @return <CODE>true</CODE> if the format is one of the built-in formats 14-22, 30 or 45-47
+     */
+    static boolean isBuiltInDateTime(long numFmtId)
+    {
+        return (numFmtId >= 14 && numFmtId <= 22)
+            || numFmtId == 30
+            || (numFmtId >= 45 && numFmtId <= 47);
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if the given style is a date or time.
+     */
+    private boolean isDateStyle(int style)
+    {
+        return style > 0 && dateStyles != null && style < dateStyles.length && dateStyles[style];
+    }
+
+    /**
+     * Returns the number of digits at the end of the given cell reference.
+     */
+    private static int getRowLength(String ref)
+    {
+        int ret = 0;
+        for(int i = ref.length()-1; i >= 0 && Character.isDigit(ref.charAt(i)); i--)
+            ++ret;
+        return ret;
+    }
+
+    /**
+     * Reads the rows of a single worksheet.
+     */
+    public class SheetReader
+    {
+        private InputStream stream;
+        private XMLStreamReader reader;
+        private int numColumns = -1;
+        private List<String> values = new ArrayList<String>();
+        private List<Integer> columns = new ArrayList<Integer>();
+        private SerialDateFormatter dates = new SerialDateFormatter();
+
+        /**
+         * Constructor that takes the stream for the worksheet part.
+         */
+        private SheetReader(InputStream stream) throws IOException
+        {
+            this.stream = stream;
+            try
+            {
+                reader = factory.createXMLStreamReader(stream);
+            }
+            catch(XMLStreamException e)
+            {
+                throw new IOException(e);
+            }
+        }
+
+        /**
+         * Returns the number of columns in the worksheet, taken from the first row.
+         * @return The number of columns in the worksheet, or -1 if no rows have been read
+         */
+        public int getColumns()
+        {
+            return numColumns;
+        }
+
+        /**
+         * Returns the array of columns for the next row in the worksheet.
+         * @param df The date format to use for date columns
+         * @return The array of columns for the next row, or <CODE>null</CODE> if there are no more rows
+         * @throws IOException if the worksheet cannot be read
+         */
+        public String[] nextRow(SimpleDateFormat df) throws IOException
+        {
+            try
+            {
+                while(reader.hasNext())
+                {
+                    if(reader.next() == XMLStreamConstants.START_ELEMENT
+                        && reader.getLocalName().equals("row"))
+                    {
+                        return readRow(df);
+                    }
+                }
+            }
+            catch(XMLStreamException e)
+            {
+                throw new IOException(e);
+            }
+            return null;
+        }
+
+        /**
+         * Reads the cells of the current row.
+         */
+        private String[] readRow(SimpleDateFormat df) throws XMLStreamException
+        {
+            values.clear();
+            columns.clear();
+
+            int col = -1;
+            String type = null;
+            int style = 0;
+            String value = null;
+            while(reader.hasNext())
+            {
+                int event = reader.next();
+                if(event == XMLStreamConstants.START_ELEMENT)
+                {
+                    String name = reader.getLocalName();
+                    if(name.equals("c"))
+                    {
+                        String ref = reader.getAttributeValue(null, "r");
+                        col = ref != null ? CellReference.getColumnIndex(ref) : col+1;
+                        type = reader.getAttributeValue(null, "t");
+                        String s = reader.getAttributeValue(null, "s");
+                        style = s != null ? Integer.parseInt(s) : 0;
+                        value = null;
+                    }
+                    else if(name.equals("v"))
+                    {
+                        value = reader.getElementText();
+                    }
+                    else if(name.equals("t")) // inline string
+                    {
+                        value = value != null ? value+reader.getElementText() : reader.getElementText();
+                    }
+                }
+                else if(event == XMLStreamConstants.END_ELEMENT)
+                {
+                    String name = reader.getLocalName();
+                    if(name.equals("c"))
+                    {
+                        columns.add(col);
+                        values.add(getValue(type, style, value, df));
+                    }
+                    else if(name.equals("row"))
+                    {
+                        break;
+                    }
+                }
+            }
+
+            // The first row gives the number of columns
+            if(numColumns == -1)
+                numColumns = values.size();
+
+            String[] ret = new String[numColumns];
+            for(int i = 0; i < values.size(); i++)
+            {
+                int c = columns.get(i);
+                if(c >= 0 && c < numColumns)
+                    ret[c] = values.get(i);
+            }
+
+            // Change any null strings to the empty string
+            for(int i = 0; i < ret.length; i++)
+            {
+                if(ret[i] == null)
+                    ret[i] = "";
+            }
+
+            return ret;
+        }
+
+        /**
+         * Returns the display value of a cell.
+         */
+        private String getValue(String type, int style, String value, SimpleDateFormat df)
+        {
+            String ret = value;
+            if(value == null)
+                return null;
+
+            if("s".equals(type))
+            {
+                ret = getSharedString(Integer.parseInt(value));
+            }
+            else if("b".equals(type))
+            {
+                ret = value.equals("1") ? "TRUE" : "FALSE";
+            }
+            else if((type == null || "n".equals(type)) && isDateStyle(style))
+            {
+                ret = dates.format(Double.parseDouble(value), df);
+            }
+            return ret;
+        }
+
+        /**
+         * Closes the worksheet.
+         */
+        public void close()
+        {
+            try
+            {
+                reader.close();
+                stream.close();
+            }
+            catch(XMLStreamException e)
+            {
+                logger.warning("Unable to close worksheet: "+e.getMessage());
+            }
+            catch(IOException e)
+            {
+                logger.warning("Unable to close worksheet: "+e.getMessage());
+            }
+        }
+    }
+
+    private File file;
+    private boolean temporary = false;
+    private boolean loaded = false;
+    private ZipFile zip;
+    private Map<String,String> relationships = new HashMap<String,String>();
+    private List<String> sheetNames = new ArrayList<String>();
+    private Map<String,String> sheetParts = new HashMap<String,String>();
+    private String sharedStringsPart;
+    private String stylesPart;
+    private String[] sharedStrings = new String[0];
+    private boolean[] dateStyles;
+}
@@ -35,6 +35,7 @@ import org.docx4j.openpackaging.parts.SpreadsheetML.Styles;
 import org.docx4j.openpackaging.parts.relationships.RelationshipsPart;
 import org.docx4j.openpackaging.parts.PartName;
 import org.docx4j.openpackaging.io3.Save;
+import org.docx4j.openpackaging.io3.Load3;
 import org.docx4j.openpackaging.exceptions.Docx4JException;
 import org.docx4j.openpackaging.exceptions.InvalidFormatException;
 import org.xlsx4j.jaxb.Context;
@@ -120,10 +121,36 @@ public class XlsxWorkbook extends Workbook
     private XlsxWorkbook(InputStream stream) 
         throws Docx4JException
     {
+        this(stream, null);
+    }
+
+    /**
+     * Private constructor.
+     * @param stream The input stream with the workbook
+     * @param sheetName The name of the only worksheet to load, or <CODE>null</CODE> to load all the worksheets
+     */
+    private XlsxWorkbook(InputStream stream, String sheetName) 
+        throws Docx4JException
+    {
+        selectedSheet = sheetName;
         pkg = (SpreadsheetMLPackage)SpreadsheetMLPackage.load(stream);
         initWorkbook();
     }
 
+    /**
+     * Private constructor.
+     * @param store The store used to read the parts of the workbook
+     * @param sheetName The name of the only worksheet to load
+     */
+    private XlsxWorkbook(ZipFilePartStore store, String sheetName) 
+        throws Docx4JException
+    {
+        partStore = store;
+        selectedSheet = sheetName;
+        pkg = (SpreadsheetMLPackage)new Load3(store).get();
+        initWorkbook();
+    }
+
     /**
      * Private constructor.
      * @param pkg The package to use to create the workbook
@@ -177,6 +204,64 @@ public class XlsxWorkbook extends Workbook
         }
     }
 
+    /**
+     * Returns an existing workbook object with only the given worksheet loaded.
+     * <P>
+     * Only the workbook index, shared strings, styles and the given worksheet are parsed,
+     * with the parts read from the file as they are needed, so the other worksheets are left unread in the file.
+     * {@link #getSheet(String)} returns <CODE>null</CODE> for the other worksheets,
+     * although their names are still returned by {@link #getSheetNames()}.
+     * The workbook is read-only, and the file is kept open until the workbook is closed.
+     * @param file The file with the workbook
+     * @param sheetName The name of the worksheet to load
+     * @return The existing workbook object
+     * @throws IOException if the workbook cannot be opened
+     */
+    public static XlsxWorkbook getWorkbook(File file, String sheetName) throws IOException
+    {
+        ZipFilePartStore store = new ZipFilePartStore(file);
+        boolean opened = false;
+        try
+        {
+            XlsxWorkbook ret = new XlsxWorkbook(store, sheetName);
+            opened = true;
+            return ret;
+        }
+        catch(Docx4JException e)
+        {
+            throw new IOException(e);
+        }
+        finally
+        {
+            if(!opened)
+                store.dispose();
+        }
+    }
+
+    /**
+     * Returns an existing workbook object with only the given worksheet loaded.
+     * <P>
+     * The parts are read from the stream into memory, but only the workbook index, shared strings, styles
+     * and the given worksheet are parsed.
+     * {@link #getSheet(String)} returns <CODE>null</CODE> for the other worksheets,
+     * although their names are still returned by {@link #getSheetNames()}.
+     * @param stream The stream with the workbook
+     * @param sheetName The name of the worksheet to load
+     * @return The existing workbook object
+     * @throws IOException if the stream cannot be read
+     */
+    public static XlsxWorkbook getWorkbook(InputStream stream, String sheetName) throws IOException
+    {
+        try
+        {
+            return new XlsxWorkbook(stream, sheetName);
+        }
+        catch(Docx4JException e)
+        {
+            throw new IOException(e);
+        }
+    }
+
     /**
      * Initialises the internal workbook.
      */
@@ -272,6 +357,8 @@ public class XlsxWorkbook extends Workbook
             for(int i = 0; i < sheets.size(); i++)
             {
                 Sheet sheet = (Sheet)sheets.get(i);
+                if(selectedSheet != null && !selectedSheet.equals(sheet.getName()))
+                    continue;
                 WorksheetPart wsp = (WorksheetPart)wbrp.getPart(sheet.getId());
                 if(wsp != null)
                     worksheets.put(sheet.getName(), new XlsxWorksheet(this, wsp));
@@ -352,30 +439,51 @@ public class XlsxWorkbook extends Workbook
 
     /**
      * Returns the string at the given index in SharedStrings.xml.
+     * <P>
+     * The shared strings are resolved into a table the first time a string is looked up.
      * @param i The index of the string
      * @return The string at the given index in SharedStrings.xml
      */
     public String getSharedString(int i)
     {
-        String ret = null;
-        CTRst string = strings.getSi().get(i);
-        if(string != null && string.getT() != null)
-            ret = string.getT().getValue();
-        if(ret == null) // cell has multiple formats or fonts
+        if(sharedStringTable == null || i >= sharedStringTable.length)
+            sharedStringTable = resolveSharedStrings();
+        return sharedStringTable[i];
+    }
+
+    /**
+     * Returns the strings in SharedStrings.xml as a flat array.
+     * <P>
+     * Strings with multiple formats or fonts are concatenated from their runs.
+     * @return The strings in SharedStrings.xml
+     */
+    private String[] resolveSharedStrings()
+    {
+        List<CTRst> list = strings.getSi();
+        String[] ret = new String[list.size()];
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i < ret.length; i++)
         {
-            List<CTRElt> list = string.getR();
-            if(list.size() > 0)
+            CTRst string = list.get(i);
+            if(string == null)
+                continue;
+            if(string.getT() != null)
+                ret[i] = string.getT().getValue();
+            if(ret[i] == null) // cell has multiple formats or fonts
             {
-                for(CTRElt lt : list)
+                boolean found = false;
+                sb.setLength(0);
+                for(CTRElt lt : string.getR())
                 {
                     String str = lt.getT().getValue();
                     if(str != null)
                     {
-                        if(ret == null)
-                            ret = "";
-                        ret += str;
+                        sb.append(str);
+                        found = true;
                     }
                 }
+                if(found)
+                    ret[i] = sb.toString();
             }
         }
         return ret;
@@ -390,6 +498,29 @@ public class XlsxWorkbook extends Workbook
         return stylesheet;
     }
 
+    /**
+     * Returns a table indexed by style ID of whether each cell style in styles.xml is a date or time.
+     * <P>
+     * The table is created from the current styles each time it is called,
+     * so it should be kept by the caller while reading a worksheet.
+     * @return A table of whether each cell style is a date or time
+     */
+    public boolean[] getDateStyles()
+    {
+        if(numFmts == null)
+            cacheFormatCodes();
+        Map<Long,String> codes = numFmts != null ? numFmts : new HashMap<Long,String>();
+        List<CTXf> list = cellXfs.getXf();
+        boolean[] ret = new boolean[list.size()];
+        for(int i = 0; i < ret.length; i++)
+        {
+            CTXf xf = list.get(i);
+            long numFmtId = xf.getNumFmtId() != null ? xf.getNumFmtId().longValue() : 0L;
+            ret[i] = XlsxStreamReader.isDateTime(numFmtId, codes);
+        }
+        return ret;
+    }
+
     /**
      * Returns the number format code for given id in styles.xml.
      * @param id The number format id
@@ -409,7 +540,7 @@ public class XlsxWorkbook extends Workbook
     private void addFormatCode(CTNumFmt fmt) 
     {
         if(numFmts == null)
-            numFmts = new HashMap();
+            numFmts = new HashMap<Long,String>();
         numFmts.put(fmt.getNumFmtId(), 
             fmt.getFormatCode());
     }
@@ -758,7 +889,7 @@ public class XlsxWorkbook extends Workbook
                     int pos = getXfPos(xf);
                     if(pos > 0)
                         cell.setS((long)pos);
-                    cell.setR(getColumn(j)+Integer.toString(i+1+size));
+                    cell.setR(CellReference.getColumnName(j)+Integer.toString(i+1+size));
                     row.getC().add(cell);
                 }
             }
@@ -768,24 +899,6 @@ public class XlsxWorkbook extends Workbook
         return colWidths;
     }
 
-    /**
-     * Returns the column reference from the column number.
-     * <P>
-     * eg. 0=A, 1=B, etc
-     * @param i The column number
-     * @return The column reference from the column number
-     */
-    private String getColumn(int i)
-    {
-        int mult = i/26;
-        int rem = i%26;
-        StringBuffer buff = new StringBuffer();
-        if(mult > 0)
-            buff.append((char)('@'+mult));
-        buff.append((char)('A'+rem));
-        return buff.toString();
-    }
-
     /**
      * Returns the position of the given Xf in the list.
      * <P>
@@ -1029,6 +1142,7 @@ public class XlsxWorkbook extends Workbook
             csw.setValue(data);
             crt.setT(csw);
             strings.getSi().add(crt);
+            sharedStringTable = null;
             pos = stringMap.size();
             stringMap.put(data, new Integer(pos));
         }
@@ -1183,6 +1297,9 @@ public class XlsxWorkbook extends Workbook
     @Override
     public void close()
     {
+        if(partStore != null)
+            partStore.dispose();
+        partStore = null;
         pkg = null;
         file = null;
         outputStream = null;
@@ -1193,6 +1310,7 @@ public class XlsxWorkbook extends Workbook
         wbrp = null;
         sharedStrings = null;
         strings = null;
+        sharedStringTable = null;
         styles = null;
         numFmts = null;
         if(stringMap != null)
@@ -1278,6 +1396,8 @@ public class XlsxWorkbook extends Workbook
     }
 
     protected SpreadsheetMLPackage pkg;
+    private ZipFilePartStore partStore;
+    private String selectedSheet;
     private File file;
     private OutputStream outputStream;
     private WorkbookPart wbp;
@@ -1285,9 +1405,10 @@ public class XlsxWorkbook extends Workbook
     private RelationshipsPart prp, wbrp;
     private SharedStrings sharedStrings;
     private CTSst strings;
+    private String[] sharedStringTable;
     private Map<String,XlsxWorksheet> worksheets = new HashMap<String,XlsxWorksheet>();
     private Styles styles;
-    private Map numFmts = null;
+    private Map<Long,String> numFmts = null;
     private CTStylesheet stylesheet;
     private Map stringMap = null;
     private CTFonts fonts;
@@ -16,7 +16,6 @@
 
 package com.opsmatters.core.documents;
 
-import java.util.Date;
 import java.util.List;
 import java.io.File;
 import java.io.InputStream;
@@ -28,7 +27,6 @@ import org.xlsx4j.sml.SheetData;
 import org.xlsx4j.sml.Row;
 import org.xlsx4j.sml.Cell;
 import org.xlsx4j.sml.STCellType;
-import org.xlsx4j.sml.CTXf;
 
 /**
  * Wrapper class for an Excel XLSX worksheet.
@@ -50,9 +48,12 @@ public class XlsxWorksheet extends Worksheet
 
     /**
      * Unmarshall the data in this worksheet.
+     * <P>
+     * The date styles of the workbook are also looked up once for the whole worksheet.
      */
     private void unmarshall()
     {
+        dateStyles = workbook.getDateStyles();
         sheetData = sheet.getJaxbElement().getSheetData();
         rows = sheetData.getRow();
         if(rows != null && rows.size() > 0)
@@ -118,7 +119,9 @@ public class XlsxWorksheet extends Worksheet
             {
                 Cell c = (Cell)row.get(j);
 
-                int col = getColumn(c.getR())-1;
+                int col = CellReference.getColumnIndex(c.getR());
+                if(col < 0) // the reference is optional
+                    col = j;
                 if(col >= numColumns)
                     continue;
 
@@ -135,16 +138,7 @@ public class XlsxWorksheet extends Worksheet
                 }
                 else if(type.equals(STCellType.N) && value != null && isDateTime(style))
                 {
-                    double d = Double.parseDouble(value);
-
-                    // Convert excel date (based on 1/1/1900)
-                    //   to java date (based on 1/1/1970)
-                    // Ignore times, which are stored as fraction of a day
-                    if(d > 1.0d) 
-                        d -= 25569d; 
-
-                    long dt = (long)(d*86400000d);
-                    ret[col] = df.format(new Date(dt+1L)); // Add 1ms to allow for rounding errors
+                    ret[col] = dates.format(Double.parseDouble(value), df);
                 }
                 else
                 {
@@ -165,37 +159,6 @@ public class XlsxWorksheet extends Worksheet
         return ret;
     }
 
-    /**
-     * Returns the column number from the given cell reference (eg. A1).
-     * <P>
-     * eg. A=1, B=2, etc
-     * @param str The cell reference
-     * @return The column number for the cell
-     */
-    private int getColumn(String str)
-    {
-        int ret = 0;
-
-        // Find the end of the column characters
-        int len = 0;
-        for(int i = 0; 
-            i < str.length() && str.charAt(i) >= 'A' && str.charAt(i) <= 'Z'; 
-            i++, len++);
-
-        // Calculate the column number
-        int pos = 0;
-        for(int i = len-1; i >= 0; i--, pos++)
-        {
-            char c = str.charAt(i);
-            int col = (int)(c - '@');
-            if(pos > 0)
-                col *= 26*pos;
-            ret += col;
-        }
-
-        return ret;
-    }
-
     /**
      * Returns <CODE>true</CODE> if the given style ref is a date or time.
      * <P>
@@ -218,35 +181,13 @@ public class XlsxWorksheet extends Worksheet
      */
     private boolean isDateTime(long style)
     {
-        boolean ret = false;
-
-        if(style > 0L)
-        {
-            CTXf xf = workbook.getStylesheet().getCellXfs().getXf().get((int)style);
-            long numFmtId = 0L;
-            if(xf.getNumFmtId() != null)
-                numFmtId = xf.getNumFmtId().longValue();
-            if(numFmtId < 164)
-            {
-                ret = (numFmtId >= 14 && numFmtId <= 22) 
-                    || numFmtId == 30 
-                    || (numFmtId >= 45 && numFmtId <= 47);
-            }
-            else
-            {
-                String formatCode = workbook.getFormatCode(numFmtId);
-                if(formatCode != null)
-                {
-                    ret = formatCode.indexOf("h:mm") != -1;
-                }
-            }
-        }
-
-        return ret;
+        return style > 0L && style < dateStyles.length && dateStyles[(int)style];
     }
 
     /**
      * Returns the sheets from the given Excel XLSX file.
+     * <P>
+     * Only the workbook part is read from the file, not the worksheets.
      * @param file The file with the name of the XLSX file
      * @return The sheet names from the XLSX file
      * @throws IOException if the file cannot be opened
@@ -254,14 +195,16 @@ public class XlsxWorksheet extends Worksheet
     public static String[] getXlsxWorksheets(File file) 
         throws IOException
     {
-        XlsxWorkbook workbook = XlsxWorkbook.getWorkbook(file);
-        String[] sheets = workbook.getSheetNames();
-        workbook.close();
+        XlsxStreamReader reader = new XlsxStreamReader(file);
+        String[] sheets = reader.getSheetNames();
+        reader.close();
         return sheets;
     }
 
     /**
      * Returns the sheets from the given Excel XLSX file.
+     * <P>
+     * Only the workbook part is read from the stream, not the worksheets.
      * @param stream The input stream with the XLSX file
      * @return The sheet names from the XLSX file
      * @throws IOException if the file cannot be opened
@@ -269,10 +212,40 @@ public class XlsxWorksheet extends Worksheet
     public static String[] getXlsxWorksheets(InputStream stream) 
         throws IOException
     {
-        XlsxWorkbook workbook = XlsxWorkbook.getWorkbook(stream);
-        String[] sheets = workbook.getSheetNames();
-        workbook.close();
-        return sheets;
+        return XlsxStreamReader.getSheetNames(stream);
+    }
+
+    /**
+     * Returns the names and optionally the dimensions of the sheets from the given Excel XLSX file.
+     * <P>
+     * The dimensions are read from the start of each worksheet without reading its rows,
+     * and are -1 if they are not recorded in the file.
+     * @param file The file with the name of the XLSX file
+     * @param dimensions <CODE>true</CODE> if the dimensions of each sheet should be read
+     * @return The sheet names and dimensions from the XLSX file
+     * @throws IOException if the file cannot be opened
+     */
+    public static WorksheetInfo[] getXlsxWorksheetInfo(File file, boolean dimensions) 
+        throws IOException
+    {
+        XlsxStreamReader reader = new XlsxStreamReader(file);
+        try
+        {
+            String[] names = reader.getSheetNames();
+            WorksheetInfo[] ret = new WorksheetInfo[names.length];
+            for(int i = 0; i < names.length; i++)
+            {
+                ret[i] = new WorksheetInfo(names[i]);
+                int[] dims = dimensions ? reader.getDimensions(names[i]) : null;
+                if(dims != null)
+                    ret[i].setDimensions(dims[0], dims[1]);
+            }
+            return ret;
+        }
+        finally
+        {
+            reader.close();
+        }
     }
 
     private XlsxWorkbook workbook;
@@ -280,4 +253,6 @@ public class XlsxWorksheet extends Worksheet
     private SheetData sheetData;
     private List rows;
     private int numColumns = 0;
+    private boolean[] dateStyles = new boolean[0];
+    private SerialDateFormatter dates = new SerialDateFormatter();
 }
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2018 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opsmatters.core.documents;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.IOException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipEntry;
+import java.util.logging.Logger;
+import org.docx4j.openpackaging.io3.stores.PartStore;
+import org.docx4j.openpackaging.contenttype.ContentTypeManager;
+import org.docx4j.openpackaging.parts.Part;
+import org.docx4j.openpackaging.parts.XmlPart;
+import org.docx4j.openpackaging.parts.JaxbXmlPart;
+import org.docx4j.openpackaging.parts.CustomXmlDataStoragePart;
+import org.docx4j.openpackaging.exceptions.Docx4JException;
+
+/**
+ * A read-only docx4j part store that reads each part from the zip file only when it is loaded.
+ * <P>
+ * Unlike the docx4j ZipPartStore, the contents of the parts are not read into memory when the package is opened,
+ * so parts that are never unmarshalled, such as unused worksheets, are left unread in the file.
+ * The zip file is kept open until the store is disposed.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+class ZipFilePartStore implements PartStore
+{
+    private static final Logger logger = Logger.getLogger(ZipFilePartStore.class.getName());
+
+    private File file;
+    private ZipFile zip;
+
+    /**
+     * Constructor that takes a file.
+     * @param file The zip file with the parts
+     * @throws IOException if the file cannot be opened
+     */
+    ZipFilePartStore(File file) throws IOException
+    {
+        this.file = file;
+        this.zip = new ZipFile(file);
+    }
+
+    /**
+     * Returns a stream for the contents of the part with the given name.
+     * @param partName The name of the part, without the leading slash
+     * @return The stream for the contents of the part, or <CODE>null</CODE> if the part was not found
+     * @throws Docx4JException if the part cannot be read
+     */
+    @Override
+    public InputStream loadPart(String partName) throws Docx4JException
+    {
+        ZipEntry entry = getEntry(partName);
+        if(entry == null)
+        {
+            logger.fine("Part not found in "+file+": "+partName);
+            return null;
+        }
+
+        try
+        {
+            return zip.getInputStream(entry);
+        }
+        catch(IOException e)
+        {
+            throw new Docx4JException("Unable to read part: "+partName, e);
+        }
+    }
+
+    /**
+     * Returns the uncompressed size of the part with the given name.
+     * @param partName The name of the part, without the leading slash
+     * @return The size of the part, or -1 if the part was not found or the size is not known
+     */
+    @Override
+    public long getPartSize(String partName) throws Docx4JException
+    {
+        ZipEntry entry = getEntry(partName);
+        return entry != null ? entry.getSize() : -1L;
+    }
+
+    @Override
+    public void setSourcePartStore(PartStore partStore)
+    {
+    }
+
+    @Override
+    public void setOutputStream(OutputStream os) throws Docx4JException
+    {
+        throw new UnsupportedOperationException("part store is read-only: "+file);
+    }
+
+    @Override
+    public void saveContentTypes(ContentTypeManager ctm) throws Docx4JException
+    {
+        throw new UnsupportedOperationException("part store is read-only: "+file);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public void saveJaxbXmlPart(JaxbXmlPart part) throws Docx4JException
+    {
+        throw new UnsupportedOperationException("part store is read-only: "+file);
+    }
+
+    @Override
+    public void saveCustomXmlDataStoragePart(CustomXmlDataStoragePart part) throws Docx4JException
+    {
+        throw new UnsupportedOperationException("part store is read-only: "+file);
+    }
+
+    @Override
+    public void saveXmlPart(XmlPart part) throws Docx4JException
+    {
+        throw new UnsupportedOperationException("part store is read-only: "+file);
+    }
+
+    @Override
+    public void saveBinaryPart(Part part) throws Docx4JException
+    {
+        throw new UnsupportedOperationException("part store is read-only: "+file);
+    }
+
+    @Override
+    public void finishSave() throws Docx4JException
+    {
+        throw new UnsupportedOperationException("part store is read-only: "+file);
+    }
+
+    /**
+     * Closes the zip file.
+     */
+    @Override
+    public void dispose()
+    {
+        if(zip != null)
+        {
+            try
+            {
+                zip.close();
+            }
+            catch(IOException e)
+            {
+                logger.warning("Unable to close file: "+e.getMessage());
+            }
+            zip = null;
+        }
+    }
+
+    /**
+     * Returns the zip entry for the part with the given name.
+     */
+    private ZipEntry getEntry(String partName)
+    {
+        if(zip == null)
+            throw new IllegalStateException("part store has been disposed: "+file);
+        if(partName.startsWith("/"))
+            partName = partName.substring(1);
+        return zip.getEntry(partName);
+    }
+}
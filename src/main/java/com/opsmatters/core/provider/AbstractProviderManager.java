@@ -0,0 +1,284 @@
+/*
+ * Copyright 2018 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.core.provider;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import com.opsmatters.core.util.DaemonThreadFactory;
+
+/**
+ * Base class for provider managers that runs syncs in the background.
+ * <P>
+ * Subclasses only need to implement the synchronous methods of {@link ProviderManager}.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public abstract class AbstractProviderManager<T extends ProviderCache> implements ProviderManager<T>
+{
+    private static final Logger logger = Logger.getLogger(AbstractProviderManager.class.getName());
+
+    // The report of the asynchronous sync being run by the current thread
+    private static final ThreadLocal<SyncReport> reports = new ThreadLocal<SyncReport>();
+
+    private String name;
+    private ExecutorService executor;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Constructor that takes a name.
+     * @param name The name of the provider, used to name the threads that run the syncs
+     */
+    protected AbstractProviderManager(String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     * Sets the executor used to run asynchronous syncs.
+     * @param executor The executor used to run asynchronous syncs
+     */
+    public void setExecutor(ExecutorService executor)
+    {
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the executor used to run asynchronous syncs.
+     * <P>
+     * A pool of daemon threads is created if an executor has not been set.
+     * @return The executor used to run asynchronous syncs
+     */
+    public synchronized ExecutorService getExecutor()
+    {
+        if(executor == null)
+            executor = Executors.newCachedThreadPool(new DaemonThreadFactory(name+"-sync"));
+        return executor;
+    }
+
+    /**
+     * Stops the threads used to run asynchronous syncs.
+     */
+    public synchronized void shutdown()
+    {
+        if(executor != null)
+            executor.shutdownNow();
+        executor = null;
+        if(scheduler != null)
+            scheduler.shutdownNow();
+        scheduler = null;
+    }
+
+    /**
+     * Synchronises the cache in the background.
+     * @param cache The cache to synchronise
+     * @return The future used to get the outcome of the sync or cancel it
+     */
+    @Override
+    public Future<SyncReport> syncAsync(T cache)
+    {
+        return syncAsync(cache, 0L, null, null);
+    }
+
+    /**
+     * Synchronises the cache in the background, cancelling the sync if it does not complete before the deadline.
+     * @param cache The cache to synchronise
+     * @param timeout The time allowed for the sync, or 0 for no deadline
+     * @param unit The unit of the timeout
+     * @param listener The listener to be notified when the sync has finished, or <CODE>null</CODE>
+     * @return The future used to get the outcome of the sync or cancel it
+     */
+    @Override
+    public Future<SyncReport> syncAsync(final T cache, long timeout, TimeUnit unit, SyncListener listener)
+    {
+        return submit(cache, "Sync", new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call()
+            {
+                return sync(cache);
+            }
+        }, timeout, unit, listener);
+    }
+
+    /**
+     * Returns the report of the asynchronous sync being run by the current thread.
+     * <P>
+     * A sync should not publish its changes to the cache once its report has been cancelled.
+     * @return The report of the asynchronous sync, or <CODE>null</CODE> if the current thread is not running an asynchronous sync
+     */
+    protected SyncReport getCurrentReport()
+    {
+        return reports.get();
+    }
+
+    /**
+     * Adds the number of items in each of the caches to the report of a sync that has finished.
+     * @param cache The cache that was synchronised
+     * @param report The report of the sync
+     */
+    protected void addCounts(T cache, SyncReport report)
+    {
+    }
+
+    /**
+     * Submits the given sync to the executor.
+     * @param cache The cache to synchronise
+     * @param name The name of the sync
+     * @param sync The sync to be run
+     * @param timeout The time allowed for the sync, or 0 for no deadline
+     * @param unit The unit of the timeout
+     * @param listener The listener to be notified when the sync has finished, or <CODE>null</CODE>
+     * @return The future used to get the outcome of the sync or cancel it
+     */
+    protected Future<SyncReport> submit(final T cache, String name, final Callable<Boolean> sync,
+        long timeout, TimeUnit unit, SyncListener listener)
+    {
+        if(cache == null)
+            throw new IllegalArgumentException("null cache");
+        if(timeout > 0L && unit == null)
+            throw new IllegalArgumentException("null time unit");
+
+        final SyncReport report = new SyncReport(name);
+        final SyncTask task = new SyncTask(new Callable<SyncReport>()
+        {
+            @Override
+            public SyncReport call()
+            {
+                report.setStarted();
+                reports.set(report);
+                try
+                {
+                    boolean ret = sync.call();
+                    addCounts(cache, report);
+                    report.setCompleted(ret);
+                }
+                catch(Exception e)
+                {
+                    logger.severe("Unable to sync cache: "+e.getClass().getName()+": "+e.getMessage());
+                    report.setError(e);
+                }
+                finally
+                {
+                    reports.remove();
+                }
+                return report;
+            }
+        }, report, listener);
+
+        getExecutor().execute(task);
+
+        // Cancel the sync if it has not completed by the deadline
+        if(timeout > 0L)
+        {
+            task.setDeadline(getScheduler().schedule(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    if(task.cancel(true))
+                        logger.warning("Cancelled sync after deadline: "+report.getName());
+                }
+            }, timeout, unit));
+        }
+
+        return task;
+    }
+
+    /**
+     * Returns the scheduler used to cancel syncs after their deadline.
+     */
+    private synchronized ScheduledExecutorService getScheduler()
+    {
+        if(scheduler == null)
+            scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory(name+"-sync-deadline"));
+        return scheduler;
+    }
+
+    /**
+     * Task that notifies a listener when a sync has finished.
+     * <P>
+     * The report is marked as cancelled before the task is cancelled, and a sync does not publish
+     * its changes once its report has been cancelled. A sync that has already published its changes
+     * cannot be cancelled, so the outcome in the report always matches the state of the cache.
+     */
+    private static class SyncTask extends FutureTask<SyncReport>
+    {
+        private SyncReport report;
+        private SyncListener listener;
+        private Future<?> deadline;
+
+        /**
+         * Constructor that takes a sync, a report and a listener.
+         */
+        SyncTask(Callable<SyncReport> sync, SyncReport report, SyncListener listener)
+        {
+            super(sync);
+            this.report = report;
+            this.listener = listener;
+        }
+
+        /**
+         * Sets the task that cancels the sync after its deadline.
+         * <P>
+         * The task is cancelled immediately if the sync has already finished.
+         * @param deadline The task that cancels the sync after its deadline
+         */
+        synchronized void setDeadline(Future<?> deadline)
+        {
+            this.deadline = deadline;
+            if(isDone())
+                deadline.cancel(false);
+        }
+
+        /**
+         * Cancels the sync if it has not already published its changes or finished.
+         * @param mayInterruptIfRunning <CODE>true</CODE> if the thread running the sync should be interrupted
+         * @return <CODE>true</CODE> if the sync was cancelled
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning)
+        {
+            // Mark the report first so that the sync cannot publish its changes after it is cancelled
+            if(!report.setCancelled())
+                return false;
+            return super.cancel(mayInterruptIfRunning);
+        }
+
+        /**
+         * Called when the sync has completed, failed or been cancelled.
+         */
+        @Override
+        protected void done()
+        {
+            // Remove the deadline task from the scheduler
+            synchronized(this)
+            {
+                if(deadline != null)
+                    deadline.cancel(false);
+            }
+
+            if(listener != null)
+                listener.completed(report);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2018 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.core.provider;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Input stream that reads the remaining bytes of a buffer.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+class ByteBufferInputStream extends InputStream
+{
+    private ByteBuffer buffer;
+
+    /**
+     * Constructor that takes a buffer.
+     * @param buffer The buffer to read
+     */
+    ByteBufferInputStream(ByteBuffer buffer)
+    {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Returns the next byte, or -1 at the end of the buffer.
+     */
+    @Override
+    public int read()
+    {
+        return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    /**
+     * Reads up to the given number of bytes into the array.
+     */
+    @Override
+    public int read(byte[] b, int off, int len)
+    {
+        if(len == 0)
+            return 0;
+        if(!buffer.hasRemaining())
+            return -1;
+        int n = Math.min(len, buffer.remaining());
+        buffer.get(b, off, n);
+        return n;
+    }
+
+    /**
+     * Skips up to the given number of bytes.
+     */
+    @Override
+    public long skip(long n)
+    {
+        int ret = (int)Math.max(0L, Math.min(n, buffer.remaining()));
+        buffer.position(buffer.position()+ret);
+        return ret;
+    }
+
+    /**
+     * Returns the number of bytes left in the buffer.
+     */
+    @Override
+    public int available()
+    {
+        return buffer.remaining();
+    }
+}
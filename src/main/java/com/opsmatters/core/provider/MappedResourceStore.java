@@ -0,0 +1,858 @@
+/*
+ * Copyright 2018 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.core.provider;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.DataOutputStream;
+import java.io.InvalidClassException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Collection;
+import java.util.AbstractCollection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.logging.Logger;
+
+/**
+ * Represents an off-heap store of resources held in a memory-mapped file.
+ * <P>
+ * Each item is encoded into the file when it is added and decoded again when it is read,
+ * so only the index of ids to file offsets is held on the heap.
+ * <P>
+ * A single store holds the items of one type for all the caches of that type,
+ * with the items of each cache kept together under the id of its parent resource.
+ * The space of items that are replaced or removed is reused, 
+ * and the file is compacted instead of being grown if at least half of it is unused.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class MappedResourceStore<T>
+{
+    private static final Logger logger = Logger.getLogger(MappedResourceStore.class.getName());
+
+    /**
+     * The initial size of the mapped file.
+     */
+    public static final int INITIAL_SIZE = 65536;
+
+    private static final int INITIAL_ITEMS = 16;
+    private static final int FREE = -1;
+
+    private File file;
+    private Codec<T> codec;
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private ByteBuffer buffer;
+    private int position = 0;
+    private long garbage = 0L;
+    private long[] parents = new long[INITIAL_ITEMS];
+    private long[] ids = new long[INITIAL_ITEMS];
+    private int[] offsets = new int[INITIAL_ITEMS];
+    private int[] lengths = new int[INITIAL_ITEMS];
+    private int[] next = new int[INITIAL_ITEMS];
+    private int[] slots = new int[INITIAL_ITEMS*2];
+    private int used = 0;
+    private int free = -1;
+    private int count = 0;
+    private Map<Long,Partition> partitions = new HashMap<Long,Partition>();
+
+    /**
+     * Constructor that takes a file and a codec.
+     * @param file The file used to hold the items
+     * @param codec The codec used to convert the items to and from bytes
+     * @throws IOException if the file cannot be mapped
+     */
+    public MappedResourceStore(File file, Codec<T> codec) throws IOException
+    {
+        this.file = file;
+        this.codec = codec;
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, INITIAL_SIZE);
+    }
+
+    /**
+     * Constructor that takes a buffer holding the items and a codec.
+     * <P>
+     * The store is read-only as it has no file.
+     */
+    private MappedResourceStore(ByteBuffer buffer, Codec<T> codec)
+    {
+        this.buffer = buffer;
+        this.codec = codec;
+    }
+
+    /**
+     * Returns a new store in a temporary file in the given directory.
+     * <P>
+     * The file is deleted when the store is closed or the JVM exits.
+     * @param directory The directory for the file
+     * @param prefix The prefix for the name of the file
+     * @param codec The codec used to convert the items to and from bytes
+     * @return The new store
+     * @throws IOException if the file cannot be created
+     */
+    public static <T> MappedResourceStore<T> create(File directory, String prefix, Codec<T> codec)
+        throws IOException
+    {
+        File file = File.createTempFile(prefix, ".dat", directory);
+        file.deleteOnExit();
+        return new MappedResourceStore<T>(file, codec);
+    }
+
+    /**
+     * Returns a read-only store of the items written by {@link #write(DataOutputStream)} at the position of the given buffer.
+     * <P>
+     * The items are decoded from the buffer when they are read, so the buffer is usually mapped from a file.
+     * The position of the buffer is moved to the end of the items.
+     * @param buffer The buffer holding the items
+     * @param codec The codec used to convert the items from bytes
+     * @return The read-only store
+     * @throws IOException if the items in the buffer are not valid
+     */
+    public static <T> MappedResourceStore<T> read(ByteBuffer buffer, Codec<T> codec) throws IOException
+    {
+        MappedResourceStore<T> ret = new MappedResourceStore<T>(buffer.duplicate(), codec);
+        int items = buffer.getInt();
+        if(items < 0)
+            throw new IOException("invalid number of items: "+items);
+        for(int i = 0; i < items; i++)
+        {
+            long parent = buffer.getLong();
+            long id = buffer.getLong();
+            int offset = buffer.position();
+            int length = buffer.getInt();
+            if(length < 0 || length > buffer.remaining())
+                throw new IOException("invalid item length: "+length);
+            ret.add(parent, id, offset, length);
+            buffer.position(buffer.position()+length);
+        }
+        return ret;
+    }
+
+    /**
+     * Writes the items in the store to the given stream without decoding them.
+     * <P>
+     * The items can be read back using {@link #read(ByteBuffer, Codec)} with the codec of this store.
+     * @param out The stream to write the items to
+     * @throws IOException if the items cannot be written
+     */
+    public void write(DataOutputStream out) throws IOException
+    {
+        write(out, null);
+    }
+
+    /**
+     * Writes the items in the store to the given stream, converting them to the given codec.
+     * <P>
+     * The items can be read back using {@link #read(ByteBuffer, Codec)} with the given codec.
+     * The items are written without decoding them if the given codec is the same type as the codec of this store.
+     * @param out The stream to write the items to
+     * @param codec The codec used to convert the items to bytes, or <CODE>null</CODE> to use the codec of this store
+     * @throws IOException if the items cannot be written
+     */
+    public synchronized void write(DataOutputStream out, Codec<T> codec) throws IOException
+    {
+        boolean convert = codec != null && codec.getClass() != this.codec.getClass();
+        out.writeInt(count);
+        byte[] data = new byte[0];
+        ByteBuffer b = buffer.duplicate();
+        for(Map.Entry<Long,Partition> entry : partitions.entrySet())
+        {
+            for(int index = entry.getValue().first; index >= 0; index = next[index])
+            {
+                int length = buffer.getInt(offsets[index]);
+                if(data.length < length)
+                    data = new byte[length];
+                b.position(offsets[index]+4);
+                b.get(data, 0, length);
+                out.writeLong(entry.getKey());
+                out.writeLong(ids[index]);
+                if(convert)
+                {
+                    byte[] encoded = codec.encode(this.codec.decode(Arrays.copyOf(data, length)));
+                    out.writeInt(encoded.length);
+                    out.write(encoded);
+                }
+                else
+                {
+                    out.writeInt(length);
+                    out.write(data, 0, length);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the file used to hold the items.
+     * @return The file used to hold the items, or <CODE>null</CODE> if the store is read-only
+     */
+    public File getFile()
+    {
+        return file;
+    }
+
+    /**
+     * Adds the item with the given id to the items of the given parent, 
+     * replacing any existing item with the same id.
+     * @param parent The id of the parent of the item
+     * @param id The id of the item
+     * @param item The item to add
+     */
+    public synchronized void put(long parent, long id, T item)
+    {
+        if(channel == null)
+            throw new IllegalStateException(file != null ? "store is closed: "+file : "store is read-only");
+
+        byte[] data = null;
+        try
+        {
+            data = codec.encode(item);
+        }
+        catch(IOException e)
+        {
+            throw new IllegalStateException("unable to encode item: "+id, e);
+        }
+
+        int index = indexOf(parent, id);
+        if(index < 0)
+        {
+            index = add(parent, id, allocate(data.length), data.length);
+        }
+        else if(data.length > lengths[index]) // Move the item if it no longer fits in its space
+        {
+            garbage += 4+lengths[index];
+            offsets[index] = FREE;
+            offsets[index] = allocate(data.length);
+            lengths[index] = data.length;
+        }
+
+        int offset = offsets[index];
+        buffer.putInt(offset, data.length);
+        ByteBuffer b = buffer.duplicate();
+        b.position(offset+4);
+        b.put(data);
+    }
+
+    /**
+     * Returns the item with the given id in the items of the given parent.
+     * @param parent The id of the parent of the item
+     * @param id The id of the item
+     * @return The item for the given id, or <CODE>null</CODE> if it is not in the store
+     */
+    public synchronized T get(long parent, long id)
+    {
+        int index = indexOf(parent, id);
+        return index >= 0 ? decode(offsets[index]) : null;
+    }
+
+    /**
+     * Returns the items of the given parent in the store, in the order they were added.
+     * <P>
+     * The items are decoded as the collection is iterated.
+     * @param parent The id of the parent of the items
+     * @return The items of the given parent
+     */
+    public Collection<T> list(final long parent)
+    {
+        return new AbstractCollection<T>()
+        {
+            @Override
+            public Iterator<T> iterator()
+            {
+                return new Iterator<T>()
+                {
+                    private int index = first(parent);
+
+                    @Override
+                    public boolean hasNext()
+                    {
+                        return index >= 0;
+                    }
+
+                    @Override
+                    public T next()
+                    {
+                        synchronized(MappedResourceStore.this)
+                        {
+                            if(index < 0)
+                                throw new NoSuchElementException();
+                            T ret = decode(offsets[index]);
+                            index = next[index];
+                            return ret;
+                        }
+                    }
+
+                    @Override
+                    public void remove()
+                    {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size()
+            {
+                return MappedResourceStore.this.size(parent);
+            }
+        };
+    }
+
+    /**
+     * Returns the number of items of the given parent in the store.
+     * @param parent The id of the parent of the items
+     * @return The number of items of the given parent
+     */
+    public synchronized int size(long parent)
+    {
+        Partition partition = partitions.get(parent);
+        return partition != null ? partition.count : 0;
+    }
+
+    /**
+     * Returns the number of items in the store.
+     * @return The number of items in the store
+     */
+    public synchronized int size()
+    {
+        return count;
+    }
+
+    /**
+     * Removes the items of the given parent from the store.
+     * <P>
+     * The space used by the items is reused by later items.
+     * @param parent The id of the parent of the items
+     */
+    public synchronized void clear(long parent)
+    {
+        Partition partition = partitions.remove(parent);
+        if(partition != null)
+        {
+            int index = partition.first;
+            while(index >= 0)
+            {
+                int n = next[index];
+                remove(index);
+                index = n;
+            }
+        }
+    }
+
+    /**
+     * Removes all the items from the store.
+     */
+    public synchronized void clear()
+    {
+        position = 0;
+        garbage = 0L;
+        used = 0;
+        free = -1;
+        count = 0;
+        Arrays.fill(slots, 0);
+        partitions.clear();
+    }
+
+    /**
+     * Closes the store and deletes the file.
+     */
+    public synchronized void close()
+    {
+        clear();
+        buffer = null;
+        closeFile();
+    }
+
+    /**
+     * Closes and deletes the file, but leaves the items in the store readable.
+     * <P>
+     * The mapping of the file remains valid until the store is no longer referenced,
+     * so any readers still holding the store can continue to use it, but no more items can be added.
+     */
+    public synchronized void release()
+    {
+        closeFile();
+    }
+
+    /**
+     * Closes and deletes the file used to hold the items.
+     */
+    private void closeFile()
+    {
+        if(raf == null) // already closed or read-only
+            return;
+
+        try
+        {
+            channel.close();
+            raf.close();
+        }
+        catch(IOException e)
+        {
+            logger.warning("Unable to close store: "+file);
+        }
+        channel = null;
+        raf = null;
+
+        if(!file.delete())
+            logger.fine("Unable to delete store: "+file);
+    }
+
+    /**
+     * Returns the item decoded from the given offset in the file.
+     */
+    private T decode(int offset)
+    {
+        int length = buffer.getInt(offset);
+        byte[] data = new byte[length];
+        ByteBuffer b = buffer.duplicate();
+        b.position(offset+4);
+        b.get(data);
+        try
+        {
+            return codec.decode(data);
+        }
+        catch(IOException e)
+        {
+            throw new IllegalStateException("unable to decode item at offset: "+offset, e);
+        }
+    }
+
+    /**
+     * Returns the offset of new space at the end of the file for an item of the given length.
+     * <P>
+     * If the file needs to grow, it is compacted first if at least half of it is unused.
+     */
+    private int allocate(int length)
+    {
+        long size = (long)position+4+length;
+        if(size > buffer.capacity() && garbage > 0L && (garbage*2 >= position || size > Integer.MAX_VALUE))
+        {
+            compact();
+            size = (long)position+4+length;
+        }
+
+        ensureSize(size);
+        int ret = position;
+        position = (int)size;
+        return ret;
+    }
+
+    /**
+     * Moves the items down to the start of the file to remove the space left by replaced and removed items.
+     */
+    private void compact()
+    {
+        // Collect the items in the order they are held in the file
+        long[] order = new long[count];
+        int n = 0;
+        for(int i = 0; i < used; i++)
+        {
+            if(lengths[i] != FREE && offsets[i] != FREE)
+                order[n++] = ((long)offsets[i] << 32) | i;
+        }
+        Arrays.sort(order, 0, n);
+
+        int pos = 0;
+        byte[] data = new byte[0];
+        ByteBuffer b = buffer.duplicate();
+        for(int j = 0; j < n; j++)
+        {
+            int index = (int)order[j];
+            int length = buffer.getInt(offsets[index]);
+            if(data.length < length)
+                data = new byte[length];
+            b.position(offsets[index]+4);
+            b.get(data, 0, length);
+            buffer.putInt(pos, length);
+            b.position(pos+4);
+            b.put(data, 0, length);
+            offsets[index] = pos;
+            lengths[index] = length;
+            pos += 4+length;
+        }
+
+        logger.fine("Compacted store: "+file+" from "+position+" to "+pos+" bytes");
+        position = pos;
+        garbage = 0L;
+    }
+
+    /**
+     * Remaps the file if it is smaller than the given size.
+     */
+    private void ensureSize(long size)
+    {
+        int capacity = buffer.capacity();
+        if(size > capacity)
+        {
+            long newSize = capacity;
+            while(newSize < size)
+                newSize *= 2;
+            if(newSize > Integer.MAX_VALUE)
+            {
+                if(size > Integer.MAX_VALUE)
+                    throw new IllegalStateException("store is full: "+file);
+                newSize = Integer.MAX_VALUE;
+            }
+
+            try
+            {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, newSize);
+            }
+            catch(IOException e)
+            {
+                throw new IllegalStateException("unable to map store: "+file, e);
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the first item of the given parent, or -1 if the parent has no items.
+     */
+    private synchronized int first(long parent)
+    {
+        Partition partition = partitions.get(parent);
+        return partition != null ? partition.first : -1;
+    }
+
+    /**
+     * Adds a new item to the index and to the end of the items of its parent.
+     * @return The index of the new item
+     */
+    private int add(long parent, long id, int offset, int length)
+    {
+        int index = free;
+        if(index >= 0)
+        {
+            free = next[index];
+        }
+        else
+        {
+            if(used == ids.length)
+                grow();
+            index = used++;
+        }
+
+        parents[index] = parent;
+        ids[index] = id;
+        offsets[index] = offset;
+        lengths[index] = length;
+        insert(index);
+
+        Partition partition = partitions.get(parent);
+        if(partition == null)
+            partitions.put(parent, partition = new Partition());
+        next[index] = -1;
+        if(partition.last >= 0)
+            next[partition.last] = index;
+        else
+            partition.first = index;
+        partition.last = index;
+        ++partition.count;
+        ++count;
+        return index;
+    }
+
+    /**
+     * Removes the item at the given index from the index, leaving it unlinked from its parent.
+     */
+    private void remove(int index)
+    {
+        removeSlot(index);
+        garbage += 4+lengths[index];
+        offsets[index] = FREE;
+        lengths[index] = FREE;
+        next[index] = free;
+        free = index;
+        --count;
+    }
+
+    /**
+     * Returns the index of the item with the given parent and id, or -1 if it is not in the store.
+     */
+    private int indexOf(long parent, long id)
+    {
+        int mask = slots.length-1;
+        for(int i = hash(parent, id) & mask; slots[i] != 0; i = (i+1) & mask)
+        {
+            int index = slots[i]-1;
+            if(ids[index] == id && parents[index] == parent)
+                return index;
+        }
+        return -1;
+    }
+
+    /**
+     * Adds the item at the given index to the hash slots.
+     */
+    private void insert(int index)
+    {
+        int mask = slots.length-1;
+        int i = hash(parents[index], ids[index]) & mask;
+        while(slots[i] != 0)
+            i = (i+1) & mask;
+        slots[i] = index+1;
+    }
+
+    /**
+     * Removes the item at the given index from the hash slots.
+     */
+    private void removeSlot(int index)
+    {
+        int mask = slots.length-1;
+        int i = hash(parents[index], ids[index]) & mask;
+        while(slots[i] != index+1)
+            i = (i+1) & mask;
+        slots[i] = 0;
+
+        // Move back any later items in the run that could no longer be found
+        for(int j = (i+1) & mask; slots[j] != 0; j = (j+1) & mask)
+        {
+            int k = slots[j]-1;
+            int h = hash(parents[k], ids[k]) & mask;
+            boolean found = i <= j ? (i < h && h <= j) : (i < h || h <= j);
+            if(!found)
+            {
+                slots[i] = slots[j];
+                slots[j] = 0;
+                i = j;
+            }
+        }
+    }
+
+    /**
+     * Doubles the size of the index and rehashes the ids.
+     */
+    private void grow()
+    {
+        int size = ids.length*2;
+        parents = Arrays.copyOf(parents, size);
+        ids = Arrays.copyOf(ids, size);
+        offsets = Arrays.copyOf(offsets, size);
+        lengths = Arrays.copyOf(lengths, size);
+        next = Arrays.copyOf(next, size);
+        slots = new int[size*2];
+        for(int i = 0; i < used; i++)
+        {
+            if(lengths[i] != FREE)
+                insert(i);
+        }
+    }
+
+    /**
+     * Returns the hash code for the given parent and id.
+     */
+    private static int hash(long parent, long id)
+    {
+        long h = (id * 0x9E3779B97F4A7C15L) ^ (parent * 0xC2B2AE3D27D4EB4FL);
+        return (int)(h ^ (h >>> 32));
+    }
+
+    /**
+     * Represents the items of a single parent, linked in the order they were added.
+     */
+    private static class Partition
+    {
+        int first = -1;
+        int last = -1;
+        int count = 0;
+    }
+
+    /**
+     * Represents the interface to convert items to and from bytes.
+     */
+    public interface Codec<T>
+    {
+        /**
+         * Returns the given item as bytes.
+         * @param item The item to encode
+         * @return The bytes for the item
+         * @throws IOException if the item cannot be encoded
+         */
+        public byte[] encode(T item) throws IOException;
+
+        /**
+         * Returns the item for the given bytes.
+         * @param data The bytes to decode
+         * @return The item for the bytes
+         * @throws IOException if the item cannot be decoded
+         */
+        public T decode(byte[] data) throws IOException;
+    }
+
+    /**
+     * Codec that uses java serialization to convert items to and from bytes.
+     */
+    public static class SerializableCodec<T> implements Codec<T>
+    {
+        /**
+         * Returns the given item as bytes.
+         * @param item The item to encode
+         * @return The bytes for the item
+         * @throws IOException if the item cannot be encoded
+         */
+        @Override
+        public byte[] encode(T item) throws IOException
+        {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(256);
+            ObjectOutputStream oos = new ObjectOutputStream(bos);
+            oos.writeObject(item);
+            oos.close();
+            return bos.toByteArray();
+        }
+
+        /**
+         * Returns the item for the given bytes.
+         * @param data The bytes to decode
+         * @return The item for the bytes
+         * @throws IOException if the item cannot be decoded
+         */
+        @Override
+        @SuppressWarnings("unchecked")
+        public T decode(byte[] data) throws IOException
+        {
+            ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data));
+            try
+            {
+                return (T)ois.readObject();
+            }
+            catch(ClassNotFoundException e)
+            {
+                throw new IOException(e);
+            }
+            finally
+            {
+                ois.close();
+            }
+        }
+    }
+
+    /**
+     * Codec that uses java serialization, but only writes the name of each class instead of its full description.
+     * <P>
+     * The items are only read back by the same process, so the descriptions of the classes
+     * are looked up locally when they are decoded.
+     * This makes the items a fraction of the size and quicker to decode.
+     */
+    public static class CompactCodec<T> implements Codec<T>
+    {
+        /**
+         * Returns the given item as bytes.
+         * @param item The item to encode
+         * @return The bytes for the item
+         * @throws IOException if the item cannot be encoded
+         */
+        @Override
+        public byte[] encode(T item) throws IOException
+        {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(128);
+            ObjectOutputStream oos = new CompactOutputStream(bos);
+            oos.writeObject(item);
+            oos.close();
+            return bos.toByteArray();
+        }
+
+        /**
+         * Returns the item for the given bytes.
+         * @param data The bytes to decode
+         * @return The item for the bytes
+         * @throws IOException if the item cannot be decoded
+         */
+        @Override
+        @SuppressWarnings("unchecked")
+        public T decode(byte[] data) throws IOException
+        {
+            ObjectInputStream ois = new CompactInputStream(new ByteArrayInputStream(data));
+            try
+            {
+                return (T)ois.readObject();
+            }
+            catch(ClassNotFoundException e)
+            {
+                throw new IOException(e);
+            }
+            finally
+            {
+                ois.close();
+            }
+        }
+    }
+
+    /**
+     * Object stream that writes the name of each class instead of its description, without a stream header.
+     */
+    private static class CompactOutputStream extends ObjectOutputStream
+    {
+        CompactOutputStream(OutputStream out) throws IOException
+        {
+            super(out);
+        }
+
+        @Override
+        protected void writeStreamHeader()
+        {
+        }
+
+        @Override
+        protected void writeClassDescriptor(ObjectStreamClass desc) throws IOException
+        {
+            writeUTF(desc.getName());
+        }
+    }
+
+    /**
+     * Object stream that reads the name of each class and looks up its description locally.
+     */
+    private static class CompactInputStream extends ObjectInputStream
+    {
+        CompactInputStream(InputStream in) throws IOException
+        {
+            super(in);
+        }
+
+        @Override
+        protected void readStreamHeader()
+        {
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException
+        {
+            String name = readUTF();
+            ClassLoader loader = Thread.currentThread().getContextClassLoader();
+            if(loader == null)
+                loader = CompactCodec.class.getClassLoader();
+            ObjectStreamClass ret = ObjectStreamClass.lookup(Class.forName(name, false, loader));
+            if(ret == null)
+                throw new InvalidClassException(name, "class is not serializable");
+            return ret;
+        }
+    }
+}
@@ -16,8 +16,19 @@
 
 package com.opsmatters.core.provider;
 
+import java.io.File;
+import java.io.Serializable;
+import java.io.OutputStream;
+import java.io.DataOutputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Map;
 import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.commons.lang3.StringUtils;
 import com.opsmatters.core.provider.newrelic.AlertChannelCache;
 import com.opsmatters.core.provider.newrelic.AlertPolicyCache;
@@ -29,6 +40,8 @@ import com.opsmatters.core.provider.newrelic.PluginCache;
 import com.opsmatters.core.provider.newrelic.MonitorCache;
 import com.opsmatters.core.provider.newrelic.EntityCache;
 import com.opsmatters.core.provider.newrelic.DashboardCache;
+import com.opsmatters.newrelic.api.model.applications.ApplicationInstance;
+import com.opsmatters.newrelic.api.model.deployments.Deployment;
 
 /**
  * Represents a cache containing a New Relic configuration.  
@@ -47,16 +60,11 @@ public class NewRelicCache extends ProviderCache
     private boolean insightsEnabled = false;
     private boolean infrastructureEnabled = false;
     private boolean serversEnabled = false;
-    private AlertChannelCache alertChannels = new AlertChannelCache();
-    private AlertPolicyCache alertPolicies = new AlertPolicyCache();
-    private ApplicationCache applications = new ApplicationCache();
-    private BrowserApplicationCache browserApplications = new BrowserApplicationCache();
-    private MobileApplicationCache mobileApplications = new MobileApplicationCache();
-    private ServerCache servers = new ServerCache();
-    private PluginCache plugins = new PluginCache();
-    private MonitorCache monitors = new MonitorCache();
-    private EntityCache entities = new EntityCache();
-    private DashboardCache dashboards = new DashboardCache();
+    private File offHeapDirectory;
+    private SharedCacheSnapshot<Generation> sharedSnapshot;
+    private AtomicLong versions = new AtomicLong(0L);
+    private volatile Generation current = new Generation(this, versions.incrementAndGet(), null);
+    private List<Generation> pinned = new ArrayList<Generation>();
 
     /**
      * Constructor that takes a provider.
@@ -257,14 +265,252 @@ public class NewRelicCache extends ProviderCache
     {
         return serversEnabled;
     }
+
+    /**
+     * Sets the directory used to hold the off-heap stores for the largest caches.
+     * <P>
+     * If set, the deployments and application instances are held in memory-mapped files 
+     * in the directory instead of on the heap.
+     * @param offHeapDirectory The directory used to hold the off-heap stores
+     */
+    public void setOffHeapDirectory(File offHeapDirectory)
+    {
+        this.offHeapDirectory = offHeapDirectory;
+        current.applications().setOffHeapDirectory(offHeapDirectory);
+    }
+
+    /**
+     * Returns the directory used to hold the off-heap stores for the largest caches.
+     * @return The directory used to hold the off-heap stores, or <CODE>null</CODE> if all caches are held on the heap
+     */
+    public File getOffHeapDirectory()
+    {
+        return offHeapDirectory;
+    }
+
+    /**
+     * Sets the file used to hold a snapshot of the cache shared with other processes on the same host.
+     * <P>
+     * If set, only the process elected as the leader syncs the cache and writes the snapshot,
+     * while the other processes reload the cache from the snapshot.
+     * @param file The file used to hold the shared snapshot
+     */
+    public void setSharedSnapshot(File file)
+    {
+        if(sharedSnapshot != null)
+            sharedSnapshot.close();
+        sharedSnapshot = file != null ? new SharedCacheSnapshot<Generation>(file, new GenerationSerializer()) : null;
+    }
+
+    /**
+     * Returns the snapshot of the cache shared with other processes on the same host.
+     * @return The shared snapshot, or <CODE>null</CODE> if the cache is not shared
+     */
+    public SharedCacheSnapshot<Generation> getSharedSnapshot()
+    {
+        return sharedSnapshot;
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if this process should sync the cache.
+     * <P>
+     * Always returns <CODE>true</CODE> if the cache is not shared, 
+     * otherwise only returns <CODE>true</CODE> for the process elected as the leader.
+     * @return <CODE>true</CODE> if this process should sync the cache
+     */
+    public boolean isSyncLeader()
+    {
+        return sharedSnapshot == null || sharedSnapshot.isLeader();
+    }
+
+    /**
+     * Writes the current generation of the cache to the shared snapshot.
+     * @throws IOException if the snapshot cannot be written
+     */
+    public void writeSnapshot() throws IOException
+    {
+        if(sharedSnapshot == null)
+            throw new IllegalStateException("shared snapshot not configured");
+        Generation generation = pin();
+        try
+        {
+            sharedSnapshot.write(generation);
+        }
+        finally
+        {
+            generation.release();
+        }
+    }
+
+    /**
+     * Reloads the cache from the shared snapshot if its version has changed.
+     * @return <CODE>true</CODE> if a new version of the cache was loaded
+     * @throws IOException if the snapshot cannot be read
+     */
+    public boolean readSnapshot() throws IOException
+    {
+        if(sharedSnapshot == null)
+            throw new IllegalStateException("shared snapshot not configured");
+        Generation generation = sharedSnapshot.read();
+        if(generation != null)
+        {
+            generation.attach(this, versions.incrementAndGet());
+            publish(generation);
+            setUpdatedAt();
+        }
+        return generation != null;
+    }
    
+    /**
+     * Returns the current generation of the cache.
+     * <P>
+     * The generation is not pinned, so it may be reclaimed once a newer generation is published.
+     * The caches of a reclaimed generation remain readable, but the child caches of a generation
+     * are only guaranteed to come from the same sync if it is pinned using {@link #pin()}.
+     * @return The current generation of the cache
+     */
+    public Generation current()
+    {
+        return current;
+    }
+
+    /**
+     * Returns the current generation of the cache, pinned so that it cannot be reclaimed.
+     * <P>
+     * The child caches of a pinned generation present a consistent view of a single sync,
+     * even if newer generations are published while it is being read.
+     * The generation must be released by calling {@link Generation#release()} once it is no longer needed.
+     * @return The current generation of the cache
+     */
+    public Generation pin()
+    {
+        synchronized(this)
+        {
+            Generation ret = current;
+            ++ret.references;
+            return ret;
+        }
+    }
+
+    /**
+     * Returns a new generation of the cache that has not yet been published.
+     * @param copy <CODE>true</CODE> if the new generation should share the child caches of the current generation
+     * @return The new generation of the cache
+     */
+    Generation newGeneration(boolean copy)
+    {
+        return newGeneration(copy, null);
+    }
+
+    /**
+     * Returns a new generation of the cache that has not yet been published.
+     * @param copy <CODE>true</CODE> if the new generation should share the child caches of the current generation
+     * @param report The report of the sync building the generation, or <CODE>null</CODE>
+     * @return The new generation of the cache
+     */
+    Generation newGeneration(boolean copy, SyncReport report)
+    {
+        Generation ret = new Generation(this, versions.incrementAndGet(), copy ? current : null);
+        ret.report = report;
+        return ret;
+    }
+
+    /**
+     * Publishes the given generation so that it becomes the current generation of the cache.
+     * <P>
+     * The previous generation is reclaimed once it is no longer pinned by any readers.
+     * The generation is not published if its sync has been cancelled.
+     * @param generation The generation to publish
+     * @return <CODE>true</CODE> if the generation was published
+     */
+    boolean publish(Generation generation)
+    {
+        synchronized(this)
+        {
+            // Interrupting a cancelled sync may not stop it, so check the report before publishing
+            if(generation.report != null && !generation.report.setPublished())
+                return false;
+
+            Generation previous = current;
+            current = generation;
+            if(previous.references > 0)
+                pinned.add(previous);
+            else
+                reclaim(previous);
+            return true;
+        }
+    }
+
+    /**
+     * Discards a generation of the cache that was not published, 
+     * closing any child caches that are not shared with a live generation.
+     * @param generation The generation to discard
+     */
+    void discard(Generation generation)
+    {
+        synchronized(this)
+        {
+            if(!isShared(generation))
+                generation.applications().close();
+        }
+    }
+
+    /**
+     * Releases a generation of the cache that was pinned.
+     * @param generation The generation to release
+     */
+    void release(Generation generation)
+    {
+        synchronized(this)
+        {
+            if(generation.references <= 0)
+                throw new IllegalStateException("generation not pinned: "+generation.getVersion());
+            --generation.references;
+            if(generation.references == 0 && generation != current)
+            {
+                pinned.remove(generation);
+                reclaim(generation);
+            }
+        }
+    }
+
+    /**
+     * Reclaims the given generation by releasing any child caches that are not shared with a live generation.
+     * <P>
+     * The accessors of the cache return the child caches of the current generation without pinning it,
+     * so the off-heap stores are released rather than closed, leaving them readable by any callers still holding them.
+     * @param generation The generation to reclaim
+     */
+    private void reclaim(Generation generation)
+    {
+        // Release the files of any off-heap stores
+        if(!isShared(generation))
+            generation.applications().release();
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if the child caches of the given generation are shared with a live generation.
+     * @param generation The generation to check
+     * @return <CODE>true</CODE> if the child caches of the given generation are shared with a live generation
+     */
+    private boolean isShared(Generation generation)
+    {
+        boolean ret = generation.applications().shares(current.applications());
+        for(Generation live : pinned)
+        {
+            if(generation.applications().shares(live.applications()))
+                ret = true;
+        }
+        return ret;
+    }
+
     /**
      * Returns the alert channel cache.
      * @return The alert channel cache
      */
     public AlertChannelCache alertChannels()
     {
-        return alertChannels;
+        return current.alertChannels();
     }
 
     /**
@@ -273,7 +519,7 @@ public class NewRelicCache extends ProviderCache
      */
     public AlertPolicyCache alertPolicies()
     {
-        return alertPolicies;
+        return current.alertPolicies();
     }
 
     /**
@@ -282,7 +528,7 @@ public class NewRelicCache extends ProviderCache
      */
     public ApplicationCache applications()
     {
-        return applications;
+        return current.applications();
     }
 
     /**
@@ -291,7 +537,7 @@ public class NewRelicCache extends ProviderCache
      */
     public BrowserApplicationCache browserApplications()
     {
-        return browserApplications;
+        return current.browserApplications();
     }
 
     /**
@@ -300,7 +546,7 @@ public class NewRelicCache extends ProviderCache
      */
     public MobileApplicationCache mobileApplications()
     {
-        return mobileApplications;
+        return current.mobileApplications();
     }
 
     /**
@@ -309,7 +555,7 @@ public class NewRelicCache extends ProviderCache
      */
     public ServerCache servers()
     {
-        return servers;
+        return current.servers();
     }
 
     /**
@@ -318,7 +564,7 @@ public class NewRelicCache extends ProviderCache
      */
     public PluginCache plugins()
     {
-        return plugins;
+        return current.plugins();
     }
 
     /**
@@ -327,7 +573,7 @@ public class NewRelicCache extends ProviderCache
      */
     public MonitorCache monitors()
     {
-        return monitors;
+        return current.monitors();
     }
 
     /**
@@ -336,7 +582,7 @@ public class NewRelicCache extends ProviderCache
      */
     public DashboardCache dashboards()
     {
-        return dashboards;
+        return current.dashboards();
     }
 
     /**
@@ -345,7 +591,7 @@ public class NewRelicCache extends ProviderCache
      */
     public EntityCache entities()
     {
-        return entities;
+        return current.entities();
     }
 
     /**
@@ -354,21 +600,342 @@ public class NewRelicCache extends ProviderCache
     @Override
     public String toString()
     {
+        Generation generation = current;
         return "NewRelicCache ["+super.toString()
             +", apiKey="+getMaskedApiKey(6)
-            +", channels="+alertChannels.size()
-            +", policies="+alertPolicies.size()
-            +", applications="+applications.size()
-            +", browserApplications="+browserApplications.size()
-            +", mobileApplications="+mobileApplications.size()
-            +", servers="+servers.size()
-            +", plugins="+plugins.size()
-            +", monitors="+monitors.size()
-            +", entities="+entities.size()
-            +", dashboards="+dashboards.size()
+            +", version="+generation.getVersion()
+            +", channels="+generation.alertChannels().size()
+            +", policies="+generation.alertPolicies().size()
+            +", applications="+generation.applications().size()
+            +", browserApplications="+generation.browserApplications().size()
+            +", mobileApplications="+generation.mobileApplications().size()
+            +", servers="+generation.servers().size()
+            +", plugins="+generation.plugins().size()
+            +", monitors="+generation.monitors().size()
+            +", entities="+generation.entities().size()
+            +", dashboards="+generation.dashboards().size()
             +"]";
     }
 
+    /**
+     * Represents a version of the child caches produced by a single sync.
+     * <P>
+     * A new generation is built by each sync and then published atomically,
+     * so readers never see a partially synchronised cache.
+     * <P>
+     * A generation is serializable so that it can be written to a snapshot shared with other processes.
+     */
+    public static class Generation implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        private transient NewRelicCache cache;
+        private transient long version;
+        private transient int references = 0;
+        private transient SyncReport report;
+        private AlertChannelCache alertChannels;
+        private AlertPolicyCache alertPolicies;
+        private ApplicationCache applications;
+        private BrowserApplicationCache browserApplications;
+        private MobileApplicationCache mobileApplications;
+        private ServerCache servers;
+        private PluginCache plugins;
+        private MonitorCache monitors;
+        private EntityCache entities;
+        private DashboardCache dashboards;
+
+        /**
+         * Constructor that takes a parent cache, a version and a previous generation.
+         * @param cache The parent cache of the generation
+         * @param version The version of the generation
+         * @param previous The generation to share the child caches with, or <CODE>null</CODE> to create empty child caches
+         */
+        private Generation(NewRelicCache cache, long version, Generation previous)
+        {
+            this.cache = cache;
+            this.version = version;
+            if(previous != null)
+            {
+                alertChannels = previous.alertChannels;
+                alertPolicies = previous.alertPolicies;
+                applications = previous.applications;
+                browserApplications = previous.browserApplications;
+                mobileApplications = previous.mobileApplications;
+                servers = previous.servers;
+                plugins = previous.plugins;
+                monitors = previous.monitors;
+                entities = previous.entities;
+                dashboards = previous.dashboards;
+            }
+            else
+            {
+                resetAlerts();
+                resetApplications();
+                resetServers();
+                resetPlugins();
+                resetMonitors();
+                resetDashboards();
+                entities = new EntityCache();
+            }
+        }
+
+        /**
+         * Attaches a generation read from a shared snapshot to the given parent cache.
+         * @param cache The parent cache of the generation
+         * @param version The version of the generation
+         */
+        private void attach(NewRelicCache cache, long version)
+        {
+            this.cache = cache;
+            this.version = version;
+            applications.setOffHeapDirectory(cache.getOffHeapDirectory());
+        }
+
+        /**
+         * Returns the version of the generation.
+         * @return The version of the generation
+         */
+        public long getVersion()
+        {
+            return version;
+        }
+
+        /**
+         * Releases the generation after it was pinned.
+         */
+        public void release()
+        {
+            cache.release(this);
+        }
+
+        /**
+         * Replaces the alert caches with empty caches.
+         */
+        void resetAlerts()
+        {
+            alertChannels = new AlertChannelCache();
+            alertPolicies = new AlertPolicyCache();
+        }
+
+        /**
+         * Replaces the application caches with empty caches.
+         */
+        void resetApplications()
+        {
+            applications = new ApplicationCache();
+            applications.setOffHeapDirectory(cache.getOffHeapDirectory());
+            browserApplications = new BrowserApplicationCache();
+            mobileApplications = new MobileApplicationCache();
+        }
+
+        /**
+         * Replaces the application and monitor caches with copies that have no labels.
+         * <P>
+         * The copies share everything else with the caches they replace, 
+         * so the labels can be synced without changing the caches of a published generation.
+         */
+        void resetLabels()
+        {
+            applications = applications.copy();
+            applications.clearLabels();
+            monitors = monitors.copy();
+            monitors.clearLabels();
+        }
+
+        /**
+         * Replaces the server cache with an empty cache.
+         */
+        void resetServers()
+        {
+            servers = new ServerCache();
+        }
+
+        /**
+         * Replaces the plugin cache with an empty cache.
+         */
+        void resetPlugins()
+        {
+            plugins = new PluginCache();
+        }
+
+        /**
+         * Replaces the monitor cache with an empty cache.
+         */
+        void resetMonitors()
+        {
+            monitors = new MonitorCache();
+        }
+
+        /**
+         * Replaces the dashboard cache with an empty cache.
+         */
+        void resetDashboards()
+        {
+            dashboards = new DashboardCache();
+        }
+
+        /**
+         * Returns the alert channel cache.
+         * @return The alert channel cache
+         */
+        public AlertChannelCache alertChannels()
+        {
+            return alertChannels;
+        }
+
+        /**
+         * Returns the alert policy cache.
+         * @return The alert policy cache
+         */
+        public AlertPolicyCache alertPolicies()
+        {
+            return alertPolicies;
+        }
+
+        /**
+         * Returns the application cache.
+         * @return The application cache
+         */
+        public ApplicationCache applications()
+        {
+            return applications;
+        }
+
+        /**
+         * Returns the browser application cache.
+         * @return The browser application cache
+         */
+        public BrowserApplicationCache browserApplications()
+        {
+            return browserApplications;
+        }
+
+        /**
+         * Returns the mobile application cache.
+         * @return The mobile application cache
+         */
+        public MobileApplicationCache mobileApplications()
+        {
+            return mobileApplications;
+        }
+
+        /**
+         * Returns the server cache.
+         * @return The server cache
+         */
+        public ServerCache servers()
+        {
+            return servers;
+        }
+
+        /**
+         * Returns the plugin cache.
+         * @return The plugin cache
+         */
+        public PluginCache plugins()
+        {
+            return plugins;
+        }
+
+        /**
+         * Returns the monitor cache.
+         * @return The monitor cache
+         */
+        public MonitorCache monitors()
+        {
+            return monitors;
+        }
+
+        /**
+         * Returns the dashboard cache.
+         * @return The dashboard cache
+         */
+        public DashboardCache dashboards()
+        {
+            return dashboards;
+        }
+
+        /**
+         * Returns the entity cache.
+         * @return The entity cache
+         */
+        public EntityCache entities()
+        {
+            return entities;
+        }
+    }
+
+    /**
+     * Writes a generation of the cache to a shared snapshot and reads it back.
+     * <P>
+     * The items in the off-heap stores are copied to the snapshot without being decoded,
+     * and are then read from the mapped snapshot as they are needed instead of being decoded up front.
+     * The rest of the generation follows the stores using java serialization.
+     */
+    private static class GenerationSerializer implements SharedCacheSnapshot.Serializer<Generation>
+    {
+        /**
+         * Writes the given generation to the stream.
+         */
+        @Override
+        public void write(Generation generation, OutputStream out) throws IOException
+        {
+            // The stores are written with the full descriptions of the classes, 
+            // as the processes reading the snapshot may be running a different build
+            DataOutputStream dos = new DataOutputStream(out);
+            writeStore(generation.applications().getDeploymentStore(), new MappedResourceStore.SerializableCodec<Deployment>(), dos);
+            writeStore(generation.applications().getInstanceStore(), new MappedResourceStore.SerializableCodec<ApplicationInstance>(), dos);
+
+            ObjectOutputStream oos = new ObjectOutputStream(dos);
+            oos.writeObject(generation);
+            oos.flush();
+        }
+
+        /**
+         * Writes the items in the given store to the stream, or an empty store if there is no store.
+         */
+        private <T> void writeStore(MappedResourceStore<T> store, MappedResourceStore.Codec<T> codec, 
+            DataOutputStream out) throws IOException
+        {
+            if(store != null)
+                store.write(out, codec);
+            else
+                out.writeInt(0);
+        }
+
+        /**
+         * Returns the generation read from the given buffer.
+         */
+        @Override
+        public Generation read(ByteBuffer buffer) throws IOException
+        {
+            // Read the stores first, as the object stream may read ahead
+            MappedResourceStore<Deployment> deployments = MappedResourceStore.read(buffer, 
+                new MappedResourceStore.SerializableCodec<Deployment>());
+            MappedResourceStore<ApplicationInstance> instances = MappedResourceStore.read(buffer, 
+                new MappedResourceStore.SerializableCodec<ApplicationInstance>());
+
+            Generation ret = null;
+            ObjectInputStream ois = new ObjectInputStream(new ByteBufferInputStream(buffer));
+            try
+            {
+                ret = (Generation)ois.readObject();
+            }
+            catch(ClassNotFoundException e)
+            {
+                throw new IOException(e);
+            }
+            finally
+            {
+                ois.close();
+            }
+
+            ret.applications().setStores(deployments.size() > 0 ? deployments : null, 
+                instances.size() > 0 ? instances : null);
+            return ret;
+        }
+    }
+
     /**
      * Returns a builder for the provider cache.
      * @return The builder instance.
@@ -495,6 +1062,28 @@ public class NewRelicCache extends ProviderCache
             return this;
         }
 
+        /**
+         * Sets the directory used to hold the off-heap stores for the largest caches.
+         * @param directory The directory used to hold the off-heap stores
+         * @return This object
+         */
+        public Builder offHeap(File directory)
+        {
+            cache.setOffHeapDirectory(directory);
+            return this;
+        }
+
+        /**
+         * Sets the file used to hold a snapshot of the cache shared with other processes on the same host.
+         * @param file The file used to hold the shared snapshot
+         * @return This object
+         */
+        public Builder sharedSnapshot(File file)
+        {
+            cache.setSharedSnapshot(file);
+            return this;
+        }
+
         /**
          * Returns the configured provider cache instance
          * @return The provider cache instance
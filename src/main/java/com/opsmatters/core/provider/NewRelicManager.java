@@ -16,8 +16,14 @@
 
 package com.opsmatters.core.provider;
 
+import java.io.IOException;
 import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
+import com.opsmatters.core.provider.newrelic.ApplicationCache;
+import com.opsmatters.core.provider.newrelic.MonitorCache;
 import com.opsmatters.newrelic.api.NewRelicApi;
 import com.opsmatters.newrelic.api.NewRelicInfraApi;
 import com.opsmatters.newrelic.api.NewRelicSyntheticsApi;
@@ -36,7 +42,7 @@ import com.opsmatters.newrelic.api.exceptions.ErrorResponseException;
  * 
  * @author Gerald Curley (opsmatters)
  */
-public class NewRelicManager implements ProviderManager<NewRelicCache>
+public class NewRelicManager extends AbstractProviderManager<NewRelicCache>
 {
     private static final Logger logger = Logger.getLogger(NewRelicManager.class.getName());
 
@@ -50,6 +56,7 @@ public class NewRelicManager implements ProviderManager<NewRelicCache>
      */
     public NewRelicManager()
     {
+        super("newrelic");
     }
 
     /**
@@ -116,6 +123,9 @@ public class NewRelicManager implements ProviderManager<NewRelicCache>
 
     /**
      * Synchronises the cache.
+     * <P>
+     * If the cache is shared with other processes, only the process elected as the leader syncs the cache 
+     * and writes the shared snapshot, while the other processes reload the cache from the snapshot.
      * @param cache The provider cache
      */
     public boolean sync(NewRelicCache cache)
@@ -123,37 +133,353 @@ public class NewRelicManager implements ProviderManager<NewRelicCache>
         if(cache == null)
             throw new IllegalArgumentException("null cache");
 
+        // Reload the cache from the shared snapshot if another process is the leader
+        if(!cache.isSyncLeader())
+            return readSnapshot(cache);
+
         checkInitialize(cache);
         boolean ret = isInitialized();
         if(!ret)
             throw new IllegalStateException("cache not initialized");
 
-        clear(cache);
-
-        if(ret)
-            ret = syncApplications(cache);
-        if(ret)
-            ret = syncPlugins(cache);
-        if(ret)
-            ret = syncMonitors(cache);
-        if(ret)
-            ret = syncServers(cache);
-        if(ret)
-            ret = syncLabels(cache);
-        if(ret)
-            ret = syncAlerts(cache);
-        if(ret)
-            ret = syncDashboards(cache);
+        // Build a new generation of the cache and only publish it once it is complete
+        NewRelicCache.Generation generation = newGeneration(cache, false);
+        boolean published = false;
+        try
+        {
+            if(ret)
+                ret = syncApplications(cache, generation);
+            if(ret)
+                ret = syncPlugins(cache, generation);
+            if(ret)
+                ret = syncMonitors(cache, generation);
+            if(ret)
+                ret = syncServers(cache, generation);
+            if(ret)
+                ret = syncLabels(cache, generation);
+            if(ret)
+                ret = syncAlerts(cache, generation);
+            if(ret)
+                ret = syncDashboards(cache, generation);
+
+            if(ret)
+            {
+                ret = cache.publish(generation);
+                published = ret;
+            }
+        }
+        finally
+        {
+            // Close the off-heap stores of a generation that failed
+            if(!published)
+                cache.discard(generation);
+        }
 
-        return ret;
+        // Share the new generation with the other processes
+        return ret && writeSnapshot(cache);
+    }
+
+    /**
+     * Returns a new generation of the cache for a sync.
+     * <P>
+     * The generation of an asynchronous sync is given its report, so that it is not published once the sync has been cancelled.
+     * @param cache The provider cache
+     * @param copy <CODE>true</CODE> if the new generation should share the child caches of the current generation
+     * @return The new generation of the cache
+     */
+    private NewRelicCache.Generation newGeneration(NewRelicCache cache, boolean copy)
+    {
+        return cache.newGeneration(copy, getCurrentReport());
+    }
+
+    /**
+     * Reloads the cache from the shared snapshot if it has changed.
+     * @param cache The provider cache
+     * @return <CODE>true</CODE> if the snapshot was read successfully
+     */
+    private boolean readSnapshot(NewRelicCache cache)
+    {
+        try
+        {
+            if(cache.readSnapshot())
+                logger.info("Reloaded cache from snapshot: "+cache.getSharedSnapshot().getVersion());
+            return true;
+        }
+        catch(IOException e)
+        {
+            logger.severe("Unable to read cache snapshot: "+e.getClass().getName()+": "+e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Writes the current generation of the cache to the shared snapshot (if any).
+     * @param cache The provider cache
+     * @return <CODE>true</CODE> if the cache is not shared or the snapshot was written successfully
+     */
+    private boolean writeSnapshot(NewRelicCache cache)
+    {
+        if(cache.getSharedSnapshot() == null)
+            return true;
+
+        try
+        {
+            cache.writeSnapshot();
+            return true;
+        }
+        catch(IOException e)
+        {
+            logger.severe("Unable to write cache snapshot: "+e.getClass().getName()+": "+e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Synchronise the alerts configuration with the cache in the background.
+     * @param cache The provider cache
+     * @return The future used to get the outcome of the sync or cancel it
+     */
+    public Future<SyncReport> syncAlertsAsync(NewRelicCache cache)
+    {
+        return syncAlertsAsync(cache, 0L, null, null);
+    }
+
+    /**
+     * Synchronise the alerts configuration with the cache in the background, cancelling the sync if it does not complete before the deadline.
+     * @param cache The provider cache
+     * @param timeout The time allowed for the sync, or 0 for no deadline
+     * @param unit The unit of the timeout
+     * @param listener The listener to be notified when the sync has finished, or <CODE>null</CODE>
+     * @return The future used to get the outcome of the sync or cancel it
+     */
+    public Future<SyncReport> syncAlertsAsync(final NewRelicCache cache, long timeout, TimeUnit unit, SyncListener listener)
+    {
+        return submit(cache, "Alerts", new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call()
+            {
+                return syncAlerts(cache);
+            }
+        }, timeout, unit, listener);
+    }
+
+    /**
+     * Synchronise the application configuration with the cache in the background.
+     * @param cache The provider cache
+     * @return The future used to get the outcome of the sync or cancel it
+     */
+    public Future<SyncReport> syncApplicationsAsync(NewRelicCache cache)
+    {
+        return syncApplicationsAsync(cache, 0L, null, null);
+    }
+
+    /**
+     * Synchronise the application configuration with the cache in the background, cancelling the sync if it does not complete before the deadline.
+     * @param cache The provider cache
+     * @param timeout The time allowed for the sync, or 0 for no deadline
+     * @param unit The unit of the timeout
+     * @param listener The listener to be notified when the sync has finished, or <CODE>null</CODE>
+     * @return The future used to get the outcome of the sync or cancel it
+     */
+    public Future<SyncReport> syncApplicationsAsync(final NewRelicCache cache, long timeout, TimeUnit unit, SyncListener listener)
+    {
+        return submit(cache, "Applications", new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call()
+            {
+                return syncApplications(cache);
+            }
+        }, timeout, unit, listener);
+    }
+
+    /**
+     * Synchronise the Plugins configuration with the cache in the background.
+     * @param cache The provider cache
+     * @return The future used to get the outcome of the sync or cancel it
+     */
+    public Future<SyncReport> syncPluginsAsync(NewRelicCache cache)
+    {
+        return syncPluginsAsync(cache, 0L, null, null);
+    }
+
+    /**
+     * Synchronise the Plugins configuration with the cache in the background, cancelling the sync if it does not complete before the deadline.
+     * @param cache The provider cache
+     * @param timeout The time allowed for the sync, or 0 for no deadline
+     * @param unit The unit of the timeout
+     * @param listener The listener to be notified when the sync has finished, or <CODE>null</CODE>
+     * @return The future used to get the outcome of the sync or cancel it
+     */
+    public Future<SyncReport> syncPluginsAsync(final NewRelicCache cache, long timeout, TimeUnit unit, SyncListener listener)
+    {
+        return submit(cache, "Plugins", new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call()
+            {
+                return syncPlugins(cache);
+            }
+        }, timeout, unit, listener);
+    }
+
+    /**
+     * Synchronise the Synthetics configuration with the cache in the background.
+     * @param cache The provider cache
+     * @return The future used to get the outcome of the sync or cancel it
+     */
+    public Future<SyncReport> syncMonitorsAsync(NewRelicCache cache)
+    {
+        return syncMonitorsAsync(cache, 0L, null, null);
+    }
+
+    /**
+     * Synchronise the Synthetics configuration with the cache in the background, cancelling the sync if it does not complete before the deadline.
+     * @param cache The provider cache
+     * @param timeout The time allowed for the sync, or 0 for no deadline
+     * @param unit The unit of the timeout
+     * @param listener The listener to be notified when the sync has finished, or <CODE>null</CODE>
+     * @return The future used to get the outcome of the sync or cancel it
+     */
+    public Future<SyncReport> syncMonitorsAsync(final NewRelicCache cache, long timeout, TimeUnit unit, SyncListener listener)
+    {
+        return submit(cache, "Monitors", new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call()
+            {
+                return syncMonitors(cache);
+            }
+        }, timeout, unit, listener);
+    }
+
+    /**
+     * Synchronise the server configuration with the cache in the background.
+     * @param cache The provider cache
+     * @return The future used to get the outcome of the sync or cancel it
+     */
+    public Future<SyncReport> syncServersAsync(NewRelicCache cache)
+    {
+        return syncServersAsync(cache, 0L, null, null);
+    }
+
+    /**
+     * Synchronise the server configuration with the cache in the background, cancelling the sync if it does not complete before the deadline.
+     * @param cache The provider cache
+     * @param timeout The time allowed for the sync, or 0 for no deadline
+     * @param unit The unit of the timeout
+     * @param listener The listener to be notified when the sync has finished, or <CODE>null</CODE>
+     * @return The future used to get the outcome of the sync or cancel it
+     */
+    public Future<SyncReport> syncServersAsync(final NewRelicCache cache, long timeout, TimeUnit unit, SyncListener listener)
+    {
+        return submit(cache, "Servers", new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call()
+            {
+                return syncServers(cache);
+            }
+        }, timeout, unit, listener);
+    }
+
+    /**
+     * Synchronise the label configuration with the cache in the background.
+     * @param cache The provider cache
+     * @return The future used to get the outcome of the sync or cancel it
+     */
+    public Future<SyncReport> syncLabelsAsync(NewRelicCache cache)
+    {
+        return syncLabelsAsync(cache, 0L, null, null);
+    }
+
+    /**
+     * Synchronise the label configuration with the cache in the background, cancelling the sync if it does not complete before the deadline.
+     * @param cache The provider cache
+     * @param timeout The time allowed for the sync, or 0 for no deadline
+     * @param unit The unit of the timeout
+     * @param listener The listener to be notified when the sync has finished, or <CODE>null</CODE>
+     * @return The future used to get the outcome of the sync or cancel it
+     */
+    public Future<SyncReport> syncLabelsAsync(final NewRelicCache cache, long timeout, TimeUnit unit, SyncListener listener)
+    {
+        return submit(cache, "Labels", new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call()
+            {
+                return syncLabels(cache);
+            }
+        }, timeout, unit, listener);
+    }
+
+    /**
+     * Synchronise the dashboard configuration with the cache in the background.
+     * @param cache The provider cache
+     * @return The future used to get the outcome of the sync or cancel it
+     */
+    public Future<SyncReport> syncDashboardsAsync(NewRelicCache cache)
+    {
+        return syncDashboardsAsync(cache, 0L, null, null);
+    }
+
+    /**
+     * Synchronise the dashboard configuration with the cache in the background, cancelling the sync if it does not complete before the deadline.
+     * @param cache The provider cache
+     * @param timeout The time allowed for the sync, or 0 for no deadline
+     * @param unit The unit of the timeout
+     * @param listener The listener to be notified when the sync has finished, or <CODE>null</CODE>
+     * @return The future used to get the outcome of the sync or cancel it
+     */
+    public Future<SyncReport> syncDashboardsAsync(final NewRelicCache cache, long timeout, TimeUnit unit, SyncListener listener)
+    {
+        return submit(cache, "Dashboards", new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call()
+            {
+                return syncDashboards(cache);
+            }
+        }, timeout, unit, listener);
     }
 
     /**
      * Synchronise the alerts configuration with the cache.
+     * <P>
+     * As with {@link #sync(NewRelicCache)}, only the leader of a shared cache calls the API.
      * @param cache The provider cache
      * @return <CODE>true</CODE> if the operation was successful
      */
     public boolean syncAlerts(NewRelicCache cache)
+    {
+        // Reload the cache from the shared snapshot if another process is the leader
+        if(!cache.isSyncLeader())
+            return readSnapshot(cache);
+
+        NewRelicCache.Generation generation = newGeneration(cache, true);
+        boolean ret = false;
+        try
+        {
+            ret = syncAlerts(cache, generation);
+            if(ret)
+                ret = cache.publish(generation);
+        }
+        finally
+        {
+            if(!ret)
+                cache.discard(generation);
+        }
+        return ret && writeSnapshot(cache);
+    }
+
+    /**
+     * Synchronise the alerts configuration with the given generation of the cache.
+     * @param cache The provider cache
+     * @param generation The generation of the cache to be populated
+     * @return <CODE>true</CODE> if the operation was successful
+     */
+    private boolean syncAlerts(NewRelicCache cache, NewRelicCache.Generation generation)
     {
         boolean ret = true;
 
@@ -164,33 +490,34 @@ public class NewRelicManager implements ProviderManager<NewRelicCache>
         if(cache.isAlertsEnabled())
         {
             ret = false;
+            generation.resetAlerts();
 
             // Get the alert policies
             logger.info("Getting the alert policies");
             Collection<AlertPolicy> policies = apiClient.alertPolicies().list();
             for(AlertPolicy policy : policies)
             {
-                cache.alertPolicies().add(policy);
+                generation.alertPolicies().add(policy);
 
                 // Add the alert conditions
                 if(cache.isApmEnabled() || cache.isServersEnabled() || cache.isBrowserEnabled() || cache.isMobileEnabled())
-                    cache.alertPolicies().alertConditions(policy.getId()).add(apiClient.alertConditions().list(policy.getId()));
-                cache.alertPolicies().nrqlAlertConditions(policy.getId()).add(apiClient.nrqlAlertConditions().list(policy.getId()));
+                    generation.alertPolicies().alertConditions(policy.getId()).add(apiClient.alertConditions().list(policy.getId()));
+                generation.alertPolicies().nrqlAlertConditions(policy.getId()).add(apiClient.nrqlAlertConditions().list(policy.getId()));
                 if(cache.isApmEnabled() || cache.isMobileEnabled())
-                    cache.alertPolicies().externalServiceAlertConditions(policy.getId()).add(apiClient.externalServiceAlertConditions().list(policy.getId()));
+                    generation.alertPolicies().externalServiceAlertConditions(policy.getId()).add(apiClient.externalServiceAlertConditions().list(policy.getId()));
                 if(cache.isSyntheticsEnabled())
-                    cache.alertPolicies().syntheticsAlertConditions(policy.getId()).add(apiClient.syntheticsAlertConditions().list(policy.getId()));
+                    generation.alertPolicies().syntheticsAlertConditions(policy.getId()).add(apiClient.syntheticsAlertConditions().list(policy.getId()));
                 if(cache.isPluginsEnabled())
-                    cache.alertPolicies().pluginsAlertConditions(policy.getId()).add(apiClient.pluginsAlertConditions().list(policy.getId()));
+                    generation.alertPolicies().pluginsAlertConditions(policy.getId()).add(apiClient.pluginsAlertConditions().list(policy.getId()));
                 if(cache.isInfrastructureEnabled())
-                    cache.alertPolicies().infraAlertConditions(policy.getId()).add(infraApiClient.infraAlertConditions().list(policy.getId()));
+                    generation.alertPolicies().infraAlertConditions(policy.getId()).add(infraApiClient.infraAlertConditions().list(policy.getId()));
             }
 
             // Get the alert channels
             logger.info("Getting the alert channels");
             Collection<AlertChannel> channels = apiClient.alertChannels().list();
-            cache.alertChannels().set(channels);
-            cache.alertPolicies().setAlertChannels(channels);
+            generation.alertChannels().set(channels);
+            generation.alertPolicies().setAlertChannels(channels);
             cache.setUpdatedAt();
 
             ret = true;
@@ -201,10 +528,40 @@ public class NewRelicManager implements ProviderManager<NewRelicCache>
 
     /**
      * Synchronise the application configuration with the cache.
+     * <P>
+     * As with {@link #sync(NewRelicCache)}, only the leader of a shared cache calls the API.
      * @param cache The provider cache
      * @return <CODE>true</CODE> if the operation was successful
      */
     public boolean syncApplications(NewRelicCache cache)
+    {
+        // Reload the cache from the shared snapshot if another process is the leader
+        if(!cache.isSyncLeader())
+            return readSnapshot(cache);
+
+        NewRelicCache.Generation generation = newGeneration(cache, true);
+        boolean ret = false;
+        try
+        {
+            ret = syncApplications(cache, generation);
+            if(ret)
+                ret = cache.publish(generation);
+        }
+        finally
+        {
+            if(!ret)
+                cache.discard(generation);
+        }
+        return ret && writeSnapshot(cache);
+    }
+
+    /**
+     * Synchronise the application configuration with the given generation of the cache.
+     * @param cache The provider cache
+     * @param generation The generation of the cache to be populated
+     * @return <CODE>true</CODE> if the operation was successful
+     */
+    private boolean syncApplications(NewRelicCache cache, NewRelicCache.Generation generation)
     {
         boolean ret = true;
 
@@ -215,6 +572,8 @@ public class NewRelicManager implements ProviderManager<NewRelicCache>
         if(cache.isApmEnabled() || cache.isBrowserEnabled() || cache.isMobileEnabled())
         {
             ret = false;
+            ApplicationCache previous = generation.applications();
+            generation.resetApplications();
 
             if(cache.isApmEnabled())
             {
@@ -222,23 +581,23 @@ public class NewRelicManager implements ProviderManager<NewRelicCache>
                 Collection<Application> applications = apiClient.applications().list();
                 for(Application application : applications)
                 {
-                    cache.applications().add(application);
+                    generation.applications().add(application);
 
                     logger.fine("Getting the hosts for application: "+application.getId());
-                    cache.applications().applicationHosts(application.getId()).add(apiClient.applicationHosts().list(application.getId()));
+                    generation.applications().applicationHosts(application.getId()).add(apiClient.applicationHosts().list(application.getId()));
 
                     logger.fine("Getting the instances for application: "+application.getId());
-                    cache.applications().applicationHosts(application.getId()).addApplicationInstances(apiClient.applicationInstances().list(application.getId()));
+                    generation.applications().applicationHosts(application.getId()).addApplicationInstances(apiClient.applicationInstances().list(application.getId()));
 
                     logger.fine("Getting the deployments for application: "+application.getId());
-                    cache.applications().deployments(application.getId()).add(apiClient.deployments().list(application.getId()));
+                    generation.applications().deployments(application.getId()).add(apiClient.deployments().list(application.getId()));
                 }
 
                 // Get the key transaction configuration using the REST API
                 try
                 {
                     logger.info("Getting the key transactions");
-                    cache.applications().addKeyTransactions(apiClient.keyTransactions().list());
+                    generation.applications().addKeyTransactions(apiClient.keyTransactions().list());
                 }
                 catch(ErrorResponseException e)
                 {
@@ -252,15 +611,17 @@ public class NewRelicManager implements ProviderManager<NewRelicCache>
             if(cache.isBrowserEnabled())
             {
                 logger.info("Getting the browser applications");
-                cache.browserApplications().add(apiClient.browserApplications().list());
+                generation.browserApplications().add(apiClient.browserApplications().list());
             }
 
             if(cache.isBrowserEnabled())
             {
                 logger.info("Getting the mobile applications");
-                cache.mobileApplications().add(apiClient.mobileApplications().list());
+                generation.mobileApplications().add(apiClient.mobileApplications().list());
             }
 
+            // Keep the labels of the existing applications until the labels are next synced
+            generation.applications().addLabels(previous);
             cache.setUpdatedAt();
 
             ret = true;
@@ -271,10 +632,40 @@ public class NewRelicManager implements ProviderManager<NewRelicCache>
 
     /**
      * Synchronise the Plugins configuration with the cache.
+     * <P>
+     * As with {@link #sync(NewRelicCache)}, only the leader of a shared cache calls the API.
      * @param cache The provider cache
      * @return <CODE>true</CODE> if the operation was successful
      */
     public boolean syncPlugins(NewRelicCache cache)
+    {
+        // Reload the cache from the shared snapshot if another process is the leader
+        if(!cache.isSyncLeader())
+            return readSnapshot(cache);
+
+        NewRelicCache.Generation generation = newGeneration(cache, true);
+        boolean ret = false;
+        try
+        {
+            ret = syncPlugins(cache, generation);
+            if(ret)
+                ret = cache.publish(generation);
+        }
+        finally
+        {
+            if(!ret)
+                cache.discard(generation);
+        }
+        return ret && writeSnapshot(cache);
+    }
+
+    /**
+     * Synchronise the Plugins configuration with the given generation of the cache.
+     * @param cache The provider cache
+     * @param generation The generation of the cache to be populated
+     * @return <CODE>true</CODE> if the operation was successful
+     */
+    private boolean syncPlugins(NewRelicCache cache, NewRelicCache.Generation generation)
     {
         boolean ret = true;
 
@@ -285,16 +676,17 @@ public class NewRelicManager implements ProviderManager<NewRelicCache>
         if(cache.isPluginsEnabled())
         {
             ret = false;
+            generation.resetPlugins();
 
             logger.info("Getting the plugins");
             Collection<Plugin> plugins = apiClient.plugins().list(true);
             for(Plugin plugin : plugins)
             {
-                cache.plugins().add(plugin);
+                generation.plugins().add(plugin);
 
                 logger.fine("Getting the components for plugin: "+plugin.getId());
                 Collection<PluginComponent> components = apiClient.pluginComponents().list(PluginComponentService.filters().pluginId(plugin.getId()).build());
-                cache.plugins().components(plugin.getId()).add(components);
+                generation.plugins().components(plugin.getId()).add(components);
             }
 
             cache.setUpdatedAt();
@@ -307,10 +699,40 @@ public class NewRelicManager implements ProviderManager<NewRelicCache>
 
     /**
      * Synchronise the Synthetics configuration with the cache.
+     * <P>
+     * As with {@link #sync(NewRelicCache)}, only the leader of a shared cache calls the API.
      * @param cache The provider cache
      * @return <CODE>true</CODE> if the operation was successful
      */
     public boolean syncMonitors(NewRelicCache cache)
+    {
+        // Reload the cache from the shared snapshot if another process is the leader
+        if(!cache.isSyncLeader())
+            return readSnapshot(cache);
+
+        NewRelicCache.Generation generation = newGeneration(cache, true);
+        boolean ret = false;
+        try
+        {
+            ret = syncMonitors(cache, generation);
+            if(ret)
+                ret = cache.publish(generation);
+        }
+        finally
+        {
+            if(!ret)
+                cache.discard(generation);
+        }
+        return ret && writeSnapshot(cache);
+    }
+
+    /**
+     * Synchronise the Synthetics configuration with the given generation of the cache.
+     * @param cache The provider cache
+     * @param generation The generation of the cache to be populated
+     * @return <CODE>true</CODE> if the operation was successful
+     */
+    private boolean syncMonitors(NewRelicCache cache, NewRelicCache.Generation generation)
     {
         boolean ret = true;
 
@@ -321,9 +743,14 @@ public class NewRelicManager implements ProviderManager<NewRelicCache>
         if(cache.isSyntheticsEnabled())
         {
             ret = false;
+            MonitorCache previous = generation.monitors();
+            generation.resetMonitors();
 
             logger.info("Getting the monitors");
-            cache.monitors().add(syntheticsApiClient.monitors().list());
+            generation.monitors().add(syntheticsApiClient.monitors().list());
+
+            // Keep the labels of the existing monitors until the labels are next synced
+            generation.monitors().addLabels(previous);
             cache.setUpdatedAt();
 
             ret = true;
@@ -334,10 +761,40 @@ public class NewRelicManager implements ProviderManager<NewRelicCache>
 
     /**
      * Synchronise the server configuration with the cache.
+     * <P>
+     * As with {@link #sync(NewRelicCache)}, only the leader of a shared cache calls the API.
      * @param cache The provider cache
      * @return <CODE>true</CODE> if the operation was successful
      */
     public boolean syncServers(NewRelicCache cache)
+    {
+        // Reload the cache from the shared snapshot if another process is the leader
+        if(!cache.isSyncLeader())
+            return readSnapshot(cache);
+
+        NewRelicCache.Generation generation = newGeneration(cache, true);
+        boolean ret = false;
+        try
+        {
+            ret = syncServers(cache, generation);
+            if(ret)
+                ret = cache.publish(generation);
+        }
+        finally
+        {
+            if(!ret)
+                cache.discard(generation);
+        }
+        return ret && writeSnapshot(cache);
+    }
+
+    /**
+     * Synchronise the server configuration with the given generation of the cache.
+     * @param cache The provider cache
+     * @param generation The generation of the cache to be populated
+     * @return <CODE>true</CODE> if the operation was successful
+     */
+    private boolean syncServers(NewRelicCache cache, NewRelicCache.Generation generation)
     {
         boolean ret = true;
 
@@ -348,9 +805,10 @@ public class NewRelicManager implements ProviderManager<NewRelicCache>
         if(cache.isServersEnabled())
         {
             ret = false;
+            generation.resetServers();
 
             logger.info("Getting the servers");
-            cache.servers().add(apiClient.servers().list());
+            generation.servers().add(apiClient.servers().list());
             cache.setUpdatedAt();
 
             ret = true;
@@ -361,10 +819,63 @@ public class NewRelicManager implements ProviderManager<NewRelicCache>
 
     /**
      * Synchronise the label configuration with the cache.
+     * <P>
+     * The labels are replaced in copies of the application and monitor caches, which are published in a new generation of the cache.
      * @param cache The provider cache
      * @return <CODE>true</CODE> if the operation was successful
      */
     public boolean syncLabels(NewRelicCache cache)
+    {
+        return syncLabels(cache, false);
+    }
+
+    /**
+     * Synchronise the label configuration with the cache, optionally reloading the applications and monitors first.
+     * <P>
+     * The labels are replaced in copies of the application and monitor caches, which are published in a new generation of the cache,
+     * so readers that have pinned the current generation continue to see its labels.
+     * Reloading also syncs the applications and monitors, so that the labels are added to the current applications and monitors.
+     * <P>
+     * As with {@link #sync(NewRelicCache)}, only the leader of a shared cache calls the API.
+     * @param cache The provider cache
+     * @param reload <CODE>true</CODE> if the applications and monitors should also be reloaded
+     * @return <CODE>true</CODE> if the operation was successful
+     */
+    public boolean syncLabels(NewRelicCache cache, boolean reload)
+    {
+        // Reload the cache from the shared snapshot if another process is the leader
+        if(!cache.isSyncLeader())
+            return readSnapshot(cache);
+
+        NewRelicCache.Generation generation = newGeneration(cache, true);
+        boolean ret = false;
+        try
+        {
+            ret = true;
+            if(reload)
+                ret = syncApplications(cache, generation);
+            if(ret && reload)
+                ret = syncMonitors(cache, generation);
+            if(ret)
+                ret = syncLabels(cache, generation);
+            if(ret)
+                ret = cache.publish(generation);
+        }
+        finally
+        {
+            if(!ret)
+                cache.discard(generation);
+        }
+        return ret && writeSnapshot(cache);
+    }
+
+    /**
+     * Synchronise the label configuration with the given generation of the cache.
+     * @param cache The provider cache
+     * @param generation The generation of the cache to be populated
+     * @return <CODE>true</CODE> if the operation was successful
+     */
+    private boolean syncLabels(NewRelicCache cache, NewRelicCache.Generation generation)
     {
         boolean ret = true;
 
@@ -375,19 +886,20 @@ public class NewRelicManager implements ProviderManager<NewRelicCache>
         if(cache.isApmEnabled() || cache.isSyntheticsEnabled())
         {
             ret = false;
+            generation.resetLabels();
 
             logger.info("Getting the labels");
             Collection<Label> labels = apiClient.labels().list();
             for(Label label : labels)
             {
-                cache.applications().addLabel(label);
+                generation.applications().addLabel(label);
 
                 try
                 {
                     // Also check to see if this label is associated with any monitors
                     Collection<Monitor> monitors = syntheticsApiClient.monitors().list(label);
                     for(Monitor monitor : monitors)
-                       cache.monitors().labels(monitor.getId()).add(label);
+                       generation.monitors().labels(monitor.getId()).add(label);
                 }
                 catch(NullPointerException e)
                 {
@@ -405,10 +917,40 @@ public class NewRelicManager implements ProviderManager<NewRelicCache>
 
     /**
      * Synchronise the dashboard configuration with the cache.
+     * <P>
+     * As with {@link #sync(NewRelicCache)}, only the leader of a shared cache calls the API.
      * @param cache The provider cache
      * @return <CODE>true</CODE> if the operation was successful
      */
     public boolean syncDashboards(NewRelicCache cache)
+    {
+        // Reload the cache from the shared snapshot if another process is the leader
+        if(!cache.isSyncLeader())
+            return readSnapshot(cache);
+
+        NewRelicCache.Generation generation = newGeneration(cache, true);
+        boolean ret = false;
+        try
+        {
+            ret = syncDashboards(cache, generation);
+            if(ret)
+                ret = cache.publish(generation);
+        }
+        finally
+        {
+            if(!ret)
+                cache.discard(generation);
+        }
+        return ret && writeSnapshot(cache);
+    }
+
+    /**
+     * Synchronise the dashboard configuration with the given generation of the cache.
+     * @param cache The provider cache
+     * @param generation The generation of the cache to be populated
+     * @return <CODE>true</CODE> if the operation was successful
+     */
+    private boolean syncDashboards(NewRelicCache cache, NewRelicCache.Generation generation)
     {
         boolean ret = true;
 
@@ -419,9 +961,10 @@ public class NewRelicManager implements ProviderManager<NewRelicCache>
         if(cache.isInsightsEnabled())
         {
             ret = false;
+            generation.resetDashboards();
 
             logger.info("Getting the dashboards");
-            cache.dashboards().set(apiClient.dashboards().list());
+            generation.dashboards().set(apiClient.dashboards().list());
             cache.setUpdatedAt();
 
             ret = true;
@@ -432,20 +975,33 @@ public class NewRelicManager implements ProviderManager<NewRelicCache>
 
     /**
      * Clears the cache.
+     * <P>
+     * Publishes an empty generation of the cache.
      */
     public void clear(NewRelicCache cache)
     {
         if(cache == null)
             throw new IllegalArgumentException("null cache");
-        cache.applications().clear();
-        cache.browserApplications().clear();
-        cache.mobileApplications().clear();
-        cache.plugins().clear();
-        cache.monitors().clear();
-        cache.servers().clear();
-        cache.entities().clear();
-        cache.alertPolicies().clear();
-        cache.alertChannels().clear();
-        cache.dashboards().clear();
-    }
-}
\ No newline at end of file
+        cache.publish(cache.newGeneration(false));
+    }
+
+    /**
+     * Adds the number of items in each of the caches to the report of a sync that has finished.
+     * @param cache The provider cache
+     * @param report The report of the sync
+     */
+    @Override
+    protected void addCounts(NewRelicCache cache, SyncReport report)
+    {
+        NewRelicCache.Generation generation = cache.current();
+        report.addCount(generation.applications());
+        report.addCount(generation.browserApplications());
+        report.addCount(generation.mobileApplications());
+        report.addCount(generation.plugins());
+        report.addCount(generation.monitors());
+        report.addCount(generation.servers());
+        report.addCount(generation.alertPolicies());
+        report.addCount(generation.alertChannels());
+        report.addCount(generation.dashboards());
+    }
+}
@@ -16,8 +16,13 @@
 
 package com.opsmatters.core.provider;
 
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Represents the interface for all provider managers.  
+ * <P>
+ * Managers can extend {@link AbstractProviderManager} to implement the asynchronous syncs.
  * 
  * @author Gerald Curley (opsmatters)
  */
@@ -36,6 +41,23 @@ public interface ProviderManager<T extends ProviderCache>
      */
     public boolean sync(T cache);  
 
+    /**
+     * Synchronises the cache in the background.
+     * @param cache The cache to synchronise
+     * @return The future used to get the outcome of the sync or cancel it
+     */
+    public Future<SyncReport> syncAsync(T cache);  
+
+    /**
+     * Synchronises the cache in the background, cancelling the sync if it does not complete before the deadline.
+     * @param cache The cache to synchronise
+     * @param timeout The time allowed for the sync, or 0 for no deadline
+     * @param unit The unit of the timeout
+     * @param listener The listener to be notified when the sync has finished, or <CODE>null</CODE>
+     * @return The future used to get the outcome of the sync or cancel it
+     */
+    public Future<SyncReport> syncAsync(T cache, long timeout, TimeUnit unit, SyncListener listener);  
+
     /**
      * Clears the cache.
      * @param cache The cache to synchronise
@@ -16,15 +16,21 @@
 
 package com.opsmatters.core.provider;
 
+import java.io.Serializable;
 import java.util.Collection;
+import java.lang.reflect.Array;
 
 /**
  * Represents the base class for all provider resource caches.  
+ * <P>
+ * Caches are serializable so that they can be shared with other processes in a snapshot.
  * 
  * @author Gerald Curley (opsmatters)
  */
-public abstract class ResourceCache<T>
+public abstract class ResourceCache<T> implements Serializable
 {
+    private static final long serialVersionUID = 1L;
+
     private String name = "";
     private long updatedAt = 0L;
 
@@ -93,6 +99,19 @@ public abstract class ResourceCache<T>
      */
     public abstract void add(Collection<T> items);
 
+    /**
+     * Adds the array of items to the cache in a single batch.
+     * <P>
+     * As with the other methods of the cache, the batch is not synchronized.
+     * @param items The items to add
+     */
+    public void putAll(T[] items)
+    {
+        ensureCapacity(size()+items.length);
+        for(int i = 0; i < items.length; i++)
+            add(items[i]);
+    }
+
     /**
      * Sets the cache to the items in the list.
      * @param items The items to set
@@ -110,12 +129,42 @@ public abstract class ResourceCache<T>
      */
     public abstract T get(long id);
 
+    /**
+     * Returns the items for the given ids in a single batch.
+     * <P>
+     * The items are returned in the given array if it is big enough, 
+     * otherwise a new array of the same type is allocated.
+     * Any ids not found in the cache are returned as <CODE>null</CODE>.
+     * @param ids The ids of the items
+     * @param items The array to hold the items
+     * @return The items for the given ids
+     */
+    @SuppressWarnings("unchecked")
+    public T[] getAll(long[] ids, T[] items)
+    {
+        if(items.length < ids.length)
+            items = (T[])Array.newInstance(items.getClass().getComponentType(), ids.length);
+        for(int i = 0; i < ids.length; i++)
+            items[i] = get(ids[i]);
+        return items;
+    }
+
     /**
      * Returns the items in the cache.
      * @return The items in the cache
      */
     public abstract Collection<T> list();
 
+    /**
+     * Makes sure the cache can hold the given number of items without resizing.
+     * <P>
+     * Called before a batch of items is added, with the size of the cache plus the size of the batch.
+     * @param size The number of items the cache needs to hold
+     */
+    protected void ensureCapacity(int size)
+    {
+    }
+
     /**
      * Returns the size of the cache.
      * @return The size of the cache
@@ -0,0 +1,289 @@
+/*
+ * Copyright 2018 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.core.provider;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.io.OutputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.logging.Logger;
+
+/**
+ * Represents a snapshot of a cache held in a memory-mapped file that is shared by several processes on the same host.
+ * <P>
+ * A single process is elected as the leader by taking an exclusive lock on a lock file next to the snapshot.
+ * The leader writes each new version of the cache to the snapshot, while the other processes
+ * map the snapshot read-only and reload it when its version changes.
+ * <P>
+ * The snapshot is streamed to a temporary file which is then moved over the existing snapshot,
+ * so readers never see a partially written snapshot.
+ * Readers are given the contents of the snapshot as a read-only mapped buffer,
+ * which remains valid even after the snapshot is replaced, so large parts of the cache
+ * can be read from the snapshot as they are needed instead of being decoded up front.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class SharedCacheSnapshot<T>
+{
+    private static final Logger logger = Logger.getLogger(SharedCacheSnapshot.class.getName());
+
+    /**
+     * The marker at the start of every snapshot file.
+     */
+    public static final int MAGIC = 0x4F50534E;
+
+    private static final int HEADER_SIZE = 16;
+
+    private File file;
+    private File lockFile;
+    private Serializer<T> serializer;
+    private RandomAccessFile lockRaf;
+    private FileLock lock;
+    private long version = 0L;
+
+    /**
+     * Constructor that takes a file and a serializer.
+     * @param file The file used to hold the snapshot
+     * @param serializer The serializer used to write the cache to the snapshot and read it back
+     */
+    public SharedCacheSnapshot(File file, Serializer<T> serializer)
+    {
+        if(file == null)
+            throw new IllegalArgumentException("null file");
+        if(serializer == null)
+            throw new IllegalArgumentException("null serializer");
+        this.file = file;
+        this.lockFile = new File(file.getPath()+".lock");
+        this.serializer = serializer;
+    }
+
+    /**
+     * Returns the file used to hold the snapshot.
+     * @return The file used to hold the snapshot
+     */
+    public File getFile()
+    {
+        return file;
+    }
+
+    /**
+     * Returns the version of the snapshot that was last written or read by this process.
+     * @return The version of the snapshot that was last written or read by this process
+     */
+    public long getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if this process is the leader that writes the snapshot.
+     * <P>
+     * Tries to take the lock on the lock file if this process is not already the leader.
+     * The lock is held until the snapshot is closed or the process exits.
+     * @return <CODE>true</CODE> if this process is the leader that writes the snapshot
+     */
+    public synchronized boolean isLeader()
+    {
+        if(lock != null)
+            return true;
+
+        try
+        {
+            if(lockRaf == null)
+                lockRaf = new RandomAccessFile(lockFile, "rw");
+            lock = lockRaf.getChannel().tryLock();
+            if(lock != null)
+                logger.info("Elected leader for snapshot: "+file);
+        }
+        catch(OverlappingFileLockException e)
+        {
+            // Another snapshot in this process is the leader
+            lock = null;
+        }
+        catch(IOException e)
+        {
+            throw new IllegalStateException("unable to lock snapshot: "+lockFile, e);
+        }
+
+        return lock != null;
+    }
+
+    /**
+     * Writes the given cache to the snapshot as a new version.
+     * @param item The cache to write to the snapshot
+     * @throws IOException if the snapshot cannot be written
+     */
+    public synchronized void write(T item) throws IOException
+    {
+        if(!isLeader())
+            throw new IllegalStateException("not the leader for snapshot: "+file);
+
+        long next = Math.max(readVersion(), version)+1;
+        long length = 0L;
+
+        File tmp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+        RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+        boolean written = false;
+        try
+        {
+            // Stream the cache after the header, then fill in the header once its length is known
+            FileChannel channel = raf.getChannel();
+            channel.position(HEADER_SIZE);
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 65536);
+            serializer.write(item, out);
+            out.flush();
+            length = channel.position()-HEADER_SIZE;
+            if(length > Integer.MAX_VALUE-HEADER_SIZE)
+                throw new IOException("snapshot too large: "+length);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.putLong(next);
+            header.putInt((int)length);
+            header.flip();
+            channel.write(header, 0L);
+            channel.force(true);
+            written = true;
+        }
+        finally
+        {
+            raf.close();
+            if(!written)
+                tmp.delete();
+        }
+
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        version = next;
+        logger.fine("Wrote snapshot: file="+file+" version="+version+" bytes="+length);
+    }
+
+    /**
+     * Reads the cache from the snapshot if its version has changed since it was last written or read.
+     * @return The cache from the snapshot, or <CODE>null</CODE> if the snapshot does not exist or has not changed
+     * @throws IOException if the snapshot cannot be read
+     */
+    public synchronized T read() throws IOException
+    {
+        if(!file.exists())
+            return null;
+
+        T ret = null;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try
+        {
+            FileChannel channel = raf.getChannel();
+            if(channel.size() < HEADER_SIZE)
+                return null;
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if(buffer.getInt() != MAGIC)
+                throw new IOException("invalid snapshot: "+file);
+            long snapshotVersion = buffer.getLong();
+            if(snapshotVersion != version)
+            {
+                int length = buffer.getInt();
+                if(length < 0 || length > buffer.remaining())
+                    throw new IOException("invalid snapshot length: "+length);
+                buffer.limit(HEADER_SIZE+length);
+                ret = serializer.read(buffer.slice());
+                version = snapshotVersion;
+                logger.fine("Read snapshot: file="+file+" version="+version+" bytes="+length);
+            }
+        }
+        finally
+        {
+            raf.close();
+        }
+
+        return ret;
+    }
+
+    /**
+     * Returns the version of the existing snapshot, or 0 if there is no snapshot.
+     */
+    private long readVersion() throws IOException
+    {
+        if(!file.exists() || file.length() < HEADER_SIZE)
+            return 0L;
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try
+        {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            raf.getChannel().read(header, 0);
+            header.flip();
+            return header.getInt() == MAGIC ? header.getLong() : 0L;
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    /**
+     * Releases the leader lock (if held).
+     */
+    public synchronized void close()
+    {
+        try
+        {
+            if(lock != null)
+                lock.release();
+            if(lockRaf != null)
+                lockRaf.close();
+        }
+        catch(IOException e)
+        {
+            logger.warning("Unable to release snapshot lock: "+lockFile);
+        }
+        lock = null;
+        lockRaf = null;
+    }
+
+    /**
+     * Represents the interface to write a cache to a snapshot and read it back.
+     */
+    public interface Serializer<T>
+    {
+        /**
+         * Writes the given cache to the stream.
+         * @param item The cache to write
+         * @param out The stream to write the cache to
+         * @throws IOException if the cache cannot be written
+         */
+        public void write(T item, OutputStream out) throws IOException;
+
+        /**
+         * Returns the cache read from the given buffer.
+         * <P>
+         * The buffer maps the contents of the snapshot read-only, and remains valid
+         * for as long as it is referenced, even after the snapshot has been replaced.
+         * @param buffer The buffer holding the contents of the snapshot
+         * @return The cache read from the buffer
+         * @throws IOException if the cache cannot be read
+         */
+        public T read(ByteBuffer buffer) throws IOException;
+    }
+}
\ No newline at end of file
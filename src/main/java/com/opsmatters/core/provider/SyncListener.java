@@ -0,0 +1,33 @@
+/*
+ * Copyright 2018 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.core.provider;
+
+/**
+ * Represents the interface to be notified when an asynchronous sync has finished.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public interface SyncListener
+{
+    /**
+     * Called when the sync has completed, failed or been cancelled.
+     * <P>
+     * Called on the thread that ran the sync, or on the thread that cancelled it.
+     * @param report The outcome of the sync
+     */
+    public void completed(SyncReport report);
+}
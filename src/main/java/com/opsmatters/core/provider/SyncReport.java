@@ -0,0 +1,205 @@
+/*
+ * Copyright 2018 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.opsmatters.core.provider;
+
+import java.util.Map;
+import java.util.LinkedHashMap;
+
+/**
+ * Represents the outcome of a sync of a provider cache.
+ * <P>
+ * A sync finishes only once: the first of {@link #setCompleted(boolean)}, {@link #setCancelled()}
+ * and {@link #setError(Throwable)} to be called decides the outcome, and later calls are ignored.
+ * A sync cannot be cancelled once it has published its changes to the cache.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class SyncReport
+{
+    private String name;
+    private boolean success = false;
+    private boolean cancelled = false;
+    private boolean published = false;
+    private long startedAt = 0L;
+    private long completedAt = 0L;
+    private Throwable error;
+    private Map<String,Integer> counts = new LinkedHashMap<String,Integer>();
+
+    /**
+     * Constructor that takes a name.
+     * @param name The name of the sync
+     */
+    public SyncReport(String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     * Returns the name of the sync.
+     * @return The name of the sync
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Sets the date the sync was started to the current date.
+     */
+    public synchronized void setStarted()
+    {
+        this.startedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the date the sync was started.
+     * @return The date the sync was started
+     */
+    public synchronized long getStartedAt()
+    {
+        return startedAt;
+    }
+
+    /**
+     * Sets the date the sync was completed to the current date.
+     * @param success <CODE>true</CODE> if the sync was successful
+     * @return <CODE>false</CODE> if the sync had already finished
+     */
+    public synchronized boolean setCompleted(boolean success)
+    {
+        if(completedAt > 0L)
+            return false;
+        this.success = success;
+        this.completedAt = System.currentTimeMillis();
+        return true;
+    }
+
+    /**
+     * Returns the date the sync was completed.
+     * @return The date the sync was completed
+     */
+    public synchronized long getCompletedAt()
+    {
+        return completedAt;
+    }
+
+    /**
+     * Returns the time taken by the sync in milliseconds.
+     * @return The time taken by the sync in milliseconds
+     */
+    public synchronized long getDuration()
+    {
+        return completedAt > 0L ? completedAt-startedAt : 0L;
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if the sync was successful.
+     * @return <CODE>true</CODE> if the sync was successful
+     */
+    public synchronized boolean isSuccess()
+    {
+        return success;
+    }
+
+    /**
+     * Marks the sync as cancelled before it completed.
+     * @return <CODE>false</CODE> if the sync had already finished or published its changes
+     */
+    public synchronized boolean setCancelled()
+    {
+        if(published || !setCompleted(false))
+            return false;
+        this.cancelled = true;
+        return true;
+    }
+
+    /**
+     * Marks the sync as having published its changes to the cache, so that it can no longer be cancelled.
+     * @return <CODE>false</CODE> if the sync has been cancelled and should not publish its changes
+     */
+    synchronized boolean setPublished()
+    {
+        if(cancelled)
+            return false;
+        this.published = true;
+        return true;
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if the sync was cancelled before it completed.
+     * @return <CODE>true</CODE> if the sync was cancelled before it completed
+     */
+    public synchronized boolean isCancelled()
+    {
+        return cancelled;
+    }
+
+    /**
+     * Sets the error that caused the sync to fail.
+     * @param error The error that caused the sync to fail
+     * @return <CODE>false</CODE> if the sync had already finished
+     */
+    public synchronized boolean setError(Throwable error)
+    {
+        if(!setCompleted(false))
+            return false;
+        this.error = error;
+        return true;
+    }
+
+    /**
+     * Returns the error that caused the sync to fail.
+     * @return The error that caused the sync to fail, or <CODE>null</CODE> if there was no error
+     */
+    public synchronized Throwable getError()
+    {
+        return error;
+    }
+
+    /**
+     * Adds the number of items in the given cache to the report.
+     * @param cache The cache to be counted
+     */
+    public synchronized void addCount(ResourceCache<?> cache)
+    {
+        counts.put(cache.getName(), cache.size());
+    }
+
+    /**
+     * Returns the number of items in each cache after the sync, keyed by cache name.
+     * @return The number of items in each cache after the sync
+     */
+    public synchronized Map<String,Integer> getCounts()
+    {
+        return counts;
+    }
+
+    /**
+     * Returns a string representation of the object.
+     */
+    @Override
+    public synchronized String toString()
+    {
+        return "SyncReport [name="+name
+            +", success="+success
+            +", cancelled="+cancelled
+            +", duration="+getDuration()
+            +", counts="+counts
+            +(error != null ? ", error="+error : "")
+            +"]";
+    }
+}
@@ -29,6 +29,8 @@ import com.opsmatters.newrelic.api.model.alerts.channels.AlertChannel;
  */
 public class AlertChannelCache extends ResourceCache<AlertChannel>
 {
+    private static final long serialVersionUID = 1L;
+
     private long policyId;
     private Map<Long,AlertChannel> channels = new LinkedHashMap<Long,AlertChannel>();
 
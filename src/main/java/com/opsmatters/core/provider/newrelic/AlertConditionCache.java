@@ -29,6 +29,8 @@ import com.opsmatters.newrelic.api.model.alerts.conditions.AlertCondition;
  */
 public class AlertConditionCache extends ResourceCache<AlertCondition>
 {
+    private static final long serialVersionUID = 1L;
+
     private long policyId;
     private Map<Long,AlertCondition> conditions = new LinkedHashMap<Long,AlertCondition>();
 
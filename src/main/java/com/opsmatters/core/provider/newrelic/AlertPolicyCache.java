@@ -38,6 +38,7 @@ import com.opsmatters.newrelic.api.model.alerts.conditions.InfraAlertCondition;
  */
 public class AlertPolicyCache extends ResourceCache<AlertPolicy>
 {
+    private static final long serialVersionUID = 1L;
     private static final Logger logger = Logger.getLogger(AlertPolicyCache.class.getName());
 
     private Map<Long,AlertPolicy> policies = new LinkedHashMap<Long,AlertPolicy>();
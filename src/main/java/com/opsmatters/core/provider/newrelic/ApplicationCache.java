@@ -16,13 +16,18 @@
 
 package com.opsmatters.core.provider.newrelic;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Map;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Collection;
 import java.util.logging.Logger;
 import com.opsmatters.core.provider.ResourceCache;
+import com.opsmatters.core.provider.MappedResourceStore;
 import com.opsmatters.newrelic.api.model.applications.Application;
+import com.opsmatters.newrelic.api.model.applications.ApplicationInstance;
+import com.opsmatters.newrelic.api.model.deployments.Deployment;
 import com.opsmatters.newrelic.api.model.transactions.KeyTransaction;
 import com.opsmatters.newrelic.api.model.labels.Label;
 
@@ -33,6 +38,7 @@ import com.opsmatters.newrelic.api.model.labels.Label;
  */
 public class ApplicationCache extends ResourceCache<Application>
 {
+    private static final long serialVersionUID = 1L;
     private static final Logger logger = Logger.getLogger(ApplicationCache.class.getName());
 
     private Map<Long,Application> applications = new LinkedHashMap<Long,Application>();
@@ -40,6 +46,9 @@ public class ApplicationCache extends ResourceCache<Application>
     private Map<Long,KeyTransactionCache> keyTransactions = new LinkedHashMap<Long,KeyTransactionCache>();
     private Map<Long,DeploymentCache> deployments = new LinkedHashMap<Long,DeploymentCache>();
     private Map<Long,LabelCache> labels = new LinkedHashMap<Long,LabelCache>();
+    private File offHeapDirectory;
+    private transient MappedResourceStore<Deployment> deploymentStore;
+    private transient MappedResourceStore<ApplicationInstance> instanceStore;
 
     /**
      * Default constructor.
@@ -49,6 +58,35 @@ public class ApplicationCache extends ResourceCache<Application>
         super("Applications");
     }
 
+    /**
+     * Returns a copy of this cache that shares the applications, child caches and off-heap stores,
+     * but has its own labels so that they can be replaced without changing this cache.
+     * @return The copy of this cache
+     */
+    public ApplicationCache copy()
+    {
+        ApplicationCache ret = new ApplicationCache();
+        ret.applications = applications;
+        ret.applicationHosts = applicationHosts;
+        ret.keyTransactions = keyTransactions;
+        ret.deployments = deployments;
+        ret.labels.putAll(labels);
+        ret.offHeapDirectory = offHeapDirectory;
+        ret.deploymentStore = deploymentStore;
+        ret.instanceStore = instanceStore;
+        return ret;
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if the given cache shares the child caches and off-heap stores of this cache.
+     * @param cache The cache to check
+     * @return <CODE>true</CODE> if the given cache is this cache or a copy of it
+     */
+    public boolean shares(ApplicationCache cache)
+    {
+        return cache != null && cache.deployments == deployments;
+    }
+
     /**
      * Adds the application to the applications for the account.
      * @param application The application to add
@@ -103,6 +141,101 @@ public class ApplicationCache extends ResourceCache<Application>
         this.applications.clear();
     }
 
+    /**
+     * Closes the off-heap stores for the deployments and application instances.
+     */
+    public void close()
+    {
+        for(DeploymentCache cache : deployments.values())
+            cache.close();
+        for(ApplicationHostCache cache : applicationHosts.values())
+            cache.close();
+
+        if(deploymentStore != null)
+            deploymentStore.close();
+        deploymentStore = null;
+        if(instanceStore != null)
+            instanceStore.close();
+        instanceStore = null;
+    }
+
+    /**
+     * Releases the files of the off-heap stores for the deployments and application instances.
+     * <P>
+     * The deployments and application instances remain readable until the cache is no longer referenced.
+     */
+    public void release()
+    {
+        if(deploymentStore != null)
+            deploymentStore.release();
+        if(instanceStore != null)
+            instanceStore.release();
+    }
+
+    /**
+     * Sets the directory used to hold the off-heap stores for deployments and application instances.
+     * <P>
+     * If not set, the deployments and application instances are held on the heap.
+     * Otherwise, the deployments of all the applications are held in a single store, 
+     * and the application instances of all the application hosts in another.
+     * @param offHeapDirectory The directory used to hold the off-heap stores
+     */
+    public void setOffHeapDirectory(File offHeapDirectory)
+    {
+        this.offHeapDirectory = offHeapDirectory;
+    }
+
+    /**
+     * Returns the directory used to hold the off-heap stores for deployments and application instances.
+     * @return The directory used to hold the off-heap stores, or <CODE>null</CODE> if the deployments and application instances are held on the heap
+     */
+    public File getOffHeapDirectory()
+    {
+        return offHeapDirectory;
+    }
+
+    /**
+     * Sets the off-heap stores used to hold the deployments and application instances of the existing child caches.
+     * <P>
+     * Used to attach the read-only stores of a cache read from a snapshot.
+     * @param deploymentStore The off-heap store used to hold the deployments, or <CODE>null</CODE> to leave them on the heap
+     * @param instanceStore The off-heap store used to hold the application instances, or <CODE>null</CODE> to leave them on the heap
+     */
+    public void setStores(MappedResourceStore<Deployment> deploymentStore, MappedResourceStore<ApplicationInstance> instanceStore)
+    {
+        if(deploymentStore != null)
+        {
+            this.deploymentStore = deploymentStore;
+            for(DeploymentCache cache : deployments.values())
+                cache.setStore(deploymentStore);
+        }
+
+        if(instanceStore != null)
+        {
+            this.instanceStore = instanceStore;
+            for(ApplicationHostCache cache : applicationHosts.values())
+                cache.setInstanceStore(instanceStore);
+        }
+    }
+
+    /**
+     * Returns the off-heap store used to hold the deployments.
+     * @return The off-heap store used to hold the deployments, or <CODE>null</CODE> if the deployments are held on the heap
+     */
+    public MappedResourceStore<Deployment> getDeploymentStore()
+    {
+        return deploymentStore;
+    }
+
+    /**
+     * Returns the off-heap store used to hold the application instances.
+     * @return The off-heap store used to hold the application instances, or <CODE>null</CODE> if the application instances are held on the heap
+     */
+    public MappedResourceStore<ApplicationInstance> getInstanceStore()
+    {
+        return instanceStore;
+    }
+
     /**
      * Returns the cache of application hosts for the given application, creating one if it doesn't exist .
      * @param applicationId The id of the application for the cache of application hosts
@@ -112,7 +245,11 @@ public class ApplicationCache extends ResourceCache<Application>
     {
         ApplicationHostCache cache = applicationHosts.get(applicationId);
         if(cache == null)
+        {
             applicationHosts.put(applicationId, cache = new ApplicationHostCache(applicationId));
+            if(offHeapDirectory != null)
+                cache.setInstanceStore(instanceStore());
+        }
         return cache;
     }
 
@@ -156,7 +293,11 @@ public class ApplicationCache extends ResourceCache<Application>
     {
         DeploymentCache cache = deployments.get(applicationId);
         if(cache == null)
+        {
             deployments.put(applicationId, cache = new DeploymentCache(applicationId));
+            if(offHeapDirectory != null)
+                cache.setStore(deploymentStore());
+        }
         return cache;
     }
 
@@ -173,6 +314,27 @@ public class ApplicationCache extends ResourceCache<Application>
         return cache;
     }
 
+    /**
+     * Removes the labels for all the applications.
+     */
+    public void clearLabels()
+    {
+        labels = new LinkedHashMap<Long,LabelCache>();
+    }
+
+    /**
+     * Adds the labels of the given cache for any applications that are also in this cache.
+     * @param cache The cache with the labels to add
+     */
+    public void addLabels(ApplicationCache cache)
+    {
+        for(Map.Entry<Long,LabelCache> entry : cache.labels.entrySet())
+        {
+            if(applications.containsKey(entry.getKey()))
+                labels.put(entry.getKey(), entry.getValue());
+        }
+    }
+
     /**
      * Adds the label to the applications for the account.
      * @param label The label to add
@@ -190,4 +352,39 @@ public class ApplicationCache extends ResourceCache<Application>
                 logger.severe(String.format("Unable to find application for label '%s': %d", label.getKey(), applicationId));
         }
     }
+
+    /**
+     * Returns the off-heap store shared by the caches of deployments, creating it if it doesn't exist.
+     */
+    private MappedResourceStore<Deployment> deploymentStore()
+    {
+        if(deploymentStore == null)
+            deploymentStore = createStore("deployments-", new MappedResourceStore.CompactCodec<Deployment>());
+        return deploymentStore;
+    }
+
+    /**
+     * Returns the off-heap store shared by the caches of application instances, creating it if it doesn't exist.
+     */
+    private MappedResourceStore<ApplicationInstance> instanceStore()
+    {
+        if(instanceStore == null)
+            instanceStore = createStore("instances-", new MappedResourceStore.CompactCodec<ApplicationInstance>());
+        return instanceStore;
+    }
+
+    /**
+     * Returns a new off-heap store in the off-heap directory.
+     */
+    private <T> MappedResourceStore<T> createStore(String prefix, MappedResourceStore.Codec<T> codec)
+    {
+        try
+        {
+            return MappedResourceStore.create(offHeapDirectory, prefix, codec);
+        }
+        catch(IOException e)
+        {
+            throw new IllegalStateException("unable to create off-heap store in directory: "+offHeapDirectory, e);
+        }
+    }
 }
\ No newline at end of file
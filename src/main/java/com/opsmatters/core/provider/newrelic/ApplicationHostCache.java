@@ -21,6 +21,7 @@ import java.util.LinkedHashMap;
 import java.util.Collection;
 import java.util.logging.Logger;
 import com.opsmatters.core.provider.ResourceCache;
+import com.opsmatters.core.provider.MappedResourceStore;
 import com.opsmatters.newrelic.api.model.applications.ApplicationHost;
 import com.opsmatters.newrelic.api.model.applications.ApplicationInstance;
 
@@ -31,11 +32,13 @@ import com.opsmatters.newrelic.api.model.applications.ApplicationInstance;
  */
 public class ApplicationHostCache extends ResourceCache<ApplicationHost>
 {
+    private static final long serialVersionUID = 1L;
     private static final Logger logger = Logger.getLogger(ApplicationHostCache.class.getName());
 
     private long applicationId;
     private Map<Long,ApplicationHost> applicationHosts = new LinkedHashMap<Long,ApplicationHost>();
     private Map<Long,ApplicationInstanceCache> applicationInstances = new LinkedHashMap<Long,ApplicationInstanceCache>();
+    private transient MappedResourceStore<ApplicationInstance> instanceStore;
 
     /**
      * Constructor that takes an application id.
@@ -110,6 +113,38 @@ public class ApplicationHostCache extends ResourceCache<ApplicationHost>
         this.applicationHosts.clear();
     }
 
+    /**
+     * Removes the application instances from the off-heap store (if any).
+     */
+    public void close()
+    {
+        for(ApplicationInstanceCache cache : applicationInstances.values())
+            cache.close();
+    }
+
+    /**
+     * Sets the off-heap store used to hold the application instances of the application hosts.
+     * <P>
+     * If not set, the application instances are held on the heap.
+     * Any existing caches of application instances are moved to the store.
+     * @param instanceStore The off-heap store used to hold the application instances
+     */
+    public void setInstanceStore(MappedResourceStore<ApplicationInstance> instanceStore)
+    {
+        this.instanceStore = instanceStore;
+        for(ApplicationInstanceCache cache : applicationInstances.values())
+            cache.setStore(instanceStore);
+    }
+
+    /**
+     * Returns the off-heap store used to hold the application instances of the application hosts.
+     * @return The off-heap store used to hold the application instances, or <CODE>null</CODE> if the application instances are held on the heap
+     */
+    public MappedResourceStore<ApplicationInstance> getInstanceStore()
+    {
+        return instanceStore;
+    }
+
     /**
      * Returns the cache of application instances for the given application host, creating one if it doesn't exist .
      * @param applicationHostId The id of the application host for the cache of application instances
@@ -119,7 +154,11 @@ public class ApplicationHostCache extends ResourceCache<ApplicationHost>
     {
         ApplicationInstanceCache cache = applicationInstances.get(applicationHostId);
         if(cache == null)
+        {
             applicationInstances.put(applicationHostId, cache = new ApplicationInstanceCache(applicationHostId));
+            if(instanceStore != null)
+                cache.setStore(instanceStore);
+        }
         return cache;
     }
 
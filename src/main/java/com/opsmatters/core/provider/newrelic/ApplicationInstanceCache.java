@@ -20,6 +20,7 @@ import java.util.Map;
 import java.util.LinkedHashMap;
 import java.util.Collection;
 import com.opsmatters.core.provider.ResourceCache;
+import com.opsmatters.core.provider.MappedResourceStore;
 import com.opsmatters.newrelic.api.model.applications.ApplicationInstance;
 
 /**
@@ -29,8 +30,11 @@ import com.opsmatters.newrelic.api.model.applications.ApplicationInstance;
  */
 public class ApplicationInstanceCache extends ResourceCache<ApplicationInstance>
 {
+    private static final long serialVersionUID = 1L;
+
     private long applicationHostId;
     private Map<Long,ApplicationInstance> applicationInstances = new LinkedHashMap<Long,ApplicationInstance>();
+    private transient MappedResourceStore<ApplicationInstance> store;
 
     /**
      * Constructor that takes an application host id.
@@ -57,7 +61,10 @@ public class ApplicationInstanceCache extends ResourceCache<ApplicationInstance>
      */
     public void add(ApplicationInstance applicationInstance)
     {
-        this.applicationInstances.put(applicationInstance.getId(), applicationInstance);
+        if(store != null)
+            store.put(applicationHostId, applicationInstance.getId(), applicationInstance);
+        else
+            this.applicationInstances.put(applicationInstance.getId(), applicationInstance);
     }
 
     /**
@@ -67,7 +74,7 @@ public class ApplicationInstanceCache extends ResourceCache<ApplicationInstance>
     public void add(Collection<ApplicationInstance> applicationInstances)
     {
         for(ApplicationInstance applicationInstance : applicationInstances)
-            this.applicationInstances.put(applicationInstance.getId(), applicationInstance);
+            add(applicationInstance);
     }
 
     /**
@@ -77,6 +84,8 @@ public class ApplicationInstanceCache extends ResourceCache<ApplicationInstance>
      */
     public ApplicationInstance get(long id)
     {
+        if(store != null)
+            return store.get(applicationHostId, id);
         return this.applicationInstances.get(id);
     }
 
@@ -86,14 +95,36 @@ public class ApplicationInstanceCache extends ResourceCache<ApplicationInstance>
      */
     public Collection<ApplicationInstance> list()
     {
+        if(store != null)
+            return store.list(applicationHostId);
         return this.applicationInstances.values();
     }
 
+    /**
+     * Makes sure the cache can hold the given number of items without resizing.
+     * <P>
+     * The map is only replaced if the batch at least doubles the size of the cache,
+     * as copying the existing items otherwise costs as much as the resizing it avoids.
+     * @param size The number of items the cache needs to hold
+     */
+    @Override
+    protected void ensureCapacity(int size)
+    {
+        if(store == null && size > this.applicationInstances.size()*2)
+        {
+            Map<Long,ApplicationInstance> map = new LinkedHashMap<Long,ApplicationInstance>((int)(size/0.75f)+1);
+            map.putAll(this.applicationInstances);
+            this.applicationInstances = map;
+        }
+    }
+
     /**
      * Returns the size of the cache.
      */
     public int size()
     {
+        if(store != null)
+            return store.size(applicationHostId);
         return this.applicationInstances.size();
     }
 
@@ -102,6 +133,47 @@ public class ApplicationInstanceCache extends ResourceCache<ApplicationInstance>
      */
     public void clear()
     {
+        if(store != null)
+            store.clear(applicationHostId);
+        this.applicationInstances.clear();
+    }
+
+    /**
+     * Sets the off-heap store used to hold the application instances.
+     * <P>
+     * The store is shared by the application instance caches of all the application hosts,
+     * with the application instances of each host held under its id.
+     * Any application instances already in the cache are moved to the store.
+     * @param store The off-heap store used to hold the application instances
+     */
+    public void setStore(MappedResourceStore<ApplicationInstance> store)
+    {
+        if(store != null)
+        {
+            for(ApplicationInstance applicationInstance : this.applicationInstances.values())
+                store.put(applicationHostId, applicationInstance.getId(), applicationInstance);
+            this.applicationInstances = new LinkedHashMap<Long,ApplicationInstance>();
+        }
+        this.store = store;
+    }
+
+    /**
+     * Returns the off-heap store used to hold the application instances.
+     * @return The off-heap store used to hold the application instances, or <CODE>null</CODE> if the application instances are held on the heap
+     */
+    public MappedResourceStore<ApplicationInstance> getStore()
+    {
+        return store;
+    }
+
+    /**
+     * Removes the application instances from the off-heap store (if any) and clears the cache.
+     */
+    public void close()
+    {
+        if(store != null)
+            store.clear(applicationHostId);
+        store = null;
         this.applicationInstances.clear();
     }
 }
\ No newline at end of file
@@ -29,6 +29,8 @@ import com.opsmatters.newrelic.api.model.applications.BrowserApplication;
  */
 public class BrowserApplicationCache extends ResourceCache<BrowserApplication>
 {
+    private static final long serialVersionUID = 1L;
+
     private Map<Long,BrowserApplication> browserApplications = new LinkedHashMap<Long,BrowserApplication>();
 
     /**
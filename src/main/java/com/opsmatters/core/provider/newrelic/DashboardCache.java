@@ -29,6 +29,8 @@ import com.opsmatters.newrelic.api.model.insights.Dashboard;
  */
 public class DashboardCache extends ResourceCache<Dashboard>
 {
+    private static final long serialVersionUID = 1L;
+
     private Map<Long,Dashboard> dashboards = new LinkedHashMap<Long,Dashboard>();
 
     /**
@@ -20,6 +20,7 @@ import java.util.Map;
 import java.util.LinkedHashMap;
 import java.util.Collection;
 import com.opsmatters.core.provider.ResourceCache;
+import com.opsmatters.core.provider.MappedResourceStore;
 import com.opsmatters.newrelic.api.model.deployments.Deployment;
 
 /**
@@ -29,8 +30,11 @@ import com.opsmatters.newrelic.api.model.deployments.Deployment;
  */
 public class DeploymentCache extends ResourceCache<Deployment>
 {
+    private static final long serialVersionUID = 1L;
+
     private long applicationId;
     private Map<Long,Deployment> deployments = new LinkedHashMap<Long,Deployment>();
+    private transient MappedResourceStore<Deployment> store;
 
     /**
      * Constructor that takes an application id.
@@ -57,7 +61,10 @@ public class DeploymentCache extends ResourceCache<Deployment>
      */
     public void add(Deployment deployment)
     {
-        this.deployments.put(deployment.getId(), deployment);
+        if(store != null)
+            store.put(applicationId, deployment.getId(), deployment);
+        else
+            this.deployments.put(deployment.getId(), deployment);
     }
 
     /**
@@ -67,7 +74,7 @@ public class DeploymentCache extends ResourceCache<Deployment>
     public void add(Collection<Deployment> deployments)
     {
         for(Deployment deployment : deployments)
-            this.deployments.put(deployment.getId(), deployment);
+            add(deployment);
     }
 
     /**
@@ -77,6 +84,8 @@ public class DeploymentCache extends ResourceCache<Deployment>
      */
     public Deployment get(long id)
     {
+        if(store != null)
+            return store.get(applicationId, id);
         return this.deployments.get(id);
     }
 
@@ -86,14 +95,36 @@ public class DeploymentCache extends ResourceCache<Deployment>
      */
     public Collection<Deployment> list()
     {
+        if(store != null)
+            return store.list(applicationId);
         return this.deployments.values();
     }
 
+    /**
+     * Makes sure the cache can hold the given number of items without resizing.
+     * <P>
+     * The map is only replaced if the batch at least doubles the size of the cache,
+     * as copying the existing items otherwise costs as much as the resizing it avoids.
+     * @param size The number of items the cache needs to hold
+     */
+    @Override
+    protected void ensureCapacity(int size)
+    {
+        if(store == null && size > this.deployments.size()*2)
+        {
+            Map<Long,Deployment> map = new LinkedHashMap<Long,Deployment>((int)(size/0.75f)+1);
+            map.putAll(this.deployments);
+            this.deployments = map;
+        }
+    }
+
     /**
      * Returns the size of the cache.
      */
     public int size()
     {
+        if(store != null)
+            return store.size(applicationId);
         return this.deployments.size();
     }
 
@@ -102,6 +133,47 @@ public class DeploymentCache extends ResourceCache<Deployment>
      */
     public void clear()
     {
+        if(store != null)
+            store.clear(applicationId);
+        this.deployments.clear();
+    }
+
+    /**
+     * Sets the off-heap store used to hold the deployments.
+     * <P>
+     * The store is shared by the deployment caches of all the applications,
+     * with the deployments of each application held under its id.
+     * Any deployments already in the cache are moved to the store.
+     * @param store The off-heap store used to hold the deployments
+     */
+    public void setStore(MappedResourceStore<Deployment> store)
+    {
+        if(store != null)
+        {
+            for(Deployment deployment : this.deployments.values())
+                store.put(applicationId, deployment.getId(), deployment);
+            this.deployments = new LinkedHashMap<Long,Deployment>();
+        }
+        this.store = store;
+    }
+
+    /**
+     * Returns the off-heap store used to hold the deployments.
+     * @return The off-heap store used to hold the deployments, or <CODE>null</CODE> if the deployments are held on the heap
+     */
+    public MappedResourceStore<Deployment> getStore()
+    {
+        return store;
+    }
+
+    /**
+     * Removes the deployments from the off-heap store (if any) and clears the cache.
+     */
+    public void close()
+    {
+        if(store != null)
+            store.clear(applicationId);
+        store = null;
         this.deployments.clear();
     }
 }
\ No newline at end of file
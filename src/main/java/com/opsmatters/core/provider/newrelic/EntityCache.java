@@ -29,6 +29,8 @@ import com.opsmatters.newrelic.api.model.Entity;
  */
 public class EntityCache extends ResourceCache<Entity>
 {
+    private static final long serialVersionUID = 1L;
+
     private Map<Long,Entity> entities = new LinkedHashMap<Long,Entity>();
 
     /**
@@ -29,6 +29,8 @@ import com.opsmatters.newrelic.api.model.alerts.conditions.ExternalServiceAlertC
  */
 public class ExternalServiceAlertConditionCache extends ResourceCache<ExternalServiceAlertCondition>
 {
+    private static final long serialVersionUID = 1L;
+
     private long policyId;
     private Map<Long,ExternalServiceAlertCondition> conditions = new LinkedHashMap<Long,ExternalServiceAlertCondition>();
 
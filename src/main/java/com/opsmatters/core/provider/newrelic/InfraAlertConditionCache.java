@@ -29,6 +29,8 @@ import com.opsmatters.newrelic.api.model.alerts.conditions.InfraAlertCondition;
  */
 public class InfraAlertConditionCache extends ResourceCache<InfraAlertCondition>
 {
+    private static final long serialVersionUID = 1L;
+
     private long policyId;
     private Map<Long,InfraAlertCondition> conditions = new LinkedHashMap<Long,InfraAlertCondition>();
 
@@ -29,6 +29,8 @@ import com.opsmatters.newrelic.api.model.transactions.KeyTransaction;
  */
 public class KeyTransactionCache extends ResourceCache<KeyTransaction>
 {
+    private static final long serialVersionUID = 1L;
+
     private long applicationId;
     private Map<Long,KeyTransaction> keyTransactions = new LinkedHashMap<Long,KeyTransaction>();
 
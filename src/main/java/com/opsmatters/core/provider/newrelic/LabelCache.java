@@ -29,6 +29,8 @@ import com.opsmatters.newrelic.api.model.labels.Label;
  */
 public class LabelCache extends ResourceCache<Label>
 {
+    private static final long serialVersionUID = 1L;
+
     private String monitorId;
     private long applicationId;
     private Map<String,Label> labels = new LinkedHashMap<String,Label>();
@@ -29,6 +29,8 @@ import com.opsmatters.newrelic.api.model.applications.MobileApplication;
  */
 public class MobileApplicationCache extends ResourceCache<MobileApplication>
 {
+    private static final long serialVersionUID = 1L;
+
     private Map<Long,MobileApplication> mobileApplications = new LinkedHashMap<Long,MobileApplication>();
 
     /**
@@ -31,6 +31,8 @@ import com.opsmatters.newrelic.api.model.labels.Label;
  */
 public class MonitorCache extends ResourceCache<Monitor>
 {
+    private static final long serialVersionUID = 1L;
+
     private Map<String,Monitor> monitors = new LinkedHashMap<String,Monitor>();
     private Map<String,LabelCache> labels = new LinkedHashMap<String,LabelCache>();
 
@@ -42,6 +44,19 @@ public class MonitorCache extends ResourceCache<Monitor>
         super("Monitors");
     }
 
+    /**
+     * Returns a copy of this cache that shares the monitors,
+     * but has its own labels so that they can be replaced without changing this cache.
+     * @return The copy of this cache
+     */
+    public MonitorCache copy()
+    {
+        MonitorCache ret = new MonitorCache();
+        ret.monitors = monitors;
+        ret.labels.putAll(labels);
+        return ret;
+    }
+
     /**
      * Adds the monitor to the monitors for the account.
      * @param monitor The monitor to add
@@ -108,4 +123,25 @@ public class MonitorCache extends ResourceCache<Monitor>
             labels.put(monitorId, cache = new LabelCache(monitorId));
         return cache;
     }
+
+    /**
+     * Removes the labels for all the monitors.
+     */
+    public void clearLabels()
+    {
+        labels = new LinkedHashMap<String,LabelCache>();
+    }
+
+    /**
+     * Adds the labels of the given cache for any monitors that are also in this cache.
+     * @param cache The cache with the labels to add
+     */
+    public void addLabels(MonitorCache cache)
+    {
+        for(Map.Entry<String,LabelCache> entry : cache.labels.entrySet())
+        {
+            if(monitors.containsKey(entry.getKey()))
+                labels.put(entry.getKey(), entry.getValue());
+        }
+    }
 }
\ No newline at end of file
@@ -29,6 +29,8 @@ import com.opsmatters.newrelic.api.model.alerts.conditions.NrqlAlertCondition;
  */
 public class NrqlAlertConditionCache extends ResourceCache<NrqlAlertCondition>
 {
+    private static final long serialVersionUID = 1L;
+
     private long policyId;
     private Map<Long,NrqlAlertCondition> conditions = new LinkedHashMap<Long,NrqlAlertCondition>();
 
@@ -29,6 +29,8 @@ import com.opsmatters.newrelic.api.model.plugins.Plugin;
  */
 public class PluginCache extends ResourceCache<Plugin>
 {
+    private static final long serialVersionUID = 1L;
+
     private Map<Long,Plugin> plugins = new LinkedHashMap<Long,Plugin>();
     private Map<Long,PluginComponentCache> components = new LinkedHashMap<Long,PluginComponentCache>();
 
@@ -29,6 +29,8 @@ import com.opsmatters.newrelic.api.model.plugins.PluginComponent;
  */
 public class PluginComponentCache extends ResourceCache<PluginComponent>
 {
+    private static final long serialVersionUID = 1L;
+
     private long pluginId;
     private Map<Long,PluginComponent> components = new LinkedHashMap<Long,PluginComponent>();
 
@@ -29,6 +29,8 @@ import com.opsmatters.newrelic.api.model.alerts.conditions.PluginsAlertCondition
  */
 public class PluginsAlertConditionCache extends ResourceCache<PluginsAlertCondition>
 {
+    private static final long serialVersionUID = 1L;
+
     private long policyId;
     private Map<Long,PluginsAlertCondition> conditions = new LinkedHashMap<Long,PluginsAlertCondition>();
 
@@ -29,6 +29,8 @@ import com.opsmatters.newrelic.api.model.servers.Server;
  */
 public class ServerCache extends ResourceCache<Server>
 {
+    private static final long serialVersionUID = 1L;
+
     private Map<Long,Server> servers = new LinkedHashMap<Long,Server>();
 
     /**
@@ -29,6 +29,8 @@ import com.opsmatters.newrelic.api.model.alerts.conditions.SyntheticsAlertCondit
  */
 public class SyntheticsAlertConditionCache extends ResourceCache<SyntheticsAlertCondition>
 {
+    private static final long serialVersionUID = 1L;
+
     private long policyId;
     private Map<Long,SyntheticsAlertCondition> conditions = new LinkedHashMap<Long,SyntheticsAlertCondition>();
 
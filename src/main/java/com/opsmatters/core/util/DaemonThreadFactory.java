@@ -0,0 +1,51 @@
+/*
+ * Copyright 2018 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opsmatters.core.util;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Factory to create named daemon threads for background tasks.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class DaemonThreadFactory implements ThreadFactory
+{
+    private String name;
+    private int count = 0;
+
+    /**
+     * Constructor that takes the prefix for the thread names.
+     * @param name The prefix for the thread names
+     */
+    public DaemonThreadFactory(String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     * Returns a new daemon thread for the given runnable.
+     */
+    @Override
+    public synchronized Thread newThread(Runnable r)
+    {
+        Thread thread = new Thread(r, name+"-"+(++count));
+        thread.setDaemon(true);
+        return thread;
+    }
+}
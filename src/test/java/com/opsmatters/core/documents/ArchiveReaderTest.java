@@ -0,0 +1,324 @@
+/*
+ * Copyright 2018 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opsmatters.core.documents;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import java.util.logging.Logger;
+import org.junit.Test;
+import junit.framework.Assert;
+
+/**
+ * The set of tests used for the archive reader.
+ * 
+ * @author Gerald Curley (opsmatters)
+ */
+public class ArchiveReaderTest
+{
+    private static final Logger logger = Logger.getLogger(ArchiveReaderTest.class.getName());
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final String LONG_NAME = "reports/a-directory-name-that-is-long-enough/to-need-more-than-the-100-bytes"
+        +"/in-the-name-field-of-the-tar-header/gnu.csv";
+    private static final String PAX_NAME = "reports/another-directory-name-that-is-long-enough/to-need-more-than-the-100-bytes"
+        +"/in-the-name-field/pax.csv";
+
+    @Test
+    public void testTarFile() throws IOException
+    {
+        File file = File.createTempFile("archive-test-", ".tar");
+        try
+        {
+            OutputStream os = new FileOutputStream(file);
+            try
+            {
+                os.write(getTar());
+            }
+            finally
+            {
+                os.close();
+            }
+
+            assertTarEntries(read(new ArchiveReader(file)));
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testTarStream() throws IOException
+    {
+        ArchiveReader reader = new ArchiveReader("test.tar", new ByteArrayInputStream(getTar()));
+        reader.setParallelism(2);
+        assertTarEntries(read(reader));
+    }
+
+    @Test
+    public void testTarStreamSpilled() throws IOException
+    {
+        int files = countSpilledFiles();
+        ArchiveReader reader = new ArchiveReader("test.tar", new ByteArrayInputStream(getTar()));
+        reader.setMaxBufferedSize(16);
+        assertTarEntries(read(reader));
+        Assert.assertEquals(files, countSpilledFiles());
+    }
+
+    @Test
+    public void testZipStreamSpilled() throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ZipOutputStream zos = new ZipOutputStream(bytes);
+        zos.putNextEntry(new ZipEntry("data/"));
+        zos.closeEntry();
+        zos.putNextEntry(new ZipEntry("data/small.csv"));
+        zos.write(getCsv(1));
+        zos.closeEntry();
+        zos.putNextEntry(new ZipEntry("data/large.csv"));
+        zos.write(getCsv(5000));
+        zos.closeEntry();
+        zos.putNextEntry(new ZipEntry("data/notes.txt"));
+        zos.write("not an input file".getBytes(UTF8));
+        zos.closeEntry();
+        zos.close();
+
+        int files = countSpilledFiles();
+        ArchiveReader reader = new ArchiveReader("test.zip", new ByteArrayInputStream(bytes.toByteArray()));
+        reader.setMaxBufferedSize(1024);
+        Map<String,Integer> entries = read(reader);
+        Assert.assertEquals(2, entries.size());
+        Assert.assertEquals(Integer.valueOf(1), entries.get("data/small.csv"));
+        Assert.assertEquals(Integer.valueOf(5000), entries.get("data/large.csv"));
+        Assert.assertEquals(files, countSpilledFiles());
+    }
+
+    @Test
+    public void testTruncatedTar() throws IOException
+    {
+        byte[] tar = getTar();
+        ArchiveReader reader = new ArchiveReader("test.tar", new ByteArrayInputStream(Arrays.copyOf(tar, 700)));
+        try
+        {
+            read(reader);
+            Assert.fail("expected IOException");
+        }
+        catch(IOException e)
+        {
+        }
+    }
+
+    /**
+     * Checks the entries parsed from the tar archive.
+     */
+    private void assertTarEntries(Map<String,Integer> entries)
+    {
+        logger.info("Entries: "+entries);
+        Assert.assertEquals(5, entries.size());
+        Assert.assertEquals(Integer.valueOf(3), entries.get(LONG_NAME));
+        Assert.assertEquals(Integer.valueOf(4), entries.get(PAX_NAME));
+        Assert.assertEquals(Integer.valueOf(5), entries.get("some/prefix/ustar.csv"));
+        Assert.assertEquals(Integer.valueOf(200), entries.get("base256.csv"));
+        Assert.assertEquals(Integer.valueOf(0), entries.get("plain.csv"));
+    }
+
+    /**
+     * Returns a tar archive with long names in GNU and pax headers, a ustar prefix and a base-256 size,
+     * along with a directory and an entry that is not an input file.
+     */
+    private byte[] getTar() throws IOException
+    {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        writeTarEntry(os, "reports/", '5', new byte[0], false, null);
+        writeTarEntry(os, "reports/notes.txt", '0', "not an input file".getBytes(UTF8), false, null);
+
+        // GNU long name
+        writeTarEntry(os, "././@LongLink", 'L', (LONG_NAME+"\0").getBytes(UTF8), false, null);
+        writeTarEntry(os, LONG_NAME.substring(0, 100), '0', getCsv(3), false, null);
+
+        // pax extended header with a path
+        byte[] pax = (getPaxRecord("mtime", "1514764800.5")+getPaxRecord("path", PAX_NAME)).getBytes(UTF8);
+        writeTarEntry(os, "PaxHeaders/pax.csv", 'x', pax, false, null);
+        writeTarEntry(os, "pax.csv", '0', getCsv(4), false, null);
+
+        // ustar prefix
+        writeTarEntry(os, "ustar.csv", '0', getCsv(5), true, "some/prefix");
+
+        // base-256 size
+        writeTarEntry(os, "base256.csv", '0', getCsv(200), true, null, true);
+
+        // pax extended header without a path
+        writeTarEntry(os, "PaxHeaders/plain.csv", 'x', getPaxRecord("mtime", "1514764800").getBytes(UTF8), false, null);
+        writeTarEntry(os, "plain.csv", '7', getCsv(0), false, null);
+
+        os.write(new byte[1024]);
+        return os.toByteArray();
+    }
+
+    /**
+     * Writes a tar header and the padded data of the entry.
+     */
+    private void writeTarEntry(OutputStream os, String name, char type, byte[] data, boolean ustar, String prefix)
+        throws IOException
+    {
+        writeTarEntry(os, name, type, data, ustar, prefix, false);
+    }
+
+    /**
+     * Writes a tar header and the padded data of the entry, with the size in either octal or base-256.
+     */
+    private void writeTarEntry(OutputStream os, String name, char type, byte[] data, boolean ustar, String prefix,
+        boolean base256) throws IOException
+    {
+        byte[] header = new byte[512];
+        put(header, 0, name);
+        put(header, 100, "0000644");
+        put(header, 108, "0000000");
+        put(header, 116, "0000000");
+        if(base256)
+        {
+            header[124] = (byte)0x80;
+            long size = data.length;
+            for(int i = 135; i > 124; i--, size >>= 8)
+                header[i] = (byte)(size & 0xFF);
+        }
+        else
+        {
+            put(header, 124, String.format("%011o", data.length));
+        }
+        put(header, 136, "00000000000");
+        header[156] = (byte)type;
+        if(ustar)
+        {
+            put(header, 257, "ustar");
+            put(header, 263, "00");
+        }
+        if(prefix != null)
+            put(header, 345, prefix);
+
+        // The checksum is calculated with the checksum field as spaces
+        Arrays.fill(header, 148, 156, (byte)' ');
+        int checksum = 0;
+        for(byte b : header)
+            checksum += b & 0xFF;
+        put(header, 148, String.format("%06o", checksum));
+
+        os.write(header);
+        os.write(data);
+        os.write(new byte[(512-data.length%512)%512]);
+    }
+
+    /**
+     * Writes the given string into the header at the given offset.
+     */
+    private void put(byte[] header, int offset, String value)
+    {
+        byte[] b = value.getBytes(UTF8);
+        System.arraycopy(b, 0, header, offset, b.length);
+    }
+
+    /**
+     * Returns a pax record, where the length at the start includes itself.
+     */
+    private String getPaxRecord(String key, String value)
+    {
+        String record = " "+key+"="+value+"\n";
+        int len = record.getBytes(UTF8).length;
+        int digits = Integer.toString(len).length();
+        if(Integer.toString(len+digits).length() > digits)
+            ++digits;
+        return (len+digits)+record;
+    }
+
+    /**
+     * Returns the contents of a CSV file with the given number of data rows.
+     */
+    private byte[] getCsv(int rows)
+    {
+        StringBuilder ret = new StringBuilder("id,name,value\n");
+        for(int i = 0; i < rows; i++)
+            ret.append(i).append(",\"name ").append(i).append("\",").append(i*10).append("\n");
+        return ret.toString().getBytes(UTF8);
+    }
+
+    /**
+     * Returns the number of entries copied to temporary files that have not been deleted.
+     */
+    private int countSpilledFiles()
+    {
+        File dir = new File(System.getProperty("java.io.tmpdir"));
+        int ret = 0;
+        String[] names = dir.list();
+        for(String name : names)
+        {
+            if(name.startsWith("archive-") && name.endsWith(".tmp"))
+                ++ret;
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the number of data rows of each entry parsed from the archive.
+     */
+    private Map<String,Integer> read(ArchiveReader reader) throws IOException
+    {
+        final Map<String,Integer> ret = new TreeMap<String,Integer>();
+        reader.read(new ArchiveEntryHandler()
+        {
+            @Override
+            public RowHandler start(InputFileReader reader)
+            {
+                return new RowHandler()
+                {
+                    @Override
+                    public void headers(String[] headers)
+                    {
+                    }
+
+                    @Override
+                    public void row(int index, String[] row)
+                    {
+                    }
+                };
+            }
+
+            @Override
+            public void completed(InputFileReader reader, int rows, Exception error)
+            {
+                if(error != null)
+                    throw new IllegalStateException(error);
+                synchronized(ret)
+                {
+                    ret.put(reader.getName(), rows);
+                }
+            }
+        });
+        return ret;
+    }
+}
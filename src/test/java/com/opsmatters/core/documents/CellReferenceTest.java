@@ -0,0 +1,87 @@
+/*
+ * Copyright 2018 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opsmatters.core.documents;
+
+import org.junit.Test;
+import junit.framework.Assert;
+
+/**
+ * The set of tests used for cell references.
+ * 
+ * @author Gerald Curley (opsmatters)
+ */
+public class CellReferenceTest
+{
+    @Test
+    public void testColumnNames()
+    {
+        Assert.assertEquals("A", CellReference.getColumnName(0));
+        Assert.assertEquals("Z", CellReference.getColumnName(25));
+        Assert.assertEquals("AA", CellReference.getColumnName(26));
+        Assert.assertEquals("AZ", CellReference.getColumnName(51));
+        Assert.assertEquals("BA", CellReference.getColumnName(52));
+        Assert.assertEquals("ZZ", CellReference.getColumnName(701));
+        Assert.assertEquals("AAA", CellReference.getColumnName(702));
+        Assert.assertEquals("XFD", CellReference.getColumnName(CellReference.MAX_COLUMNS-1));
+    }
+
+    @Test
+    public void testColumnNamesOutOfRange()
+    {
+        try
+        {
+            CellReference.getColumnName(-1);
+            Assert.fail("Expected IllegalArgumentException");
+        }
+        catch(IllegalArgumentException e)
+        {
+        }
+
+        try
+        {
+            CellReference.getColumnName(CellReference.MAX_COLUMNS);
+            Assert.fail("Expected IllegalArgumentException");
+        }
+        catch(IllegalArgumentException e)
+        {
+        }
+    }
+
+    @Test
+    public void testColumnIndexes()
+    {
+        Assert.assertEquals(0, CellReference.getColumnIndex("A1"));
+        Assert.assertEquals(1, CellReference.getColumnIndex("B12"));
+        Assert.assertEquals(25, CellReference.getColumnIndex("Z3"));
+        Assert.assertEquals(26, CellReference.getColumnIndex("AA1"));
+        Assert.assertEquals(26, CellReference.getColumnIndex("aa1"));
+        Assert.assertEquals(702, CellReference.getColumnIndex("AAA10"));
+        Assert.assertEquals(CellReference.MAX_COLUMNS-1, CellReference.getColumnIndex("XFD1048576"));
+        Assert.assertEquals(1, CellReference.getColumnIndex("B"));
+        Assert.assertEquals(-1, CellReference.getColumnIndex("12"));
+        Assert.assertEquals(-1, CellReference.getColumnIndex(""));
+        Assert.assertEquals(-1, CellReference.getColumnIndex(null));
+    }
+
+    @Test
+    public void testRoundTrip()
+    {
+        for(int i = 0; i < CellReference.MAX_COLUMNS; i++)
+            Assert.assertEquals(i, CellReference.getColumnIndex(CellReference.getColumnName(i)+"1"));
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2018 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opsmatters.core.documents;
+
+import java.io.InputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Reader;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Logger;
+import org.junit.Test;
+import junit.framework.Assert;
+
+/**
+ * The set of tests used for the charset detector.
+ * 
+ * @author Gerald Curley (opsmatters)
+ */
+public class CharsetDetectorTest
+{
+    private static final Logger logger = Logger.getLogger(CharsetDetectorTest.class.getName());
+
+    private static final String TEXT = "name,value\r\n\"caf\u00e9\",\u20ac1\r\n";
+
+    @Test
+    public void testByteOrderMarks() throws IOException
+    {
+        assertDetected(StandardCharsets.UTF_8, bytes(new byte[]{(byte)0xEF, (byte)0xBB, (byte)0xBF}, StandardCharsets.UTF_8));
+        assertDetected(StandardCharsets.UTF_16LE, bytes(new byte[]{(byte)0xFF, (byte)0xFE}, StandardCharsets.UTF_16LE));
+        assertDetected(StandardCharsets.UTF_16BE, bytes(new byte[]{(byte)0xFE, (byte)0xFF}, StandardCharsets.UTF_16BE));
+    }
+
+    @Test
+    public void testWithoutByteOrderMark() throws IOException
+    {
+        assertDetected(StandardCharsets.UTF_8, bytes(new byte[0], StandardCharsets.UTF_8));
+        assertDetected(StandardCharsets.UTF_8, "plain,ascii\n".getBytes(StandardCharsets.US_ASCII));
+        assertDetected(StandardCharsets.UTF_16LE, bytes(new byte[0], StandardCharsets.UTF_16LE));
+        assertDetected(StandardCharsets.UTF_16BE, bytes(new byte[0], StandardCharsets.UTF_16BE));
+
+        // Text that is not valid UTF-8 uses the platform default charset
+        Charset charset = CharsetDetector.detect(new ByteArrayInputStream(TEXT.getBytes(StandardCharsets.ISO_8859_1)));
+        Assert.assertEquals(Charset.defaultCharset(), charset);
+    }
+
+    @Test
+    public void testSampleEndsMidSequence() throws IOException
+    {
+        // A multi-byte sequence cut off at the end of the sample is still UTF-8
+        StringBuilder text = new StringBuilder();
+        while(text.length() < CharsetDetector.SAMPLE_SIZE-1)
+            text.append('a');
+        text.append("\u20ac");
+        Charset charset = CharsetDetector.detect(new ByteArrayInputStream(text.toString().getBytes(StandardCharsets.UTF_8)));
+        Assert.assertEquals(StandardCharsets.UTF_8, charset);
+    }
+
+    @Test
+    public void testStreamWithoutMark() throws IOException
+    {
+        InputStream stream = new InputStream()
+        {
+            @Override
+            public int read()
+            {
+                return -1;
+            }
+        };
+
+        try
+        {
+            CharsetDetector.detect(stream);
+            Assert.fail("expected IllegalArgumentException");
+        }
+        catch(IllegalArgumentException e)
+        {
+        }
+    }
+
+    @Test
+    public void testGetReader() throws IOException
+    {
+        Assert.assertEquals(TEXT, read(CharsetDetector.getReader(new ByteArrayInputStream(
+            bytes(new byte[]{(byte)0xEF, (byte)0xBB, (byte)0xBF}, StandardCharsets.UTF_8)), null)));
+        Assert.assertEquals(TEXT, read(CharsetDetector.getReader(new ByteArrayInputStream(
+            bytes(new byte[]{(byte)0xFF, (byte)0xFE}, StandardCharsets.UTF_16LE)), null)));
+        String latin1 = "name,value\r\n\"caf\u00e9\",\u00a31\r\n";
+        Assert.assertEquals(latin1, read(CharsetDetector.getReader(new ByteArrayInputStream(
+            latin1.getBytes(StandardCharsets.ISO_8859_1)), StandardCharsets.ISO_8859_1)));
+        Assert.assertEquals(TEXT, read(CharsetDetector.getReader(new ByteArrayInputStream(
+            TEXT.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void testAsciiCompatible()
+    {
+        Assert.assertTrue(CharsetDetector.isAsciiCompatible(StandardCharsets.UTF_8));
+        Assert.assertTrue(CharsetDetector.isAsciiCompatible(StandardCharsets.ISO_8859_1));
+        Assert.assertFalse(CharsetDetector.isAsciiCompatible(StandardCharsets.UTF_16LE));
+        Assert.assertFalse(CharsetDetector.isAsciiCompatible(StandardCharsets.UTF_16BE));
+    }
+
+    /**
+     * Checks that the given bytes are detected as the given charset,
+     * and that the stream is left at the start of the text.
+     */
+    private void assertDetected(Charset expected, byte[] bytes) throws IOException
+    {
+        InputStream stream = new ByteArrayInputStream(bytes);
+        Charset charset = CharsetDetector.detect(stream);
+        Assert.assertEquals(expected, charset);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int b;
+        while((b = stream.read()) >= 0)
+            out.write(b);
+        String text = new String(out.toByteArray(), charset);
+        Assert.assertTrue(text, text.equals(TEXT) || text.equals("plain,ascii\n"));
+    }
+
+    /**
+     * Returns the text encoded with the given charset, after the given byte order mark.
+     */
+    private byte[] bytes(byte[] bom, Charset charset) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(bom);
+        out.write(TEXT.getBytes(charset));
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns the text read from the given reader.
+     */
+    private String read(Reader reader) throws IOException
+    {
+        StringBuilder ret = new StringBuilder();
+        try
+        {
+            char[] buffer = new char[7];
+            int n;
+            while((n = reader.read(buffer)) >= 0)
+                ret.append(buffer, 0, n);
+        }
+        finally
+        {
+            reader.close();
+        }
+        return ret.toString();
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2018 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opsmatters.core.documents;
+
+import java.io.StringReader;
+import java.io.IOException;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.logging.Logger;
+import org.junit.Test;
+import junit.framework.Assert;
+import com.opencsv.CSVReader;
+
+/**
+ * The set of tests used for the CSV tokenizer.
+ * 
+ * @author Gerald Curley (opsmatters)
+ */
+public class CsvTokenizerTest
+{
+    private static final Logger logger = Logger.getLogger(CsvTokenizerTest.class.getName());
+
+    @Test
+    public void testUnquotedFields() throws IOException
+    {
+        List<String[]> lines = tokenize("a,b,c\r\n1,,3\n\nx", false);
+        Assert.assertEquals(4, lines.size());
+        assertLine(lines.get(0), "a", "b", "c");
+        assertLine(lines.get(1), "1", "", "3");
+        assertLine(lines.get(2), "");
+        assertLine(lines.get(3), "x");
+    }
+
+    @Test
+    public void testQuotedFields() throws IOException
+    {
+        List<String[]> lines = tokenize("\"a,b\",\"line\nbreak\",\"\"\n\"say \"\"hi\"\"\",\"say \\\"hi\\\"\",\"a\\\\b\"", false);
+        Assert.assertEquals(2, lines.size());
+        assertLine(lines.get(0), "a,b", "line\nbreak", "");
+        assertLine(lines.get(1), "say \"hi\"", "say \"hi\"", "a\\b");
+    }
+
+    @Test
+    public void testTextAfterClosingQuote() throws IOException
+    {
+        List<String[]> lines = tokenize("a,\"x\"y,d\n\"x\",\"y\"\"\"z", false);
+        assertLine(lines.get(0), "a", "x\"y", "d");
+        assertLine(lines.get(1), "x", "y\"\"z");
+    }
+
+    @Test
+    public void testMidFieldQuotesAndBackslashes() throws IOException
+    {
+        List<String[]> lines = tokenize("a,b\"c,d\nC:\\path,\"C:\\path\"", false);
+        assertLine(lines.get(0), "a", "b\"c", "d");
+        assertLine(lines.get(1), "C:\\path", "C:\\path");
+    }
+
+    @Test
+    public void testTrim() throws IOException
+    {
+        List<String[]> lines = tokenize(" a , b\t,\" c \"", true);
+        assertLine(lines.get(0), "a", "b", "c");
+    }
+
+    @Test
+    public void testUnterminatedQuote() throws IOException
+    {
+        try
+        {
+            tokenize("a,b\n\"c,d\ne,f\n", false);
+            Assert.fail("Expected an exception for the unterminated quote");
+        }
+        catch(IOException e)
+        {
+        }
+
+        try
+        {
+            tokenize("a,\"b\\", false);
+            Assert.fail("Expected an exception for the unterminated quote");
+        }
+        catch(IOException e)
+        {
+        }
+    }
+
+    @Test
+    public void testLongFields() throws IOException
+    {
+        // Fields that cross the end of the read buffer
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i < 100000; i++)
+            sb.append((char)('a'+(i%26)));
+        String value = sb.toString();
+        List<String[]> lines = tokenize(value+",\""+value+"\"\"\"\n"+value, false);
+        Assert.assertEquals(2, lines.size());
+        assertLine(lines.get(0), value, value+"\"");
+        assertLine(lines.get(1), value);
+    }
+
+    @Test
+    public void testCompareWithOpenCsv() throws IOException
+    {
+        String testName = "CsvTokenizerCompareTest";
+        logger.info("Starting test: "+testName);
+
+        // Records where the two parsers are expected to give the same values
+        StringBuilder sb = new StringBuilder("id,name,description,amount,flag\n");
+        for(int i = 0; i < 100000; i++)
+        {
+            sb.append(i).append(",name").append(i).append(",");
+            if(i%4 == 0)
+                sb.append("\"quoted, with \"\"escapes\"\"\nand a line break\"");
+            else if(i%4 == 1)
+                sb.append("\"x\"y");
+            else
+                sb.append("plain text");
+            sb.append(",").append(i*1.5d).append(",").append(i%2 == 0).append("\n");
+        }
+        String contents = sb.toString();
+
+        long now = System.currentTimeMillis();
+        List<String[]> lines = tokenize(contents, false);
+        logger.info("CsvTokenizer read "+lines.size()+" lines in "+(System.currentTimeMillis()-now)+"ms");
+
+        now = System.currentTimeMillis();
+        List<String[]> expected = new ArrayList<String[]>();
+        CSVReader csv = new CSVReader(new StringReader(contents), ',');
+        String[] line;
+        while((line = csv.readNext()) != null)
+            expected.add(line);
+        csv.close();
+        logger.info("CSVReader read "+expected.size()+" lines in "+(System.currentTimeMillis()-now)+"ms");
+
+        Assert.assertEquals(expected.size(), lines.size());
+        for(int i = 0; i < lines.size(); i++)
+            Assert.assertTrue("Line "+i+" differs", Arrays.equals(expected.get(i), lines.get(i)));
+
+        logger.info("Completed test: "+testName);
+    }
+
+    private List<String[]> tokenize(String contents, boolean trim) throws IOException
+    {
+        List<String[]> ret = new ArrayList<String[]>();
+        CsvTokenizer csv = new CsvTokenizer(new StringReader(contents), ',');
+        csv.setTrim(trim);
+        String[] line;
+        while((line = csv.readNext()) != null)
+            ret.add(line);
+        csv.close();
+        return ret;
+    }
+
+    private void assertLine(String[] line, String... values)
+    {
+        Assert.assertEquals(Arrays.asList(values), Arrays.asList(line));
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2018 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opsmatters.core.documents;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.logging.Logger;
+import org.junit.Test;
+import junit.framework.Assert;
+
+/**
+ * The set of tests used for tailing a growing CSV file with the input file reader.
+ * 
+ * @author Gerald Curley (opsmatters)
+ */
+public class InputFileReaderTailTest
+{
+    private static final Logger logger = Logger.getLogger(InputFileReaderTailTest.class.getName());
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Test
+    public void testResumeFromCheckpoint() throws IOException
+    {
+        File file = File.createTempFile("tail-", ".csv");
+        try
+        {
+            append(file, "id,name\r\n1,a\r\n2,b\r\n", false);
+            InputFileReader reader = getReader(file, null);
+            RowRecorder rows = new RowRecorder();
+            Assert.assertEquals(2, reader.tail(rows));
+            rows.assertRows(0, "1,a", "2,b");
+
+            TailCheckpoint checkpoint = reader.getCheckpoint();
+            logger.info("Checkpoint: "+checkpoint);
+            Assert.assertEquals(file.length(), checkpoint.getOffset());
+            Assert.assertEquals(2, checkpoint.getRows());
+
+            // Nothing new to read
+            rows = new RowRecorder();
+            Assert.assertEquals(0, reader.tail(rows));
+            rows.assertRows(2);
+            Assert.assertEquals(file.length(), reader.getCheckpoint().getOffset());
+
+            // Resume from a checkpoint that was stored by the caller
+            append(file, "3,c\r\n4,d\r\n", true);
+            checkpoint = new TailCheckpoint(checkpoint.getOffset(), checkpoint.getHeaders(), checkpoint.getRows());
+            reader = getReader(file, checkpoint);
+            rows = new RowRecorder();
+            Assert.assertEquals(2, reader.tail(rows));
+            rows.assertRows(2, "3,c", "4,d");
+            Assert.assertEquals(file.length(), reader.getCheckpoint().getOffset());
+            Assert.assertEquals(4, reader.getCheckpoint().getRows());
+
+            // The list of new rows
+            append(file, "5,e\r\n", true);
+            List<String[]> list = reader.tail();
+            Assert.assertEquals(1, list.size());
+            Assert.assertEquals(Arrays.asList("5", "e"), Arrays.asList(list.get(0)));
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testPartialLastRecord() throws IOException
+    {
+        File file = File.createTempFile("tail-", ".csv");
+        try
+        {
+            // The last record is still being written
+            append(file, "id,name\n1,a\n2,b", false);
+            InputFileReader reader = getReader(file, null);
+            RowRecorder rows = new RowRecorder();
+            Assert.assertEquals(1, reader.tail(rows));
+            rows.assertRows(0, "1,a");
+            Assert.assertEquals("id,name\n1,a\n".length(), reader.getCheckpoint().getOffset());
+
+            // The rest of the record is read once it is complete
+            append(file, "c\n3,d", true);
+            rows = new RowRecorder();
+            Assert.assertEquals(1, reader.tail(rows));
+            rows.assertRows(1, "2,bc");
+
+            append(file, "\n", true);
+            rows = new RowRecorder();
+            Assert.assertEquals(1, reader.tail(rows));
+            rows.assertRows(2, "3,d");
+            Assert.assertEquals(file.length(), reader.getCheckpoint().getOffset());
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testHeadersKept() throws IOException
+    {
+        File file = File.createTempFile("tail-", ".csv");
+        try
+        {
+            // The header line is not complete
+            append(file, "id,na", false);
+            InputFileReader reader = getReader(file, null);
+            RowRecorder rows = new RowRecorder();
+            Assert.assertEquals(0, reader.tail(rows));
+            Assert.assertNull(rows.headers);
+            Assert.assertEquals(0L, reader.getCheckpoint().getOffset());
+            Assert.assertNull(reader.getCheckpoint().getHeaders());
+
+            // Only the header line
+            append(file, "me\n", true);
+            rows = new RowRecorder();
+            Assert.assertEquals(0, reader.tail(rows));
+            Assert.assertEquals(Arrays.asList("id", "name"), Arrays.asList(rows.headers));
+            Assert.assertEquals(file.length(), reader.getCheckpoint().getOffset());
+
+            // The headers are passed on every read, though the header line is not read again
+            append(file, "1,a\n", true);
+            rows = new RowRecorder();
+            Assert.assertEquals(1, reader.tail(rows));
+            Assert.assertEquals(Arrays.asList("id", "name"), Arrays.asList(rows.headers));
+            Assert.assertEquals(Arrays.asList("id", "name"), Arrays.asList(reader.getCheckpoint().getHeaders()));
+            rows.assertRows(0, "1,a");
+
+            append(file, "2,b\n", true);
+            rows = new RowRecorder();
+            Assert.assertEquals(1, reader.tail(rows));
+            Assert.assertEquals(Arrays.asList("id", "name"), Arrays.asList(rows.headers));
+            rows.assertRows(1, "2,b");
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testQuotedLineBreakAtEnd() throws IOException
+    {
+        File file = File.createTempFile("tail-", ".csv");
+        try
+        {
+            // The file ends with a line break inside a quoted field, so the last record is not complete
+            append(file, "id,name\n1,\"a\"\"b\"\n2,\"line\n", false);
+            InputFileReader reader = getReader(file, null);
+            RowRecorder rows = new RowRecorder();
+            Assert.assertEquals(1, reader.tail(rows));
+            rows.assertRows(0, "1,a\"b");
+            long offset = reader.getCheckpoint().getOffset();
+            Assert.assertEquals("id,name\n1,\"a\"\"b\"\n".length(), offset);
+
+            append(file, "break\"\n", true);
+            rows = new RowRecorder();
+            Assert.assertEquals(1, reader.tail(rows));
+            Assert.assertEquals(1, rows.rows.size());
+            Assert.assertEquals(Arrays.asList("2", "line\nbreak"), Arrays.asList(rows.rows.get(0)));
+            Assert.assertEquals(file.length(), reader.getCheckpoint().getOffset());
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testFileReplaced() throws IOException
+    {
+        File file = File.createTempFile("tail-", ".csv");
+        try
+        {
+            append(file, "id,name\n1,a\n2,b\n3,c\n", false);
+            InputFileReader reader = getReader(file, null);
+            Assert.assertEquals(3, reader.tail(new RowRecorder()));
+
+            // A shorter file is read from the start
+            append(file, "id,name\n9,z\n", false);
+            RowRecorder rows = new RowRecorder();
+            Assert.assertEquals(1, reader.tail(rows));
+            rows.assertRows(0, "9,z");
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    /**
+     * Returns a reader for the given file that resumes from the given checkpoint.
+     */
+    private InputFileReader getReader(File file, TailCheckpoint checkpoint)
+    {
+        return InputFileReader.builder()
+            .name(file.getName())
+            .withFile(file)
+            .charset(UTF8)
+            .checkpoint(checkpoint)
+            .build();
+    }
+
+    /**
+     * Writes the given text to the file, either appending it or replacing the contents of the file.
+     */
+    private void append(File file, String text, boolean append) throws IOException
+    {
+        OutputStream os = new FileOutputStream(file, append);
+        try
+        {
+            os.write(text.getBytes(UTF8));
+        }
+        finally
+        {
+            os.close();
+        }
+    }
+
+    /**
+     * Records the headers and rows passed to the handler.
+     */
+    private static class RowRecorder implements RowHandler
+    {
+        private String[] headers;
+        private List<Integer> indexes = new ArrayList<Integer>();
+        private List<String[]> rows = new ArrayList<String[]>();
+
+        @Override
+        public void headers(String[] headers)
+        {
+            this.headers = headers;
+        }
+
+        @Override
+        public void row(int index, String[] row)
+        {
+            indexes.add(index);
+            rows.add(row);
+        }
+
+        /**
+         * Checks that the rows match the given comma-separated values, numbered on from the given index.
+         */
+        void assertRows(int first, String... values)
+        {
+            Assert.assertEquals(values.length, rows.size());
+            for(int i = 0; i < values.length; i++)
+            {
+                Assert.assertEquals(Integer.valueOf(first+i), indexes.get(i));
+                Assert.assertEquals(Arrays.asList(values[i].split(",")), Arrays.asList(rows.get(i)));
+            }
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2018 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opsmatters.core.documents;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.BufferedOutputStream;
+import java.io.RandomAccessFile;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.logging.Logger;
+import org.junit.Test;
+import junit.framework.Assert;
+
+/**
+ * The set of tests used for the parallel CSV parser.
+ *
+ * @author Gerald Curley (opsmatters)
+ */
+public class ParallelCsvParserTest
+{
+    private static final Logger logger = Logger.getLogger(ParallelCsvParserTest.class.getName());
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Test
+    public void testQuotedLineBreaks() throws IOException
+    {
+        File file = File.createTempFile("parallel-", ".csv");
+        try
+        {
+            writeFile(file, 3000);
+            List<String[]> expected = parseSequential(file);
+            Assert.assertEquals(3001, expected.size());
+
+            ParallelCsvParser parser = new ParallelCsvParser(file);
+            parser.setCharset(UTF8);
+            parser.setParallelism(2);
+
+            // Check that at least one chunk would have been split inside a quoted field at the next line break
+            long[] boundaries = parser.getBoundaries();
+            long chunkSize = Math.max(ParallelCsvParser.MIN_CHUNK_SIZE, file.length()/8+1);
+            logger.info("Chunks: "+(boundaries.length-1)+" size="+file.length());
+            Assert.assertTrue(boundaries.length > 3);
+            Assert.assertTrue(hasQuotedBoundary(file, boundaries, chunkSize));
+
+            for(int parallelism = 1; parallelism <= 4; parallelism++)
+            {
+                parser.setParallelism(parallelism);
+                final List<String[]> lines = new ArrayList<String[]>();
+                int count = parser.parse(new RowHandler()
+                {
+                    @Override
+                    public void headers(String[] headers)
+                    {
+                    }
+
+                    @Override
+                    public void row(int index, String[] row)
+                    {
+                        Assert.assertEquals(lines.size(), index);
+                        lines.add(row);
+                    }
+                });
+
+                Assert.assertEquals(expected.size(), count);
+                Assert.assertEquals(expected.size(), lines.size());
+                for(int i = 0; i < expected.size(); i++)
+                    Assert.assertTrue("line "+i, Arrays.equals(expected.get(i), lines.get(i)));
+            }
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testEmptyFile() throws IOException
+    {
+        File file = File.createTempFile("parallel-", ".csv");
+        try
+        {
+            ParallelCsvParser parser = new ParallelCsvParser(file);
+            Assert.assertEquals(0, parser.parse(new RowHandler()
+            {
+                @Override
+                public void headers(String[] headers)
+                {
+                }
+
+                @Override
+                public void row(int index, String[] row)
+                {
+                    Assert.fail("unexpected row: "+index);
+                }
+            }));
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    /**
+     * Writes a file with the given number of records, each with a long quoted field containing line breaks.
+     */
+    private void writeFile(File file, int records) throws IOException
+    {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try
+        {
+            out.write("id,text,value\r\n".getBytes(UTF8));
+            for(int i = 0; i < records; i++)
+            {
+                StringBuilder text = new StringBuilder();
+                for(int j = 0; j < 40; j++)
+                {
+                    text.append("line ").append(j).append(" of record ").append(i)
+                        .append(", with \"\"quotes\"\" and caf\u00e9");
+                    text.append(j%2 == 0 ? "\n" : "\r\n");
+                }
+                String line = i+",\""+text+"\","+(i*3)+(i%5 == 0 ? "\n" : "\r\n");
+                out.write(line.getBytes(UTF8));
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Returns the lines of the given file parsed by a single tokenizer.
+     */
+    private List<String[]> parseSequential(File file) throws IOException
+    {
+        List<String[]> ret = new ArrayList<String[]>();
+        CsvTokenizer csv = new CsvTokenizer(new InputStreamReader(new FileInputStream(file), UTF8), ',');
+        try
+        {
+            String[] line;
+            while((line = csv.readNext()) != null)
+                ret.add(line);
+        }
+        finally
+        {
+            csv.close();
+        }
+        return ret;
+    }
+
+    /**
+     * Returns <CODE>true</CODE> if splitting any of the chunks at the first line break after its target size 
+     * would have split a quoted field.
+     */
+    private boolean hasQuotedBoundary(File file, long[] boundaries, long chunkSize) throws IOException
+    {
+        boolean ret = false;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try
+        {
+            for(int i = 1; i < boundaries.length-1; i++)
+            {
+                raf.seek(boundaries[i-1]+chunkSize-1);
+                int b;
+                while((b = raf.read()) >= 0 && b != '\n')
+                {
+                }
+                if(raf.getFilePointer() != boundaries[i])
+                    ret = true;
+            }
+        }
+        finally
+        {
+            raf.close();
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2018 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opsmatters.core.documents;
+
+import java.io.InputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Logger;
+import org.junit.Test;
+import junit.framework.Assert;
+
+/**
+ * The set of tests used for the UTF-8 reader.
+ * 
+ * @author Gerald Curley (opsmatters)
+ */
+public class Utf8ReaderTest
+{
+    private static final Logger logger = Logger.getLogger(Utf8ReaderTest.class.getName());
+
+    private static final String TEXT = "a,\"b\"\n\u00e9\u00fc,\u20ac\u4e2d\ud83d\ude00;end";
+
+    @Test
+    public void testValidSequences() throws IOException
+    {
+        byte[] bytes = TEXT.getBytes(StandardCharsets.UTF_8);
+        Assert.assertEquals(TEXT, read(new ByteArrayInputStream(bytes), false, 1024));
+
+        // Sequences split across reads of the stream, and surrogate pairs split across reads of the reader
+        Assert.assertEquals(TEXT, read(new SlowInputStream(new ByteArrayInputStream(bytes)), false, 1));
+        Assert.assertEquals(TEXT, read(new SlowInputStream(new ByteArrayInputStream(bytes)), false, 3));
+    }
+
+    @Test
+    public void testLongText() throws IOException
+    {
+        StringBuilder text = new StringBuilder();
+        while(text.length() < 200000)
+            text.append(TEXT);
+        byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+        Assert.assertEquals(text.toString(), read(new ByteArrayInputStream(bytes), false, 1000));
+    }
+
+    @Test
+    public void testInvalidSequences() throws IOException
+    {
+        // Unexpected continuation byte and invalid lead byte
+        Assert.assertEquals("a\ufffdb\ufffdc", decode("61 80 62 FF 63"));
+
+        // Sequence cut short by an ASCII byte, or by the end of the stream
+        Assert.assertEquals("\ufffda", decode("C3 61"));
+        Assert.assertEquals("a\ufffd", decode("61 E2 82"));
+    }
+
+    @Test
+    public void testOverlongSequences() throws IOException
+    {
+        // Overlong encodings of quote, comma and line feed must not add special characters
+        Assert.assertEquals("\ufffd", decode("C0 A2"));
+        Assert.assertEquals("\ufffd", decode("C0 AC"));
+        Assert.assertEquals("\ufffd", decode("E0 80 8A"));
+        Assert.assertEquals("\ufffd", decode("F0 80 80 A2"));
+        Assert.assertEquals("\ufffd", decode("E0 9F BF"));
+        Assert.assertEquals("\ufffd", decode("F0 8F BF BF"));
+
+        // The smallest code points for each length are valid
+        Assert.assertEquals("\u0080\u0800\ud800\udc00", decode("C2 80 E0 A0 80 F0 90 80 80"));
+    }
+
+    @Test
+    public void testInvalidCodePoints() throws IOException
+    {
+        // Surrogates
+        Assert.assertEquals("\ufffd", decode("ED A0 80"));
+        Assert.assertEquals("\ufffd", decode("ED BF BF"));
+        Assert.assertEquals("\ud7ff\ue000", decode("ED 9F BF EE 80 80"));
+
+        // Above U+10FFFF
+        Assert.assertEquals("\ufffd", decode("F4 90 80 80"));
+        Assert.assertEquals("\udbff\udfff", decode("F4 8F BF BF"));
+    }
+
+    @Test
+    public void testLatin1() throws IOException
+    {
+        String text = "a,\u00e9\u00ff\"";
+        byte[] bytes = text.getBytes(StandardCharsets.ISO_8859_1);
+        Assert.assertEquals(text, read(new ByteArrayInputStream(bytes), true, 2));
+    }
+
+    /**
+     * Returns the text decoded from the given hex bytes.
+     */
+    private String decode(String hex) throws IOException
+    {
+        String[] values = hex.split(" ");
+        byte[] bytes = new byte[values.length];
+        for(int i = 0; i < values.length; i++)
+            bytes[i] = (byte)Integer.parseInt(values[i], 16);
+        return read(new ByteArrayInputStream(bytes), false, 16);
+    }
+
+    /**
+     * Returns the text read from the given stream, reading the given number of characters at a time.
+     */
+    private String read(InputStream stream, boolean latin1, int size) throws IOException
+    {
+        StringBuilder ret = new StringBuilder();
+        Utf8Reader reader = new Utf8Reader(stream, latin1);
+        try
+        {
+            char[] buffer = new char[size];
+            int n;
+            while((n = reader.read(buffer, 0, buffer.length)) >= 0)
+                ret.append(buffer, 0, n);
+        }
+        finally
+        {
+            reader.close();
+        }
+        return ret.toString();
+    }
+
+    /**
+     * Stream that returns a single byte from each read.
+     */
+    private static class SlowInputStream extends FilterInputStream
+    {
+        SlowInputStream(InputStream in)
+        {
+            super(in);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            return super.read(b, off, Math.min(len, 1));
+        }
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright 2018 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opsmatters.core.documents;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TimeZone;
+import org.junit.Test;
+import junit.framework.Assert;
+import jxl.write.WritableWorkbook;
+import jxl.write.WritableSheet;
+import jxl.write.WritableCellFormat;
+import jxl.write.NumberFormat;
+import jxl.write.NumberFormats;
+import jxl.write.Label;
+import jxl.write.WriteException;
+
+/**
+ * The set of tests used for the XLS stream reader.
+ * 
+ * @author Gerald Curley (opsmatters)
+ */
+public class XlsStreamReaderTest
+{
+    private static final int SECTOR_SIZE = 512;
+    private static final int END_OF_CHAIN = -2;
+    private static final int FREE_SECTOR = -1;
+    private static final int FAT_SECTOR = -3;
+
+    @Test
+    public void testSharedStrings() throws IOException
+    {
+        // The second string is split across the SST and CONTINUE records, and changes to 16-bit characters
+        File file = createWorkbook(false);
+        XlsStreamReader reader = new XlsStreamReader(file);
+        try
+        {
+            Assert.assertEquals(Arrays.asList("Data"), Arrays.asList(reader.getSheetNames()));
+            Assert.assertEquals("First", reader.getSharedString(0));
+            Assert.assertEquals("Hello W\u00f6rld", reader.getSharedString(1));
+            Assert.assertEquals("Last", reader.getSharedString(2));
+        }
+        finally
+        {
+            reader.close();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testCells() throws IOException
+    {
+        File file = createWorkbook(false);
+        XlsStreamReader reader = new XlsStreamReader(file);
+        try
+        {
+            SimpleDateFormat df = getDateFormat();
+            XlsStreamReader.SheetReader sheet = reader.getSheet("Data");
+            Assert.assertNotNull(sheet);
+            assertRow(sheet.nextRow(df), "First", "Hello W\u00f6rld", "Last", "");
+            assertRow(sheet.nextRow(df), "42", "12.34", "1.5", "-7");
+            assertRow(sheet.nextRow(df), "TRUE", "FALSE", "#DIV/0!", "2009-07-06");
+            assertRow(sheet.nextRow(df), "", "5", "", "");
+            Assert.assertNull(sheet.nextRow(df));
+            Assert.assertEquals(4, sheet.getColumns());
+            sheet.close();
+        }
+        finally
+        {
+            reader.close();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testDates1904() throws IOException
+    {
+        // The same serial date is 1462 days later in the 1904 date system
+        File file = createWorkbook(true);
+        XlsStreamReader reader = new XlsStreamReader(file);
+        try
+        {
+            SimpleDateFormat df = getDateFormat();
+            XlsStreamReader.SheetReader sheet = reader.getSheet("Data");
+            sheet.nextRow(df);
+            sheet.nextRow(df);
+            assertRow(sheet.nextRow(df), "TRUE", "FALSE", "#DIV/0!", "2013-07-07");
+            sheet.close();
+        }
+        finally
+        {
+            reader.close();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testDateFormats()
+    {
+        Assert.assertTrue(XlsStreamReader.isDateFormat("yyyy-mm-dd"));
+        Assert.assertTrue(XlsStreamReader.isDateFormat("[h]:mm:ss"));
+        Assert.assertTrue(XlsStreamReader.isDateFormat("[$-409]d-mmm-yy"));
+        Assert.assertFalse(XlsStreamReader.isDateFormat("#,##0.00"));
+        Assert.assertFalse(XlsStreamReader.isDateFormat("[Magenta]0.00"));
+        Assert.assertFalse(XlsStreamReader.isDateFormat("0.00\" days\""));
+        Assert.assertFalse(XlsStreamReader.isDateFormat("0;[Red]\\-0"));
+    }
+
+    @Test
+    public void testFormattedNumbers() throws IOException, WriteException
+    {
+        File file = File.createTempFile("formats-", ".xls");
+        try
+        {
+            WritableWorkbook workbook = jxl.Workbook.createWorkbook(file);
+            WritableSheet sheet = workbook.createSheet("Data", 0);
+            sheet.addCell(new Label(0, 0, "percent"));
+            sheet.addCell(new Label(1, 0, "amount"));
+            sheet.addCell(new jxl.write.Number(0, 1, 0.45d, new WritableCellFormat(NumberFormats.PERCENT_INTEGER)));
+            sheet.addCell(new jxl.write.Number(1, 1, 1234.5d, new WritableCellFormat(new NumberFormat("#,##0.00"))));
+            workbook.write();
+            workbook.close();
+
+            // The whole workbook is loaded by default, giving the formatted cell contents
+            InputFileReader reader = InputFileReader.builder().name(file.getName()).withFile(file).worksheet("Data").build();
+            List<String[]> rows = reader.parse();
+            Assert.assertEquals(1, rows.size());
+            assertRow(rows.get(0), "45%", "1,234.50");
+
+            // The streamed rows give the numbers without their formatting
+            reader = InputFileReader.builder().name(file.getName()).withFile(file).worksheet("Data").streamXls(true).build();
+            rows = reader.parse();
+            Assert.assertEquals(1, rows.size());
+            assertRow(rows.get(0), "0.45", "1234.5");
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    private SimpleDateFormat getDateFormat()
+    {
+        SimpleDateFormat ret = new SimpleDateFormat("yyyy-MM-dd");
+        ret.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return ret;
+    }
+
+    /**
+     * Creates a compound file with a BIFF8 workbook stream containing a single worksheet.
+     */
+    private File createWorkbook(boolean date1904) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        // Workbook globals
+        addRecord(out, BiffReader.BOF, getBof(0x0005));
+        if(date1904)
+            addRecord(out, BiffReader.DATEMODE, buffer(2).putShort((short)1));
+        addRecord(out, BiffReader.FORMAT, buffer(13).putShort((short)164).putShort((short)8)
+            .put((byte)0).put("#,##0.00".getBytes("ISO-8859-1")));
+        addRecord(out, BiffReader.XF, getXf(0));
+        addRecord(out, BiffReader.XF, getXf(14));
+        addRecord(out, BiffReader.XF, getXf(164));
+        int boundsheet = out.size()+4;
+        addRecord(out, BiffReader.BOUNDSHEET, buffer(12).putInt(0).put((byte)0).put((byte)0)
+            .put((byte)4).put((byte)0).put("Data".getBytes("ISO-8859-1")));
+
+        // The SST record ends part way through the second string, and the CONTINUE record
+        //   starts again with the option flags as the rest of the string uses 16-bit characters
+        addRecord(out, BiffReader.SST, buffer(26).putInt(3).putInt(3)
+            .putShort((short)5).put((byte)0).put("First".getBytes("ISO-8859-1"))
+            .putShort((short)11).put((byte)0).put("Hello W".getBytes("ISO-8859-1")));
+        addRecord(out, BiffReader.CONTINUE, buffer(9).put((byte)1).put("\u00f6rld".getBytes("UTF-16LE")));
+        addRecord(out, BiffReader.CONTINUE, buffer(7).putShort((short)4).put((byte)0)
+            .put("Last".getBytes("ISO-8859-1")));
+        addRecord(out, BiffReader.EOF, buffer(0));
+
+        // Worksheet
+        int offset = out.size();
+        addRecord(out, BiffReader.BOF, getBof(0x0010));
+        addRecord(out, BiffReader.DIMENSIONS, buffer(14).putInt(0).putInt(4)
+            .putShort((short)0).putShort((short)4).putShort((short)0));
+        for(int i = 0; i < 3; i++)
+            addRecord(out, BiffReader.LABELSST, getCell(0, i, 0, 10).putInt(i));
+        addRecord(out, BiffReader.RK, getCell(1, 0, 0, 10).putInt((42 << 2) | 0x02));
+        addRecord(out, BiffReader.RK, getCell(1, 1, 0, 10).putInt((1234 << 2) | 0x03));
+        addRecord(out, BiffReader.MULRK, buffer(18).putShort((short)1).putShort((short)2)
+            .putShort((short)2).putInt((int)(Double.doubleToLongBits(1.5d) >>> 32))
+            .putShort((short)0).putInt((-7 << 2) | 0x02).putShort((short)3));
+        addRecord(out, BiffReader.BOOLERR, getCell(2, 0, 0, 8).put((byte)1).put((byte)0));
+        addRecord(out, BiffReader.BOOLERR, getCell(2, 1, 0, 8).put((byte)0).put((byte)0));
+        addRecord(out, BiffReader.BOOLERR, getCell(2, 2, 0, 8).put((byte)0x07).put((byte)1));
+        addRecord(out, BiffReader.NUMBER, getCell(2, 3, 1, 14).putDouble(40000.0d));
+        addRecord(out, BiffReader.RK, getCell(3, 1, 2, 10).putInt((5 << 2) | 0x02));
+        addRecord(out, BiffReader.EOF, buffer(0));
+
+        byte[] stream = Arrays.copyOf(out.toByteArray(), 4096); // too large for the mini stream
+        ByteBuffer.wrap(stream).order(ByteOrder.LITTLE_ENDIAN).putInt(boundsheet, offset);
+        return createCompoundFile("Workbook", stream);
+    }
+
+    private ByteBuffer getBof(int type)
+    {
+        return buffer(16).putShort((short)BiffReader.BIFF8).putShort((short)type);
+    }
+
+    private ByteBuffer getXf(int format)
+    {
+        return buffer(20).putShort((short)0).putShort((short)format);
+    }
+
+    private ByteBuffer getCell(int row, int column, int xf, int length)
+    {
+        return buffer(length).putShort((short)row).putShort((short)column).putShort((short)xf);
+    }
+
+    private ByteBuffer buffer(int length)
+    {
+        return ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void addRecord(ByteArrayOutputStream out, int sid, ByteBuffer data)
+    {
+        ByteBuffer header = buffer(4).putShort((short)sid).putShort((short)data.capacity());
+        out.write(header.array(), 0, 4);
+        out.write(data.array(), 0, data.capacity());
+    }
+
+    /**
+     * Creates a compound file with a single stream, with the allocation table in sector 0,
+     * the directory in sector 1, and the stream in the sectors that follow.
+     */
+    private File createCompoundFile(String name, byte[] stream) throws IOException
+    {
+        int sectors = stream.length/SECTOR_SIZE;
+
+        ByteBuffer header = buffer(SECTOR_SIZE);
+        header.putLong(0xE11AB1A1E011CFD0L).position(0x18);
+        header.putShort((short)0x003E).putShort((short)3).putShort((short)0xFFFE)
+            .putShort((short)9).putShort((short)6);
+        header.position(0x2C);
+        header.putInt(1).putInt(1).putInt(0).putInt(4096).putInt(END_OF_CHAIN).putInt(0)
+            .putInt(END_OF_CHAIN).putInt(0).putInt(0);
+        while(header.hasRemaining())
+            header.putInt(FREE_SECTOR);
+
+        ByteBuffer fat = buffer(SECTOR_SIZE);
+        fat.putInt(FAT_SECTOR).putInt(END_OF_CHAIN);
+        for(int i = 1; i < sectors; i++)
+            fat.putInt(i+2);
+        fat.putInt(END_OF_CHAIN);
+        while(fat.hasRemaining())
+            fat.putInt(FREE_SECTOR);
+
+        ByteBuffer directory = buffer(SECTOR_SIZE);
+        putEntry(directory, 0, "Root Entry", 5, 1, END_OF_CHAIN, 0);
+        putEntry(directory, 128, name, 2, FREE_SECTOR, 2, stream.length);
+
+        File ret = File.createTempFile("xls-test-", ".xls");
+        ret.deleteOnExit();
+        FileOutputStream fos = new FileOutputStream(ret);
+        try
+        {
+            fos.write(header.array());
+            fos.write(fat.array());
+            fos.write(directory.array());
+            fos.write(stream);
+        }
+        finally
+        {
+            fos.close();
+        }
+        return ret;
+    }
+
+    private void putEntry(ByteBuffer directory, int offset, String name, int type, int child, int start, int size)
+        throws IOException
+    {
+        byte[] chars = name.getBytes("UTF-16LE");
+        directory.position(offset);
+        directory.put(chars);
+        directory.position(offset+0x40);
+        directory.putShort((short)(chars.length+2)).put((byte)type).put((byte)1)
+            .putInt(FREE_SECTOR).putInt(FREE_SECTOR).putInt(child);
+        directory.position(offset+0x74);
+        directory.putInt(start).putInt(size);
+    }
+
+    private void assertRow(String[] row, String... values)
+    {
+        Assert.assertNotNull(row);
+        Assert.assertEquals(Arrays.asList(values), Arrays.asList(row));
+    }
+}
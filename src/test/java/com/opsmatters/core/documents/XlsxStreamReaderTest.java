@@ -0,0 +1,122 @@
+/*
+ * Copyright 2018 Gerald Curley
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.opsmatters.core.documents;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.TimeZone;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.Test;
+import junit.framework.Assert;
+
+/**
+ * The set of tests used for the XLSX stream reader.
+ * 
+ * @author Gerald Curley (opsmatters)
+ */
+public class XlsxStreamReaderTest
+{
+    private static final String RELATIONSHIPS_URI = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+
+    @Test
+    public void testDateStyles()
+    {
+        Map<Long,String> codes = new HashMap<Long,String>();
+        codes.put(164L, "yyyy-mm-dd");
+        codes.put(165L, "dd/mm/yyyy h:mm");
+        codes.put(166L, "#,##0.00");
+
+        // Only custom formats with "h:mm" are dates in an XLSX workbook
+        Assert.assertTrue(XlsxStreamReader.isDateTime(14L, codes));
+        Assert.assertTrue(XlsxStreamReader.isDateTime(22L, codes));
+        Assert.assertTrue(XlsxStreamReader.isDateTime(47L, codes));
+        Assert.assertFalse(XlsxStreamReader.isDateTime(2L, codes));
+        Assert.assertFalse(XlsxStreamReader.isDateTime(164L, codes));
+        Assert.assertTrue(XlsxStreamReader.isDateTime(165L, codes));
+        Assert.assertFalse(XlsxStreamReader.isDateTime(166L, codes));
+        Assert.assertFalse(XlsxStreamReader.isDateTime(167L, codes));
+    }
+
+    @Test
+    public void testRelationshipPaths() throws IOException
+    {
+        // The shared strings and styles parts are not in their usual locations
+        File file = File.createTempFile("xlsx-test-", ".xlsx");
+        file.deleteOnExit();
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(file));
+        try
+        {
+            addEntry(zos, "xl/workbook.xml", "<workbook xmlns:r=\""+RELATIONSHIPS_URI+"\">"
+                +"<sheets><sheet name=\"Data\" sheetId=\"1\" r:id=\"rId1\"/></sheets></workbook>");
+            addEntry(zos, "xl/_rels/workbook.xml.rels", "<Relationships>"
+                +"<Relationship Id=\"rId1\" Type=\""+RELATIONSHIPS_URI+"/worksheet\" Target=\"sheets/data.xml\"/>"
+                +"<Relationship Id=\"rId2\" Type=\""+RELATIONSHIPS_URI+"/sharedStrings\" Target=\"/xl/strings/shared.xml\"/>"
+                +"<Relationship Id=\"rId3\" Type=\""+RELATIONSHIPS_URI+"/styles\" Target=\"theme/custom-styles.xml\"/>"
+                +"</Relationships>");
+            addEntry(zos, "xl/strings/shared.xml", "<sst><si><t>name</t></si><si><t>when</t></si><si><t>first</t></si></sst>");
+            addEntry(zos, "xl/theme/custom-styles.xml", "<styleSheet>"
+                +"<numFmts><numFmt numFmtId=\"164\" formatCode=\"yyyy-mm-dd h:mm\"/></numFmts>"
+                +"<cellXfs><xf numFmtId=\"0\"/><xf numFmtId=\"164\"/></cellXfs></styleSheet>");
+            addEntry(zos, "xl/sheets/data.xml", "<worksheet><sheetData>"
+                +"<row r=\"1\"><c r=\"A1\" t=\"s\"><v>0</v></c><c r=\"B1\" t=\"s\"><v>1</v></c></row>"
+                +"<row r=\"2\"><c r=\"A2\" t=\"s\"><v>2</v></c><c r=\"B2\" s=\"1\"><v>43101.5</v></c></row>"
+                +"</sheetData></worksheet>");
+        }
+        finally
+        {
+            zos.close();
+        }
+
+        SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+        df.setTimeZone(TimeZone.getTimeZone("UTC"));
+        XlsxStreamReader reader = new XlsxStreamReader(file);
+        try
+        {
+            XlsxStreamReader.SheetReader sheet = reader.getSheet("Data");
+            Assert.assertNotNull(sheet);
+            assertRow(sheet.nextRow(df), "name", "when");
+            assertRow(sheet.nextRow(df), "first", "2018-01-01 12:00");
+            Assert.assertNull(sheet.nextRow(df));
+            sheet.close();
+        }
+        finally
+        {
+            reader.close();
+            file.delete();
+        }
+    }
+
+    private void addEntry(ZipOutputStream zos, String name, String contents) throws IOException
+    {
+        zos.putNextEntry(new ZipEntry(name));
+        zos.write(contents.getBytes("UTF-8"));
+        zos.closeEntry();
+    }
+
+    private void assertRow(String[] row, String... values)
+    {
+        Assert.assertNotNull(row);
+        Assert.assertEquals(Arrays.asList(values), Arrays.asList(row));
+    }
+}